@@ -15,8 +15,12 @@
 package g3deditor;
 
 import g3deditor.jogl.GLCellRenderSelector;
+import g3deditor.jogl.GLTerrain.TerrainDetailLevel;
+import g3deditor.jogl.GLTerrainLod;
+import g3deditor.jogl.GLTerrainTextureLoader;
 import g3deditor.jogl.renderer.DLLoDRenderer;
 import g3deditor.jogl.renderer.VBOGLSLRenderer;
+import g3deditor.util.ForkJoinTaskExecutor;
 
 import java.awt.Color;
 import java.io.File;
@@ -68,6 +72,11 @@ public final class Config
 	
 	public static String PATH_TO_GEO_FILES				= "./data/geodata/";
 	public static boolean TERRAIN_DEFAULT_ON			= false;
+	public static String TERRAIN_DETAIL_LEVEL			= TerrainDetailLevel.HIGH.toString();
+	public static int TERRAIN_LOD_DISTANCE				= 256;
+	public static int TERRAIN_TEXTURE_SIZE				= 512;
+	public static int TERRAIN_TEXTURE_CACHE_SIZE		= 32;
+	public static int TERRAIN_TEXTURE_UPLOAD_SIZE		= 256;
 	public static int VIS_GRID_RANGE					= GLCellRenderSelector.MIN_VIS_GRID_RANGE;
 	public static String LOOK_AND_FEEL					= "com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel";
 	public static String CELL_RENDERER					= VBOGLSLRenderer.NAME;
@@ -76,6 +85,12 @@ public final class Config
 	public static boolean USE_TRANSPARENCY				= true;
 	public static boolean USE_MULTITHREADING			= Runtime.getRuntime().availableProcessors() > 1;
 	public static boolean DRAW_OUTLINE					= false;
+	public static boolean USE_MEMORY_MAPPED_GEO			= true;
+	public static int GEO_REGION_CACHE_SIZE				= 512;
+	public static boolean PREFETCH_NEIGHBOUR_REGIONS	= true;
+	public static int UNDO_MEMORY_SIZE					= 32;
+	public static boolean USE_HIERARCHICAL_CULLING		= true;
+	public static String TASK_EXECUTOR					= ForkJoinTaskExecutor.NAME;
 	
 	public static int COLOR_GUI_SELECTED				= DEFAULT_COLOR_GUI_SELECTED;
 	public static int COLOR_FLAT_NORMAL					= DEFAULT_COLOR_FLAT_NORMAL;
@@ -140,6 +155,11 @@ public final class Config
 				
 				PATH_TO_GEO_FILES		= PROPERTIES.getProperty("PATH_TO_GEO_FILES", PATH_TO_GEO_FILES);
 				TERRAIN_DEFAULT_ON		= Boolean.parseBoolean(PROPERTIES.getProperty("TERRAIN_DEFAULT_ON", String.valueOf(TERRAIN_DEFAULT_ON)));
+				TERRAIN_DETAIL_LEVEL	= PROPERTIES.getProperty("TERRAIN_DETAIL_LEVEL", TERRAIN_DETAIL_LEVEL);
+				TERRAIN_LOD_DISTANCE	= Integer.parseInt(PROPERTIES.getProperty("TERRAIN_LOD_DISTANCE", String.valueOf(TERRAIN_LOD_DISTANCE)));
+				TERRAIN_TEXTURE_SIZE	= Integer.parseInt(PROPERTIES.getProperty("TERRAIN_TEXTURE_SIZE", String.valueOf(TERRAIN_TEXTURE_SIZE)));
+				TERRAIN_TEXTURE_CACHE_SIZE	= Integer.parseInt(PROPERTIES.getProperty("TERRAIN_TEXTURE_CACHE_SIZE", String.valueOf(TERRAIN_TEXTURE_CACHE_SIZE)));
+				TERRAIN_TEXTURE_UPLOAD_SIZE	= Integer.parseInt(PROPERTIES.getProperty("TERRAIN_TEXTURE_UPLOAD_SIZE", String.valueOf(TERRAIN_TEXTURE_UPLOAD_SIZE)));
 				VIS_GRID_RANGE			= Integer.parseInt(PROPERTIES.getProperty("VIS_GRID_RANGE", String.valueOf(VIS_GRID_RANGE)));
 				LOOK_AND_FEEL			= PROPERTIES.getProperty("LOOK_AND_FEEL", LOOK_AND_FEEL);
 				CELL_RENDERER			= PROPERTIES.getProperty("CELL_RENDERER", VBOGLSLRenderer.NAME);
@@ -148,6 +168,12 @@ public final class Config
 				USE_TRANSPARENCY		= Boolean.parseBoolean(PROPERTIES.getProperty("USE_TRANSPARENCY", String.valueOf(USE_TRANSPARENCY)));
 				USE_MULTITHREADING		= Boolean.parseBoolean(PROPERTIES.getProperty("USE_MULTITHREADING", String.valueOf(USE_MULTITHREADING)));
 				DRAW_OUTLINE			= Boolean.parseBoolean(PROPERTIES.getProperty("DRAW_OUTLINE", String.valueOf(DRAW_OUTLINE)));
+				USE_MEMORY_MAPPED_GEO	= Boolean.parseBoolean(PROPERTIES.getProperty("USE_MEMORY_MAPPED_GEO", String.valueOf(USE_MEMORY_MAPPED_GEO)));
+				GEO_REGION_CACHE_SIZE	= Integer.parseInt(PROPERTIES.getProperty("GEO_REGION_CACHE_SIZE", String.valueOf(GEO_REGION_CACHE_SIZE)));
+				PREFETCH_NEIGHBOUR_REGIONS	= Boolean.parseBoolean(PROPERTIES.getProperty("PREFETCH_NEIGHBOUR_REGIONS", String.valueOf(PREFETCH_NEIGHBOUR_REGIONS)));
+				UNDO_MEMORY_SIZE		= Integer.parseInt(PROPERTIES.getProperty("UNDO_MEMORY_SIZE", String.valueOf(UNDO_MEMORY_SIZE)));
+				USE_HIERARCHICAL_CULLING	= Boolean.parseBoolean(PROPERTIES.getProperty("USE_HIERARCHICAL_CULLING", String.valueOf(USE_HIERARCHICAL_CULLING)));
+				TASK_EXECUTOR			= PROPERTIES.getProperty("TASK_EXECUTOR", TASK_EXECUTOR);
 				
 				COLOR_FLAT_NORMAL				= Integer.parseInt(PROPERTIES.getProperty("COLOR_FLAT_NORMAL", String.valueOf(COLOR_FLAT_NORMAL)));
 				COLOR_FLAT_HIGHLIGHTED			= Integer.parseInt(PROPERTIES.getProperty("COLOR_FLAT_HIGHLIGHTED", String.valueOf(COLOR_FLAT_HIGHLIGHTED)));
@@ -203,6 +229,55 @@ public final class Config
 			VIS_GRID_RANGE = GLCellRenderSelector.MAX_VIS_GRID_RANGE;
 		}
 		
+		if (GEO_REGION_CACHE_SIZE < 0)
+		{
+			GEO_REGION_CACHE_SIZE = 0;
+		}
+		
+		if (UNDO_MEMORY_SIZE < 0)
+		{
+			UNDO_MEMORY_SIZE = 0;
+		}
+		
+		try
+		{
+			TerrainDetailLevel.valueOf(TERRAIN_DETAIL_LEVEL);
+		}
+		catch (final IllegalArgumentException e)
+		{
+			TERRAIN_DETAIL_LEVEL = TerrainDetailLevel.HIGH.toString();
+		}
+		
+		if (TERRAIN_LOD_DISTANCE < GLTerrainLod.MIN_LOD_DISTANCE)
+		{
+			TERRAIN_LOD_DISTANCE = GLTerrainLod.MIN_LOD_DISTANCE;
+		}
+		else if (TERRAIN_LOD_DISTANCE > GLTerrainLod.MAX_LOD_DISTANCE)
+		{
+			TERRAIN_LOD_DISTANCE = GLTerrainLod.MAX_LOD_DISTANCE;
+		}
+		
+		if (TERRAIN_TEXTURE_SIZE < GLTerrainTextureLoader.MIN_TEXTURE_SIZE)
+		{
+			TERRAIN_TEXTURE_SIZE = GLTerrainTextureLoader.MIN_TEXTURE_SIZE;
+		}
+		else if (TERRAIN_TEXTURE_SIZE > GLTerrainTextureLoader.MAX_TEXTURE_SIZE)
+		{
+			TERRAIN_TEXTURE_SIZE = GLTerrainTextureLoader.MAX_TEXTURE_SIZE;
+		}
+		// the textures stay a power of two
+		TERRAIN_TEXTURE_SIZE = Integer.highestOneBit(TERRAIN_TEXTURE_SIZE);
+		
+		if (TERRAIN_TEXTURE_CACHE_SIZE < 0)
+		{
+			TERRAIN_TEXTURE_CACHE_SIZE = 0;
+		}
+		
+		if (TERRAIN_TEXTURE_UPLOAD_SIZE < 0)
+		{
+			TERRAIN_TEXTURE_UPLOAD_SIZE = 0;
+		}
+		
 		if (DLLoD_RANGE < DLLoDRenderer.MIN_DISTANCE_SQ)
 		{
 			DLLoD_RANGE = DLLoDRenderer.MIN_DISTANCE_SQ;
@@ -218,6 +293,11 @@ public final class Config
 		PROPERTIES.clear();
 		PROPERTIES.put("PATH_TO_GEO_FILES", String.valueOf(PATH_TO_GEO_FILES));
 		PROPERTIES.put("TERRAIN_DEFAULT_ON", String.valueOf(TERRAIN_DEFAULT_ON));
+		PROPERTIES.put("TERRAIN_DETAIL_LEVEL", String.valueOf(TERRAIN_DETAIL_LEVEL));
+		PROPERTIES.put("TERRAIN_LOD_DISTANCE", String.valueOf(TERRAIN_LOD_DISTANCE));
+		PROPERTIES.put("TERRAIN_TEXTURE_SIZE", String.valueOf(TERRAIN_TEXTURE_SIZE));
+		PROPERTIES.put("TERRAIN_TEXTURE_CACHE_SIZE", String.valueOf(TERRAIN_TEXTURE_CACHE_SIZE));
+		PROPERTIES.put("TERRAIN_TEXTURE_UPLOAD_SIZE", String.valueOf(TERRAIN_TEXTURE_UPLOAD_SIZE));
 		PROPERTIES.put("VIS_GRID_RANGE", String.valueOf(VIS_GRID_RANGE));
 		PROPERTIES.put("LOOK_AND_FEEL", String.valueOf(LOOK_AND_FEEL));
 		PROPERTIES.put("CELL_RENDERER", String.valueOf(CELL_RENDERER));
@@ -226,6 +306,12 @@ public final class Config
 		PROPERTIES.put("USE_TRANSPARENCY", String.valueOf(USE_TRANSPARENCY));
 		PROPERTIES.put("USE_MULTITHREADING", String.valueOf(USE_MULTITHREADING));
 		PROPERTIES.put("DRAW_OUTLINE", String.valueOf(DRAW_OUTLINE));
+		PROPERTIES.put("USE_MEMORY_MAPPED_GEO", String.valueOf(USE_MEMORY_MAPPED_GEO));
+		PROPERTIES.put("GEO_REGION_CACHE_SIZE", String.valueOf(GEO_REGION_CACHE_SIZE));
+		PROPERTIES.put("PREFETCH_NEIGHBOUR_REGIONS", String.valueOf(PREFETCH_NEIGHBOUR_REGIONS));
+		PROPERTIES.put("UNDO_MEMORY_SIZE", String.valueOf(UNDO_MEMORY_SIZE));
+		PROPERTIES.put("USE_HIERARCHICAL_CULLING", String.valueOf(USE_HIERARCHICAL_CULLING));
+		PROPERTIES.put("TASK_EXECUTOR", String.valueOf(TASK_EXECUTOR));
 		
 		PROPERTIES.put("COLOR_FLAT_NORMAL", String.valueOf(COLOR_FLAT_NORMAL));
 		PROPERTIES.put("COLOR_FLAT_HIGHLIGHTED", String.valueOf(COLOR_FLAT_HIGHLIGHTED));
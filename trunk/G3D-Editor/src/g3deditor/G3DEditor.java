@@ -17,6 +17,7 @@ package g3deditor;
 import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoEngine;
 import g3deditor.jogl.GLDisplay;
+import g3deditor.jogl.GLTerrainTextureLoader;
 import g3deditor.swing.FrameMain;
 import g3deditor.swing.Splash;
 import g3deditor.swing.Splash.CheckedRunnable;
@@ -64,6 +65,7 @@ public final class G3DEditor
 				
 				GeoEngine.init();
 				GeoBlockSelector.init();
+				GLTerrainTextureLoader.init();
 				
 				GLProfile.initSingleton(true);
 				GLCapabilities caps = new GLCapabilities(GLProfile.getDefault());
@@ -58,6 +58,27 @@ public abstract class GeoBlock implements Cloneable
 		return _region;
 	}
 	
+	/**
+	 * Has to be called after each modification of this block or one of its cells, to keep the modified state of the region up to date.
+	 */
+	public final void onDataChanged()
+	{
+		final GeoRegion region = _region;
+		if (region != null)
+			region.onBlockChanged(this);
+	}
+	
+	/**
+	 * Has to be called by the cells before they change the data of this block, so the region can journal the data from before the edit.
+	 * 
+	 * @return True if the region is inside an edit, layer order, min/max height and modified state are then updated by the region once the edit ends
+	 */
+	public final boolean deferUpdate()
+	{
+		final GeoRegion region = _region;
+		return region != null && region.deferUpdate(this);
+	}
+	
 	public final int getBlockX()
 	{
 		return GeoEngine.getBlockXY(_geoX);
@@ -133,8 +154,37 @@ public abstract class GeoBlock implements Cloneable
 	
 	public abstract boolean dataEquals(final GeoReader reader);
 	
+	/**
+	 * Returns the cells of this block. The cells are views on the height data of this block, they are created on first access and stay valid until {@link #releaseCells()} or {@link #unload()}.
+	 * 
+	 * @return The cells of this block
+	 */
 	public abstract GeoCell[] getCells();
 	
+	/**
+	 * Drops the cell views of this block, as long as none of them is selected or highlighted.
+	 */
+	public abstract void releaseCells();
+	
+	/**
+	 * @param index The index of the height in the data of this block
+	 * @return The height and NSWE at the given index
+	 */
+	public abstract short getHeightAndNSWE(final int index);
+	
+	/**
+	 * Stores the given height and NSWE at the given index, without any further update of this block.
+	 * 
+	 * @param index The index of the height in the data of this block
+	 * @param heightAndNSWE The height and NSWE to store
+	 */
+	public abstract void setHeightAndNSWE(final int index, final short heightAndNSWE);
+	
+	/**
+	 * Same as nGetCellByLayer(geoX, geoY, layer).getHeightAndNSWE(), but without creating the cell views.
+	 */
+	public abstract short nGetHeightAndNSWE(final int geoX, final int geoY, final int layer);
+	
 	public abstract short getMinHeight();
 	
 	public abstract short getMaxHeight();
@@ -143,5 +193,16 @@ public abstract class GeoBlock implements Cloneable
 	
 	public abstract void updateLayerFor(final GeoCell cell);
 	
+	/**
+	 * Sorts the layers and recalculates the min/max height after cells were changed inside an edit of the region.
+	 * 
+	 * @return True if the min or max height changed
+	 */
+	public abstract boolean updateAfterEdit();
+	
+	/**
+	 * Drops the data and the cell views of this block.<br>
+	 * Only for a block nothing else holds anymore, a block replaced in its region is just dropped from the region and left to the GC.
+	 */
 	public abstract void unload();
 }
\ No newline at end of file
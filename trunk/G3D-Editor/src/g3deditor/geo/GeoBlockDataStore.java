@@ -0,0 +1,298 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+import g3deditor.util.GeoByteBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the encoded data of all blocks of a region in compressed tiles of 16x16 blocks.<br>
+ * A tile is inflated on access, the last inflated tiles are kept in a small LRU cache.<br>
+ * The store starts with the data as read, the tiles are compressed later by {@link #compress()}, each one replaces its raw data once it is done.<br>
+ * The data is never modified after the store was created.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoBlockDataStore
+{
+	private static final int TILE_SHIFT = 4;
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int TILES = GeoEngine.GEO_REGION_SIZE >> TILE_SHIFT;
+	private static final int CACHED_TILES = 32;
+	
+	private static final int getTile(final int blockX, final int blockY)
+	{
+		return (blockX >> TILE_SHIFT) * TILES + (blockY >> TILE_SHIFT);
+	}
+	
+	private static final int getBlockOfTile(final int blockX, final int blockY)
+	{
+		return (blockX & TILE_MASK) * TILE_SIZE + (blockY & TILE_MASK);
+	}
+	
+	/**
+	 * @return The length of the l2j encoded block starting at the given offset
+	 */
+	private static final int getBlockLength(final byte[] data, final int offset)
+	{
+		switch (data[offset])
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+				return 3;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
+				return GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT * 2 + 1;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_MULTILAYER:
+			{
+				int length = 1;
+				for (int i = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; i-- > 0;)
+				{
+					length += data[offset + length] * 2 + 1;
+				}
+				return length;
+			}
+			
+			default:
+				throw new RuntimeException("Unknown type: " + data[offset]);
+		}
+	}
+	
+	/**
+	 * An inflated tile, the last one accessed is kept outside the cache lock, most accesses hit the same tile.
+	 */
+	private static final class InflatedTile
+	{
+		private final int _tile;
+		private final GeoByteBuffer[] _blocks;
+		
+		public InflatedTile(final int tile, final GeoByteBuffer[] blocks)
+		{
+			_tile = tile;
+			_blocks = blocks;
+		}
+	}
+	
+	private final byte[][] _tiles;
+	private final int[] _tileLengths;
+	/**
+	 * The raw data of the tiles which are not compressed yet, a tile is cleared here after its compressed data was set.
+	 */
+	private final AtomicReferenceArray<GeoByteBuffer[]> _rawTiles;
+	private final LinkedHashMap<Integer, GeoByteBuffer[]> _cache;
+	private long _inflatedBytes;
+	private volatile InflatedTile _lastTile;
+	
+	/**
+	 * The data is kept as it is until {@link #compress()} was called.
+	 * 
+	 * @param data The l2j encoded data of all blocks, [blockX][blockY]
+	 */
+	public GeoBlockDataStore(final GeoByteBuffer[][] data)
+	{
+		_tiles = new byte[TILES * TILES][];
+		_tileLengths = new int[TILES * TILES];
+		_rawTiles = new AtomicReferenceArray<>(TILES * TILES);
+		_cache = new LinkedHashMap<Integer, GeoByteBuffer[]>(CACHED_TILES * 2, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			/**
+			 * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+			 */
+			@Override
+			protected final boolean removeEldestEntry(final Entry<Integer, GeoByteBuffer[]> eldest)
+			{
+				if (size() <= CACHED_TILES)
+					return false;
+				
+				_inflatedBytes -= _tileLengths[eldest.getKey().intValue()];
+				return true;
+			}
+		};
+		
+		GeoByteBuffer[] blocks;
+		for (int tile = 0, minBlockX, minBlockY, blockX, blockY, length; tile < _tiles.length; tile++)
+		{
+			minBlockX = tile / TILES << TILE_SHIFT;
+			minBlockY = tile % TILES << TILE_SHIFT;
+			blocks = new GeoByteBuffer[TILE_SIZE * TILE_SIZE];
+			length = 0;
+			for (blockX = minBlockX; blockX < minBlockX + TILE_SIZE; blockX++)
+			{
+				for (blockY = minBlockY; blockY < minBlockY + TILE_SIZE; blockY++)
+				{
+					blocks[getBlockOfTile(blockX, blockY)] = data[blockX][blockY];
+					length += data[blockX][blockY].capacity();
+				}
+			}
+			_tileLengths[tile] = length;
+			_rawTiles.set(tile, blocks);
+		}
+	}
+	
+	/**
+	 * Compresses the tiles which are not compressed yet, a tile can be read while this runs.<br>
+	 * Meant to run in the background once the region was read, the load does not wait for it.
+	 */
+	public final void compress()
+	{
+		GeoByteBuffer[] blocks;
+		for (int tile = 0; tile < _tiles.length; tile++)
+		{
+			blocks = _rawTiles.get(tile);
+			if (blocks == null)
+				continue;
+			
+			_tiles[tile] = compressTile(blocks, _tileLengths[tile]);
+			// the volatile write publishes the compressed tile
+			_rawTiles.set(tile, null);
+		}
+	}
+	
+	private static final byte[] compressTile(final GeoByteBuffer[] blocks, final int length)
+	{
+		final byte[] tileData = new byte[length];
+		GeoByteBuffer blockData;
+		for (int j = 0, offset = 0, i; j < blocks.length; j++)
+		{
+			blockData = blocks[j];
+			for (i = 0; i < blockData.capacity(); i++)
+			{
+				tileData[offset++] = blockData.get(i);
+			}
+		}
+		
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			deflater.setInput(tileData);
+			deflater.finish();
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 4 + 64);
+			final byte[] buffer = new byte[8192];
+			while (!deflater.finished())
+			{
+				baos.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return baos.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+	
+	private final GeoByteBuffer[] inflateTile(final int tile)
+	{
+		final byte[] tileData = new byte[_tileLengths[tile]];
+		final Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(_tiles[tile]);
+			if (inflater.inflate(tileData) != tileData.length)
+				throw new RuntimeException("Tile " + tile + " is truncated");
+		}
+		catch (final DataFormatException e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+		
+		final GeoByteBuffer[] blocks = new GeoByteBuffer[TILE_SIZE * TILE_SIZE];
+		for (int i = 0, offset = 0, length; i < blocks.length; i++)
+		{
+			length = getBlockLength(tileData, offset);
+			final byte[] blockData = new byte[length];
+			System.arraycopy(tileData, offset, blockData, 0, length);
+			blocks[i] = GeoByteBuffer.wrap(blockData);
+			offset += length;
+		}
+		return blocks;
+	}
+	
+	/**
+	 * @param blockX
+	 * @param blockY
+	 * @return The l2j encoded data of the given block, the returned buffer must be synchronized on when reading relative
+	 */
+	public final GeoByteBuffer get(final int blockX, final int blockY)
+	{
+		final int tile = getTile(blockX, blockY);
+		final GeoByteBuffer[] rawTile = _rawTiles.get(tile);
+		if (rawTile != null)
+			return rawTile[getBlockOfTile(blockX, blockY)];
+		
+		final InflatedTile lastTile = _lastTile;
+		if (lastTile != null && lastTile._tile == tile)
+			return lastTile._blocks[getBlockOfTile(blockX, blockY)];
+		
+		final Integer key = Integer.valueOf(tile);
+		GeoByteBuffer[] blocks;
+		synchronized (_cache)
+		{
+			blocks = _cache.get(key);
+			if (blocks == null)
+			{
+				blocks = inflateTile(tile);
+				_inflatedBytes += _tileLengths[tile];
+				_cache.put(key, blocks);
+			}
+		}
+		_lastTile = new InflatedTile(tile, blocks);
+		return blocks[getBlockOfTile(blockX, blockY)];
+	}
+	
+	/**
+	 * @return The estimated heap usage of the compressed tiles and the cached inflated tiles in bytes
+	 */
+	public final long getMemoryUsage()
+	{
+		long memoryUsage = 0;
+		for (int tile = _tiles.length; tile-- > 0;)
+		{
+			// the raw blocks may share their data, so this is the upper bound
+			memoryUsage += _rawTiles.get(tile) != null ? _tileLengths[tile] + TILE_SIZE * TILE_SIZE * 40L : _tiles[tile].length + 16;
+		}
+		synchronized (_cache)
+		{
+			// byte[] header and GeoByteBuffer object per block
+			memoryUsage += _inflatedBytes + _cache.size() * TILE_SIZE * TILE_SIZE * 40L;
+		}
+		return memoryUsage;
+	}
+	
+	public final void clearCache()
+	{
+		synchronized (_cache)
+		{
+			_cache.clear();
+			_inflatedBytes = 0;
+			_lastTile = null;
+		}
+	}
+}
@@ -15,34 +15,27 @@
 package g3deditor.geo;
 
 import g3deditor.entity.SelectionState;
+import g3deditor.jogl.GLCellRenderSelector;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.jogl.GLSelectionBox;
 import g3deditor.swing.FrameMain;
 import g3deditor.util.FastArrayList;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
+ * Keeps the selected cells of the active region.<br>
+ * Every selected block has an entry holding a bitset over the indices of its cells in the block data, so bit (layerIndex[cellX * 8 + cellY] + layer) is the cell (cellX, cellY, layer) of a multilayer block.<br>
+ * The selection state of a cell is derived from that bitset, cells do not store it.
+ * 
  * <a href="http://l2j-server.com/">L2jServer</a>
  * 
  * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
  */
 public final class GeoBlockSelector
 {
-	private static final void setStateOf(final FastArrayList<GeoCell> cells, final SelectionState state)
-	{
-		for (int i = cells.size(); i-- > 0;)
-		{
-			cells.getUnsafe(i).setSelectionState(state);
-		}
-	}
-	
-	private static final void setStateOf(final GeoCell[] cells, final SelectionState state)
-	{
-		for (int i = cells.length; i-- > 0;)
-		{
-			cells[i].setSelectionState(state);
-		}
-	}
-	
 	private static GeoBlockSelector _instance;
 	
 	public static final void init()
@@ -58,7 +51,15 @@ public final class GeoBlockSelector
 	private final GeoBlockEntry[] _selected;
 	private final GeoBlockEntry _head;
 	private final GeoBlockEntry _tail;
-	private final FastArrayList<GeoCell> _temp;
+	private long[] _temp;
+	/**
+	 * The area selections requested since the last frame, guarded by itself.
+	 */
+	private final FastArrayList<AreaSelection> _pendingAreas;
+	/**
+	 * The area selections applied by the OpenGL thread, only used by it.
+	 */
+	private final FastArrayList<AreaSelection> _areas;
 	
 	public GeoBlockSelector()
 	{
@@ -73,7 +74,9 @@ public final class GeoBlockSelector
 		getHead().setNext(getTail());
 		getTail().setPrev(getHead());
 		getTail().setNext(getTail());
-		_temp = new FastArrayList<>();
+		_temp = new long[1];
+		_pendingAreas = new FastArrayList<>();
+		_areas = new FastArrayList<>();
 	}
 	
 	private final GeoBlockEntry getEntry(final GeoBlock block)
@@ -81,6 +84,27 @@ public final class GeoBlockSelector
 		return _selected[block.getBlockX() * GeoEngine.GEO_REGION_SIZE + block.getBlockY()];
 	}
 	
+	private final void addEntry(final GeoBlockEntry entry, final GeoBlock block)
+	{
+		entry.setKey(block);
+		entry.addBefore(getTail());
+	}
+	
+	/**
+	 * Fills the temp bitset with the cells of the block which are inside the selection box.
+	 */
+	private final long[] getCellsInside(final GeoCell reference, final GeoCell[] cells)
+	{
+		final int words = GeoBlockEntry.wordsFor(cells.length);
+		if (_temp.length < words)
+			_temp = new long[words];
+		else
+			Arrays.fill(_temp, 0, words, 0L);
+		
+		GLDisplay.getInstance().getSelectionBox().getAllCellsInside(reference, cells, _temp);
+		return _temp;
+	}
+	
 	public final GeoBlockEntry getHead()
 	{
 		return _head;
@@ -121,24 +145,29 @@ public final class GeoBlockSelector
 			return;
 		
 		boolean convertedAny = false;
-		for (GeoBlockEntry e = getHead(), p; (e = e.getNext()) != getTail();)
+		// one step of the undo journal
+		region.beginEdit();
+		try
 		{
-			if (e.getKey().getType() != type)
+			for (GeoBlockEntry e = getHead(), p; (e = e.getNext()) != getTail();)
 			{
-				region.convertBlock(e.getKey(), type);
-				convertedAny = true;
-				p = e.getPrev();
-				e.remove();
-				e = p;
+				if (e.getKey().getType() != type)
+				{
+					region.convertBlock(e.getKey(), type);
+					convertedAny = true;
+					p = e.getPrev();
+					e.remove();
+					e = p;
+				}
 			}
 		}
+		finally
+		{
+			region.endEdit();
+		}
 		
 		if (convertedAny)
-		{
-			//GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(false, true);
-			GLDisplay.getInstance().getRenderSelector().forceUpdateGeoBlocks();
 			updateGUI(null);
-		}
 	}
 	
 	public final boolean getSelectedDataEqual()
@@ -177,24 +206,29 @@ public final class GeoBlockSelector
 			return;
 		
 		boolean restoredAny = false;
-		for (GeoBlockEntry e = getHead(), p; (e = e.getNext()) != getTail();)
+		// one step of the undo journal
+		region.beginEdit();
+		try
 		{
-			if (!region.dataEqualFor(e.getKey()))
+			for (GeoBlockEntry e = getHead(), p; (e = e.getNext()) != getTail();)
 			{
-				region.restoreBlock(e.getKey());
-				restoredAny = true;
-				p = e.getPrev();
-				e.remove();
-				e = p;
+				if (!region.dataEqualFor(e.getKey()))
+				{
+					region.restoreBlock(e.getKey());
+					restoredAny = true;
+					p = e.getPrev();
+					e.remove();
+					e = p;
+				}
 			}
 		}
+		finally
+		{
+			region.endEdit();
+		}
 		
 		if (restoredAny)
-		{
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(true, true);
-			GLDisplay.getInstance().getRenderSelector().forceUpdateGeoBlocks();
 			updateGUI(null);
-		}
 	}
 	
 	public final boolean hasSelected()
@@ -202,17 +236,34 @@ public final class GeoBlockSelector
 		return getHead().getNext() != getTail();
 	}
 	
+	public final boolean isGeoBlockSelected(final GeoBlock block)
+	{
+		return getEntry(block).getKey() == block;
+	}
+	
 	public final boolean isGeoCellSelected(final GeoCell cell)
 	{
-		final FastArrayList<GeoCell> selected = getEntry(cell.getBlock()).getValue();
-		return selected != null && selected.contains(cell);
+		final GeoBlockEntry entry = getEntry(cell.getBlock());
+		return entry.getKey() == cell.getBlock() && entry.get(cell.getIndex());
+	}
+	
+	/**
+	 * @param cell
+	 * @return SELECTED for selected cells, HIGHLIGHTED for the other cells of a block with selected cells, NORMAL otherwise
+	 */
+	public final SelectionState getSelectionState(final GeoCell cell)
+	{
+		final GeoBlockEntry entry = getEntry(cell.getBlock());
+		if (entry.getKey() != cell.getBlock())
+			return SelectionState.NORMAL;
+		
+		return entry.get(cell.getIndex()) ? SelectionState.SELECTED : SelectionState.HIGHLIGHTED;
 	}
 	
 	public final void unselectAll()
 	{
 		for (GeoBlockEntry e = getHead(), p; (e = e.getNext()) != getTail();)
 		{
-			setStateOf(e.getKey().getCells(), SelectionState.NORMAL);
 			p = e.getPrev();
 			e.remove();
 			e = p;
@@ -223,13 +274,11 @@ public final class GeoBlockSelector
 	{
 		final GeoBlock block = cell.getBlock();
 		final GeoBlockEntry entry = getEntry(block);
-		FastArrayList<GeoCell> selected = entry.getValue();
 		
 		if (append)
 		{
-			if (selected != null)
+			if (entry.getKey() != null)
 			{
-				cell.setSelectionState(SelectionState.NORMAL);
 				entry.remove();
 				return;
 			}
@@ -237,246 +286,294 @@ public final class GeoBlockSelector
 		else
 		{
 			unselectAll();
-			selected = null;
 		}
 		
-		cell.setSelectionState(SelectionState.SELECTED);
-		selected = new FastArrayList<>(block.getCells());
-		entry.setKey(block);
-		entry.setValue(selected);
-		entry.addBefore(getTail());
+		addEntry(entry, block);
+		entry.setAll();
 	}
 	
 	private final void selectGeoCellComplex(final GeoCell cell, final boolean fullBlock, final boolean append)
 	{
 		final GeoBlock block = cell.getBlock();
 		final GeoBlockEntry entry = getEntry(block);
-		final GeoCell[] cells = block.getCells();
-		FastArrayList<GeoCell> selected = entry.getValue();
+		final int index = cell.getIndex();
 		
 		if (append)
 		{
-			if (selected != null)
+			if (entry.getKey() != null)
 			{
-				if (selected.size() == cells.length)
+				if (entry.isFull())
 				{
 					if (fullBlock)
-					{
-						setStateOf(cells, SelectionState.NORMAL);
 						entry.remove();
-					}
 					else
-					{
-						if (selected.remove(cell))
-							cell.setSelectionState(SelectionState.HIGHLIGHTED);
-					}
+						entry.clear(index);
 				}
 				else
 				{
 					if (fullBlock)
-					{
-						selected.clear();
-						selected.addAll(cells);
-						setStateOf(cells, SelectionState.SELECTED);
-					}
+						entry.setAll();
 					else
-					{
-						if (selected.remove(cell))
-						{
-							if (selected.isEmpty())
-							{
-								setStateOf(cells, SelectionState.NORMAL);
-								entry.remove();
-							}
-							else
-							{
-								cell.setSelectionState(SelectionState.HIGHLIGHTED);
-							}
-						}
-						else
-						{
-							selected.addLast(cell);
-							cell.setSelectionState(SelectionState.SELECTED);
-						}
-					}
+						toggle(entry, index);
 				}
-			}
-			else
-			{
-				if (fullBlock)
-				{
-					selected = new FastArrayList<>(cells);
-				}
-				else
-				{
-					selected = new FastArrayList<>(8);
-					selected.addLastUnsafe(cell);
-					setStateOf(cells, SelectionState.HIGHLIGHTED);
-				}
-				
-				setStateOf(selected, SelectionState.SELECTED);
-				entry.setKey(block);
-				entry.setValue(selected);
-				entry.addBefore(getTail());
+				return;
 			}
 		}
 		else
 		{
 			unselectAll();
-			
-			if (fullBlock)
-			{
-				selected = new FastArrayList<>(cells);
-			}
-			else
-			{
-				selected = new FastArrayList<>(8);
-				selected.addLastUnsafe(cell);
-				setStateOf(cells, SelectionState.HIGHLIGHTED);
-			}
-			
-			setStateOf(selected, SelectionState.SELECTED);
-			entry.setKey(block);
-			entry.setValue(selected);
-			entry.addBefore(getTail());
 		}
+		
+		addEntry(entry, block);
+		if (fullBlock)
+			entry.setAll();
+		else
+			entry.set(index);
 	}
 	
 	private final void selectGeoCellMultiLayer(final GeoCell cell, final boolean fullBlock, final boolean append)
 	{
 		final GeoBlock block = cell.getBlock();
 		final GeoBlockEntry entry = getEntry(block);
-		final GeoCell[] cells = block.getCells();
-		final GLSelectionBox selectionBox = GLDisplay.getInstance().getSelectionBox();
-		FastArrayList<GeoCell> selected = entry.getValue();
+		final boolean infHeight = GLDisplay.getInstance().getSelectionBox().isInfHeight();
 		
 		if (append)
 		{
-			if (selected != null)
+			if (entry.getKey() != null)
 			{
 				if (fullBlock)
 				{
-					if (selectionBox.isInfHeight())
+					if (infHeight)
 					{
-						if (selected.size() == cells.length)
-						{
-							setStateOf(cells, SelectionState.NORMAL);
+						if (entry.isFull())
 							entry.remove();
-						}
 						else
-						{
-							selected.clear();
-							selected.addAll(cells);
-							setStateOf(cells, SelectionState.SELECTED);
-						}
+							entry.setAll();
 					}
 					else
 					{
-						_temp.clear();
-						selectionBox.getAllCellsInside(cell, cells, _temp);
-						
-						if (selected.containsAll(_temp))
+						final long[] inside = getCellsInside(cell, block.getCells());
+						if (entry.containsAll(inside))
 						{
-							if (selected.size() == _temp.size())
-							{
-								setStateOf(cells, SelectionState.NORMAL);
+							entry.andNot(inside);
+							if (entry.isEmpty())
 								entry.remove();
-							}
-							else
-							{
-								setStateOf(_temp, SelectionState.NORMAL);
-								selected.removeAll(_temp);
-							}
 						}
 						else
 						{
-							setStateOf(_temp, SelectionState.SELECTED);
-							selected.addAllIfAbsent(_temp);
+							entry.or(inside);
 						}
 					}
 				}
 				else
 				{
-					if (selected.remove(cell))
-					{
-						if (selected.isEmpty())
-						{
-							setStateOf(cells, SelectionState.NORMAL);
-							entry.remove();
-						}
-						else
-						{
-							cell.setSelectionState(SelectionState.HIGHLIGHTED);
-						}
-					}
-					else
-					{
-						selected.addLast(cell);
-						cell.setSelectionState(SelectionState.SELECTED);
-					}
+					toggle(entry, cell.getIndex());
 				}
+				return;
+			}
+		}
+		else
+		{
+			unselectAll();
+		}
+		
+		if (fullBlock)
+		{
+			if (infHeight)
+			{
+				addEntry(entry, block);
+				entry.setAll();
 			}
 			else
 			{
-				if (fullBlock)
+				final long[] inside = getCellsInside(cell, block.getCells());
+				if (!GeoBlockEntry.isEmpty(inside, GeoBlockEntry.wordsFor(block.getCells().length)))
 				{
-					if (selectionBox.isInfHeight())
-					{
-						selected = new FastArrayList<>(cells);
-					}
-					else
-					{
-						selected = new FastArrayList<>();
-						selectionBox.getAllCellsInside(cell, cells, selected);
-						if (!selected.isEmpty())
-							setStateOf(cells, SelectionState.HIGHLIGHTED);
-					}
-				}
-				else
-				{
-					selected = new FastArrayList<>(8);
-					selected.addLastUnsafe(cell);
-					setStateOf(cells, SelectionState.HIGHLIGHTED);
-				}
-				
-				if (!selected.isEmpty())
-				{
-					setStateOf(selected, SelectionState.SELECTED);
-					entry.setKey(block);
-					entry.setValue(selected);
-					entry.addBefore(getTail());
+					addEntry(entry, block);
+					entry.or(inside);
 				}
 			}
 		}
 		else
 		{
+			addEntry(entry, block);
+			entry.set(cell.getIndex());
+		}
+	}
+	
+	private static final void toggle(final GeoBlockEntry entry, final int index)
+	{
+		if (entry.get(index))
+		{
+			entry.clear(index);
+			if (entry.isEmpty())
+				entry.remove();
+		}
+		else
+		{
+			entry.set(index);
+		}
+	}
+	
+	/**
+	 * Selects every cell of the visible grid accepted by the given filter, the grid is the one of the frame the selection is applied with.
+	 * 
+	 * @see #selectArea(int, int, int, int, GeoCellFilter, boolean)
+	 */
+	public final void selectVisibleArea(final GeoCellFilter filter, final boolean append)
+	{
+		selectArea(0, GeoEngine.GEO_REGION_SIZE, 0, GeoEngine.GEO_REGION_SIZE, filter, append);
+	}
+	
+	/**
+	 * Selects every cell in the given block rectangle of the active region accepted by the given filter.<br>
+	 * Can be called from any thread, the selection is done by the OpenGL thread with the next frame, see {@link #applyPendingAreas()}.<br>
+	 * Only the blocks inside the visible grid are selected, the selection of the blocks outside would be dropped by the grid anyway.
+	 * 
+	 * @param minBlockX inclusive
+	 * @param maxBlockX exclusive
+	 * @param minBlockY inclusive
+	 * @param maxBlockY exclusive
+	 * @param filter
+	 * @param append False to replace the current selection
+	 */
+	public final void selectArea(final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY, final GeoCellFilter filter, final boolean append)
+	{
+		final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+		if (region == null)
+			return;
+		
+		synchronized (_pendingAreas)
+		{
+			_pendingAreas.addLast(new AreaSelection(region, minBlockX, maxBlockX, minBlockY, maxBlockY, filter, append));
+		}
+	}
+	
+	/**
+	 * Applies the area selections requested since the last call in their order.<br>
+	 * Has to be called by the OpenGL thread after the visible grid was updated for the frame.
+	 */
+	public final void applyPendingAreas()
+	{
+		synchronized (_pendingAreas)
+		{
+			if (_pendingAreas.isEmpty())
+				return;
+			
+			_areas.addAll(_pendingAreas);
+			_pendingAreas.clear();
+		}
+		
+		final GLCellRenderSelector renderSelector = GLDisplay.getInstance().getRenderSelector();
+		AreaSelection area;
+		for (int i = 0; i < _areas.size(); i++)
+		{
+			area = _areas.getUnsafe(i);
+			// requested for a region which is no longer active
+			if (area._region != GeoEngine.getInstance().getActiveRegion())
+				continue;
+			
+			selectArea(area._region, Math.max(area._minBlockX, renderSelector.getMinBlockX()), Math.min(area._maxBlockX, renderSelector.getMaxBlockX()), Math.max(area._minBlockY, renderSelector.getMinBlockY()), Math.min(area._maxBlockY, renderSelector.getMaxBlockY()), area._filter, area._append);
+		}
+		_areas.clear();
+	}
+	
+	/**
+	 * The blocks are filtered in parallel, the result is applied to the selection in one go.
+	 */
+	private final void selectArea(final GeoRegion region, int minBlockX, int maxBlockX, int minBlockY, int maxBlockY, final GeoCellFilter filter, final boolean append)
+	{
+		minBlockX = Math.max(minBlockX, 0);
+		maxBlockX = Math.min(maxBlockX, GeoEngine.GEO_REGION_SIZE);
+		minBlockY = Math.max(minBlockY, 0);
+		maxBlockY = Math.min(maxBlockY, GeoEngine.GEO_REGION_SIZE);
+		
+		if (!append)
 			unselectAll();
+		
+		if (minBlockX >= maxBlockX || minBlockY >= maxBlockY)
+		{
+			updateGUI(null);
+			return;
+		}
+		
+		final AreaFilter task = new AreaFilter(region, filter, minBlockX, minBlockY, maxBlockY - minBlockY, (maxBlockX - minBlockX) * (maxBlockY - minBlockY));
+		ForkJoinPool.commonPool().invoke(task);
+		
+		final GeoBlock[] blocks = task._blocks;
+		final long[][] bits = task._bits;
+		GeoBlockEntry entry;
+		for (int i = 0; i < blocks.length; i++)
+		{
+			if (bits[i] == null)
+				continue;
 			
-			if (fullBlock)
+			entry = getEntry(blocks[i]);
+			if (entry.getKey() == null)
+				addEntry(entry, blocks[i]);
+			entry.or(bits[i]);
+		}
+		
+		updateGUI(null);
+	}
+	
+	/**
+	 * The block must have been accepted by {@link GeoCellFilter#acceptBlock(byte, short, short)}.
+	 * 
+	 * @return The cells of the block accepted by the filter as bitset, or null if none was accepted
+	 */
+	static final long[] filter(final GeoBlock block, final GeoCellFilter filter)
+	{
+		switch (block.getType())
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+				return filter.accept(block, 0, 0, 0, block.getHeightAndNSWE(0)) ? new long[] { 1L } : null;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
 			{
-				if (selectionBox.isInfHeight())
-				{
-					selected = new FastArrayList<>(cells);
-				}
-				else
+				long bits = 0L;
+				for (int cellX = 0, cellY, index; cellX < GeoEngine.GEO_BLOCK_SHIFT; cellX++)
 				{
-					selected = new FastArrayList<>();
-					selectionBox.getAllCellsInside(cell, cells, selected);
+					for (cellY = 0; cellY < GeoEngine.GEO_BLOCK_SHIFT; cellY++)
+					{
+						index = GeoEngine.getCellIndex(cellX, cellY);
+						if (filter.accept(block, cellX, cellY, 0, block.getHeightAndNSWE(index)))
+							bits |= 1L << index;
+					}
 				}
+				return bits != 0L ? new long[] { bits } : null;
 			}
-			else
-			{
-				selected = new FastArrayList<>(8);
-				selected.addLastUnsafe(cell);
-				setStateOf(cells, SelectionState.HIGHLIGHTED);
-			}
-			
-			if (!selected.isEmpty())
+				
+			default:
 			{
-				setStateOf(selected, SelectionState.SELECTED);
-				entry.setKey(block);
-				entry.setValue(selected);
-				entry.addBefore(getTail());
+				int count = 0;
+				for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY; cellX-- > 0;)
+				{
+					for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
+					{
+						count += block.nGetLayerCount(cellX, cellY);
+					}
+				}
+				
+				// the layers are stored cell by cell, lowest first
+				final long[] bits = new long[GeoBlockEntry.wordsFor(count)];
+				boolean any = false;
+				for (int cellX = 0, cellY, layer, layers, index = 0; cellX < GeoEngine.GEO_BLOCK_SHIFT; cellX++)
+				{
+					for (cellY = 0; cellY < GeoEngine.GEO_BLOCK_SHIFT; cellY++)
+					{
+						layers = block.nGetLayerCount(cellX, cellY);
+						for (layer = 0; layer < layers; layer++, index++)
+						{
+							if (filter.accept(block, cellX, cellY, layer, block.getHeightAndNSWE(index)))
+							{
+								bits[index >>> 6] |= 1L << index;
+								any = true;
+							}
+						}
+					}
+				}
+				return any ? bits : null;
 			}
 		}
 	}
@@ -505,23 +602,96 @@ public final class GeoBlockSelector
 	{
 		final GeoBlock block = cell.getBlock();
 		final GeoBlockEntry entry = getEntry(block);
-		final FastArrayList<GeoCell> selected = entry.getValue();
-		if (selected != null && selected.remove(cell))
+		if (entry.getKey() == block && entry.get(cell.getIndex()))
 		{
-			if (selected.isEmpty())
-			{
-				setStateOf(block.getCells(), SelectionState.NORMAL);
-				entry.remove();
-				updateGUI(null);
-			}
-			else
-			{
-				cell.setSelectionState(SelectionState.HIGHLIGHTED);
-				updateGUI(selected.getLastUnsafe());
-			}
+			entry.clear(cell.getIndex());
+			onUnselected(entry);
+		}
+	}
+	
+	private final void onUnselected(final GeoBlockEntry entry)
+	{
+		if (entry.isEmpty())
+		{
+			entry.remove();
+			updateGUI(null);
+		}
+		else
+		{
+			updateGUI(entry.getLastCell());
+		}
+	}
+	
+	/**
+	 * Has to be called before the given block is replaced by a new object of its region, the block is unselected.
+	 */
+	public final void onGeoBlockReplaced(final GeoBlock block)
+	{
+		final GeoBlockEntry entry = getEntry(block);
+		if (entry.getKey() == block)
+		{
+			entry.remove();
+			updateGUI(null);
+			return;
+		}
+		
+		final GeoCell cell = FrameMain.getInstance().getSelectedGeoCell();
+		if (cell != null && cell.getBlock() == block)
+			FrameMain.getInstance().setSelectedGeoCell(null);
+	}
+	
+	/**
+	 * Has to be called by a multilayer block after a cell was inserted into its data at the given index.
+	 */
+	public final void onGeoCellInserted(final GeoBlock block, final int index)
+	{
+		final GeoBlockEntry entry = getEntry(block);
+		if (entry.getKey() == block)
+			entry.insert(index);
+	}
+	
+	/**
+	 * Has to be called by a multilayer block after the cell at the given index was removed from its data.
+	 */
+	public final void onGeoCellRemoved(final GeoBlock block, final int index)
+	{
+		final GeoBlockEntry entry = getEntry(block);
+		if (entry.getKey() == block)
+		{
+			final boolean selected = entry.get(index);
+			entry.delete(index);
+			if (selected)
+				onUnselected(entry);
+		}
+	}
+	
+	/**
+	 * Has to be called by a multilayer block after its data was rebuilt.<br>
+	 * The kept cells must still report their index from before the rebuild, new cells -1.
+	 */
+	public final void onGeoCellsRebuilt(final GeoBlock block, final GeoCell[] cells)
+	{
+		final GeoBlockEntry entry = getEntry(block);
+		if (entry.getKey() == block)
+		{
+			final int selected = entry.cardinality();
+			entry.rebuild(cells);
+			if (entry.cardinality() != selected)
+				onUnselected(entry);
 		}
 	}
 	
+	/**
+	 * Has to be called by a multilayer block after the cells in the given range were reordered.<br>
+	 * The cells must still report their index from before the reorder.
+	 */
+	public final void onGeoCellsMoved(final GeoBlock block, final GeoCell[] cells, final int from, final int to)
+	{
+		final GeoBlockEntry entry = getEntry(block);
+		if (entry.getKey() == block)
+			entry.move(cells, from, to);
+	}
+	
 	private final void updateGUI(final GeoCell cell)
 	{
 		if (!hasSelected())
@@ -530,17 +700,17 @@ public final class GeoBlockSelector
 		}
 		else
 		{
-			FastArrayList<GeoCell> selected = cell == null ? null : getEntry(cell.getBlock()).getValue();
-			if (selected == null)
-				selected = getTail().getPrev().getValue();
-			
-			if (cell != null && selected.contains(cell))
+			if (cell != null && isGeoCellSelected(cell))
 			{
 				FrameMain.getInstance().setSelectedGeoCell(cell);
 			}
 			else
 			{
-				FrameMain.getInstance().setSelectedGeoCell(selected.getLastUnsafe());
+				GeoBlockEntry entry = cell == null ? null : getEntry(cell.getBlock());
+				if (entry == null || entry.getKey() == null)
+					entry = getTail().getPrev();
+				
+				FrameMain.getInstance().setSelectedGeoCell(entry.getLastCell());
 			}
 		}
 	}
@@ -560,8 +730,7 @@ public final class GeoBlockSelector
 					cell = null;
 					FrameMain.getInstance().setSelectedGeoCell(null);
 				}
-					
-				setStateOf(block.getCells(), SelectionState.NORMAL);
+				
 				p = e.getPrev();
 				e.remove();
 				e = p;
@@ -569,7 +738,42 @@ public final class GeoBlockSelector
 		}
 		
 		if (cell == null && hasSelected())
-			FrameMain.getInstance().setSelectedGeoCell(getTail().getPrev().getValue().getLastUnsafe());
+			FrameMain.getInstance().setSelectedGeoCell(getTail().getPrev().getLastCell());
+	}
+	
+	/**
+	 * Unselects the blocks inside of the given area, max exclusive.
+	 */
+	public final void unselectArea(final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY)
+	{
+		if (!hasSelected())
+			return;
+		
+		GeoCell cell = FrameMain.getInstance().getSelectedGeoCell();
+		boolean removed = false;
+		
+		GeoBlockEntry entry;
+		for (int blockX = minBlockX, blockY; blockX < maxBlockX; blockX++)
+		{
+			for (blockY = minBlockY; blockY < maxBlockY; blockY++)
+			{
+				entry = _selected[blockX * GeoEngine.GEO_REGION_SIZE + blockY];
+				if (entry.getKey() == null)
+					continue;
+				
+				if (cell != null && cell.getBlock() == entry.getKey())
+				{
+					cell = null;
+					FrameMain.getInstance().setSelectedGeoCell(null);
+				}
+				
+				entry.remove();
+				removed = true;
+			}
+		}
+		
+		if (removed && cell == null && hasSelected())
+			FrameMain.getInstance().setSelectedGeoCell(getTail().getPrev().getLastCell());
 	}
 	
 	public final void unload()
@@ -584,16 +788,124 @@ public final class GeoBlockSelector
 		FrameMain.getInstance().setSelectedGeoCell(null);
 	}
 	
+	private static final class AreaFilter extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCKS_PER_TASK = 64;
+		
+		private final GeoRegion _region;
+		private final GeoCellFilter _filter;
+		private final int _minBlockX;
+		private final int _minBlockY;
+		private final int _height;
+		private final int _from;
+		private final int _to;
+		private final GeoBlock[] _blocks;
+		private final long[][] _bits;
+		
+		public AreaFilter(final GeoRegion region, final GeoCellFilter filter, final int minBlockX, final int minBlockY, final int height, final int size)
+		{
+			this(region, filter, minBlockX, minBlockY, height, 0, size, new GeoBlock[size], new long[size][]);
+		}
+		
+		private AreaFilter(final GeoRegion region, final GeoCellFilter filter, final int minBlockX, final int minBlockY, final int height, final int from, final int to, final GeoBlock[] blocks, final long[][] bits)
+		{
+			_region = region;
+			_filter = filter;
+			_minBlockX = minBlockX;
+			_minBlockY = minBlockY;
+			_height = height;
+			_from = from;
+			_to = to;
+			_blocks = blocks;
+			_bits = bits;
+		}
+		
+		/**
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected final void compute()
+		{
+			if (_to - _from > BLOCKS_PER_TASK)
+			{
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(new AreaFilter(_region, _filter, _minBlockX, _minBlockY, _height, _from, middle, _blocks, _bits), new AreaFilter(_region, _filter, _minBlockX, _minBlockY, _height, middle, _to, _blocks, _bits));
+				return;
+			}
+			
+			GeoBlock block;
+			for (int i = _from, blockX, blockY; i < _to; i++)
+			{
+				blockX = _minBlockX + i / _height;
+				blockY = _minBlockY + i % _height;
+				// rejected from the stored type and heights, so the block is not loaded for nothing
+				if (!_filter.acceptBlock(_region.getBlockType(blockX, blockY), _region.getBlockMinHeight(blockX, blockY), _region.getBlockMaxHeight(blockX, blockY)))
+					continue;
+				
+				block = _region.getBlockByBlockXY(blockX, blockY);
+				_blocks[i] = block;
+				_bits[i] = filter(block, _filter);
+			}
+		}
+	}
+	
+	/**
+	 * An area selection waiting for the OpenGL thread.
+	 */
+	private static final class AreaSelection
+	{
+		private final GeoRegion _region;
+		private final int _minBlockX;
+		private final int _maxBlockX;
+		private final int _minBlockY;
+		private final int _maxBlockY;
+		private final GeoCellFilter _filter;
+		private final boolean _append;
+		
+		public AreaSelection(final GeoRegion region, final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY, final GeoCellFilter filter, final boolean append)
+		{
+			_region = region;
+			_minBlockX = minBlockX;
+			_maxBlockX = maxBlockX;
+			_minBlockY = minBlockY;
+			_maxBlockY = maxBlockY;
+			_filter = filter;
+			_append = append;
+		}
+	}
+	
+	/**
+	 * A selected block and the bitset of its selected cells.<br>
+	 * Bit i is the cell at index i in the data of the block, see {@link GeoCell#getIndex()}.
+	 */
 	public static final class GeoBlockEntry
 	{
+		static final int wordsFor(final int bits)
+		{
+			return (bits + 63) >>> 6;
+		}
+		
+		static final boolean isEmpty(final long[] bits, final int words)
+		{
+			for (int i = words; i-- > 0;)
+			{
+				if (bits[i] != 0L)
+					return false;
+			}
+			return true;
+		}
+		
 		private GeoBlockEntry _next;
 		private GeoBlockEntry _prev;
 		private GeoBlock _key;
+		private long[] _bits;
+		private int _size;
 		private FastArrayList<GeoCell> _value;
 		
 		public GeoBlockEntry()
 		{
-			
+			_bits = new long[1];
 		}
 		
 		public final GeoBlockEntry getNext()
@@ -621,7 +933,6 @@ public final class GeoBlockSelector
 			getPrev().setNext(getNext());
 			getNext().setPrev(getPrev());
 			setKey(null);
-			setValue(null);
 		}
 		
 		public final void addBefore(final GeoBlockEntry entry)
@@ -638,19 +949,240 @@ public final class GeoBlockSelector
 			return _key;
 		}
 		
+		/**
+		 * Sets the block of this entry, with no cell selected.
+		 * 
+		 * @param key
+		 */
 		public final void setKey(final GeoBlock key)
 		{
 			_key = key;
+			_size = key == null ? 0 : key.getCells().length;
+			final int words = wordsFor(_size);
+			if (_bits.length < words)
+				_bits = new long[words];
+			else
+				Arrays.fill(_bits, 0L);
+			_value = null;
 		}
 		
+		/**
+		 * The returned list is a snapshot, it is not updated when the selection changes.
+		 * 
+		 * @return The selected cells of the block
+		 */
 		public final FastArrayList<GeoCell> getValue()
 		{
-			return _value;
+			FastArrayList<GeoCell> value = _value;
+			if (value == null)
+			{
+				final GeoCell[] cells = _key.getCells();
+				value = new FastArrayList<>(cardinality());
+				for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1))
+				{
+					value.addLastUnsafe(cells[i]);
+				}
+				_value = value;
+			}
+			return value;
+		}
+		
+		/**
+		 * @return The selected cell with the highest index, or null if none is selected
+		 */
+		public final GeoCell getLastCell()
+		{
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				if (_bits[i] != 0L)
+					return _key.getCells()[(i << 6) + 63 - Long.numberOfLeadingZeros(_bits[i])];
+			}
+			return null;
+		}
+		
+		private final int nextSetBit(final int from)
+		{
+			if (from >= _size)
+				return -1;
+			
+			int i = from >>> 6;
+			long word = _bits[i] & -1L << from;
+			while (word == 0L)
+			{
+				if (++i == wordsFor(_size))
+					return -1;
+				word = _bits[i];
+			}
+			return (i << 6) + Long.numberOfTrailingZeros(word);
+		}
+		
+		public final boolean get(final int index)
+		{
+			return index < _size && (_bits[index >>> 6] & 1L << index) != 0L;
+		}
+		
+		public final void set(final int index)
+		{
+			_bits[index >>> 6] |= 1L << index;
+			_value = null;
+		}
+		
+		public final void clear(final int index)
+		{
+			_bits[index >>> 6] &= ~(1L << index);
+			_value = null;
+		}
+		
+		public final void setAll()
+		{
+			final int words = wordsFor(_size);
+			Arrays.fill(_bits, 0, words, -1L);
+			if ((_size & 63) != 0)
+				_bits[words - 1] = -1L >>> -_size;
+			_value = null;
+		}
+		
+		public final boolean isFull()
+		{
+			return cardinality() == _size;
 		}
 		
-		public final void setValue(final FastArrayList<GeoCell> value)
+		public final boolean isEmpty()
 		{
-			_value = value;
+			return isEmpty(_bits, wordsFor(_size));
+		}
+		
+		public final int cardinality()
+		{
+			int count = 0;
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				count += Long.bitCount(_bits[i]);
+			}
+			return count;
+		}
+		
+		/**
+		 * @param bits A bitset covering the cells of the block
+		 * @return True if all cells set in the given bitset are selected
+		 */
+		public final boolean containsAll(final long[] bits)
+		{
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				if ((bits[i] & ~_bits[i]) != 0L)
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Selects the cells set in the given bitset.
+		 */
+		public final void or(final long[] bits)
+		{
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				_bits[i] |= bits[i];
+			}
+			_value = null;
+		}
+		
+		/**
+		 * Keeps only the cells set in the given bitset selected.
+		 */
+		public final void and(final long[] bits)
+		{
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				_bits[i] &= bits[i];
+			}
+			_value = null;
+		}
+		
+		/**
+		 * Unselects the cells set in the given bitset.
+		 */
+		public final void andNot(final long[] bits)
+		{
+			for (int i = wordsFor(_size); i-- > 0;)
+			{
+				_bits[i] &= ~bits[i];
+			}
+			_value = null;
+		}
+		
+		/**
+		 * Inserts an unselected bit at the given index, moving the following bits up by one.
+		 */
+		final void insert(final int index)
+		{
+			final int words = wordsFor(++_size);
+			if (_bits.length < words)
+				_bits = Arrays.copyOf(_bits, words);
+			
+			final int word = index >>> 6;
+			for (int i = words; --i > word;)
+			{
+				_bits[i] = _bits[i] << 1 | _bits[i - 1] >>> 63;
+			}
+			final long low = _bits[word] & (1L << index) - 1L;
+			_bits[word] = (_bits[word] & ~low) << 1 | low;
+			_value = null;
+		}
+		
+		/**
+		 * Removes the bit at the given index, moving the following bits down by one.
+		 */
+		final void delete(final int index)
+		{
+			final int words = wordsFor(_size--);
+			final int word = index >>> 6;
+			final long lowMask = (1L << index) - 1L;
+			_bits[word] = _bits[word] & lowMask | _bits[word] >>> 1 & ~lowMask;
+			for (int i = word + 1; i < words; i++)
+			{
+				_bits[i - 1] |= _bits[i] << 63;
+				_bits[i] >>>= 1;
+			}
+			_value = null;
+		}
+		
+		/**
+		 * Replaces the bits by the bits of the given cells at their previous index, cells with index -1 are unselected.
+		 */
+		final void rebuild(final GeoCell[] cells)
+		{
+			final long[] bits = new long[Math.max(wordsFor(cells.length), 1)];
+			for (int i = cells.length, index; i-- > 0;)
+			{
+				index = cells[i].getIndex();
+				if (index >= 0 && get(index))
+					bits[i >>> 6] |= 1L << i;
+			}
+			_bits = bits;
+			_size = cells.length;
+			_value = null;
+		}
+		
+		/**
+		 * Moves the bits of the cells in the given range from their previous index to their position in the array.
+		 */
+		final void move(final GeoCell[] cells, final int from, final int to)
+		{
+			final long[] moved = new long[wordsFor(to - from)];
+			for (int i = from; i < to; i++)
+			{
+				if (get(cells[i].getIndex()))
+					moved[(i - from) >>> 6] |= 1L << i - from;
+			}
+			for (int i = from; i < to; i++)
+			{
+				if ((moved[(i - from) >>> 6] & 1L << i - from) != 0L)
+					set(i);
+				else
+					clear(i);
+			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -26,12 +26,10 @@ public abstract class GeoCell
 	public static final GeoCell[] EMPTY_ARRAY = new GeoCell[0];
 	
 	private GeoBlock _block;
-	private SelectionState _selectionState;
 	
 	public GeoCell(final GeoBlock block)
 	{
 		_block = block;
-		_selectionState = SelectionState.NORMAL;
 	}
 	
 	public final GeoBlock getBlock()
@@ -41,12 +39,7 @@ public abstract class GeoCell
 	
 	public final SelectionState getSelectionState()
 	{
-		return _selectionState;
-	}
-	
-	public final void setSelectionState(final SelectionState selectionState)
-	{
-		_selectionState = selectionState;
+		return GeoBlockSelector.getInstance().getSelectionState(this);
 	}
 	
 	public final float getRenderX()
@@ -91,6 +84,11 @@ public abstract class GeoCell
 	
 	public abstract int getCellY();
 	
+	/**
+	 * @return The index of the height of this cell in the data of its block
+	 */
+	public abstract int getIndex();
+	
 	public abstract void setHeightAndNSWE(final short heightAndNSWE);
 	
 	public abstract void setNswe(final short nswe);
@@ -0,0 +1,170 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+/**
+ * Decides which cells are selected by {@link GeoBlockSelector#selectArea(int, int, int, int, GeoCellFilter, boolean)}.<br>
+ * Filters are called from several threads at once and must not have state.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public abstract class GeoCellFilter
+{
+	public static final GeoCellFilter ALL = new GeoCellFilter()
+	{
+		@Override
+		public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+		{
+			return true;
+		}
+	};
+	
+	public static final GeoCellFilter type(final byte type)
+	{
+		return new GeoCellFilter()
+		{
+			@Override
+			public final boolean acceptBlock(final byte blockType, final short minHeight, final short maxHeight)
+			{
+				return blockType == type;
+			}
+			
+			@Override
+			public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+			{
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * @param minHeight inclusive
+	 * @param maxHeight inclusive
+	 */
+	public static final GeoCellFilter height(final int minHeight, final int maxHeight)
+	{
+		return new GeoCellFilter()
+		{
+			@Override
+			public final boolean acceptBlock(final byte type, final short blockMinHeight, final short blockMaxHeight)
+			{
+				return blockMaxHeight >= minHeight && blockMinHeight <= maxHeight;
+			}
+			
+			@Override
+			public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+			{
+				final int height = GeoEngine.getHeight(heightAndNSWE);
+				return height >= minHeight && height <= maxHeight;
+			}
+		};
+	}
+	
+	/**
+	 * @param mask The NSWE bits to test
+	 * @param nswe The required state of the tested bits
+	 */
+	public static final GeoCellFilter nswe(final int mask, final int nswe)
+	{
+		return new GeoCellFilter()
+		{
+			@Override
+			public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+			{
+				return (GeoEngine.getNSWE(heightAndNSWE) & mask) == nswe;
+			}
+		};
+	}
+	
+	/**
+	 * Flat and complex blocks only have layer 0.
+	 * 
+	 * @param minLayer inclusive
+	 * @param maxLayer inclusive
+	 */
+	public static final GeoCellFilter layer(final int minLayer, final int maxLayer)
+	{
+		return new GeoCellFilter()
+		{
+			@Override
+			public final boolean acceptBlock(final byte type, final short minHeight, final short maxHeight)
+			{
+				return minLayer <= 0 || type == GeoEngine.GEO_BLOCK_TYPE_MULTILAYER;
+			}
+			
+			@Override
+			public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+			{
+				return layer >= minLayer && layer <= maxLayer;
+			}
+		};
+	}
+	
+	/**
+	 * @return A filter accepting the cells accepted by all of the given filters
+	 */
+	public static final GeoCellFilter and(final GeoCellFilter... filters)
+	{
+		return new GeoCellFilter()
+		{
+			@Override
+			public final boolean acceptBlock(final byte type, final short minHeight, final short maxHeight)
+			{
+				for (final GeoCellFilter filter : filters)
+				{
+					if (!filter.acceptBlock(type, minHeight, maxHeight))
+						return false;
+				}
+				return true;
+			}
+			
+			@Override
+			public final boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE)
+			{
+				for (final GeoCellFilter filter : filters)
+				{
+					if (!filter.accept(block, cellX, cellY, layer, heightAndNSWE))
+						return false;
+				}
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * Called once per block before it is loaded, a block which is not accepted is skipped completely.
+	 * 
+	 * @param type The type of the block
+	 * @param minHeight The lowest height in the block
+	 * @param maxHeight The highest height in the block
+	 * @return True if cells of the block may be accepted
+	 */
+	public boolean acceptBlock(final byte type, final short minHeight, final short maxHeight)
+	{
+		return true;
+	}
+	
+	/**
+	 * @param block
+	 * @param cellX
+	 * @param cellY
+	 * @param layer The layer of the cell, counted from the lowest
+	 * @param heightAndNSWE
+	 * @return True if the cell should be selected
+	 */
+	public abstract boolean accept(final GeoBlock block, final int cellX, final int cellY, final int layer, final short heightAndNSWE);
+}
@@ -19,6 +19,8 @@ import g3deditor.exceptions.GeoDataNotFoundException;
 import g3deditor.exceptions.GeoDataNotLoadedException;
 import g3deditor.exceptions.GeoFileLoadException;
 import g3deditor.exceptions.GeoFileNotFoundException;
+import g3deditor.jogl.GLTerrainTextureLoader;
+import g3deditor.util.GeoMappedReader;
 import g3deditor.util.GeoReader;
 import g3deditor.util.GeoStreamReader;
 
@@ -26,6 +28,18 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 /**
@@ -364,25 +378,140 @@ public final class GeoEngine
 		return _instance;
 	}
 	
-	private GeoRegion _activeRegion;
+	private static final int getRegionKey(final int regionX, final int regionY, final boolean l2j)
+	{
+		return (regionX + 10) << 9 | (regionY + 10) << 1 | (l2j ? 1 : 0);
+	}
+	
+	private static final File getGeoFile(final int regionX, final int regionY, final boolean l2j)
+	{
+		return l2j
+			? new File(Config.PATH_TO_GEO_FILES, (regionX + 10) + "_" + (regionY + 10) + ".l2j")
+			: searchL2OffGeoFile((regionX + 10), (regionY + 10));
+	}
+	
+	/**
+	 * The block data of the region is compressed afterwards on the prefetch threads, the region can be used before.
+	 */
+	private final GeoRegion readGeoRegion(final int regionX, final int regionY, final boolean l2j, final File file, final boolean mapped, final boolean parallel, final GeoRegionLoad load) throws Exception
+	{
+		final GeoRegion region = decodeGeoRegion(regionX, regionY, l2j, file, mapped, parallel, load);
+		_prefetchExecutor.execute(new Runnable()
+		{
+			@Override
+			public final void run()
+			{
+				region.compressBlocksData();
+			}
+		});
+		return region;
+	}
+	
+	private static final GeoRegion decodeGeoRegion(final int regionX, final int regionY, final boolean l2j, final File file, final boolean mapped, final boolean parallel, final GeoRegionLoad load) throws Exception
+	{
+		if (mapped)
+		{
+			try (GeoMappedReader reader = GeoMappedReader.map(file))
+			{
+				if (!l2j)
+					reader.skip(18);
+				
+				return parallel
+					? new GeoRegion(regionX, regionY, reader, l2j, file, ForkJoinPool.commonPool(), load)
+					: new GeoRegion(regionX, regionY, reader, l2j, file, load);
+			}
+		}
+		
+		try (FileInputStream fis = new FileInputStream(file);
+			BufferedInputStream bis = new BufferedInputStream(fis))
+		{
+			final GeoReader reader = GeoStreamReader.wrap(bis);
+			if (!l2j)
+			{
+				for (int i = 18; i-- > 0;)
+				{
+					reader.get();
+				}
+			}
+			
+			return new GeoRegion(regionX, regionY, reader, l2j, file, load);
+		}
+	}
+	
+	private static final ThreadFactory newThreadFactory(final String name, final int priority)
+	{
+		return new ThreadFactory()
+		{
+			@Override
+			public final Thread newThread(final Runnable r)
+			{
+				final Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				thread.setPriority(priority);
+				return thread;
+			}
+		};
+	}
+	
+	private volatile GeoRegion _activeRegion;
+	private boolean _neighboursPrefetched;
+	
+	/** Regions in access order, the eldest first. Includes the active region. */
+	private final LinkedHashMap<Integer, GeoRegion> _regionCache;
+	private final HashMap<Integer, Future<GeoRegion>> _regionPrefetch;
+	/** Regions handed out by the cache but not yet active, never unloaded. Guarded by _regionCache. */
+	private final IdentityHashMap<GeoRegion, Integer> _regionPins;
+	private final ExecutorService _prefetchExecutor;
+	private final ExecutorService _loadExecutor;
+	private volatile GeoRegionLoad _pendingLoad;
 	
 	public GeoEngine()
 	{
+		_regionCache = new LinkedHashMap<>(16, 0.75f, true);
+		_regionPrefetch = new HashMap<>();
+		_regionPins = new IdentityHashMap<>();
+		_prefetchExecutor = Executors.newFixedThreadPool(2, newThreadFactory("GeoRegionPrefetch", Thread.MIN_PRIORITY));
+		_loadExecutor = Executors.newSingleThreadExecutor(newThreadFactory("GeoRegionLoader", Thread.NORM_PRIORITY));
 	}
 	
+	/**
+	 * Deactivates the active region.<br>
+	 * An unmodified region stays in the cache, so does a region with unsaved changes, see {@link GeoRegion#hasUnsavedChanges()}.<br>
+	 * A region which was saved or whose changes were discarded is dropped, it is read from its file again.
+	 */
 	public final void unload()
 	{
 		final GeoRegion region = _activeRegion;
 		if (region != null)
 		{
 			GeoBlockSelector.getInstance().unload();
-			region.unload();
+			
+			// checked now, the user may have edited since the save prompt
+			if (region.hasUnsavedChanges() || region.allDataEqual() && region.isFileUnchanged())
+			{
+				region.unloadBlocks();
+			}
+			else
+			{
+				synchronized (_regionCache)
+				{
+					_regionCache.values().remove(region);
+					_activeRegion = null;
+					if (!isRegionInUse(region))
+						region.unload();
+				}
+			}
 		}
 		
 		_activeRegion = null;
 	}
 	
 	public final void reloadGeo(final int regionX, final int regionY, final boolean l2j, final File file) throws Exception
+	{
+		reloadGeo(regionX, regionY, l2j, file, Config.USE_MEMORY_MAPPED_GEO);
+	}
+	
+	public final void reloadGeo(final int regionX, final int regionY, final boolean l2j, final File file, final boolean mapped) throws Exception
 	{
 		if (file == null || !file.isFile())
 			throw new GeoFileNotFoundException(file, l2j);
@@ -390,34 +519,401 @@ public final class GeoEngine
 		if (_activeRegion != null)
 			throw new RuntimeException("Geo must be unloaded first");
 		
-		try (FileInputStream fis = new FileInputStream(file);
-			BufferedInputStream bis = new BufferedInputStream(fis))
+		GLTerrainTextureLoader.getInstance().prefetch(regionX, regionY);
+		final int key = getRegionKey(regionX, regionY, l2j);
+		GeoRegion region = getCachedRegion(key, file, null);
+		if (region == null)
 		{
-			final GeoReader reader = GeoStreamReader.wrap(bis);
+			try
+			{
+				region = readGeoRegion(regionX, regionY, l2j, file, mapped, Config.USE_MULTITHREADING, null);
+			}
+			catch (final Exception e)
+			{
+				e.printStackTrace();
+				throw new GeoFileLoadException(file, l2j, e);
+			}
 			
-			if (!l2j)
+			synchronized (_regionCache)
 			{
-				for (int i = 18; i-- > 0;)
+				putRegion(key, region);
+				pinRegion(region, null);
+			}
+		}
+		
+		synchronized (_regionCache)
+		{
+			_activeRegion = region;
+			unpinRegion(region);
+			_neighboursPrefetched = false;
+			trimRegionCache();
+		}
+	}
+	
+	public final void reloadGeo(final int regionX, final int regionY, final boolean l2j) throws Exception
+	{
+		reloadGeo(regionX, regionY, l2j, getGeoFile(regionX, regionY, l2j));
+	}
+	
+	/**
+	 * Reads the region in the background, the active region stays active until the new one is ready.<br>
+	 * The new region becomes the active region at the begin of the next frame, see {@link #swapPendingRegion()}.<br>
+	 * A pending load started before is cancelled.
+	 * 
+	 * @param file The file to read, null to search it in {@link Config#PATH_TO_GEO_FILES}
+	 * @param listener May be null
+	 * @return The load, which can be cancelled
+	 */
+	public final GeoRegionLoad loadGeoAsync(final int regionX, final int regionY, final boolean l2j, final File file, final GeoRegionLoadListener listener)
+	{
+		final GeoRegionLoad load = new GeoRegionLoad(regionX, regionY, l2j, file, listener);
+		final GeoRegionLoad oldLoad = _pendingLoad;
+		if (oldLoad != null)
+		{
+			oldLoad.cancel();
+			releaseRegionPin(oldLoad);
+		}
+		
+		_pendingLoad = load;
+		// the terrain texture is decoded while the region is read
+		GLTerrainTextureLoader.getInstance().prefetch(regionX, regionY);
+		_loadExecutor.execute(new Runnable()
+		{
+			@Override
+			public final void run()
+			{
+				if (load.isCancelled())
+					return;
+				
+				load.start();
+				try
 				{
-					reader.get();
+					final File geoFile = load.getFile() != null ? load.getFile() : getGeoFile(regionX, regionY, l2j);
+					if (geoFile == null || !geoFile.isFile())
+						throw new GeoFileNotFoundException(geoFile, l2j);
+					
+					final int key = getRegionKey(regionX, regionY, l2j);
+					GeoRegion region = getCachedRegion(key, geoFile, load);
+					load.onPhaseDone("cache");
+					if (region == null)
+					{
+						try
+						{
+							region = readGeoRegion(regionX, regionY, l2j, geoFile, Config.USE_MEMORY_MAPPED_GEO, Config.USE_MULTITHREADING, load);
+						}
+						catch (final CancellationException e)
+						{
+							throw e;
+						}
+						catch (final Exception e)
+						{
+							throw new GeoFileLoadException(geoFile, l2j, e);
+						}
+						
+						synchronized (_regionCache)
+						{
+							putRegion(key, region);
+							pinRegion(region, load);
+						}
+					}
+					
+					load.setRegion(region);
+					// a load cancelled meanwhile is never swapped in
+					if (load.isCancelled())
+						releaseRegionPin(load);
+				}
+				catch (final CancellationException e)
+				{
+					releaseRegionPin(load);
+					System.out.println("GeoEngine: Load of region " + load.getName() + " cancelled.");
+				}
+				catch (final Exception e)
+				{
+					releaseRegionPin(load);
+					e.printStackTrace();
+					if (_pendingLoad == load)
+						_pendingLoad = null;
+					
+					if (load.getListener() != null)
+						load.getListener().onFailed(e);
 				}
 			}
+		});
+		return load;
+	}
+	
+	/**
+	 * @return The cached regions, except the active one, with changes which were neither saved nor discarded
+	 */
+	public final ArrayList<GeoRegion> getUnsavedRegions()
+	{
+		final ArrayList<GeoRegion> regions = new ArrayList<>();
+		synchronized (_regionCache)
+		{
+			for (final GeoRegion region : _regionCache.values())
+			{
+				if (region != _activeRegion && region.hasUnsavedChanges())
+					regions.add(region);
+			}
+		}
+		return regions;
+	}
+	
+	public final GeoRegionLoad getPendingLoad()
+	{
+		return _pendingLoad;
+	}
+	
+	/**
+	 * Has to be called from the OpenGL thread before anything of the frame is done.<br>
+	 * Replaces the active region with the region of a finished {@link #loadGeoAsync(int, int, boolean, File, GeoRegionLoadListener)}.
+	 */
+	public final void swapPendingRegion()
+	{
+		final GeoRegionLoad load = _pendingLoad;
+		if (load == null)
+			return;
+		
+		if (load.isCancelled())
+		{
+			_pendingLoad = null;
+			releaseRegionPin(load);
+			return;
+		}
+		
+		if (!load.isDone())
+			return;
+		
+		final GeoRegion region = load.getRegion();
+		if (region != _activeRegion)
+			unload();
+		
+		synchronized (_regionCache)
+		{
+			_pendingLoad = null;
+			_activeRegion = region;
+			releaseRegionPin(load);
+			_neighboursPrefetched = false;
+			trimRegionCache();
+		}
+		
+		load.onPhaseDone("swap");
+		System.out.println("GeoEngine: Loaded region " + load.getName() + ": " + load.getTimings() + ".");
+		
+		if (load.getListener() != null)
+			load.getListener().onLoaded(region);
+	}
+	
+	/**
+	 * The returned region is pinned, see {@link #pinRegion(GeoRegion, GeoRegionLoad)}.
+	 * 
+	 * @param load The load that keeps the pin, null if the caller unpins the region itself
+	 * @return The cached region read from the given file, waits for a running prefetch of it
+	 */
+	private final GeoRegion getCachedRegion(final int key, final File file, final GeoRegionLoad load)
+	{
+		final Future<GeoRegion> prefetch;
+		synchronized (_regionCache)
+		{
+			prefetch = _regionPrefetch.get(key);
+		}
+		
+		if (prefetch != null)
+		{
+			try
+			{
+				prefetch.get();
+			}
+			catch (final Exception e)
+			{
+				// loaded again below
+			}
+		}
+		
+		synchronized (_regionCache)
+		{
+			final GeoRegion region = _regionCache.get(key);
+			if (region == null)
+				return null;
+			
+			// unsaved changes win over a changed file, they are only dropped by a save or discard
+			if (region.getFile().equals(file) && (region.hasUnsavedChanges() || region.allDataEqual() && region.isFileUnchanged()))
+			{
+				pinRegion(region, load);
+				return region;
+			}
 			
-			_activeRegion = new GeoRegion(regionX, regionY, reader, l2j, file);
+			_regionCache.remove(key);
+			if (!isRegionInUse(region))
+				region.unload();
+			return null;
 		}
-		catch (final Exception e)
+	}
+	
+	/**
+	 * Caches the region, the caller holds the lock of _regionCache.<br>
+	 * A region replaced by it is unloaded unless it is still in use.
+	 */
+	private final void putRegion(final int key, final GeoRegion region)
+	{
+		final GeoRegion old = _regionCache.put(key, region);
+		if (old != null && old != region && !isRegionInUse(old))
+			old.unload();
+	}
+	
+	/**
+	 * Keeps the region from being unloaded until {@link #unpinRegion(GeoRegion)}, the caller holds the lock of _regionCache.
+	 * 
+	 * @param load The load that keeps the pin until {@link #releaseRegionPin(GeoRegionLoad)}, may be null
+	 */
+	private final void pinRegion(final GeoRegion region, final GeoRegionLoad load)
+	{
+		final Integer pins = _regionPins.get(region);
+		_regionPins.put(region, pins == null ? 1 : pins + 1);
+		if (load != null)
+			load.setPinnedRegion(region);
+	}
+	
+	/**
+	 * The caller holds the lock of _regionCache.
+	 */
+	private final void unpinRegion(final GeoRegion region)
+	{
+		final Integer pins = _regionPins.get(region);
+		if (pins == null)
+			return;
+		
+		if (pins == 1)
+			_regionPins.remove(region);
+		else
+			_regionPins.put(region, pins - 1);
+	}
+	
+	/**
+	 * Drops the pin of the load, does nothing if the load has no pin left.
+	 */
+	private final void releaseRegionPin(final GeoRegionLoad load)
+	{
+		synchronized (_regionCache)
 		{
-			e.printStackTrace();
-			throw new GeoFileLoadException(file, l2j, e);
+			final GeoRegion region = load.takePinnedRegion();
+			if (region != null)
+				unpinRegion(region);
 		}
 	}
 	
-	public final void reloadGeo(final int regionX, final int regionY, final boolean l2j) throws Exception
+	/**
+	 * The caller holds the lock of _regionCache.
+	 * 
+	 * @return true if the region is active, pinned or waits in the pending load to become active
+	 */
+	private final boolean isRegionInUse(final GeoRegion region)
 	{
-		final File file = l2j
-			? new File(Config.PATH_TO_GEO_FILES, (regionX + 10) + "_" + (regionY + 10) + ".l2j")
-			: searchL2OffGeoFile((regionX + 10), (regionY + 10));
-		reloadGeo(regionX, regionY, l2j, file);
+		if (region == _activeRegion || _regionPins.containsKey(region))
+			return true;
+		
+		final GeoRegionLoad load = _pendingLoad;
+		return load != null && load.getRegion() == region;
+	}
+	
+	/**
+	 * Removes the least recently used regions until the cache fits in {@link Config#GEO_REGION_CACHE_SIZE}.<br>
+	 * The active region, regions in use and regions with unsaved changes are never removed, see {@link #isRegionInUse(GeoRegion)}.
+	 */
+	private final void trimRegionCache()
+	{
+		final long maxSize = Config.GEO_REGION_CACHE_SIZE * 1024L * 1024L;
+		synchronized (_regionCache)
+		{
+			long size = 0;
+			for (final GeoRegion region : _regionCache.values())
+			{
+				size += region.getMemoryUsage();
+			}
+			
+			GeoRegion region;
+			for (final Iterator<GeoRegion> it = _regionCache.values().iterator(); it.hasNext() && size > maxSize;)
+			{
+				region = it.next();
+				if (isRegionInUse(region) || region.hasUnsavedChanges())
+					continue;
+				
+				size -= region.getMemoryUsage();
+				it.remove();
+				region.unload();
+			}
+		}
+	}
+	
+	/**
+	 * Called each frame with the camera position, prefetches the 8 neighbour regions once the camera gets near the border of the active region.
+	 */
+	public final void checkPrefetchNeighbours(final int geoX, final int geoY)
+	{
+		final GeoRegion region = _activeRegion;
+		if (region == null || _neighboursPrefetched || !Config.PREFETCH_NEIGHBOUR_REGIONS)
+			return;
+		
+		final int blockX = Math.max(Math.min(geoX - region.getGeoX(0), GeoEngine.GEO_REGION_SIZE * GEO_BLOCK_SHIFT - 1), 0) >> 3;
+		final int blockY = Math.max(Math.min(geoY - region.getGeoY(0), GeoEngine.GEO_REGION_SIZE * GEO_BLOCK_SHIFT - 1), 0) >> 3;
+		final int distance = Math.min(Math.min(blockX, GEO_REGION_SIZE - 1 - blockX), Math.min(blockY, GEO_REGION_SIZE - 1 - blockY));
+		if (distance > Config.VIS_GRID_RANGE * 2)
+			return;
+		
+		_neighboursPrefetched = true;
+		final boolean l2j = !region.getFile().getName().toLowerCase().endsWith(".dat");
+		for (int x = -1, y; x <= 1; x++)
+		{
+			for (y = -1; y <= 1; y++)
+			{
+				if (x != 0 || y != 0)
+					prefetchRegion(region.getRegionX() + x, region.getRegionY() + y, l2j);
+			}
+		}
+	}
+	
+	private final void prefetchRegion(final int regionX, final int regionY, final boolean l2j)
+	{
+		final int key = getRegionKey(regionX, regionY, l2j);
+		synchronized (_regionCache)
+		{
+			if (_regionCache.containsKey(key) || _regionPrefetch.containsKey(key))
+				return;
+			
+			GLTerrainTextureLoader.getInstance().prefetch(regionX, regionY);
+			_regionPrefetch.put(key, _prefetchExecutor.submit(new Callable<GeoRegion>()
+			{
+				@Override
+				public final GeoRegion call() throws Exception
+				{
+					try
+					{
+						final File file = getGeoFile(regionX, regionY, l2j);
+						if (file == null || !file.isFile())
+							return null;
+						
+						final GeoRegion region = readGeoRegion(regionX, regionY, l2j, file, Config.USE_MEMORY_MAPPED_GEO, false, null);
+						synchronized (_regionCache)
+						{
+							// a region read by the loader meanwhile stays, this one is left to the GC
+							if (_regionCache.containsKey(key))
+								return _regionCache.get(key);
+							
+							_regionCache.put(key, region);
+							trimRegionCache();
+						}
+						return region;
+					}
+					finally
+					{
+						synchronized (_regionCache)
+						{
+							_regionPrefetch.remove(key);
+						}
+					}
+				}
+			}));
+		}
 	}
 	
 	public final GeoRegion getActiveRegion()
@@ -0,0 +1,197 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+import g3deditor.Config;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The min height of the lowest layer of the cells of a region and of their 2x2, 4x4 and 8x8 groups.<br>
+ * Level 0 are the cells, each level halves the groups per side, the last level are the blocks.<br>
+ * The groups of a level are stored in one array, group x, y at x * size + y.<br>
+ * Only the levels from the finest one requested are kept, a finer level is built on demand.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoHeightPyramid
+{
+	public static final int LEVELS = Integer.numberOfTrailingZeros(GeoEngine.GEO_BLOCK_SHIFT) + 1;
+	public static final int BLOCK_LEVEL = LEVELS - 1;
+	
+	/**
+	 * @return The groups per side of the region at the given level
+	 */
+	public static final int getSize(final int level)
+	{
+		return GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_BLOCK_SHIFT >> level;
+	}
+	
+	private final GeoRegion _region;
+	private final short[][] _minHeights;
+	private final short[] _cellHeights;
+	private int _finestLevel;
+	
+	public GeoHeightPyramid(final GeoRegion region)
+	{
+		_region = region;
+		_minHeights = new short[LEVELS][];
+		_cellHeights = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		_finestLevel = LEVELS;
+	}
+	
+	/**
+	 * Builds the levels from the given one up if they are not built yet.
+	 */
+	public final synchronized void ensureLevel(final int level)
+	{
+		if (level >= _finestLevel)
+			return;
+		
+		for (int i = level; i < _finestLevel; i++)
+		{
+			_minHeights[i] = new short[getSize(i) * getSize(i)];
+		}
+		_finestLevel = level;
+		
+		final BlockReader reader = new BlockReader(0, GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE);
+		if (Config.USE_MULTITHREADING)
+			ForkJoinPool.commonPool().invoke(reader);
+		else
+			reader.compute();
+	}
+	
+	/**
+	 * Updates the groups of the block from its cells, called by the region after the block changed.
+	 * 
+	 * @return True if a min height of the block changed
+	 */
+	public final synchronized boolean update(final int blockX, final int blockY)
+	{
+		return _finestLevel < LEVELS && updateBlock(blockX, blockY, _cellHeights);
+	}
+	
+	/**
+	 * @param heights Scratch array for the 64 cells of the block
+	 * @return True if a min height of the block changed
+	 */
+	final boolean updateBlock(final int blockX, final int blockY, final short[] heights)
+	{
+		// the min height of the block is known without reading its cells
+		if (_finestLevel == BLOCK_LEVEL)
+		{
+			final int index = blockX * GeoEngine.GEO_REGION_SIZE + blockY;
+			final short minHeight = _region.getBlockMinHeight(blockX, blockY);
+			if (_minHeights[BLOCK_LEVEL][index] == minHeight)
+				return false;
+			
+			_minHeights[BLOCK_LEVEL][index] = minHeight;
+			return true;
+		}
+		
+		_region.getLowestCellHeights(blockX, blockY, heights);
+		
+		boolean changed = false;
+		// the groups of a level are reduced in place, group x, y of the block at x * groups + y
+		for (int level = 0, groups = GeoEngine.GEO_BLOCK_SHIFT, x, y; level < LEVELS; level++, groups >>= 1)
+		{
+			if (level >= _finestLevel)
+			{
+				final short[] minHeights = _minHeights[level];
+				final int size = getSize(level);
+				for (x = groups; x-- > 0;)
+				{
+					for (y = groups; y-- > 0;)
+					{
+						final int index = (blockX * groups + x) * size + blockY * groups + y;
+						if (minHeights[index] != heights[x * groups + y])
+						{
+							minHeights[index] = heights[x * groups + y];
+							changed = true;
+						}
+					}
+				}
+			}
+			
+			// ascending, the children of a group are never at a lower index than the group
+			for (x = 0; x < groups >> 1; x++)
+			{
+				for (y = 0; y < groups >> 1; y++)
+				{
+					final int child = x * 2 * groups + y * 2;
+					heights[x * (groups >> 1) + y] = (short) Math.min(Math.min(heights[child], heights[child + 1]), Math.min(heights[child + groups], heights[child + groups + 1]));
+				}
+			}
+		}
+		return changed;
+	}
+	
+	public final short getMinHeight(final int level, final int x, final int y)
+	{
+		return _minHeights[level][x * getSize(level) + y];
+	}
+	
+	/**
+	 * @return The heap usage of the pyramid in bytes
+	 */
+	public final long getMemoryUsage()
+	{
+		long size = 0;
+		for (final short[] heights : _minHeights)
+		{
+			if (heights != null)
+				size += heights.length * 2L;
+		}
+		return size;
+	}
+	
+	private final class BlockReader extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCKS_PER_TASK = 1024;
+		
+		private final int _from;
+		private final int _to;
+		
+		public BlockReader(final int from, final int to)
+		{
+			_from = from;
+			_to = to;
+		}
+		
+		/**
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected final void compute()
+		{
+			if (_to - _from > BLOCKS_PER_TASK)
+			{
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(new BlockReader(_from, middle), new BlockReader(middle, _to));
+				return;
+			}
+			
+			final short[] heights = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+			for (int i = _from; i < _to; i++)
+			{
+				updateBlock(i / GeoEngine.GEO_REGION_SIZE, i % GeoEngine.GEO_REGION_SIZE, heights);
+			}
+		}
+	}
+}
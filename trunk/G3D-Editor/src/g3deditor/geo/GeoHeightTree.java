@@ -0,0 +1,138 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+/**
+ * A quadtree with the min and max height of the blocks of a region.<br>
+ * Level 0 is the whole region, each level halves the nodes per side, the last level are the blocks.<br>
+ * The nodes of a level are stored in one array, node x, y at x * size + y.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoHeightTree
+{
+	public static final int LEVELS = Integer.numberOfTrailingZeros(GeoEngine.GEO_REGION_SIZE) + 1;
+	public static final int LEAF_LEVEL = LEVELS - 1;
+	
+	private final short[][] _minHeights;
+	private final short[][] _maxHeights;
+	
+	/**
+	 * Builds the tree from the min/max heights of the blocks, without loading them.
+	 */
+	public GeoHeightTree(final GeoRegion region)
+	{
+		_minHeights = new short[LEVELS][];
+		_maxHeights = new short[LEVELS][];
+		for (int level = LEVELS; level-- > 0;)
+		{
+			_minHeights[level] = new short[1 << level * 2];
+			_maxHeights[level] = new short[1 << level * 2];
+		}
+		
+		final short[] minHeights = _minHeights[LEAF_LEVEL];
+		final short[] maxHeights = _maxHeights[LEAF_LEVEL];
+		for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY; blockX-- > 0;)
+		{
+			for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+			{
+				minHeights[blockX * GeoEngine.GEO_REGION_SIZE + blockY] = region.getBlockMinHeight(blockX, blockY);
+				maxHeights[blockX * GeoEngine.GEO_REGION_SIZE + blockY] = region.getBlockMaxHeight(blockX, blockY);
+			}
+		}
+		
+		for (int level = LEAF_LEVEL, x, y; level-- > 0;)
+		{
+			for (x = 1 << level; x-- > 0;)
+			{
+				for (y = 1 << level; y-- > 0;)
+				{
+					updateNode(level, x, y);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Updates the node from its four children.
+	 * 
+	 * @return True if the min or max height of the node changed
+	 */
+	private final boolean updateNode(final int level, final int x, final int y)
+	{
+		final int size = 1 << level + 1;
+		final int child = x * 2 * size + y * 2;
+		final short[] childMinHeights = _minHeights[level + 1];
+		final short[] childMaxHeights = _maxHeights[level + 1];
+		final short minHeight = (short) Math.min(Math.min(childMinHeights[child], childMinHeights[child + 1]), Math.min(childMinHeights[child + size], childMinHeights[child + size + 1]));
+		final short maxHeight = (short) Math.max(Math.max(childMaxHeights[child], childMaxHeights[child + 1]), Math.max(childMaxHeights[child + size], childMaxHeights[child + size + 1]));
+		
+		final int index = x * (1 << level) + y;
+		if (_minHeights[level][index] == minHeight && _maxHeights[level][index] == maxHeight)
+			return false;
+		
+		_minHeights[level][index] = minHeight;
+		_maxHeights[level][index] = maxHeight;
+		return true;
+	}
+	
+	/**
+	 * Sets the min/max height of the block and updates its parents, as far as they change.
+	 * 
+	 * @return True if the min or max height of the block changed
+	 */
+	public final synchronized boolean update(final int blockX, final int blockY, final short minHeight, final short maxHeight)
+	{
+		final int index = blockX * GeoEngine.GEO_REGION_SIZE + blockY;
+		if (_minHeights[LEAF_LEVEL][index] == minHeight && _maxHeights[LEAF_LEVEL][index] == maxHeight)
+			return false;
+		
+		_minHeights[LEAF_LEVEL][index] = minHeight;
+		_maxHeights[LEAF_LEVEL][index] = maxHeight;
+		for (int level = LEAF_LEVEL, x = blockX, y = blockY; level-- > 0;)
+		{
+			x >>= 1;
+			y >>= 1;
+			if (!updateNode(level, x, y))
+				break;
+		}
+		return true;
+	}
+	
+	public final short getMinHeight(final int level, final int x, final int y)
+	{
+		return _minHeights[level][x * (1 << level) + y];
+	}
+	
+	public final short getMaxHeight(final int level, final int x, final int y)
+	{
+		return _maxHeights[level][x * (1 << level) + y];
+	}
+	
+	/**
+	 * @return The heap usage of the tree in bytes
+	 */
+	public final long getMemoryUsage()
+	{
+		long size = 0;
+		for (final short[] heights : _minHeights)
+		{
+			size += heights.length * 4L;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+/**
+ * Finds the first cell hit by a ray on the CPU, without reading back the depth buffer.<br>
+ * The ray walks the block grid of the region (DDA), blocks whose min/max height box is not crossed by the ray are skipped without loading them.<br>
+ * Inside a block each column is tested for each layer, a cell is the box of its column from 0.2 below to its height, as it is rendered.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoRayPicker
+{
+	/**
+	 * The depth of a cell box below its height, in render units.
+	 */
+	private static final float CELL_DEPTH = 0.2f;
+	
+	private GeoCell _cell;
+	private int _layer;
+	private float _distance;
+	
+	private GeoRegion _region;
+	private float _originX;
+	private float _originY;
+	private float _originZ;
+	private float _directionX;
+	private float _directionY;
+	private float _directionZ;
+	
+	public GeoRayPicker()
+	{
+		
+	}
+	
+	/**
+	 * @return The cell of the last pick, null if nothing was hit
+	 */
+	public final GeoCell getCell()
+	{
+		return _cell;
+	}
+	
+	/**
+	 * @return The layer of the cell in its column
+	 */
+	public final int getLayer()
+	{
+		return _layer;
+	}
+	
+	/**
+	 * @return The distance of the hit as part of the ray, 0 at the start and 1 at the end
+	 */
+	public final float getDistance()
+	{
+		return _distance;
+	}
+	
+	/**
+	 * Picks the first cell on the ray from start to end, in render coordinates (x = geo x, y = height / 16, z = geo y).
+	 * 
+	 * @param region The region to pick in
+	 * @param startX
+	 * @param startY
+	 * @param startZ
+	 * @param endX
+	 * @param endY
+	 * @param endZ
+	 * @param minBlockX The blocks to pick in, max exclusive
+	 * @param maxBlockX
+	 * @param minBlockY
+	 * @param maxBlockY
+	 * @return The cell hit, null if nothing was hit
+	 */
+	public final GeoCell pick(final GeoRegion region, final float startX, final float startY, final float startZ, final float endX, final float endY, final float endZ, final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY)
+	{
+		_cell = null;
+		_layer = -1;
+		_distance = Float.POSITIVE_INFINITY;
+		if (region == null || minBlockX >= maxBlockX || minBlockY >= maxBlockY)
+			return null;
+		
+		_region = region;
+		_originX = startX;
+		_originY = startY;
+		_originZ = startZ;
+		_directionX = endX - startX;
+		_directionY = endY - startY;
+		_directionZ = endZ - startZ;
+		
+		// clip the ray to the blocks
+		final float baseX = region.getGeoX(0);
+		final float baseZ = region.getGeoY(0);
+		float enter = 0f;
+		float exit = 1f;
+		float t1, t2;
+		if (_directionX != 0f)
+		{
+			t1 = (baseX + minBlockX * 8 - startX) / _directionX;
+			t2 = (baseX + maxBlockX * 8 - startX) / _directionX;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		else if (startX < baseX + minBlockX * 8 || startX >= baseX + maxBlockX * 8)
+		{
+			return null;
+		}
+		if (_directionZ != 0f)
+		{
+			t1 = (baseZ + minBlockY * 8 - startZ) / _directionZ;
+			t2 = (baseZ + maxBlockY * 8 - startZ) / _directionZ;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		else if (startZ < baseZ + minBlockY * 8 || startZ >= baseZ + maxBlockY * 8)
+		{
+			return null;
+		}
+		if (enter > exit)
+			return null;
+		
+		int blockX = Math.max(Math.min((int) Math.floor((startX + _directionX * enter - baseX) / 8f), maxBlockX - 1), minBlockX);
+		int blockY = Math.max(Math.min((int) Math.floor((startZ + _directionZ * enter - baseZ) / 8f), maxBlockY - 1), minBlockY);
+		final int stepX = _directionX > 0f ? 1 : -1;
+		final int stepY = _directionZ > 0f ? 1 : -1;
+		final float deltaX = _directionX != 0f ? 8f / Math.abs(_directionX) : Float.POSITIVE_INFINITY;
+		final float deltaY = _directionZ != 0f ? 8f / Math.abs(_directionZ) : Float.POSITIVE_INFINITY;
+		float nextX = _directionX != 0f ? (baseX + (blockX + (stepX > 0 ? 1 : 0)) * 8 - startX) / _directionX : Float.POSITIVE_INFINITY;
+		float nextY = _directionZ != 0f ? (baseZ + (blockY + (stepY > 0 ? 1 : 0)) * 8 - startZ) / _directionZ : Float.POSITIVE_INFINITY;
+		
+		float blockExit;
+		while (true)
+		{
+			blockExit = Math.min(Math.min(nextX, nextY), exit);
+			if (intersectsHeights(region.getBlockMinHeight(blockX, blockY) / 16f - CELL_DEPTH, region.getBlockMaxHeight(blockX, blockY) / 16f, enter, blockExit) && pickBlock(region.getBlockByBlockXY(blockX, blockY), enter, blockExit))
+				return _cell;
+			
+			if (blockExit >= exit)
+				return null;
+			
+			enter = blockExit;
+			if (nextX < nextY)
+			{
+				blockX += stepX;
+				nextX += deltaX;
+				if (blockX < minBlockX || blockX >= maxBlockX)
+					return null;
+			}
+			else
+			{
+				blockY += stepY;
+				nextY += deltaY;
+				if (blockY < minBlockY || blockY >= maxBlockY)
+					return null;
+			}
+		}
+	}
+	
+	/**
+	 * @return True if the ray is between the given heights at some point of the given part
+	 */
+	private final boolean intersectsHeights(final float minY, final float maxY, final float enter, final float exit)
+	{
+		final float y1 = _originY + _directionY * enter;
+		final float y2 = _originY + _directionY * exit;
+		return Math.min(y1, y2) <= maxY && Math.max(y1, y2) >= minY;
+	}
+	
+	/**
+	 * Tests the cells of the block, the ray is above the block from enter to exit.
+	 * 
+	 * @return True if a cell was hit
+	 */
+	private final boolean pickBlock(final GeoBlock block, final float enter, final float exit)
+	{
+		if (block.getType() == GeoEngine.GEO_BLOCK_TYPE_FLAT)
+		{
+			pickCell(block, block.getGeoX(), block.getGeoY(), 0, block.getMinHeight(), enter, exit);
+		}
+		else
+		{
+			float t1, t2, columnEnter, columnExit;
+			for (int geoX = block.getGeoX(), maxGeoX = geoX + 8, geoY, maxGeoY = block.getGeoY() + 8; geoX < maxGeoX; geoX++)
+			{
+				// the part of the ray above the cells with this x
+				columnEnter = enter;
+				columnExit = exit;
+				if (_directionX != 0f)
+				{
+					t1 = (geoX - _originX) / _directionX;
+					t2 = (geoX + 1 - _originX) / _directionX;
+					columnEnter = Math.max(columnEnter, Math.min(t1, t2));
+					columnExit = Math.min(columnExit, Math.max(t1, t2));
+				}
+				else if (_originX < geoX || _originX >= geoX + 1)
+				{
+					continue;
+				}
+				if (columnEnter > columnExit)
+					continue;
+				
+				for (geoY = block.getGeoY(); geoY < maxGeoY; geoY++)
+				{
+					pickColumn(block, geoX, geoY, columnEnter, columnExit);
+				}
+			}
+		}
+		return _cell != null;
+	}
+	
+	private final void pickColumn(final GeoBlock block, final int geoX, final int geoY, float enter, float exit)
+	{
+		if (_directionZ != 0f)
+		{
+			final float t1 = (geoY - _originZ) / _directionZ;
+			final float t2 = (geoY + 1 - _originZ) / _directionZ;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		else if (_originZ < geoY || _originZ >= geoY + 1)
+		{
+			return;
+		}
+		if (enter > exit || enter >= _distance)
+			return;
+		
+		for (int layer = block.nGetLayerCount(geoX, geoY); layer-- > 0;)
+		{
+			pickCell(block, geoX, geoY, layer, GeoEngine.getHeight(block.nGetHeightAndNSWE(geoX, geoY, layer)), enter, exit);
+		}
+	}
+	
+	/**
+	 * Keeps the cell if the ray enters its box from enter to exit nearer than the nearest hit so far.
+	 */
+	private final void pickCell(final GeoBlock block, final int geoX, final int geoY, final int layer, final short height, float enter, float exit)
+	{
+		final float maxY = height / 16f;
+		final float minY = maxY - CELL_DEPTH;
+		if (_directionY != 0f)
+		{
+			final float t1 = (minY - _originY) / _directionY;
+			final float t2 = (maxY - _originY) / _directionY;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		else if (_originY < minY || _originY > maxY)
+		{
+			return;
+		}
+		
+		if (enter <= exit && enter < _distance)
+		{
+			_distance = enter;
+			_layer = layer;
+			_cell = block.nGetCellByLayer(geoX, geoY, layer);
+		}
+	}
+}
@@ -14,19 +14,35 @@
  */
 package g3deditor.geo;
 
+import g3deditor.Config;
 import g3deditor.geo.blocks.GeoBlockComplex;
 import g3deditor.geo.blocks.GeoBlockFlat;
 import g3deditor.geo.blocks.GeoBlockMultiLayer;
 import g3deditor.swing.DialogSave;
+import g3deditor.swing.FrameMain;
 import g3deditor.util.GeoByteBuffer;
+import g3deditor.util.GeoMappedReader;
 import g3deditor.util.GeoReader;
-import g3deditor.util.GeoStreamWriter;
 import g3deditor.util.GeoWriter;
-import g3deditor.util.Util;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
@@ -35,6 +51,19 @@ import java.io.OutputStream;
  */
 public final class GeoRegion
 {
+	/**
+	 * Cell data changed, see {@link #pollChanges()}.
+	 */
+	public static final int CHANGE_DATA = 1;
+	/**
+	 * The min or max height of a block or the min heights of its cells changed, see {@link #pollChanges()} and {@link #pollTerrainChangedBlocks(long[])}.
+	 */
+	public static final int CHANGE_TERRAIN = 2;
+	/**
+	 * Blocks were replaced by new objects, see {@link #pollChanges()}.
+	 */
+	public static final int CHANGE_BLOCKS = 4;
+	
 	public static final byte getType(final GeoReader reader, final boolean l2j)
 	{
 		if (l2j)
@@ -82,42 +111,439 @@ public final class GeoRegion
 	}
 	
 	private final File _file;
+	private final long _fileLastModified;
+	private final boolean _l2j;
 	private final int _regionX;
 	private final int _regionY;
 	private final int _minGeoX;
 	private final int _maxGeoX;
 	private final int _minGeoY;
 	private final int _maxGeoY;
-	private GeoBlock[][] _geoBlocks;
+	/**
+	 * The loaded blocks at {@link GeoEngine#getBlockIndex(int, int)}, read without the region lock by the render, save and selection threads.<br>
+	 * A block dropped from here is left as it is, a thread still using it can finish with it.
+	 */
+	private AtomicReferenceArray<GeoBlock> _geoBlocks;
+	/**
+	 * The encoded data of each block while reading, moved to _blocksData once the region was read.
+	 */
 	private GeoByteBuffer[][] _geoBlocksData;
+	private GeoBlockDataStore _blocksData;
+	/**
+	 * The offset of each block in the file, with the end of the last block at the end, null if unknown.
+	 */
+	private int[] _blockOffsets;
+	private short[][] _geoBlocksMinHeight;
+	private short[][] _geoBlocksMaxHeight;
+	private GeoHeightTree _heightTree;
+	private volatile GeoHeightPyramid _heightPyramid;
+	private int _loadedBlocks;
+	private long[] _modifiedBlocks;
+	private int _modifiedBlockCount;
+	/**
+	 * The blocks whose min or max height or the min heights of their cells changed since the last {@link #pollTerrainChangedBlocks(long[])}.
+	 */
+	private long[] _terrainChangedBlocks;
+	/**
+	 * A block was added to _terrainChangedBlocks since the last edit ended.
+	 */
+	private boolean _terrainChanged;
+	/**
+	 * The data of flat blocks and of complex blocks with 64 equal cells, shared between all blocks with the same data while reading.
+	 */
+	private ConcurrentHashMap<Integer, GeoByteBuffer> _sharedBlocksData;
+	/**
+	 * The cells of complex blocks with 64 equal cells, shared between the blocks of this region until they are edited.
+	 */
+	private ConcurrentHashMap<Short, short[]> _constantHeightAndNSWE;
+	/**
+	 * The number of nested edits, while greater 0 the blocks defer their updates to {@link #endEdit()}.
+	 */
+	private int _editDepth;
+	/**
+	 * The blocks changed by the running edit, with their l2j encoding from before the edit if the journal is enabled.
+	 */
+	private final LinkedHashMap<GeoBlock, byte[]> _editedBlocks;
+	/**
+	 * The changes of the running edit or undo/redo, published to {@link #pollChanges()} once it ends.
+	 */
+	private int _pendingChanges;
+	private int _changes;
+	/**
+	 * Counts the block changes, see {@link #hasUnsavedChanges()}.
+	 */
+	private int _changeCount;
+	/**
+	 * The change count when the region was saved or its changes were discarded the last time.
+	 */
+	private int _handledChangeCount;
+	private final GeoRegionJournal _journal;
 	
-	public GeoRegion(final int regionX, final int regionY, final GeoReader reader, final boolean l2j, final File file)
+	private GeoRegion(final int regionX, final int regionY, final boolean l2j, final File file)
 	{
 		_file = file;
+		_fileLastModified = file != null ? file.lastModified() : 0;
+		_l2j = l2j;
 		_regionX = regionX;
 		_regionY = regionY;
 		_minGeoX = GeoEngine.getGeoXY(regionX, 0);
 		_maxGeoX = GeoEngine.getGeoXY(regionX, GeoEngine.GEO_REGION_SIZE - 1);
 		_minGeoY = GeoEngine.getGeoXY(regionY, 0);
 		_maxGeoY = GeoEngine.getGeoXY(regionY, GeoEngine.GEO_REGION_SIZE - 1);
-		_geoBlocks = new GeoBlock[GeoEngine.GEO_REGION_SIZE][GeoEngine.GEO_REGION_SIZE];
+		_geoBlocks = new AtomicReferenceArray<>(GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE);
 		_geoBlocksData = new GeoByteBuffer[GeoEngine.GEO_REGION_SIZE][GeoEngine.GEO_REGION_SIZE];
+		_geoBlocksMinHeight = new short[GeoEngine.GEO_REGION_SIZE][GeoEngine.GEO_REGION_SIZE];
+		_geoBlocksMaxHeight = new short[GeoEngine.GEO_REGION_SIZE][GeoEngine.GEO_REGION_SIZE];
+		_modifiedBlocks = new long[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / 64];
+		_terrainChangedBlocks = new long[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / 64];
+		_sharedBlocksData = new ConcurrentHashMap<>();
+		_constantHeightAndNSWE = new ConcurrentHashMap<>();
+		_editedBlocks = new LinkedHashMap<>();
+		_journal = new GeoRegionJournal(Config.UNDO_MEMORY_SIZE * 1024L * 1024L);
+	}
+	
+	/**
+	 * Reads the region, but only keeps the encoded data of each block.<br>
+	 * The GeoBlock objects are created on first access, see {@link #getBlockByBlockXY(int, int)}.
+	 */
+	public GeoRegion(final int regionX, final int regionY, final GeoReader reader, final boolean l2j, final File file)
+	{
+		this(regionX, regionY, reader, l2j, file, (GeoRegionLoad) null);
+	}
+	
+	/**
+	 * @param load Receives the progress and can cancel the read, may be null
+	 */
+	public GeoRegion(final int regionX, final int regionY, final GeoReader reader, final boolean l2j, final File file, final GeoRegionLoad load)
+	{
+		this(regionX, regionY, l2j, file);
+		
+		final GeoMappedReader mappedReader = reader instanceof GeoMappedReader ? (GeoMappedReader) reader : null;
+		if (mappedReader != null)
+			_blockOffsets = new int[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE + 1];
 		
-		GeoBlock block;
-		GeoByteBuffer writer;
+		final short[] heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT * Byte.MAX_VALUE];
 		for (int blockX = 0, blockY; blockX < GeoEngine.GEO_REGION_SIZE; blockX++)
 		{
 			for (blockY = 0; blockY < GeoEngine.GEO_REGION_SIZE; blockY++)
 			{
-				block = readBlock(blockX, blockY, reader, l2j);
-				_geoBlocks[blockX][blockY] = block;
-				writer = GeoByteBuffer.allocate(block.getRequiredCapacity(true));
-				block.writeTo(writer, true);
-				_geoBlocksData[blockX][blockY] = writer;
+				if (mappedReader != null)
+					_blockOffsets[blockX * GeoEngine.GEO_REGION_SIZE + blockY] = mappedReader.position();
+				
+				readBlockData(blockX, blockY, reader, l2j, heightAndNSWE);
 			}
+			
+			if (load != null)
+				load.onBlocksRead(GeoEngine.GEO_REGION_SIZE);
+		}
+		
+		if (mappedReader != null)
+			_blockOffsets[_blockOffsets.length - 1] = mappedReader.position();
+		
+		if (load != null)
+			load.onPhaseDone("decode");
+		
+		storeBlocksData(load);
+	}
+	
+	/**
+	 * Reads the region in two passes.<br>
+	 * The first pass only walks over the file to find where each block starts, the second decodes the blocks in parallel on the given pool.<br>
+	 * The result is the same as with the sequential constructor.
+	 */
+	public GeoRegion(final int regionX, final int regionY, final GeoMappedReader reader, final boolean l2j, final File file, final ForkJoinPool pool)
+	{
+		this(regionX, regionY, reader, l2j, file, pool, null);
+	}
+	
+	/**
+	 * @param load Receives the progress and can cancel the read, may be null
+	 */
+	public GeoRegion(final int regionX, final int regionY, final GeoMappedReader reader, final boolean l2j, final File file, final ForkJoinPool pool, final GeoRegionLoad load)
+	{
+		this(regionX, regionY, l2j, file);
+		
+		final int[] offsets = new int[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE + 1];
+		for (int i = 0; i < offsets.length - 1; i++)
+		{
+			offsets[i] = reader.position();
+			skipBlock(reader, l2j);
+		}
+		offsets[offsets.length - 1] = reader.position();
+		_blockOffsets = offsets;
+		
+		if (load != null)
+			load.onPhaseDone("scan");
+		
+		// the tasks never throw, so the invoke returns only after all of them stopped reading the mapped file
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		pool.invoke(new BlockDataReader(reader, l2j, offsets, 0, offsets.length - 1, load, failure));
+		
+		final Throwable t = failure.get();
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		
+		if (load != null)
+			load.checkCancelled();
+		
+		if (load != null)
+			load.onPhaseDone("decode");
+		
+		storeBlocksData(load);
+	}
+	
+	/**
+	 * Moves the data read into the block data store, it is compressed later, see {@link #compressBlocksData()}.
+	 */
+	private final void storeBlocksData(final GeoRegionLoad load)
+	{
+		_blocksData = new GeoBlockDataStore(_geoBlocksData);
+		_geoBlocksData = null;
+		_sharedBlocksData = null;
+		_heightTree = new GeoHeightTree(this);
+		
+		if (load != null)
+			load.onPhaseDone("store");
+	}
+	
+	/**
+	 * Compresses the block data, which is kept as read after the load.<br>
+	 * Takes a while, so it should run in the background, the region can be used meanwhile.
+	 */
+	public final void compressBlocksData()
+	{
+		final GeoBlockDataStore blocksData = _blocksData;
+		if (blocksData != null)
+			blocksData.compress();
+	}
+	
+	private static final void skipBlock(final GeoMappedReader reader, final boolean l2j)
+	{
+		final byte type = getType(reader, l2j);
+		switch (type)
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+				reader.skip(l2j ? 2 : 4);
+				break;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
+				reader.skip(GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT * 2);
+				break;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_MULTILAYER:
+				for (int i = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT, layers; i-- > 0;)
+				{
+					layers = l2j ? reader.get() : reader.getShort();
+					if (!GeoEngine.layersValid(layers))
+						throw new RuntimeException("Invalid layer count " + layers);
+					
+					reader.skip(layers * 2);
+				}
+				break;
+				
+			default:
+				throw new RuntimeException("Unknown type: " + type);
 		}
 	}
 	
+	private final class BlockDataReader extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCKS_PER_TASK = 1024;
+		
+		private final GeoMappedReader _reader;
+		private final boolean _l2j;
+		private final int[] _offsets;
+		private final int _from;
+		private final int _to;
+		private final GeoRegionLoad _load;
+		/**
+		 * The first failure of all tasks, the tasks catch it instead of throwing, because invokeAll would not wait for the other half then.
+		 */
+		private final AtomicReference<Throwable> _failure;
+		
+		public BlockDataReader(final GeoMappedReader reader, final boolean l2j, final int[] offsets, final int from, final int to, final GeoRegionLoad load, final AtomicReference<Throwable> failure)
+		{
+			_reader = reader;
+			_l2j = l2j;
+			_offsets = offsets;
+			_from = from;
+			_to = to;
+			_load = load;
+			_failure = failure;
+		}
+		
+		/**
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected final void compute()
+		{
+			if (_to - _from > BLOCKS_PER_TASK)
+			{
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(new BlockDataReader(_reader, _l2j, _offsets, _from, middle, _load, _failure), new BlockDataReader(_reader, _l2j, _offsets, middle, _to, _load, _failure));
+				return;
+			}
+			
+			if (_failure.get() != null || _load != null && _load.isCancelled())
+				return;
+			
+			try
+			{
+				final GeoMappedReader reader = _reader.duplicate();
+				final short[] heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT * Byte.MAX_VALUE];
+				for (int i = _from; i < _to; i++)
+				{
+					reader.position(_offsets[i]);
+					readBlockData(i / GeoEngine.GEO_REGION_SIZE, i % GeoEngine.GEO_REGION_SIZE, reader, _l2j, heightAndNSWE);
+				}
+				
+				if (_load != null)
+					_load.addBlocksRead(_to - _from);
+			}
+			catch (final Throwable t)
+			{
+				_failure.compareAndSet(null, t);
+			}
+		}
+	}
+	
+	/**
+	 * Converts the block at the reader position into the l2j encoding, with the layers sorted the way GeoBlockMultiLayer keeps them.<br>
+	 * The result equals what GeoBlock.writeTo(writer, true) would write for the loaded block.
+	 */
+	private final void readBlockData(final int blockX, final int blockY, final GeoReader reader, final boolean l2j, final short[] heightAndNSWE)
+	{
+		final byte type = getType(reader, l2j);
+		short minHeight = Short.MAX_VALUE, maxHeight = Short.MIN_VALUE, height;
+		final GeoByteBuffer data;
+		switch (type)
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+			{
+				height = GeoEngine.getGeoHeightOfHeight(reader.getShort());
+				if (!l2j)
+					reader.getShort();
+				
+				data = getSharedBlockData(type, height, 1);
+				minHeight = height;
+				maxHeight = height;
+				break;
+			}
+			
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
+			{
+				final int count = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT;
+				reader.getShorts(heightAndNSWE, 0, count);
+				if (isConstant(heightAndNSWE, count))
+				{
+					data = getSharedBlockData(type, heightAndNSWE[0], count);
+					minHeight = GeoEngine.getHeight(heightAndNSWE[0]);
+					maxHeight = minHeight;
+					break;
+				}
+				
+				data = GeoByteBuffer.allocate(count * 2 + 1);
+				data.put(type);
+				for (int i = 0; i < count; i++)
+				{
+					data.putShort(heightAndNSWE[i]);
+					height = GeoEngine.getHeight(heightAndNSWE[i]);
+					minHeight = (short) Math.min(height, minHeight);
+					maxHeight = (short) Math.max(height, maxHeight);
+				}
+				break;
+			}
+			
+			case GeoEngine.GEO_BLOCK_TYPE_MULTILAYER:
+			{
+				final byte[] layerCounts = new byte[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+				int count = 0, layers;
+				for (int i = 0; i < layerCounts.length; i++)
+				{
+					layers = l2j ? reader.get() : reader.getShort();
+					if (!GeoEngine.layersValid(layers))
+						throw new RuntimeException("Invalid layer count " + layers);
+					
+					layerCounts[i] = (byte) layers;
+					reader.getShorts(heightAndNSWE, count, layers);
+					count += layers;
+				}
+				
+				data = GeoByteBuffer.allocate(1 + layerCounts.length + count * 2);
+				data.put(type);
+				final short[] cellLayers = new short[Byte.MAX_VALUE];
+				for (int i = 0, offset = 0, j; i < layerCounts.length; i++)
+				{
+					layers = layerCounts[i];
+					// the file stores the layers from highest to lowest
+					for (j = layers; j-- > 0;)
+					{
+						cellLayers[j] = heightAndNSWE[offset + layers - 1 - j];
+					}
+					GeoBlockMultiLayer.sortLayers(cellLayers, layers);
+					offset += layers;
+					
+					data.put((byte) layers);
+					for (j = layers; j-- > 0;)
+					{
+						data.putShort(cellLayers[j]);
+						height = GeoEngine.getHeight(cellLayers[j]);
+						minHeight = (short) Math.min(height, minHeight);
+						maxHeight = (short) Math.max(height, maxHeight);
+					}
+				}
+				break;
+			}
+			
+			default:
+				throw new RuntimeException("Unknown type: " + type);
+		}
+		
+		_geoBlocksData[blockX][blockY] = data;
+		_geoBlocksMinHeight[blockX][blockY] = minHeight;
+		_geoBlocksMaxHeight[blockX][blockY] = maxHeight;
+	}
+	
+	private static final boolean isConstant(final short[] heightAndNSWE, final int count)
+	{
+		for (int i = count; i-- > 1;)
+		{
+			if (heightAndNSWE[i] != heightAndNSWE[0])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param type The block type
+	 * @param heightAndNSWE The value of all cells
+	 * @param count The number of cells
+	 * @return The shared data of a block of the given type, with all cells set to the given value
+	 */
+	private final GeoByteBuffer getSharedBlockData(final byte type, final short heightAndNSWE, final int count)
+	{
+		final Integer key = Integer.valueOf(type << 16 | heightAndNSWE & 0xFFFF);
+		GeoByteBuffer data = _sharedBlocksData.get(key);
+		if (data == null)
+		{
+			data = GeoByteBuffer.allocate(count * 2 + 1);
+			data.put(type);
+			for (int i = count; i-- > 0;)
+			{
+				data.putShort(heightAndNSWE);
+			}
+			
+			final GeoByteBuffer other = _sharedBlocksData.putIfAbsent(key, data);
+			if (other != null)
+				data = other;
+		}
+		return data;
+	}
+	
 	private final GeoBlock readBlock(final int blockX, final int blockY, final GeoReader reader, final boolean l2j)
 	{
 		final int geoX = GeoEngine.getGeoXY(_regionX, blockX);
@@ -129,7 +555,7 @@ public final class GeoRegion
 				return new GeoBlockFlat(reader, geoX, geoY, l2j).setRegion(this);
 				
 			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
-				return new GeoBlockComplex(reader, geoX, geoY, l2j).setRegion(this);
+				return new GeoBlockComplex(reader, geoX, geoY, l2j, this).setRegion(this);
 				
 			case GeoEngine.GEO_BLOCK_TYPE_MULTILAYER:
 				return new GeoBlockMultiLayer(reader, geoX, geoY, l2j).setRegion(this);
@@ -139,10 +565,113 @@ public final class GeoRegion
 		}
 	}
 	
+	private final GeoBlock readBlock(final int blockX, final int blockY)
+	{
+		final GeoByteBuffer reader = _blocksData.get(blockX, blockY);
+		synchronized (reader)
+		{
+			reader.clear();
+			return readBlock(blockX, blockY, reader, true);
+		}
+	}
+	
+	/**
+	 * Decodes outside of the region lock, so several threads can load blocks at once.
+	 */
+	private final GeoBlock loadBlock(final int blockX, final int blockY)
+	{
+		final GeoBlock block = readBlock(blockX, blockY);
+		synchronized (this)
+		{
+			final GeoBlock other = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+			if (other != null)
+				return other;
+			
+			_geoBlocks.set(GeoEngine.getBlockIndex(blockX, blockY), block);
+			_loadedBlocks++;
+		}
+		return block;
+	}
+	
+	public final boolean isBlockLoaded(final int blockX, final int blockY)
+	{
+		return _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY)) != null;
+	}
+	
+	public final int getLoadedBlockCount()
+	{
+		return _loadedBlocks;
+	}
+	
+	/**
+	 * Drops the GeoBlock objects outside the given block range, if they can be read again from their data without loss.<br>
+	 * Modified blocks, selected blocks and the block of the selected cell are kept.
+	 * 
+	 * @param minBlockX inclusive
+	 * @param maxBlockX exclusive
+	 * @param minBlockY inclusive
+	 * @param maxBlockY exclusive
+	 */
+	public final synchronized void unloadBlocksOutside(final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY)
+	{
+		final GeoCell selectedCell = FrameMain.getInstance().getSelectedGeoCell();
+		final GeoBlock selectedBlock = selectedCell != null ? selectedCell.getBlock() : null;
+		
+		for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY; blockX-- > 0;)
+		{
+			for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+			{
+				if (blockX >= minBlockX && blockX < maxBlockX && blockY >= minBlockY && blockY < maxBlockY)
+					continue;
+				
+				unloadBlock(blockX, blockY, selectedBlock);
+			}
+		}
+	}
+	
+	/**
+	 * Unloads the blocks inside of the given area, max exclusive. Used when the visible grid moves, so only the blocks which left it are visited.
+	 */
+	public final synchronized void unloadBlocksInside(final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY)
+	{
+		final GeoCell selectedCell = FrameMain.getInstance().getSelectedGeoCell();
+		final GeoBlock selectedBlock = selectedCell != null ? selectedCell.getBlock() : null;
+		
+		for (int blockX = minBlockX, blockY; blockX < maxBlockX; blockX++)
+		{
+			for (blockY = minBlockY; blockY < maxBlockY; blockY++)
+			{
+				unloadBlock(blockX, blockY, selectedBlock);
+			}
+		}
+	}
+	
+	private final void unloadBlock(final int blockX, final int blockY, final GeoBlock selectedBlock)
+	{
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		if (block == null || block == selectedBlock)
+			return;
+		
+		if (GeoBlockSelector.getInstance().isGeoBlockSelected(block) || _editedBlocks.containsKey(block))
+			return;
+		
+		if (isBlockModified(blockX, blockY))
+		{
+			// keep the data, but drop the cell views
+			block.releaseCells();
+			return;
+		}
+		
+		// only the reference is dropped, a save or selection running on another thread may still use the block
+		_geoBlocks.set(GeoEngine.getBlockIndex(blockX, blockY), null);
+		_loadedBlocks--;
+	}
+	
 	public final void convertBlock(final GeoBlock block, final byte type)
 	{
 		final int blockX = block.getBlockX();
 		final int blockY = block.getBlockY();
+		final byte[] before = takeSnapshot(block);
 		final GeoBlock convertedBlock;
 		
 		switch (type)
@@ -163,28 +692,36 @@ public final class GeoRegion
 				throw new IllegalArgumentException("Unkown type: " + type);
 		}
 		
-		block.unload();
-		_geoBlocks[blockX][blockY] = convertedBlock;
+		// the old block stays intact for the render selector, the selection and the journal still holding it
+		_geoBlocks.set(GeoEngine.getBlockIndex(blockX, blockY), convertedBlock);
+		onBlockChanged(convertedBlock);
+		addChanges(CHANGE_BLOCKS);
+		journalBlock(convertedBlock, before);
 	}
 	
 	public final void convertBlock(final int blockX, final int blockY, final byte type)
 	{
-		convertBlock(_geoBlocks[blockX][blockY], type);
+		convertBlock(getBlockByBlockXY(blockX, blockY), type);
 	}
 	
 	public final void restoreBlock(final GeoBlock block)
 	{
 		final int blockX = block.getBlockX();
 		final int blockY = block.getBlockY();
-		final GeoByteBuffer reader = _geoBlocksData[blockX][blockY];
-		reader.clear();
-		block.unload();
-		_geoBlocks[blockX][blockY] = readBlock(blockX, blockY, reader, true);
+		final byte[] before = takeSnapshot(block);
+		final GeoBlock restoredBlock = readBlock(blockX, blockY);
+		_geoBlocks.set(GeoEngine.getBlockIndex(blockX, blockY), restoredBlock);
+		setBlockModified(blockX, blockY, false);
+		if (_heightTree.update(blockX, blockY, restoredBlock.getMinHeight(), restoredBlock.getMaxHeight()))
+			setTerrainChanged(blockX, blockY);
+		updateHeightPyramid(blockX, blockY);
+		addChanges(CHANGE_DATA | CHANGE_BLOCKS);
+		journalBlock(restoredBlock, before);
 	}
 	
 	public final void restoreBlock(final int blockX, final int blockY)
 	{
-		restoreBlock(_geoBlocks[blockX][blockY]);
+		restoreBlock(getBlockByBlockXY(blockX, blockY));
 	}
 	
 	public final File getFile()
@@ -192,9 +729,50 @@ public final class GeoRegion
 		return _file;
 	}
 	
-	public final GeoBlock[][] getGeoBlocks()
+	/**
+	 * @return true if the file was not changed on disk since the region was read from it
+	 */
+	public final boolean isFileUnchanged()
+	{
+		return _file != null && _file.lastModified() == _fileLastModified;
+	}
+	
+	/**
+	 * @return The estimated heap usage of this region in bytes
+	 */
+	public final long getMemoryUsage()
 	{
-		return _geoBlocks;
+		final GeoBlockDataStore blocksData = _blocksData;
+		if (blocksData == null)
+			return 0;
+		
+		// min/max heights, block references and the modified bitmap
+		final long dataSize = blocksData.getMemoryUsage() + GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE * 8 + GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / 8;
+		// rough average of a loaded block with its cells
+		final GeoHeightPyramid heightPyramid = _heightPyramid;
+		return dataSize + _heightTree.getMemoryUsage() + (heightPyramid != null ? heightPyramid.getMemoryUsage() : 0) + _loadedBlocks * 2048L + _journal.getMemoryUsage();
+	}
+	
+	/**
+	 * Drops all unmodified GeoBlock objects, used when the region is no longer displayed.<br>
+	 * The selection must be cleared before.
+	 */
+	public final synchronized void unloadBlocks()
+	{
+		for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY, index; blockX-- > 0;)
+		{
+			for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+			{
+				index = GeoEngine.getBlockIndex(blockX, blockY);
+				if (_geoBlocks.get(index) == null || isBlockModified(blockX, blockY))
+					continue;
+				
+				// only the reference is dropped, see unloadBlock
+				_geoBlocks.set(index, null);
+				_loadedBlocks--;
+			}
+		}
+		_blocksData.clearCache();
 	}
 	
 	public final int getRegionX()
@@ -226,7 +804,124 @@ public final class GeoRegion
 	{
 		final int blockX = GeoEngine.getBlockXY(geoX);
 		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY].getType();
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		return block != null ? block.getType() : _blocksData.get(blockX, blockY).get(0);
+	}
+	
+	/**
+	 * @return The min/max heights of the blocks as quadtree, kept up to date with the changes of the blocks
+	 */
+	public final GeoHeightTree getHeightTree()
+	{
+		return _heightTree;
+	}
+	
+	/**
+	 * @return The cells of a complex block with all 64 cells set to the given value, shared and never to be written, null if the region is unloaded
+	 */
+	public final short[] getConstantHeightAndNSWE(final short heightAndNSWE)
+	{
+		final ConcurrentHashMap<Short, short[]> constantHeightAndNSWE = _constantHeightAndNSWE;
+		if (constantHeightAndNSWE == null)
+			return null;
+		
+		final Short key = Short.valueOf(heightAndNSWE);
+		short[] data = constantHeightAndNSWE.get(key);
+		if (data == null)
+		{
+			data = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+			Arrays.fill(data, heightAndNSWE);
+			final short[] other = constantHeightAndNSWE.putIfAbsent(key, data);
+			if (other != null)
+				data = other;
+		}
+		return data;
+	}
+	
+	/**
+	 * @param level The finest level needed
+	 * @return The min heights of the cells and their groups, built on the first call and kept up to date with the changes of the blocks
+	 */
+	public final GeoHeightPyramid getHeightPyramid(final int level)
+	{
+		final GeoHeightPyramid heightPyramid;
+		synchronized (this)
+		{
+			if (_heightPyramid == null)
+				_heightPyramid = new GeoHeightPyramid(this);
+			heightPyramid = _heightPyramid;
+		}
+		heightPyramid.ensureLevel(level);
+		return heightPyramid;
+	}
+	
+	/**
+	 * @return The type of the block, without loading it
+	 */
+	public final byte getBlockType(final int blockX, final int blockY)
+	{
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		return block != null ? block.getType() : _blocksData.get(blockX, blockY).get(0);
+	}
+	
+	public final short getBlockMinHeight(final int blockX, final int blockY)
+	{
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		return block != null ? block.getMinHeight() : _geoBlocksMinHeight[blockX][blockY];
+	}
+	
+	public final short getBlockMaxHeight(final int blockX, final int blockY)
+	{
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		return block != null ? block.getMaxHeight() : _geoBlocksMaxHeight[blockX][blockY];
+	}
+	
+	/**
+	 * Height of the lowest layer of each cell of the block, without loading the block.
+	 * 
+	 * @param heights Receives the 64 heights, cell x, y at x * GEO_BLOCK_SHIFT + y
+	 */
+	public final void getLowestCellHeights(final int blockX, final int blockY, final short[] heights)
+	{
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		if (block != null)
+		{
+			for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY; cellX-- > 0;)
+			{
+				for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
+				{
+					heights[cellX * GeoEngine.GEO_BLOCK_SHIFT + cellY] = GeoEngine.getHeight(block.nGetHeightAndNSWE(cellX, cellY, 0));
+				}
+			}
+			return;
+		}
+		
+		final GeoByteBuffer data = _blocksData.get(blockX, blockY);
+		switch (data.get(0))
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+				Arrays.fill(heights, data.getShort(1));
+				break;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
+				for (int i = heights.length; i-- > 0;)
+				{
+					heights[i] = GeoEngine.getHeight(data.getShort(1 + i * 2));
+				}
+				break;
+				
+			default:
+			{
+				// layers are stored from highest to lowest
+				for (int i = 0, position = 1, layers; i < heights.length; i++)
+				{
+					layers = data.get(position);
+					heights[i] = GeoEngine.getHeight(data.getShort(position + 1 + (layers - 1) * 2));
+					position += 1 + layers * 2;
+				}
+				break;
+			}
+		}
 	}
 	
 	public final GeoCell nGetCellChecked(int geoX, int geoY, final int x)
@@ -239,118 +934,765 @@ public final class GeoRegion
 	
 	public final GeoCell nGetCell(final int geoX, final int geoY, final int x)
 	{
-		final int blockX = GeoEngine.getBlockXY(geoX);
-		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY].nGetCell(geoX, geoY, x);
+		return getBlock(geoX, geoY).nGetCell(geoX, geoY, x);
 	}
 	
 	public final GeoCell nGetCellByLayer(final int geoX, final int geoY, final int layer)
 	{
-		final int blockX = GeoEngine.getBlockXY(geoX);
-		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY].nGetCellByLayer(geoX, geoY, layer);
+		return getBlock(geoX, geoY).nGetCellByLayer(geoX, geoY, layer);
 	}
 	
 	public final GeoBlock getBlock(final int geoX, final int geoY)
 	{
 		final int blockX = GeoEngine.getBlockXY(geoX);
 		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY];
+		return getBlockByBlockXY(blockX, blockY);
 	}
 	
 	public final GeoBlock getBlockByBlockXY(final int blockX, final int blockY)
 	{
-		return _geoBlocks[blockX][blockY];
+		final GeoBlock block = _geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY));
+		return block != null ? block : loadBlock(blockX, blockY);
 	}
 	
 	public final void setBlock(final int geoX, final int geoY, final GeoBlock block)
 	{
 		final int blockX = GeoEngine.getBlockXY(geoX);
 		final int blockY = GeoEngine.getBlockXY(geoY);
-		_geoBlocks[blockX][blockY] = block;;
+		_geoBlocks.set(GeoEngine.getBlockIndex(blockX, blockY), block);
 	}
 	
 	public final int nGetLayerCount(final int geoX, final int geoY)
 	{
-		final int blockX = GeoEngine.getBlockXY(geoX);
-		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY].nGetLayerCount(geoX, geoY);
+		return getBlock(geoX, geoY).nGetLayerCount(geoX, geoY);
 	}
 	
 	public final GeoCell addLayer(final int geoX, final int geoY, final short heightAndNSWE)
 	{
-		final int blockX = GeoEngine.getBlockXY(geoX);
-		final int blockY = GeoEngine.getBlockXY(geoY);
-		return _geoBlocks[blockX][blockY].addLayer(geoX, geoY, heightAndNSWE);
+		return getBlock(geoX, geoY).addLayer(geoX, geoY, heightAndNSWE);
 	}
 	
-	public final void saveTo(final OutputStream os, final boolean l2j, final DialogSave observ) throws IOException
+	/**
+	 * Saves the region to the given file.<br>
+	 * The blocks are encoded in parallel if multithreading is enabled, blocks not modified since the region was read are copied from the file they were read from, as long as the format is the same and the file did not change.<br>
+	 * The file is written to a temporary file first and moved over the given file when complete.
+	 * 
+	 * @param file The file to save to, may be the file the region was read from
+	 * @param l2j The format to save in
+	 * @param observ Receives the progress, the blocks encoded and then the blocks written, may be null
+	 * @throws IOException
+	 */
+	public final void saveTo(final File file, final boolean l2j, final DialogSave observ) throws IOException
 	{
-		if (!l2j)
+		// changes made while saving are not in the file
+		final int changeCount = getChangeCount();
+		final boolean copyUnchanged = l2j == _l2j && _blockOffsets != null && isFileUnchanged();
+		final SavePart[][] parts = new SavePart[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / BlockEncoder.BLOCKS_PER_TASK][];
+		final BlockEncoder encoder = new BlockEncoder(l2j, copyUnchanged, parts, 0, GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE, new AtomicInteger(), observ);
+		if (Config.USE_MULTITHREADING)
+			ForkJoinPool.commonPool().invoke(encoder);
+		else
+			encoder.compute();
+		
+		final File tempFile = new File(file.getPath() + ".tmp");
+		try
 		{
-			Util.writeByte(_regionX + 10, os);
-			Util.writeByte(_regionY + 10, os);
+			try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				FileChannel in = copyUnchanged ? FileChannel.open(_file.toPath(), StandardOpenOption.READ) : null)
+			{
+				final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+				if (!l2j)
+				{
+					final ByteBuffer header = ByteBuffer.allocate(18);
+					header.put((byte) (_regionX + 10));
+					header.put((byte) (_regionY + 10));
+					// TODO put real data here
+					header.rewind();
+					buffers.add(header);
+				}
+				
+				for (int i = 0; i < parts.length; i++)
+				{
+					for (final SavePart part : parts[i])
+					{
+						if (part._data != null)
+						{
+							buffers.add(part._data);
+							continue;
+						}
+						
+						write(out, buffers);
+						for (long position = part._position, end = part._position + part._length; position < end;)
+						{
+							position += in.transferTo(position, end - position, out);
+						}
+					}
+					
+					if (observ != null)
+					{
+						// written per segment, so the progress moves while the file is written
+						write(out, buffers);
+						observ.updateProgressRegion(GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE + (i + 1) * BlockEncoder.BLOCKS_PER_TASK);
+					}
+				}
+				write(out, buffers);
+				out.force(false);
+			}
 			
-			// TODO put real data here
-			Util.writeBytes(new byte[16], os);
+			try
+			{
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (final Throwable t)
+		{
+			// a failed save leaves only the original file
+			try
+			{
+				Files.deleteIfExists(tempFile.toPath());
+			}
+			catch (final IOException e)
+			{
+				t.addSuppressed(e);
+			}
+			throw t;
 		}
 		
-		final GeoWriter writer = GeoStreamWriter.wrap(os);
-		for (int blockX = 0, blockY; blockX < GeoEngine.GEO_REGION_SIZE; blockX++)
+		setHandledChangeCount(changeCount);
+	}
+	
+	/**
+	 * Writes the given buffers with one gathering write and clears the list.
+	 */
+	private static final void write(final FileChannel out, final ArrayList<ByteBuffer> buffers) throws IOException
+	{
+		if (buffers.isEmpty())
+			return;
+		
+		final ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+		long remaining = 0;
+		for (final ByteBuffer buffer : array)
 		{
-			for (blockY = 0; blockY < GeoEngine.GEO_REGION_SIZE; blockY++)
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0)
+		{
+			remaining -= out.write(array);
+		}
+		buffers.clear();
+	}
+	
+	/**
+	 * A part of a saved file, either encoded block data or a range of the file the region was read from.
+	 */
+	private static final class SavePart
+	{
+		private final ByteBuffer _data;
+		private final long _position;
+		private long _length;
+		
+		public SavePart(final ByteBuffer data, final long position)
+		{
+			_data = data;
+			_position = position;
+		}
+	}
+	
+	private final class BlockEncoder extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCKS_PER_TASK = 1024;
+		
+		private final boolean _l2j;
+		private final boolean _copyUnchanged;
+		private final SavePart[][] _parts;
+		private final int _from;
+		private final int _to;
+		private final AtomicInteger _encoded;
+		private final DialogSave _observ;
+		
+		public BlockEncoder(final boolean l2j, final boolean copyUnchanged, final SavePart[][] parts, final int from, final int to, final AtomicInteger encoded, final DialogSave observ)
+		{
+			_l2j = l2j;
+			_copyUnchanged = copyUnchanged;
+			_parts = parts;
+			_from = from;
+			_to = to;
+			_encoded = encoded;
+			_observ = observ;
+		}
+		
+		/**
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected final void compute()
+		{
+			if (_to - _from > BLOCKS_PER_TASK)
 			{
-				_geoBlocks[blockX][blockY].writeTo(writer, l2j);
-				observ.updateProgressRegion(blockX * GeoEngine.GEO_REGION_SIZE + blockY, "[" + blockX + "-" + blockY + "]");
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(new BlockEncoder(_l2j, _copyUnchanged, _parts, _from, middle, _encoded, _observ), new BlockEncoder(_l2j, _copyUnchanged, _parts, middle, _to, _encoded, _observ));
+				return;
+			}
+			
+			final ArrayList<SavePart> parts = new ArrayList<>();
+			SavePart copy = null;
+			GeoBlock block;
+			GeoByteBuffer data;
+			for (int i = _from, blockX, blockY; i < _to; i++)
+			{
+				blockX = i / GeoEngine.GEO_REGION_SIZE;
+				blockY = i % GeoEngine.GEO_REGION_SIZE;
+				block = _geoBlocks.get(i);
+				if (_copyUnchanged && (block == null || !isBlockModified(blockX, blockY)))
+				{
+					if (copy == null)
+					{
+						copy = new SavePart(null, _blockOffsets[i]);
+						parts.add(copy);
+					}
+					copy._length += _blockOffsets[i + 1] - _blockOffsets[i];
+					continue;
+				}
+				
+				copy = null;
+				if (block == null && _l2j)
+				{
+					// not loaded, so the data is unchanged and already l2j
+					data = _blocksData.get(blockX, blockY);
+				}
+				else if (block == null)
+				{
+					block = readBlock(blockX, blockY);
+					data = GeoByteBuffer.allocate(block.getRequiredCapacity(_l2j));
+					block.writeTo(data, _l2j);
+					block.unload();
+				}
+				else
+				{
+					data = GeoByteBuffer.allocate(block.getRequiredCapacity(_l2j));
+					block.writeTo(data, _l2j);
+				}
+				parts.add(new SavePart(data.asByteBuffer(), 0));
 			}
+			_parts[_from / BLOCKS_PER_TASK] = parts.toArray(new SavePart[parts.size()]);
+			
+			final int encoded = _encoded.addAndGet(_to - _from);
+			if (_observ != null)
+				_observ.updateProgressRegion(encoded);
 		}
 	}
 	
 	public final void unload()
 	{
-		GeoBlock[] block1D;
-		GeoByteBuffer[] geoBlocksData1D;
-		for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY; blockX-- > 0;)
+		// the blocks are left to the GC, a thread may still use them
+		_geoBlocks = null;
+		_blocksData = null;
+		_geoBlocksMinHeight = null;
+		_geoBlocksMaxHeight = null;
+		_heightTree = null;
+		_heightPyramid = null;
+		_sharedBlocksData = null;
+		_constantHeightAndNSWE = null;
+		_loadedBlocks = 0;
+		_modifiedBlocks = null;
+		_modifiedBlockCount = 0;
+		_terrainChangedBlocks = null;
+		_journal.clear();
+	}
+	
+	/**
+	 * Compares the block with the data it was loaded from.
+	 */
+	private final boolean compareData(final GeoBlock block)
+	{
+		final GeoByteBuffer geoBlockData = _blocksData.get(block.getBlockX(), block.getBlockY());
+		synchronized (geoBlockData)
 		{
-			block1D = _geoBlocks[blockX];
-			geoBlocksData1D = _geoBlocksData[blockX];
-			for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+			geoBlockData.clear();
+			return block.dataEquals(geoBlockData);
+		}
+	}
+	
+	/**
+	 * Updates the modified state, the height tree and the height pyramid of the block and publishes the change, called by {@link GeoBlock#onDataChanged()}.<br>
+	 * A block changed back to its loaded data counts as not modified again.
+	 */
+	public final void onBlockChanged(final GeoBlock block)
+	{
+		final int blockX = block.getBlockX();
+		final int blockY = block.getBlockY();
+		if (_geoBlocks.get(GeoEngine.getBlockIndex(blockX, blockY)) == block)
+		{
+			setBlockModified(blockX, blockY, !compareData(block));
+			if (_heightTree.update(blockX, blockY, block.getMinHeight(), block.getMaxHeight()))
+				setTerrainChanged(blockX, blockY);
+			updateHeightPyramid(blockX, blockY);
+			addChanges(CHANGE_DATA);
+		}
+	}
+	
+	private final void updateHeightPyramid(final int blockX, final int blockY)
+	{
+		final GeoHeightPyramid heightPyramid = _heightPyramid;
+		// the terrain is built from the pyramid, the finer levels change with the cells
+		if (heightPyramid != null && heightPyramid.update(blockX, blockY))
+			setTerrainChanged(blockX, blockY);
+	}
+	
+	private final synchronized void setTerrainChanged(final int blockX, final int blockY)
+	{
+		final int index = blockX * GeoEngine.GEO_REGION_SIZE + blockY;
+		_terrainChangedBlocks[index >> 6] |= 1L << index;
+		_terrainChanged = true;
+	}
+	
+	/**
+	 * Adds the changes to the running edit or undo/redo, without one they are published to {@link #pollChanges()} right away.<br>
+	 * So the display updates terrain, visible cells and GUI once for all changes of an edit.
+	 */
+	private final synchronized void addChanges(final int changes)
+	{
+		if (changes != 0)
+			_changeCount++;
+		
+		_pendingChanges |= changes;
+		if (_editDepth > 0)
+			return;
+		
+		_changes |= _pendingChanges | pollTerrainChanged();
+		_pendingChanges = 0;
+	}
+	
+	/**
+	 * @return CHANGE_TERRAIN if a block was marked for the terrain since the last call
+	 */
+	private final synchronized int pollTerrainChanged()
+	{
+		final boolean terrainChanged = _terrainChanged;
+		_terrainChanged = false;
+		return terrainChanged ? CHANGE_TERRAIN : 0;
+	}
+	
+	/**
+	 * Moves the blocks whose min or max height or the min heights of their cells changed since the last call into the given bit set, the terrain rebuilds only the parts around them.
+	 * 
+	 * @param blocks The bit set, block x, y at bit x * GEO_REGION_SIZE + y, overwritten
+	 */
+	public final synchronized void pollTerrainChangedBlocks(final long[] blocks)
+	{
+		for (int i = blocks.length; i-- > 0;)
+		{
+			blocks[i] = _terrainChangedBlocks != null ? _terrainChangedBlocks[i] : 0;
+		}
+		if (_terrainChangedBlocks != null)
+			Arrays.fill(_terrainChangedBlocks, 0);
+	}
+	
+	private final synchronized void setBlockModified(final int blockX, final int blockY, final boolean modified)
+	{
+		final int index = blockX * GeoEngine.GEO_REGION_SIZE + blockY;
+		final long mask = 1L << index;
+		final long bits = _modifiedBlocks[index >> 6];
+		if (((bits & mask) != 0) == modified)
+			return;
+		
+		_modifiedBlocks[index >> 6] = bits ^ mask;
+		_modifiedBlockCount += modified ? 1 : -1;
+	}
+	
+	public final boolean isBlockModified(final int blockX, final int blockY)
+	{
+		final int index = blockX * GeoEngine.GEO_REGION_SIZE + blockY;
+		return (_modifiedBlocks[index >> 6] & 1L << index) != 0;
+	}
+	
+	public final int getModifiedBlockCount()
+	{
+		return _modifiedBlockCount;
+	}
+	
+	public final synchronized GeoBlock[] getModifiedBlocks()
+	{
+		final GeoBlock[] blocks = new GeoBlock[_modifiedBlockCount];
+		long bits;
+		for (int i = 0, j = 0, index; i < _modifiedBlocks.length; i++)
+		{
+			bits = _modifiedBlocks[i];
+			while (bits != 0)
 			{
-				block1D[blockY].unload();
-				block1D[blockY] = null;
-				geoBlocksData1D[blockY] = null;
+				index = (i << 6) + Long.numberOfTrailingZeros(bits);
+				blocks[j++] = _geoBlocks.get(index);
+				bits &= bits - 1;
 			}
-			_geoBlocks[blockX] = null;
-			_geoBlocksData[blockX] = null;
 		}
-		_geoBlocks = null;
-		_geoBlocksData = null;
+		return blocks;
 	}
 	
-	public final boolean dataEqualFor(final GeoBlock block)
+	/**
+	 * Starts an edit, until the matching {@link #endEdit()} the cells of this region only change their data.<br>
+	 * Layer order, min/max height and modified state of the changed blocks are updated once at the end.<br>
+	 * Edits may be nested, the outermost edit ends the batch and is one step of the undo journal.
+	 */
+	public final synchronized void beginEdit()
 	{
-		final GeoByteBuffer geoBlockData = _geoBlocksData[block.getBlockX()][block.getBlockY()];
-		geoBlockData.clear();
-		return block.dataEquals(geoBlockData);
+		if (_editDepth++ == 0)
+			_journal.beginStep();
 	}
 	
-	public final boolean allDataEqual()
+	/**
+	 * Ends an edit started by {@link #beginEdit()}, should be called in a finally block.
+	 */
+	public final void endEdit()
 	{
-		GeoBlock[] block1D;
-		GeoByteBuffer[] geoBlocksData1D;
-		GeoByteBuffer geoBlockData;
-		for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY; blockX-- > 0;)
+		final GeoBlock[] blocks;
+		final byte[][] snapshots;
+		synchronized (this)
 		{
-			block1D = _geoBlocks[blockX];
-			geoBlocksData1D = _geoBlocksData[blockX];
-			for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+			// the outermost edit stays open until its blocks are updated, their changes are published together
+			if (_editDepth > 1)
+			{
+				_editDepth--;
+				return;
+			}
+			
+			blocks = _editedBlocks.keySet().toArray(new GeoBlock[_editedBlocks.size()]);
+			snapshots = _editedBlocks.values().toArray(new byte[_editedBlocks.size()][]);
+			_editedBlocks.clear();
+		}
+		
+		for (int i = 0; i < blocks.length; i++)
+		{
+			blocks[i].updateAfterEdit();
+			blocks[i].onDataChanged();
+			if (snapshots[i] != null)
+				journalEdit(blocks[i], snapshots[i]);
+		}
+		
+		synchronized (this)
+		{
+			_journal.endStep();
+			_editDepth--;
+		}
+		addChanges(0);
+	}
+	
+	/**
+	 * Called by {@link GeoBlock#deferUpdate()}, before the block changes its data.
+	 * 
+	 * @param block The changed block
+	 * @return True if an edit is running and the block was added to its batch
+	 */
+	public final synchronized boolean deferUpdate(final GeoBlock block)
+	{
+		if (_editDepth == 0)
+			return false;
+		
+		if (!_editedBlocks.containsKey(block))
+			_editedBlocks.put(block, _journal.isEnabled() ? encode(block) : null);
+		return true;
+	}
+	
+	private static final byte[] encode(final GeoBlock block)
+	{
+		final GeoByteBuffer data = GeoByteBuffer.allocate(block.getRequiredCapacity(true));
+		block.writeTo(data, true);
+		return data.toByteArray();
+	}
+	
+	private static final int getBlockIndex(final GeoBlock block)
+	{
+		return block.getBlockX() * GeoEngine.GEO_REGION_SIZE + block.getBlockY();
+	}
+	
+	/**
+	 * @return The l2j encoding of the block from before the running edit or the current one, null if the journal is disabled
+	 */
+	private final byte[] takeSnapshot(final GeoBlock block)
+	{
+		final byte[] before;
+		synchronized (this)
+		{
+			if (!_editedBlocks.containsKey(block))
+				return _journal.isEnabled() ? encode(block) : null;
+			
+			before = _editedBlocks.remove(block);
+		}
+		// the block is replaced, so finish its part of the edit here
+		block.updateAfterEdit();
+		return before;
+	}
+	
+	/**
+	 * Records the replacement of a block, as a step of its own if no edit is running.
+	 */
+	private final synchronized void journalBlock(final GeoBlock block, final byte[] before)
+	{
+		if (before == null)
+			return;
+		
+		final byte[] after = encode(block);
+		if (Arrays.equals(before, after))
+			return;
+		
+		if (_editDepth == 0)
+			_journal.beginStep();
+		_journal.addBlock(getBlockIndex(block), before, after);
+		if (_editDepth == 0)
+			_journal.endStep();
+	}
+	
+	/**
+	 * Records the changes of a block at the end of an edit.<br>
+	 * If the block kept its type and layer counts only the changed heights are recorded, otherwise the whole block.
+	 * 
+	 * @param before The l2j encoding of the block from before the edit
+	 */
+	private final synchronized void journalEdit(final GeoBlock block, final byte[] before)
+	{
+		final int blockIndex = getBlockIndex(block);
+		final byte type = block.getType();
+		if (before[0] != type || before.length != block.getRequiredCapacity(true))
+		{
+			_journal.addBlock(blockIndex, before, encode(block));
+			return;
+		}
+		
+		switch (type)
+		{
+			case GeoEngine.GEO_BLOCK_TYPE_FLAT:
+				journalDelta(blockIndex, 0, GeoEngine.convertHeightToHeightAndNSWEALL(getShort(before, 1)), block.getHeightAndNSWE(0));
+				break;
+				
+			case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
+				for (int i = 0; i < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; i++)
+				{
+					journalDelta(blockIndex, i, getShort(before, 1 + i * 2), block.getHeightAndNSWE(i));
+				}
+				break;
+				
+			default:
 			{
-				geoBlockData = geoBlocksData1D[blockY];
-				geoBlockData.clear();
-				if (!block1D[blockY].dataEquals(geoBlockData))
-					return false;
+				// layers are stored from highest to lowest, the block keeps them from lowest to highest
+				for (int cell = 0, position = 1, index = 0, layers; cell < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; cell++)
+				{
+					layers = before[position];
+					if (layers != block.nGetLayerCount(block.getGeoX() + cell / GeoEngine.GEO_BLOCK_SHIFT, block.getGeoY() + cell % GeoEngine.GEO_BLOCK_SHIFT))
+					{
+						_journal.addBlock(blockIndex, before, encode(block));
+						return;
+					}
+					position += 1 + layers * 2;
+					index += layers;
+				}
+				
+				for (int cell = 0, position = 1, index = 0, layers, layer; cell < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; cell++)
+				{
+					layers = before[position++];
+					for (layer = layers; layer-- > 0; position += 2)
+					{
+						journalDelta(blockIndex, index + layer, getShort(before, position), block.getHeightAndNSWE(index + layer));
+					}
+					index += layers;
+				}
+				break;
 			}
 		}
+	}
+	
+	private final void journalDelta(final int blockIndex, final int dataIndex, final short oldHeightAndNSWE, final short newHeightAndNSWE)
+	{
+		if (oldHeightAndNSWE != newHeightAndNSWE)
+			_journal.addDelta(GeoRegionJournal.packDelta(blockIndex, dataIndex, oldHeightAndNSWE, newHeightAndNSWE));
+	}
+	
+	private static final short getShort(final byte[] data, final int position)
+	{
+		return (short) (data[position] & 0xFF | data[position + 1] << 8);
+	}
+	
+	public final boolean canUndo()
+	{
+		return _journal.canUndo();
+	}
+	
+	public final boolean canRedo()
+	{
+		return _journal.canRedo();
+	}
+	
+	/**
+	 * Reverts the last step of the journal.<br>
+	 * All heights of the step are written back at once, each changed block is updated once after.
+	 * 
+	 * @return False if there is nothing to undo or an edit is running
+	 */
+	public final boolean undo()
+	{
+		return replay(true);
+	}
+	
+	/**
+	 * Applies the last undone step of the journal again.
+	 * 
+	 * @return False if there is nothing to redo or an edit is running
+	 */
+	public final boolean redo()
+	{
+		return replay(false);
+	}
+	
+	private final boolean replay(final boolean undo)
+	{
+		final int step;
+		synchronized (this)
+		{
+			if (_editDepth > 0)
+				return false;
+			
+			step = undo ? _journal.undo() : _journal.redo();
+			if (step < 0)
+				return false;
+			
+			// publishes the changes of the step together, like an edit
+			_editDepth++;
+		}
+		
+		final LinkedHashSet<GeoBlock> changedBlocks = new LinkedHashSet<>();
+		// the heights are recorded at the end of an edit, so after the replaced blocks of the same step
+		if (undo)
+		{
+			replayDeltas(step, true, changedBlocks);
+			replayBlocks(step, true);
+		}
+		else
+		{
+			replayBlocks(step, false);
+			replayDeltas(step, false, changedBlocks);
+		}
+		
+		for (final GeoBlock block : changedBlocks)
+		{
+			if (_geoBlocks.get(GeoEngine.getBlockIndex(block.getBlockX(), block.getBlockY())) != block)
+				continue;
+			
+			block.updateAfterEdit();
+			block.onDataChanged();
+		}
+		
+		synchronized (this)
+		{
+			_editDepth--;
+		}
+		addChanges(0);
 		return true;
 	}
+	
+	private final void replayDeltas(final int step, final boolean undo, final LinkedHashSet<GeoBlock> changedBlocks)
+	{
+		final long start = _journal.getDeltaStart(step);
+		final long end = _journal.getDeltaEnd(step);
+		GeoBlock block = null;
+		long delta;
+		for (long i = 0, count = end - start; i < count; i++)
+		{
+			delta = _journal.getDelta(undo ? end - 1 - i : start + i);
+			// the deltas of a block are recorded together
+			if (block == null || getBlockIndex(block) != GeoRegionJournal.getBlockIndex(delta))
+			{
+				block = getBlockByBlockXY(GeoRegionJournal.getBlockIndex(delta) / GeoEngine.GEO_REGION_SIZE, GeoRegionJournal.getBlockIndex(delta) % GeoEngine.GEO_REGION_SIZE);
+				changedBlocks.add(block);
+			}
+			block.setHeightAndNSWE(GeoRegionJournal.getDataIndex(delta), undo ? GeoRegionJournal.getOldHeightAndNSWE(delta) : GeoRegionJournal.getNewHeightAndNSWE(delta));
+		}
+	}
+	
+	private final void replayBlocks(final int step, final boolean undo)
+	{
+		final long end = _journal.getDataEnd(step);
+		final ArrayList<Long> records = new ArrayList<>();
+		for (long position = _journal.getDataStart(step); position < end; position = _journal.getNextRecord(position))
+		{
+			records.add(Long.valueOf(position));
+		}
+		
+		for (int i = 0; i < records.size(); i++)
+		{
+			final long position = records.get(undo ? records.size() - 1 - i : i).longValue();
+			replaceBlock(_journal.getRecordBlockIndex(position), _journal.getRecordData(position, !undo));
+		}
+	}
+	
+	private final void replaceBlock(final int blockIndex, final byte[] data)
+	{
+		final int blockX = blockIndex / GeoEngine.GEO_REGION_SIZE;
+		final int blockY = blockIndex % GeoEngine.GEO_REGION_SIZE;
+		final GeoBlock block = readBlock(blockX, blockY, GeoByteBuffer.wrap(data), true);
+		final GeoBlock oldBlock;
+		synchronized (this)
+		{
+			oldBlock = _geoBlocks.getAndSet(GeoEngine.getBlockIndex(blockX, blockY), block);
+			if (oldBlock == null)
+				_loadedBlocks++;
+		}
+		
+		if (oldBlock != null)
+			GeoBlockSelector.getInstance().onGeoBlockReplaced(oldBlock);
+		onBlockChanged(block);
+		addChanges(CHANGE_BLOCKS);
+	}
+	
+	/**
+	 * Returns and clears the changes published by the edits which ended and by the changes outside of an edit since the last call.<br>
+	 * The display polls this once per frame and updates terrain, visible cells and GUI for all of them together.
+	 * 
+	 * @return The CHANGE_ flags
+	 */
+	public final synchronized int pollChanges()
+	{
+		final int changes = _changes;
+		_changes = 0;
+		return changes;
+	}
+	
+	public final boolean dataEqualFor(final GeoBlock block)
+	{
+		return !isBlockModified(block.getBlockX(), block.getBlockY());
+	}
+	
+	public final boolean allDataEqual()
+	{
+		return _modifiedBlockCount == 0;
+	}
+	
+	private final synchronized int getChangeCount()
+	{
+		return _changeCount;
+	}
+	
+	private final synchronized void setHandledChangeCount(final int changeCount)
+	{
+		_handledChangeCount = changeCount;
+	}
+	
+	/**
+	 * Marks the current changes as discarded, the region is dropped once it is no longer active.<br>
+	 * Changes made after this call are kept again.
+	 */
+	public final void discardChanges()
+	{
+		setHandledChangeCount(getChangeCount());
+	}
+	
+	/**
+	 * @return true if the region differs from its file and has changes which were neither saved nor discarded, GeoEngine keeps it cached until then
+	 */
+	public final synchronized boolean hasUnsavedChanges()
+	{
+		return _modifiedBlockCount != 0 && _changeCount != _handledChangeCount;
+	}
 }
\ No newline at end of file
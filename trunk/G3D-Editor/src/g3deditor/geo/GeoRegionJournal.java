@@ -0,0 +1,413 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+/**
+ * The undo/redo history of a region, one step per edit.<br>
+ * A height changed in place is kept as one packed long (block index, data index, old and new height and NSWE).<br>
+ * A block which changed its type or its layers is kept with its l2j encoding from before and after the step.<br>
+ * Both are kept in rings which grow on demand, the oldest steps are dropped once the records exceed the memory limit.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoRegionJournal
+{
+	private static final int MIN_CAPACITY = 1024;
+	
+	public static final long packDelta(final int blockIndex, final int dataIndex, final short oldHeightAndNSWE, final short newHeightAndNSWE)
+	{
+		return (long) blockIndex << 48 | (long) dataIndex << 32 | (oldHeightAndNSWE & 0xFFFFL) << 16 | newHeightAndNSWE & 0xFFFFL;
+	}
+	
+	public static final int getBlockIndex(final long delta)
+	{
+		return (int) (delta >>> 48);
+	}
+	
+	public static final int getDataIndex(final long delta)
+	{
+		return (int) (delta >>> 32) & 0xFFFF;
+	}
+	
+	public static final short getOldHeightAndNSWE(final long delta)
+	{
+		return (short) (delta >>> 16);
+	}
+	
+	public static final short getNewHeightAndNSWE(final long delta)
+	{
+		return (short) delta;
+	}
+	
+	private final long _maxSize;
+	
+	/**
+	 * The delta records, position p is at index p % length.
+	 */
+	private long[] _deltas;
+	private long _deltaHead;
+	private long _deltaTail;
+	/**
+	 * The block records: block index (short), length and l2j encoding before (int, bytes), length and l2j encoding after (int, bytes).
+	 */
+	private byte[] _data;
+	private long _dataHead;
+	private long _dataTail;
+	
+	/**
+	 * The first delta and block record position of each step, step s is at index s % length.
+	 */
+	private long[] _stepDeltaStart;
+	private long[] _stepDataStart;
+	private int _stepHead;
+	/**
+	 * The steps before the cursor can be undone, the steps from the cursor to the tail redone.
+	 */
+	private int _stepCursor;
+	private int _stepTail;
+	
+	private long _recordDeltaStart;
+	private long _recordDataStart;
+	private boolean _overflow;
+	
+	/**
+	 * @param maxSize The maximum size of the records in bytes, 0 disables the journal
+	 */
+	public GeoRegionJournal(final long maxSize)
+	{
+		_maxSize = maxSize;
+		clear();
+	}
+	
+	public final boolean isEnabled()
+	{
+		return _maxSize > 0;
+	}
+	
+	public final boolean canUndo()
+	{
+		return _stepCursor > _stepHead;
+	}
+	
+	public final boolean canRedo()
+	{
+		return _stepCursor < _stepTail;
+	}
+	
+	public final int getUndoCount()
+	{
+		return _stepCursor - _stepHead;
+	}
+	
+	public final int getRedoCount()
+	{
+		return _stepTail - _stepCursor;
+	}
+	
+	/**
+	 * @return The size of the records in bytes
+	 */
+	public final long getSize()
+	{
+		return (_deltaTail - _deltaHead) * 8 + _dataTail - _dataHead;
+	}
+	
+	/**
+	 * @return The heap usage of the rings in bytes
+	 */
+	public final long getMemoryUsage()
+	{
+		return (_deltas != null ? _deltas.length * 8L : 0) + (_data != null ? _data.length : 0) + (_stepDeltaStart != null ? _stepDeltaStart.length * 16L : 0);
+	}
+	
+	/**
+	 * Drops all steps and releases the rings.
+	 */
+	public final void clear()
+	{
+		_deltas = null;
+		_deltaHead = 0;
+		_deltaTail = 0;
+		_data = null;
+		_dataHead = 0;
+		_dataTail = 0;
+		_stepDeltaStart = null;
+		_stepDataStart = null;
+		_stepHead = 0;
+		_stepCursor = 0;
+		_stepTail = 0;
+		_recordDeltaStart = 0;
+		_recordDataStart = 0;
+		_overflow = false;
+	}
+	
+	/**
+	 * Starts recording a step, the steps which could be redone are dropped.
+	 */
+	public final void beginStep()
+	{
+		if (canRedo())
+		{
+			_deltaTail = getDeltaStart(_stepCursor);
+			_dataTail = getDataStart(_stepCursor);
+			_stepTail = _stepCursor;
+		}
+		_recordDeltaStart = _deltaTail;
+		_recordDataStart = _dataTail;
+		_overflow = false;
+	}
+	
+	/**
+	 * Ends the step started by {@link #beginStep()}.<br>
+	 * A step without records is dropped. If the step did not fit into the memory limit the whole journal is cleared, as the older steps could not be undone without it.
+	 */
+	public final void endStep()
+	{
+		if (_overflow)
+		{
+			clear();
+			return;
+		}
+		
+		if (_deltaTail == _recordDeltaStart && _dataTail == _recordDataStart)
+			return;
+		
+		if (_stepDeltaStart == null)
+		{
+			_stepDeltaStart = new long[64];
+			_stepDataStart = new long[64];
+		}
+		else if (_stepTail - _stepHead == _stepDeltaStart.length)
+		{
+			final int capacity = _stepDeltaStart.length * 2;
+			final long[] deltaStart = new long[capacity];
+			final long[] dataStart = new long[capacity];
+			for (int s = _stepHead; s < _stepTail; s++)
+			{
+				deltaStart[s % capacity] = _stepDeltaStart[s % _stepDeltaStart.length];
+				dataStart[s % capacity] = _stepDataStart[s % _stepDataStart.length];
+			}
+			_stepDeltaStart = deltaStart;
+			_stepDataStart = dataStart;
+		}
+		
+		_stepDeltaStart[_stepTail % _stepDeltaStart.length] = _recordDeltaStart;
+		_stepDataStart[_stepTail % _stepDataStart.length] = _recordDataStart;
+		_stepTail++;
+		_stepCursor = _stepTail;
+	}
+	
+	public final void addDelta(final long delta)
+	{
+		if (!ensureRoom(8))
+			return;
+		
+		if (_deltas == null || _deltaTail - _deltaHead == _deltas.length)
+			_deltas = grow(_deltas, _deltaHead, _deltaTail, capacityFor(_deltaTail - _deltaHead + 1, _maxSize / 8));
+		
+		_deltas[(int) (_deltaTail++ % _deltas.length)] = delta;
+	}
+	
+	public final void addBlock(final int blockIndex, final byte[] before, final byte[] after)
+	{
+		final int size = 10 + before.length + after.length;
+		if (!ensureRoom(size))
+			return;
+		
+		if (_data == null || _dataTail - _dataHead + size > _data.length)
+			_data = grow(_data, _dataHead, _dataTail, capacityFor(_dataTail - _dataHead + size, _maxSize));
+		
+		putShort(blockIndex);
+		putInt(before.length);
+		put(before);
+		putInt(after.length);
+		put(after);
+	}
+	
+	/**
+	 * Drops the oldest steps until the given number of bytes fits, or drops the records of the current step if it alone exceeds the limit.
+	 * 
+	 * @return True if the bytes can be added
+	 */
+	private final boolean ensureRoom(final int size)
+	{
+		if (_overflow)
+			return false;
+		
+		while (getSize() + size > _maxSize)
+		{
+			if (_stepHead == _stepTail)
+			{
+				_deltaTail = _recordDeltaStart;
+				_dataTail = _recordDataStart;
+				_overflow = true;
+				return false;
+			}
+			
+			_stepHead++;
+			_deltaHead = _stepHead < _stepTail ? getDeltaStart(_stepHead) : _recordDeltaStart;
+			_dataHead = _stepHead < _stepTail ? getDataStart(_stepHead) : _recordDataStart;
+			if (_stepCursor < _stepHead)
+				_stepCursor = _stepHead;
+		}
+		return true;
+	}
+	
+	/**
+	 * Moves the cursor before the last step.
+	 * 
+	 * @return The step to undo, -1 if there is none
+	 */
+	public final int undo()
+	{
+		return canUndo() ? --_stepCursor : -1;
+	}
+	
+	/**
+	 * Moves the cursor after the next step.
+	 * 
+	 * @return The step to redo, -1 if there is none
+	 */
+	public final int redo()
+	{
+		return canRedo() ? _stepCursor++ : -1;
+	}
+	
+	public final long getDeltaStart(final int step)
+	{
+		return _stepDeltaStart[step % _stepDeltaStart.length];
+	}
+	
+	public final long getDeltaEnd(final int step)
+	{
+		return step + 1 < _stepTail ? getDeltaStart(step + 1) : _deltaTail;
+	}
+	
+	public final long getDataStart(final int step)
+	{
+		return _stepDataStart[step % _stepDataStart.length];
+	}
+	
+	public final long getDataEnd(final int step)
+	{
+		return step + 1 < _stepTail ? getDataStart(step + 1) : _dataTail;
+	}
+	
+	public final long getDelta(final long position)
+	{
+		return _deltas[(int) (position % _deltas.length)];
+	}
+	
+	/**
+	 * @param position The position of a block record
+	 * @return The index of the block in its region
+	 */
+	public final int getRecordBlockIndex(final long position)
+	{
+		return getShort(position) & 0xFFFF;
+	}
+	
+	/**
+	 * @param position The position of a block record
+	 * @param after True for the encoding after the step, false for the one before
+	 * @return The l2j encoding of the block
+	 */
+	public final byte[] getRecordData(final long position, final boolean after)
+	{
+		long offset = position + 2;
+		if (after)
+			offset += 4 + getInt(offset);
+		
+		final byte[] data = new byte[getInt(offset)];
+		offset += 4;
+		for (int i = 0; i < data.length; i++)
+		{
+			data[i] = _data[(int) (offset++ % _data.length)];
+		}
+		return data;
+	}
+	
+	/**
+	 * @param position The position of a block record
+	 * @return The position of the following block record
+	 */
+	public final long getNextRecord(final long position)
+	{
+		final long after = position + 6 + getInt(position + 2);
+		return after + 4 + getInt(after);
+	}
+	
+	private final int getShort(final long position)
+	{
+		return _data[(int) (position % _data.length)] & 0xFF | _data[(int) ((position + 1) % _data.length)] << 8;
+	}
+	
+	private final int getInt(final long position)
+	{
+		return getShort(position) & 0xFFFF | getShort(position + 2) << 16;
+	}
+	
+	private final void putShort(final int value)
+	{
+		_data[(int) (_dataTail++ % _data.length)] = (byte) value;
+		_data[(int) (_dataTail++ % _data.length)] = (byte) (value >> 8);
+	}
+	
+	private final void putInt(final int value)
+	{
+		putShort(value);
+		putShort(value >> 16);
+	}
+	
+	private final void put(final byte[] values)
+	{
+		for (final byte value : values)
+		{
+			_data[(int) (_dataTail++ % _data.length)] = value;
+		}
+	}
+	
+	private static final int capacityFor(final long required, final long maxCapacity)
+	{
+		long capacity = MIN_CAPACITY;
+		while (capacity < required)
+		{
+			capacity <<= 1;
+		}
+		return (int) Math.min(Math.max(capacity, required), Math.max(maxCapacity, required));
+	}
+	
+	private static final long[] grow(final long[] ring, final long head, final long tail, final int capacity)
+	{
+		final long[] grown = new long[capacity];
+		for (long p = head; p < tail; p++)
+		{
+			grown[(int) (p % capacity)] = ring[(int) (p % ring.length)];
+		}
+		return grown;
+	}
+	
+	private static final byte[] grow(final byte[] ring, final long head, final long tail, final int capacity)
+	{
+		final byte[] grown = new byte[capacity];
+		for (long p = head; p < tail; p++)
+		{
+			grown[(int) (p % capacity)] = ring[(int) (p % ring.length)];
+		}
+		return grown;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of a region loaded in the background, see {@link GeoEngine#loadGeoAsync(int, int, boolean, File, GeoRegionLoadListener)}.<br>
+ * Also passed to the GeoRegion constructor to report the progress, check for cancel and take the time of each phase.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoRegionLoad
+{
+	private final int _regionX;
+	private final int _regionY;
+	private final boolean _l2j;
+	private final File _file;
+	private final GeoRegionLoadListener _listener;
+	private final AtomicInteger _blocksRead;
+	private final StringBuilder _timings;
+	
+	private volatile boolean _cancelled;
+	private volatile int _progress;
+	private volatile GeoRegion _region;
+	/** The region this load keeps from being unloaded, guarded by the region cache of GeoEngine. */
+	private GeoRegion _pinnedRegion;
+	private long _phaseStart;
+	private long _start;
+	
+	public GeoRegionLoad(final int regionX, final int regionY, final boolean l2j, final File file, final GeoRegionLoadListener listener)
+	{
+		_regionX = regionX;
+		_regionY = regionY;
+		_l2j = l2j;
+		_file = file;
+		_listener = listener;
+		_blocksRead = new AtomicInteger();
+		_timings = new StringBuilder();
+	}
+	
+	public final int getRegionX()
+	{
+		return _regionX;
+	}
+	
+	public final int getRegionY()
+	{
+		return _regionY;
+	}
+	
+	public final boolean isL2j()
+	{
+		return _l2j;
+	}
+	
+	public final File getFile()
+	{
+		return _file;
+	}
+	
+	public final GeoRegionLoadListener getListener()
+	{
+		return _listener;
+	}
+	
+	public final String getName()
+	{
+		return (_regionX + 10) + "_" + (_regionY + 10);
+	}
+	
+	/**
+	 * Cancels the load, the active region stays as it is.
+	 */
+	public final void cancel()
+	{
+		_cancelled = true;
+	}
+	
+	public final boolean isCancelled()
+	{
+		return _cancelled;
+	}
+	
+	/**
+	 * @return true if the region was read and waits to become the active region
+	 */
+	public final boolean isDone()
+	{
+		return _region != null;
+	}
+	
+	/**
+	 * @return 0 - 100
+	 */
+	public final int getProgress()
+	{
+		return _progress;
+	}
+	
+	final GeoRegion getRegion()
+	{
+		return _region;
+	}
+	
+	final void setRegion(final GeoRegion region)
+	{
+		_region = region;
+		setProgress(100);
+	}
+	
+	final void setPinnedRegion(final GeoRegion region)
+	{
+		_pinnedRegion = region;
+	}
+	
+	/**
+	 * @return The pinned region or null if it was released before, the load no longer pins it
+	 */
+	final GeoRegion takePinnedRegion()
+	{
+		final GeoRegion region = _pinnedRegion;
+		_pinnedRegion = null;
+		return region;
+	}
+	
+	/**
+	 * Adds read blocks to the progress and stops a sequential read if the load was cancelled.
+	 * 
+	 * @throws CancellationException if the load was cancelled
+	 */
+	public final void onBlocksRead(final int blocks)
+	{
+		checkCancelled();
+		addBlocksRead(blocks);
+	}
+	
+	/**
+	 * Adds read blocks to the progress, can be called from several threads.<br>
+	 * Unlike {@link #onBlocksRead(int)} it never throws, for tasks which have to finish normally.
+	 */
+	public final void addBlocksRead(final int blocks)
+	{
+		setProgress(_blocksRead.addAndGet(blocks) * 100 / (GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE));
+	}
+	
+	/**
+	 * @throws CancellationException if the load was cancelled
+	 */
+	public final void checkCancelled()
+	{
+		if (_cancelled)
+			throw new CancellationException("Load of region " + getName() + " cancelled");
+	}
+	
+	private final void setProgress(final int progress)
+	{
+		if (_progress == progress)
+			return;
+		
+		_progress = progress;
+		if (_listener != null)
+			_listener.onProgress(this, progress);
+	}
+	
+	final void start()
+	{
+		_start = System.nanoTime();
+		_phaseStart = _start;
+	}
+	
+	/**
+	 * Takes the time since the previous phase ended.
+	 */
+	public final synchronized void onPhaseDone(final String phase)
+	{
+		final long time = System.nanoTime();
+		_timings.append(phase).append(' ').append((time - _phaseStart) / 1000000).append("ms, ");
+		_phaseStart = time;
+	}
+	
+	final synchronized String getTimings()
+	{
+		return _timings.toString() + "total " + (System.nanoTime() - _start) / 1000000 + "ms";
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+/**
+ * Receives the state of a region loaded with {@link GeoEngine#loadGeoAsync(int, int, boolean, java.io.File, GeoRegionLoadListener)}.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public interface GeoRegionLoadListener
+{
+	/**
+	 * Called from the loader threads whenever the progress changed.
+	 * 
+	 * @param load The load
+	 * @param progress 0 - 100
+	 */
+	public void onProgress(final GeoRegionLoad load, final int progress);
+	
+	/**
+	 * Called from the OpenGL thread, right after the region became the active region.
+	 * 
+	 * @param region The new active region
+	 */
+	public void onLoaded(final GeoRegion region);
+	
+	/**
+	 * Called from the loader thread if the region could not be read. Not called on cancel.
+	 * 
+	 * @param e The cause
+	 */
+	public void onFailed(final Exception e);
+}
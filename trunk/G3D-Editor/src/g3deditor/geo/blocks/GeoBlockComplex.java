@@ -15,14 +15,17 @@
 package g3deditor.geo.blocks;
 
 import g3deditor.geo.GeoBlock;
+import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
 import g3deditor.geo.GeoRegion;
 import g3deditor.geo.cells.GeoCellCM;
-import g3deditor.jogl.GLDisplay;
+import g3deditor.swing.FrameMain;
 import g3deditor.util.GeoReader;
 import g3deditor.util.GeoWriter;
 
+import java.util.Arrays;
+
 /**
  * Complex block, 1 level, 64 heights (each cell in block).<br>
  * 
@@ -48,67 +51,107 @@ public final class GeoBlockComplex extends GeoBlock
 		return x * GeoEngine.GEO_BLOCK_SHIFT + y;
 	}
 	
-	private GeoCell[] _cells;
+	/**
+	 * Replaced by a copy before the first write while shared, so readers on other threads see either the old or the new cells.
+	 */
+	private volatile short[] _heightAndNSWE;
+	/**
+	 * True while the cells are the ones of the region shared by all complex blocks with the same 64 cells, see {@link GeoRegion#getConstantHeightAndNSWE(short)}.
+	 */
+	private volatile boolean _shared;
+	private volatile GeoCell[] _cells;
 	private short _minHeight;
 	private short _maxHeight;
 	
-	public GeoBlockComplex(final GeoReader reader, final int geoX, final int geoY, final boolean l2j)
+	/**
+	 * @param region The region to share equal cells with, null to not share them
+	 */
+	public GeoBlockComplex(final GeoReader reader, final int geoX, final int geoY, final boolean l2j, final GeoRegion region)
 	{
 		super(geoX, geoY);
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
-		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
-		{
-			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
-			{
-				_cells[indexOf(x, y)] = new GeoCellCM(this, reader.getShort(), x, y);
-			}
-		}
+		_heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		reader.getShorts(_heightAndNSWE, 0, _heightAndNSWE.length);
+		share(region);
 		calcMaxMinHeight();
 	}
 	
 	private GeoBlockComplex(final GeoBlockFlat block)
 	{
 		super(block.getGeoX(), block.getGeoY());
-		
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		_heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		Arrays.fill(_heightAndNSWE, GeoEngine.convertHeightToHeightAndNSWEALL(block.getMinHeight()));
+		share(block.getRegion());
+		calcMaxMinHeight();
+	}
+	
+	private GeoBlockComplex(final GeoBlockComplex block)
+	{
+		super(block.getGeoX(), block.getGeoY());
+		_heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
 		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 		{
 			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				_cells[indexOf(x, y)] = new GeoCellCM(this, GeoEngine.convertHeightToHeightAndNSWEALL(block.getMinHeight()), x, y);
+				_heightAndNSWE[indexOf(x, y)] = block.nGetHeightAndNSWE(x, y, 0);
 			}
 		}
+		share(block.getRegion());
 		calcMaxMinHeight();
 	}
 	
-	private GeoBlockComplex(final GeoBlockComplex block)
+	private GeoBlockComplex(final GeoBlockMultiLayer block)
 	{
 		super(block.getGeoX(), block.getGeoY());
-		
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		_heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
 		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 		{
 			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				_cells[indexOf(x, y)] = new GeoCellCM(this, block.nGetCellByLayer(x, y, 0).getHeightAndNSWE(), x, y);
+				_heightAndNSWE[indexOf(x, y)] = block.nGetHeightAndNSWE(x, y, block.nGetLayerCount(x, y) - 1);
 			}
 		}
+		share(block.getRegion());
 		calcMaxMinHeight();
 	}
 	
-	private GeoBlockComplex(final GeoBlockMultiLayer block)
+	/**
+	 * Replaces the cells by the shared ones of the region, if all 64 cells are equal.
+	 */
+	private final void share(final GeoRegion region)
 	{
-		super(block.getGeoX(), block.getGeoY());
+		if (region == null)
+			return;
 		
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
-		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		final short[] heightAndNSWE = _heightAndNSWE;
+		for (int i = heightAndNSWE.length; i-- > 1;)
 		{
-			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+			if (heightAndNSWE[i] != heightAndNSWE[0])
+				return;
+		}
+		
+		final short[] shared = region.getConstantHeightAndNSWE(heightAndNSWE[0]);
+		if (shared == null)
+			return;
+		
+		_heightAndNSWE = shared;
+		_shared = true;
+	}
+	
+	private final synchronized GeoCell[] createCells()
+	{
+		if (_cells == null)
+		{
+			final GeoCell[] cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+			for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 			{
-				_cells[indexOf(x, y)] = new GeoCellCM(this, block.nGetCellByLayer(x, y, block.nGetLayerCount(x, y) - 1).getHeightAndNSWE(), x, y);
+				for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+				{
+					cells[indexOf(x, y)] = new GeoCellCM(this, indexOf(x, y), x, y);
+				}
 			}
+			_cells = cells;
 		}
-		calcMaxMinHeight();
+		return _cells;
 	}
 	
 	@Override
@@ -128,7 +171,15 @@ public final class GeoBlockComplex extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		return _cells[indexOf(cellX, cellY)];
+		return getCells()[indexOf(cellX, cellY)];
+	}
+	
+	@Override
+	public final short nGetHeightAndNSWE(final int geoX, final int geoY, final int layer)
+	{
+		final int cellX = GeoEngine.getCellXY(geoX);
+		final int cellY = GeoEngine.getCellXY(geoY);
+		return _heightAndNSWE[indexOf(cellX, cellY)];
 	}
 	
 	@Override
@@ -142,20 +193,17 @@ public final class GeoBlockComplex extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		return new GeoCell[]{_cells[indexOf(cellX, cellY)]};
+		return new GeoCell[]{getCells()[indexOf(cellX, cellY)]};
 	}
 	
 	public final void calcMaxMinHeight()
 	{
-		short minHeight = Short.MAX_VALUE, maxHeight = Short.MIN_VALUE;
-		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		short height, minHeight = Short.MAX_VALUE, maxHeight = Short.MIN_VALUE;
+		for (int i = _heightAndNSWE.length; i-- > 0;)
 		{
-			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
-			{
-				final GeoCell cell = _cells[indexOf(x, y)];
-				minHeight = (short) Math.min(cell.getHeight(), minHeight);
-				maxHeight = (short) Math.max(cell.getHeight(), maxHeight);
-			}
+			height = GeoEngine.getHeight(_heightAndNSWE[i]);
+			minHeight = (short) Math.min(height, minHeight);
+			maxHeight = (short) Math.max(height, maxHeight);
 		}
 		_minHeight = minHeight;
 		_maxHeight = maxHeight;
@@ -169,7 +217,7 @@ public final class GeoBlockComplex extends GeoBlock
 		{
 			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				writer.putShort(_cells[indexOf(x, y)].getHeightAndNSWE());
+				writer.putShort(_heightAndNSWE[indexOf(x, y)]);
 			}
 		}
 	}
@@ -201,7 +249,41 @@ public final class GeoBlockComplex extends GeoBlock
 	@Override
 	public final GeoCell[] getCells()
 	{
-		return _cells;
+		final GeoCell[] cells = _cells;
+		return cells != null ? cells : createCells();
+	}
+	
+	@Override
+	public final synchronized void releaseCells()
+	{
+		final GeoCell[] cells = _cells;
+		if (cells == null || GeoBlockSelector.getInstance().isGeoBlockSelected(this))
+			return;
+		
+		final GeoCell selected = FrameMain.getInstance().getSelectedGeoCell();
+		if (selected == null || selected.getBlock() != this)
+			_cells = null;
+	}
+	
+	@Override
+	public final short getHeightAndNSWE(final int index)
+	{
+		return _heightAndNSWE[index];
+	}
+	
+	@Override
+	public final synchronized void setHeightAndNSWE(final int index, final short heightAndNSWE)
+	{
+		if (_shared)
+		{
+			// copy on write, the copy is written before it is published
+			final short[] copy = _heightAndNSWE.clone();
+			copy[index] = heightAndNSWE;
+			_heightAndNSWE = copy;
+			_shared = false;
+			return;
+		}
+		_heightAndNSWE[index] = heightAndNSWE;
 	}
 	
 	@Override
@@ -220,33 +302,27 @@ public final class GeoBlockComplex extends GeoBlock
 	public final void updateMinMaxHeight(final short newHeight, final short oldHeight)
 	{
 		if (newHeight > _maxHeight)
-		{
 			_maxHeight = newHeight;
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(false, true);
-		}
 		else if (newHeight < _minHeight)
-		{
 			_minHeight = newHeight;
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(true, false);
-		}
 		else if (oldHeight == _maxHeight || oldHeight == _minHeight)
-		{
-			final int oldMinHeight = _minHeight;
-			final int oldMaxHeight = _maxHeight;
 			calcMaxMinHeight();
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(_minHeight != oldMinHeight, _maxHeight != oldMaxHeight);
-		}
 	}
 	
 	@Override
-	public final void unload()
+	public final synchronized void unload()
 	{
-		for (int i = _cells.length; i-- > 0;)
+		final GeoCell[] cells = _cells;
+		if (cells != null)
 		{
-			_cells[i].unload();
-			_cells[i] = null;
+			for (int i = cells.length; i-- > 0;)
+			{
+				cells[i].unload();
+				cells[i] = null;
+			}
+			_cells = null;
 		}
-		_cells = null;
+		_heightAndNSWE = null;
 	}
 	
 	@Override
@@ -259,7 +335,7 @@ public final class GeoBlockComplex extends GeoBlock
 		{
 			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				if (_cells[indexOf(x, y)].getHeightAndNSWE() != reader.getShort())
+				if (_heightAndNSWE[indexOf(x, y)] != reader.getShort())
 					return false;
 			}
 		}
@@ -271,4 +347,16 @@ public final class GeoBlockComplex extends GeoBlock
 	{
 		
 	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#updateAfterEdit()
+	 */
+	@Override
+	public final boolean updateAfterEdit()
+	{
+		final short minHeight = _minHeight;
+		final short maxHeight = _maxHeight;
+		calcMaxMinHeight();
+		return _minHeight != minHeight || _maxHeight != maxHeight;
+	}
 }
\ No newline at end of file
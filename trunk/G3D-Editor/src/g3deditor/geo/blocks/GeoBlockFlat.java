@@ -15,11 +15,12 @@
 package g3deditor.geo.blocks;
 
 import g3deditor.geo.GeoBlock;
+import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
 import g3deditor.geo.GeoRegion;
 import g3deditor.geo.cells.GeoCellFlat;
-import g3deditor.jogl.GLDisplay;
+import g3deditor.swing.FrameMain;
 import g3deditor.util.GeoReader;
 import g3deditor.util.GeoWriter;
 
@@ -37,12 +38,13 @@ public final class GeoBlockFlat extends GeoBlock
 		return new GeoBlockFlat(block);
 	}
 	
-	private GeoCell[] _cells;
+	private short _height;
+	private volatile GeoCell[] _cells;
 	
 	public GeoBlockFlat(final GeoReader reader, final int geoX, final int geoY, final boolean l2j)
 	{
 		super(geoX, geoY);
-		_cells = new GeoCell[]{new GeoCellFlat(this, reader.getShort())};
+		_height = GeoEngine.getGeoHeightOfHeight(reader.getShort());
 		
 		if (!l2j)
 			reader.getShort();
@@ -51,7 +53,14 @@ public final class GeoBlockFlat extends GeoBlock
 	private GeoBlockFlat(final GeoBlock block)
 	{
 		super(block.getGeoX(), block.getGeoY());
-		_cells = new GeoCell[]{new GeoCellFlat(this, block.getMinHeight())};
+		_height = GeoEngine.getGeoHeightOfHeight(block.getMinHeight());
+	}
+	
+	private final synchronized GeoCell[] createCells()
+	{
+		if (_cells == null)
+			_cells = new GeoCell[]{new GeoCellFlat(this)};
+		return _cells;
 	}
 	
 	@Override
@@ -69,7 +78,13 @@ public final class GeoBlockFlat extends GeoBlock
 	@Override
 	public final GeoCell nGetCellByLayer(final int geoX, final int geoY, final int layer)
 	{
-		return _cells[0];
+		return getCells()[0];
+	}
+	
+	@Override
+	public final short nGetHeightAndNSWE(final int geoX, final int geoY, final int layer)
+	{
+		return getHeightAndNSWE(0);
 	}
 	
 	@Override
@@ -81,22 +96,22 @@ public final class GeoBlockFlat extends GeoBlock
 	@Override
 	public final GeoCell[] nGetLayers(final int geoX, final int geoY)
 	{
-		return new GeoCell[]{_cells[0]};
+		return new GeoCell[]{getCells()[0]};
 	}
 	
 	@Override
 	public final void writeTo(final GeoWriter writer, final boolean l2j)
 	{
 		GeoRegion.putType(writer, l2j, getType());
-		writer.putShort(_cells[0].getHeight());
+		writer.putShort(_height);
 		if (!l2j)
-			writer.putShort(_cells[0].getHeight());
+			writer.putShort(_height);
 	}
 	
 	@Override
 	public final int getRequiredCapacity(final boolean l2j)
 	{
-		return l2j ? 3 : 5;
+		return l2j ? 3 : 6;
 	}
 	
 	@Override
@@ -120,13 +135,33 @@ public final class GeoBlockFlat extends GeoBlock
 	@Override
 	public final GeoCell[] getCells()
 	{
-		return _cells;
+		final GeoCell[] cells = _cells;
+		return cells != null ? cells : createCells();
+	}
+	
+	@Override
+	public final synchronized void releaseCells()
+	{
+		if (_cells != null && !GeoBlockSelector.getInstance().isGeoBlockSelected(this) && !FrameMain.getInstance().isSelectedGeoCell(_cells[0]))
+			_cells = null;
+	}
+	
+	@Override
+	public final short getHeightAndNSWE(final int index)
+	{
+		return GeoEngine.convertHeightToHeightAndNSWEALL(_height);
+	}
+	
+	@Override
+	public final void setHeightAndNSWE(final int index, final short heightAndNSWE)
+	{
+		_height = GeoEngine.getHeight(heightAndNSWE);
 	}
 	
 	@Override
 	public final short getMinHeight()
 	{
-		return _cells[0].getHeight();
+		return _height;
 	}
 	
 	@Override
@@ -138,19 +173,19 @@ public final class GeoBlockFlat extends GeoBlock
 	@Override
 	public final void updateMinMaxHeight(final short newHeight, final short oldHeight)
 	{
-		if (newHeight != oldHeight)
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(true, true);
+		// the height is the min and max height, the region reads it in onBlockChanged
 	}
 	
 	@Override
-	public final void unload()
+	public final synchronized void unload()
 	{
-		for (int i = _cells.length; i-- > 0;)
+		final GeoCell[] cells = _cells;
+		if (cells != null)
 		{
-			_cells[i].unload();
-			_cells[i] = null;
+			cells[0].unload();
+			cells[0] = null;
+			_cells = null;
 		}
-		_cells = null;
 	}
 	
 	@Override
@@ -159,7 +194,7 @@ public final class GeoBlockFlat extends GeoBlock
 		if (getType() != GeoRegion.getType(reader, true))
 			return false;
 		
-		if (_cells[0].getHeight() != reader.getShort())
+		if (_height != reader.getShort())
 			return false;
 		
 		return true;
@@ -170,4 +205,14 @@ public final class GeoBlockFlat extends GeoBlock
 	{
 		
 	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#updateAfterEdit()
+	 */
+	@Override
+	public final boolean updateAfterEdit()
+	{
+		// only deferred for height changes, the height is min and max height
+		return true;
+	}
 }
\ No newline at end of file
@@ -20,11 +20,9 @@ import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
 import g3deditor.geo.GeoRegion;
 import g3deditor.geo.cells.GeoCellCM;
-import g3deditor.jogl.GLDisplay;
+import g3deditor.swing.FrameMain;
 import g3deditor.util.GeoReader;
 import g3deditor.util.GeoWriter;
-import g3deditor.util.Util;
-import g3deditor.util.Util.FastComparator;
 
 import java.util.Arrays;
 
@@ -48,132 +46,259 @@ public final class GeoBlockMultiLayer extends GeoBlock
 		return new GeoBlockMultiLayer((GeoBlockMultiLayer) block);
 	}
 	
-	private static final FastComparator<GeoCell> HEIGHT_COMPARATOR = new FastComparator<GeoCell>()
+	/**
+	 * Sorts the given layers by height, the same way the cells of a block are sorted.
+	 * 
+	 * @param heightAndNSWE The layers to sort
+	 * @param length The number of layers
+	 */
+	public static final void sortLayers(final short[] heightAndNSWE, final int length)
+	{
+		sortLayers(heightAndNSWE, 0, length);
+	}
+	
+	/**
+	 * Sorts the given layers by height, the same way the cells of a block are sorted.
+	 * 
+	 * @param heightAndNSWE The layers to sort
+	 * @param offset The index of the first layer
+	 * @param length The number of layers
+	 */
+	public static final void sortLayers(final short[] heightAndNSWE, final int offset, final int length)
 	{
-		@Override
-		public final boolean compare(final GeoCell o1, final GeoCell o2)
+		short v;
+		for (int i = offset + 1, j; i < offset + length; i++)
 		{
-			return o1.getHeight() > o2.getHeight();
+			v = heightAndNSWE[i];
+			j = i;
+			while (j > offset && GeoEngine.getHeight(heightAndNSWE[j - 1]) > GeoEngine.getHeight(v))
+			{
+				heightAndNSWE[j] = heightAndNSWE[j - 1];
+				j--;
+			}
+			heightAndNSWE[j] = v;
 		}
-	};
+	}
 	
-	private GeoCell[][][] _cells3D;
-	private GeoCell[] _cells;
-	private short _minHeight;
-	private short _maxHeight;
+	private static final int indexOf(final int x, final int y)
+	{
+		return x * GeoEngine.GEO_BLOCK_SHIFT + y;
+	}
 	
-	private final void copyCells(int count)
+	/**
+	 * The data of the block, never changes in size. A block with more or less layers gets new layers, published at once.
+	 */
+	private static final class Layers
 	{
-		_cells = new GeoCell[count];
-		for (final GeoCell[][] cells2D : _cells3D)
+		/**
+		 * The layers of all cells, cell after cell (x * 8 + y), each cell sorted by height from the lowest to the highest layer.
+		 */
+		final short[] heightAndNSWE;
+		/**
+		 * The index of the first layer of each cell in heightAndNSWE, the last entry is the total layer count.
+		 */
+		final short[] layerIndex;
+		/**
+		 * The cell views, aligned with heightAndNSWE, null until requested.
+		 */
+		final GeoCell[] cells;
+		
+		Layers(final short[] heightAndNSWE, final short[] layerIndex, final GeoCell[] cells)
 		{
-			for (final GeoCell[] cells1D : cells2D)
-			{
-				for (final GeoCell cell : cells1D)
-				{
-					_cells[--count] = cell;
-				}
-			}
+			this.heightAndNSWE = heightAndNSWE;
+			this.layerIndex = layerIndex;
+			this.cells = cells;
 		}
 	}
 	
+	/**
+	 * Read once per call by readers on other threads, which then only use that snapshot. Replaced under the lock of the block.
+	 */
+	private volatile Layers _layers;
+	private short _minHeight;
+	private short _maxHeight;
+	
 	public GeoBlockMultiLayer(final GeoReader reader, final int geoX, final int geoY, final boolean l2j)
 	{
 		super(geoX, geoY);
-		_cells3D = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT][GeoEngine.GEO_BLOCK_SHIFT][];
+		final short[] layerIndex = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT + 1];
 		
+		short[] heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT * 4];
+		short temp;
 		int layers, count = 0;
-		for (int x = 0; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		for (int x = 0, y, i, j; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 		{
-			for (int y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
 				layers = l2j ? reader.get() : reader.getShort();
 				if (!GeoEngine.layersValid(layers))
 					throw new RuntimeException("Invalid layer count " + layers);
 				
-				count += layers;
-				_cells3D[x][y] = new GeoCell[layers];
-				for (int i = layers; i-- > 0;)
+				if (count + layers > heightAndNSWE.length)
+					heightAndNSWE = Arrays.copyOf(heightAndNSWE, Math.max(heightAndNSWE.length * 2, count + layers));
+				
+				// stored from the highest to the lowest layer
+				reader.getShorts(heightAndNSWE, count, layers);
+				for (i = count, j = count + layers - 1; i < j; i++, j--)
 				{
-					_cells3D[x][y][i] = new GeoCellCM(this, reader.getShort(), x, y);
+					temp = heightAndNSWE[i];
+					heightAndNSWE[i] = heightAndNSWE[j];
+					heightAndNSWE[j] = temp;
 				}
-				Util.quickSort(_cells3D[x][y], HEIGHT_COMPARATOR);
+				sortLayers(heightAndNSWE, count, layers);
+				count += layers;
+				layerIndex[indexOf(x, y) + 1] = (short) count;
 			}
 		}
 		
-		copyCells(count);
+		_layers = new Layers(heightAndNSWE.length == count ? heightAndNSWE : Arrays.copyOf(heightAndNSWE, count), layerIndex, null);
 		calcMaxMinHeight();
 	}
 	
 	private GeoBlockMultiLayer(final GeoBlockFlat block)
 	{
 		super(block.getGeoX(), block.getGeoY());
-		
-		_cells3D = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT][GeoEngine.GEO_BLOCK_SHIFT][1];
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
-		for (int x = 0; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
-		{
-			for (int y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
-			{
-				final GeoCell cell = new GeoCellCM(this, GeoEngine.convertHeightToHeightAndNSWEALL(block.getMinHeight()), x, y);
-				_cells3D[x][y][0] = cell;
-				_cells[x * GeoEngine.GEO_BLOCK_SHIFT + y] = cell; 
-			}
-		}
+		final short[] heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		Arrays.fill(heightAndNSWE, GeoEngine.convertHeightToHeightAndNSWEALL(block.getMinHeight()));
+		_layers = new Layers(heightAndNSWE, newSingleLayerIndex(), null);
 		calcMaxMinHeight();
 	}
 	
 	private GeoBlockMultiLayer(final GeoBlockComplex block)
 	{
 		super(block.getGeoX(), block.getGeoY());
-		
-		_cells3D = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT][GeoEngine.GEO_BLOCK_SHIFT][1];
-		_cells = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
-		for (int x = 0; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		final short[] heightAndNSWE = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 		{
-			for (int y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				final GeoCell cell = new GeoCellCM(this, block.nGetCellByLayer(x, y, 0).getHeightAndNSWE(), x, y);
-				_cells3D[x][y][0] = cell;
-				_cells[x * GeoEngine.GEO_BLOCK_SHIFT + y] = cell; 
+				heightAndNSWE[indexOf(x, y)] = block.nGetHeightAndNSWE(x, y, 0);
 			}
 		}
+		_layers = new Layers(heightAndNSWE, newSingleLayerIndex(), null);
 		calcMaxMinHeight();
 	}
 	
 	private GeoBlockMultiLayer(final GeoBlockMultiLayer block)
 	{
 		super(block.getGeoX(), block.getGeoY());
+		final Layers layers = block._layers;
+		_layers = new Layers(layers.heightAndNSWE.clone(), layers.layerIndex.clone(), null);
+		calcMaxMinHeight();
+	}
+	
+	private static final short[] newSingleLayerIndex()
+	{
+		final short[] layerIndex = new short[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT + 1];
+		for (int i = layerIndex.length; i-- > 0;)
+		{
+			layerIndex[i] = (short) i;
+		}
+		return layerIndex;
+	}
+	
+	/**
+	 * @return The data of this block with the cell views created
+	 */
+	private final Layers getLayersWithCells()
+	{
+		final Layers layers = _layers;
+		return layers.cells != null ? layers : createCells();
+	}
+	
+	private final synchronized Layers createCells()
+	{
+		final Layers layers = _layers;
+		if (layers.cells != null)
+			return layers;
 		
-		_cells3D = new GeoCell[GeoEngine.GEO_BLOCK_SHIFT][GeoEngine.GEO_BLOCK_SHIFT][];
-		
-		int layers, count = 0;
-		for (int x = 0; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		final GeoCell[] cells = new GeoCell[layers.heightAndNSWE.length];
+		for (int x = 0, y, i; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
 		{
-			for (int y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
 			{
-				layers = block.nGetLayerCount(x, y);
-				count += layers;
-				_cells3D[x][y] = new GeoCell[layers];
-				while (layers-- > 0)
+				for (i = layers.layerIndex[indexOf(x, y)]; i < layers.layerIndex[indexOf(x, y) + 1]; i++)
 				{
-					final GeoCell cell = new GeoCellCM(this, block.nGetCellByLayer(x, y, layers).getHeightAndNSWE(), x, y);
-					_cells3D[x][y][layers] = cell;
+					cells[i] = new GeoCellCM(this, i, x, y);
 				}
 			}
 		}
+		final Layers withCells = new Layers(layers.heightAndNSWE, layers.layerIndex, cells);
+		_layers = withCells;
+		return withCells;
+	}
+	
+	/**
+	 * Sorts the layers of the given cell by height, moving the cell views along with their heights.
+	 */
+	private final void sortLayers(final int cellX, final int cellY)
+	{
+		final Layers layers = _layers;
+		final short[] heightAndNSWE = layers.heightAndNSWE;
+		final int from = layers.layerIndex[indexOf(cellX, cellY)];
+		final int to = layers.layerIndex[indexOf(cellX, cellY) + 1];
+		final GeoCell[] cells = layers.cells;
+		if (cells == null)
+		{
+			sortLayers(heightAndNSWE, from, to - from);
+			return;
+		}
 		
-		copyCells(count);
-		calcMaxMinHeight();
+		short v;
+		GeoCell cell;
+		for (int i = from + 1, j; i < to; i++)
+		{
+			v = heightAndNSWE[i];
+			cell = cells[i];
+			j = i;
+			while (j > from && GeoEngine.getHeight(heightAndNSWE[j - 1]) > GeoEngine.getHeight(v))
+			{
+				heightAndNSWE[j] = heightAndNSWE[j - 1];
+				cells[j] = cells[j - 1];
+				j--;
+			}
+			heightAndNSWE[j] = v;
+			cells[j] = cell;
+		}
+		GeoBlockSelector.getInstance().onGeoCellsMoved(this, cells, from, to);
+		updateIndices(cells, from, to);
+	}
+	
+	private static final void updateIndices(final GeoCell[] cells, final int from, final int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			((GeoCellCM) cells[i]).setIndex(i);
+		}
 	}
 	
 	/**
 	 * @see g3deditor.geo.GeoBlock#updateLayerFor(g3deditor.geo.GeoCell)
 	 */
 	@Override
-	public final void updateLayerFor(final GeoCell cell)
+	public final synchronized void updateLayerFor(final GeoCell cell)
 	{
-		Util.quickSort(_cells3D[cell.getCellX()][cell.getCellY()], HEIGHT_COMPARATOR);
+		sortLayers(cell.getCellX(), cell.getCellY());
+	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#updateAfterEdit()
+	 */
+	@Override
+	public final synchronized boolean updateAfterEdit()
+	{
+		for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY; cellX-- > 0;)
+		{
+			for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
+			{
+				sortLayers(cellX, cellY);
+			}
+		}
+		
+		final short minHeight = _minHeight;
+		final short maxHeight = _maxHeight;
+		calcMaxMinHeight();
+		return _minHeight != minHeight || _maxHeight != maxHeight;
 	}
 	
 	@Override
@@ -187,20 +312,19 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		final GeoCell[] heights = _cells3D[cellX][cellY];
+		final Layers layers = _layers;
+		final int from = layers.layerIndex[indexOf(cellX, cellY)];
 		
-		short temp;
 		int layer = 0, sub1, sub1Sq, sub2Sq = Integer.MAX_VALUE;
 		// from highest z (layer) to lowest z (layer)
-		for (int i = heights.length; i-- > 0;)
+		for (int i = layers.layerIndex[indexOf(cellX, cellY) + 1]; i-- > from;)
 		{
-			temp = heights[i].getHeightAndNSWE();
-			sub1 = z - GeoEngine.getHeight(temp);
+			sub1 = z - GeoEngine.getHeight(layers.heightAndNSWE[i]);
 			sub1Sq = sub1 * sub1;
 			if (sub1Sq < sub2Sq)
 			{
 				sub2Sq = sub1Sq;
-				layer = i;
+				layer = i - from;
 			}
 			else
 			{
@@ -215,7 +339,17 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		return _cells3D[cellX][cellY][layer];
+		final Layers layers = getLayersWithCells();
+		return layers.cells[layers.layerIndex[indexOf(cellX, cellY)] + layer];
+	}
+	
+	@Override
+	public final short nGetHeightAndNSWE(final int geoX, final int geoY, final int layer)
+	{
+		final int cellX = GeoEngine.getCellXY(geoX);
+		final int cellY = GeoEngine.getCellXY(geoY);
+		final Layers layers = _layers;
+		return layers.heightAndNSWE[layers.layerIndex[indexOf(cellX, cellY)] + layer];
 	}
 	
 	@Override
@@ -223,7 +357,8 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		return _cells3D[cellX][cellY].length;
+		final short[] layerIndex = _layers.layerIndex;
+		return layerIndex[indexOf(cellX, cellY) + 1] - layerIndex[indexOf(cellX, cellY)];
 	}
 	
 	@Override
@@ -231,27 +366,19 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		final GeoCell[] layers = _cells3D[cellX][cellY];
-		return Arrays.copyOf(layers, layers.length);
+		final Layers layers = getLayersWithCells();
+		return Arrays.copyOfRange(layers.cells, layers.layerIndex[indexOf(cellX, cellY)], layers.layerIndex[indexOf(cellX, cellY) + 1]);
 	}
 	
 	public final void calcMaxMinHeight()
 	{
-		GeoCell[] heights;
-		short height;
-		short minHeight = Short.MAX_VALUE, maxHeight = Short.MIN_VALUE;
-		for (int x = GeoEngine.GEO_BLOCK_SHIFT, y, z; x-- > 0;)
+		final short[] heightAndNSWE = _layers.heightAndNSWE;
+		short height, minHeight = Short.MAX_VALUE, maxHeight = Short.MIN_VALUE;
+		for (int i = heightAndNSWE.length; i-- > 0;)
 		{
-			for (y = GeoEngine.GEO_BLOCK_SHIFT; y-- > 0;)
-			{
-				heights = _cells3D[x][y];
-				for (z = heights.length; z-- > 0;)
-				{
-					height = heights[z].getHeight();
-					minHeight = (short) Math.min(height, minHeight);
-					maxHeight = (short) Math.max(height, maxHeight);
-				}
-			}
+			height = GeoEngine.getHeight(heightAndNSWE[i]);
+			minHeight = (short) Math.min(height, minHeight);
+			maxHeight = (short) Math.max(height, maxHeight);
 		}
 		_minHeight = minHeight;
 		_maxHeight = maxHeight;
@@ -263,22 +390,19 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	@Override
 	public final void writeTo(final GeoWriter writer, final boolean l2j)
 	{
-		GeoCell[] layers;
+		final Layers layers = _layers;
+		final short[] layerIndex = layers.layerIndex;
 		GeoRegion.putType(writer, l2j, getType());
-		for (int x = 0, y, z; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
+		for (int cell = 0, layer; cell < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; cell++)
 		{
-			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
+			if (l2j)
+				writer.put((byte) (layerIndex[cell + 1] - layerIndex[cell]));
+			else
+				writer.putShort((short) (layerIndex[cell + 1] - layerIndex[cell]));
+			
+			for (layer = layerIndex[cell + 1]; layer-- > layerIndex[cell];)
 			{
-				layers = _cells3D[x][y];
-				if (l2j)
-					writer.put((byte) layers.length);
-				else
-					writer.putShort((short) layers.length);
-				
-				for (z = layers.length; z-- > 0;)
-				{
-					writer.putShort(layers[z].getHeightAndNSWE());
-				}
+				writer.putShort(layers.heightAndNSWE[layer]);
 			}
 		}
 	}
@@ -289,43 +413,64 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	@Override
 	public final int getRequiredCapacity(final boolean l2j)
 	{
-		int capacity = l2j ? 1 : 2;
-		for (int x = 0, y; x < GeoEngine.GEO_BLOCK_SHIFT; x++)
-		{
-			for (y = 0; y < GeoEngine.GEO_BLOCK_SHIFT; y++)
-			{
-				capacity += l2j ? 1 : 2;
-				capacity += _cells3D[x][y].length * 2;
-			}
-		}
-		return capacity;
+		return (GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT + 1) * (l2j ? 1 : 2) + _layers.heightAndNSWE.length * 2;
 	}
 	
 	@Override
 	public final int getMaxLayerCount()
 	{
+		final short[] layerIndex = _layers.layerIndex;
 		int maxLayerCount = 0;
-		for (int x = GeoEngine.GEO_BLOCK_SHIFT, y; x-- > 0;)
+		for (int i = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; i-- > 0;)
 		{
-			for (y = GeoEngine.GEO_BLOCK_SHIFT; y-- > 0;)
-			{
-				maxLayerCount = Math.max(maxLayerCount, _cells3D[x][y].length);
-			}
+			maxLayerCount = Math.max(maxLayerCount, layerIndex[i + 1] - layerIndex[i]);
 		}
 		return maxLayerCount;
 	}
 	
+	/**
+	 * @return The view of the added layer, null if the cell has the maximum layer count already
+	 * @see g3deditor.geo.GeoBlock#addLayer(int, int, short)
+	 */
 	@Override
-	public final GeoCell addLayer(final int geoX, final int geoY, final short heightAndNSWE)
+	public final synchronized GeoCell addLayer(final int geoX, final int geoY, final short heightAndNSWE)
 	{
 		final int cellX = GeoEngine.getCellXY(geoX);
 		final int cellY = GeoEngine.getCellXY(geoY);
-		final GeoCell cell = new GeoCellCM(this, heightAndNSWE, cellX, cellY);
-		final GeoCell[] layers = _cells3D[cellX][cellY];
-		_cells3D[cellX][cellY] = Util.arrayAdd(layers, cell);
-		_cells = Util.arrayAdd(_cells, cell);
-		Util.quickSort(layers, HEIGHT_COMPARATOR);
+		final Layers layers = getLayersWithCells();
+		final short[] layerIndex = layers.layerIndex;
+		final int index = layerIndex[indexOf(cellX, cellY) + 1];
+		if (!GeoEngine.layersValid(index - layerIndex[indexOf(cellX, cellY)] + 1))
+			return null;
+		
+		final GeoCell[] cells = layers.cells;
+		final GeoCell cell = new GeoCellCM(this, index, cellX, cellY);
+		final boolean deferred = deferUpdate();
+		
+		final short[] newHeightAndNSWE = new short[layers.heightAndNSWE.length + 1];
+		System.arraycopy(layers.heightAndNSWE, 0, newHeightAndNSWE, 0, index);
+		System.arraycopy(layers.heightAndNSWE, index, newHeightAndNSWE, index + 1, layers.heightAndNSWE.length - index);
+		newHeightAndNSWE[index] = heightAndNSWE;
+		
+		final GeoCell[] newCells = new GeoCell[cells.length + 1];
+		System.arraycopy(cells, 0, newCells, 0, index);
+		System.arraycopy(cells, index, newCells, index + 1, cells.length - index);
+		newCells[index] = cell;
+		
+		final short[] newLayerIndex = layerIndex.clone();
+		for (int i = indexOf(cellX, cellY) + 1; i < newLayerIndex.length; i++)
+		{
+			newLayerIndex[i]++;
+		}
+		_layers = new Layers(newHeightAndNSWE, newLayerIndex, newCells);
+		updateIndices(newCells, index + 1, newCells.length);
+		GeoBlockSelector.getInstance().onGeoCellInserted(this, index);
+		if (deferred)
+			return cell;
+		
+		sortLayers(cellX, cellY);
 		updateMinMaxHeight(cell.getHeight(), Short.MIN_VALUE);
+		onDataChanged();
 		return cell;
 	}
 	
@@ -335,26 +480,177 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	@Override
 	public final int removeCells(final GeoCell... cells)
 	{
-		GeoCell[] layers;
-		int layer, removed = 0;
+		final LayerBuilder builder = newLayerBuilder();
 		for (final GeoCell cell : cells)
 		{
-			layers = _cells3D[cell.getCellX()][cell.getCellY()];
-			if (layers.length == 1)
-				continue;
-			
-			layer = Util.arrayLastIndexOf(layers, cell);
-			if (layer == -1)
+			builder.remove(cell);
+		}
+		builder.apply();
+		return builder.getRemovedCount();
+	}
+	
+	/**
+	 * @return A builder to add and remove many layers of this block with a single rebuild of its data
+	 */
+	public final LayerBuilder newLayerBuilder()
+	{
+		return new LayerBuilder();
+	}
+	
+	/**
+	 * Rebuilds the data and the cell views of this block with the layers added and removed by the given builder.<br>
+	 * Added layers are placed above existing layers of the same height, as by {@link #addLayer(int, int, short)}. A cell keeps its highest layer if all its layers would be removed.<br>
+	 * Added layers that would exceed the maximum layer count of their cell, see {@link GeoEngine#layersValid(int)}, are skipped.
+	 * 
+	 * @return The views of the added layers, in the order they were added to the builder
+	 */
+	private final synchronized GeoCell[] rebuild(final LayerBuilder builder)
+	{
+		final Layers layers = getLayersWithCells();
+		final short[] oldHeightAndNSWE = layers.heightAndNSWE;
+		final short[] oldLayerIndex = layers.layerIndex;
+		final GeoCell[] cells = layers.cells;
+		final boolean deferred = deferUpdate();
+		final boolean[] removed = new boolean[cells.length];
+		int removedCount = 0;
+		GeoCell cell;
+		for (int i = builder._removeCount, index; i-- > 0;)
+		{
+			cell = builder._remove[i];
+			index = cell.getIndex();
+			if (index < 0 || index >= cells.length || cells[index] != cell)
 				throw new RuntimeException("Smth went wrong dude: " + (cell.getBlock() == this));
 			
-			_cells3D[cell.getCellX()][cell.getCellY()] = Util.arrayRemoveAtUnsafe(layers, layer);
-			_cells = Util.arrayRemoveLast(_cells, cell);
-			GeoBlockSelector.getInstance().unselectGeoCell(cell);
-			removed++;
+			if (!removed[index])
+			{
+				removed[index] = true;
+				removedCount++;
+			}
 		}
-		calcMaxMinHeight();
-		GLDisplay.getInstance().getRenderSelector().forceUpdateFrustum();
-		return removed;
+		
+		// the layer count of each cell after the removes limits the adds to it
+		final int[] layerCount = new int[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
+		for (int c = layerCount.length, i; c-- > 0;)
+		{
+			layerCount[c] = oldLayerIndex[c + 1] - oldLayerIndex[c];
+			for (i = oldLayerIndex[c]; i < oldLayerIndex[c + 1]; i++)
+			{
+				if (removed[i])
+					layerCount[c]--;
+			}
+		}
+		final int[] accepted = new int[builder._addCount];
+		int addCount = 0;
+		for (int i = 0; i < builder._addCount; i++)
+		{
+			if (GeoEngine.layersValid(layerCount[builder._addCell[i]] + 1))
+			{
+				layerCount[builder._addCell[i]]++;
+				accepted[addCount++] = i;
+			}
+		}
+		
+		// group the added layers by cell, each group sorted by height
+		final int[] addStart = new int[oldLayerIndex.length];
+		for (int i = addCount; i-- > 0;)
+		{
+			addStart[builder._addCell[accepted[i]] + 1]++;
+		}
+		for (int i = 1; i < addStart.length; i++)
+		{
+			addStart[i] += addStart[i - 1];
+		}
+		final int[] order = new int[addCount];
+		final int[] next = addStart.clone();
+		for (int i = 0; i < addCount; i++)
+		{
+			order[next[builder._addCell[accepted[i]]]++] = accepted[i];
+		}
+		for (int c = addStart.length - 1, i, j, v; c-- > 0;)
+		{
+			for (i = addStart[c] + 1; i < addStart[c + 1]; i++)
+			{
+				v = order[i];
+				for (j = i; j > addStart[c] && GeoEngine.getHeight(builder._addHeightAndNSWE[order[j - 1]]) > GeoEngine.getHeight(builder._addHeightAndNSWE[v]); j--)
+				{
+					order[j] = order[j - 1];
+				}
+				order[j] = v;
+			}
+		}
+		
+		for (int c = addStart.length - 1, i; c-- > 0;)
+		{
+			if (addStart[c] != addStart[c + 1] || oldLayerIndex[c] == oldLayerIndex[c + 1])
+				continue;
+			
+			for (i = oldLayerIndex[c]; i < oldLayerIndex[c + 1] && removed[i]; i++);
+			if (i == oldLayerIndex[c + 1])
+			{
+				removed[i - 1] = false;
+				removedCount--;
+			}
+		}
+		
+		builder._removed = removedCount;
+		if (removedCount == 0 && addCount == 0)
+			return GeoCell.EMPTY_ARRAY;
+		
+		final int length = cells.length - removedCount + addCount;
+		final short[] heightAndNSWE = new short[length];
+		final short[] layerIndex = new short[oldLayerIndex.length];
+		final GeoCell[] newCells = new GeoCell[length];
+		final GeoCell[] added = new GeoCell[builder._addCount];
+		for (int c = 0, i, to, a, n = 0, k; c < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; c++)
+		{
+			layerIndex[c] = (short) n;
+			i = oldLayerIndex[c];
+			to = oldLayerIndex[c + 1];
+			a = addStart[c];
+			while (true)
+			{
+				while (i < to && removed[i])
+					i++;
+				
+				if (i < to && (a == addStart[c + 1] || GeoEngine.getHeight(oldHeightAndNSWE[i]) <= GeoEngine.getHeight(builder._addHeightAndNSWE[order[a]])))
+				{
+					heightAndNSWE[n] = oldHeightAndNSWE[i];
+					newCells[n++] = cells[i++];
+				}
+				else if (a < addStart[c + 1])
+				{
+					k = order[a++];
+					heightAndNSWE[n] = builder._addHeightAndNSWE[k];
+					// index -1 until the selection was moved to the new indices
+					newCells[n++] = added[k] = new GeoCellCM(this, -1, c / GeoEngine.GEO_BLOCK_SHIFT, c % GeoEngine.GEO_BLOCK_SHIFT);
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+		layerIndex[layerIndex.length - 1] = (short) length;
+		
+		_layers = new Layers(heightAndNSWE, layerIndex, newCells);
+		GeoBlockSelector.getInstance().onGeoCellsRebuilt(this, newCells);
+		updateIndices(newCells, 0, length);
+		
+		if (!deferred)
+		{
+			calcMaxMinHeight();
+			onDataChanged();
+		}
+		
+		if (addCount == added.length)
+			return added;
+		
+		final GeoCell[] acceptedCells = new GeoCell[addCount];
+		for (int i = addCount; i-- > 0;)
+		{
+			acceptedCells[i] = added[accepted[i]];
+		}
+		return acceptedCells;
 	}
 	
 	/**
@@ -363,7 +659,40 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	@Override
 	public final GeoCell[] getCells()
 	{
-		return _cells;
+		return getLayersWithCells().cells;
+	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#releaseCells()
+	 */
+	@Override
+	public final synchronized void releaseCells()
+	{
+		final Layers layers = _layers;
+		if (layers.cells == null || GeoBlockSelector.getInstance().isGeoBlockSelected(this))
+			return;
+		
+		final GeoCell selected = FrameMain.getInstance().getSelectedGeoCell();
+		if (selected == null || selected.getBlock() != this)
+			_layers = new Layers(layers.heightAndNSWE, layers.layerIndex, null);
+	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#getHeightAndNSWE(int)
+	 */
+	@Override
+	public final short getHeightAndNSWE(final int index)
+	{
+		return _layers.heightAndNSWE[index];
+	}
+	
+	/**
+	 * @see g3deditor.geo.GeoBlock#setHeightAndNSWE(int, short)
+	 */
+	@Override
+	public final void setHeightAndNSWE(final int index, final short heightAndNSWE)
+	{
+		_layers.heightAndNSWE[index] = heightAndNSWE;
 	}
 	
 	/**
@@ -391,55 +720,29 @@ public final class GeoBlockMultiLayer extends GeoBlock
 	public final void updateMinMaxHeight(final short newHeight, final short oldHeight)
 	{
 		if (newHeight > _maxHeight)
-		{
 			_maxHeight = newHeight;
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(false, true);
-		}
 		else if (newHeight < _minHeight)
-		{
 			_minHeight = newHeight;
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(true, false);
-		}
 		else if (oldHeight == _maxHeight || oldHeight == _minHeight)
-		{
-			final int oldMinHeight = _minHeight;
-			final int oldMaxHeight = _maxHeight;
 			calcMaxMinHeight();
-			GLDisplay.getInstance().getTerrain().checkNeedUpdateVBO(_minHeight != oldMinHeight, _maxHeight != oldMaxHeight);
-		}
 	}
 	
 	/**
 	 * @see g3deditor.geo.GeoBlock#unload()
 	 */
 	@Override
-	public final void unload()
+	public final synchronized void unload()
 	{
-		for (int i = _cells.length; i-- > 0;)
-		{
-			_cells[i].unload();
-			_cells[i] = null;
-		}
-		_cells = null;
-		
-		GeoCell[][] cells2D;
-		GeoCell[] cells1D;
-		for (int i = _cells3D.length, j, k; i-- > 0;)
+		final Layers layers = _layers;
+		if (layers != null && layers.cells != null)
 		{
-			cells2D = _cells3D[i];
-			for (j = cells2D.length; j-- > 0;)
+			for (int i = layers.cells.length; i-- > 0;)
 			{
-				cells1D = cells2D[j];
-				for (k = cells1D.length; k-- > 0;)
-				{
-					cells1D[k].unload();
-					cells1D[k] = null;
-				}
-				cells2D[j] = null;
+				layers.cells[i].unload();
+				layers.cells[i] = null;
 			}
-			_cells3D[i] = null;
 		}
-		_cells3D = null;
+		_layers = null;
 	}
 	
 	/**
@@ -451,25 +754,86 @@ public final class GeoBlockMultiLayer extends GeoBlock
 		if (getType() != GeoRegion.getType(reader, true))
 			return false;
 		
-		GeoCell[][] cells2D;
-		GeoCell[] cells1D;
-		for (int cellX = 0, cellY, layer; cellX < GeoEngine.GEO_BLOCK_SHIFT; cellX++)
+		final Layers layers = _layers;
+		final short[] layerIndex = layers.layerIndex;
+		for (int cell = 0, layer; cell < GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT; cell++)
 		{
-			cells2D = _cells3D[cellX];
-			for (cellY = 0; cellY < GeoEngine.GEO_BLOCK_SHIFT; cellY++)
+			if (layerIndex[cell + 1] - layerIndex[cell] != reader.get())
+				return false;
+			
+			for (layer = layerIndex[cell + 1]; layer-- > layerIndex[cell];)
 			{
-				cells1D = cells2D[cellY];
-				
-				if (cells1D.length != reader.get())
+				if (layers.heightAndNSWE[layer] != reader.getShort())
 					return false;
-				
-				for (layer = cells1D.length; layer-- > 0;)
-				{
-					if (cells1D[layer].getHeightAndNSWE() != reader.getShort())
-						return false;
-				}
 			}
 		}
 		return true;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Collects layers to add to and to remove from the block, {@link #apply()} changes the block with a single rebuild of its data.
+	 */
+	public final class LayerBuilder
+	{
+		private byte[] _addCell;
+		private short[] _addHeightAndNSWE;
+		private int _addCount;
+		private GeoCell[] _remove;
+		private int _removeCount;
+		private int _removed;
+		
+		LayerBuilder()
+		{
+			_addCell = new byte[16];
+			_addHeightAndNSWE = new short[16];
+			_remove = new GeoCell[16];
+		}
+		
+		public final LayerBuilder add(final int geoX, final int geoY, final short heightAndNSWE)
+		{
+			if (_addCount == _addCell.length)
+			{
+				_addCell = Arrays.copyOf(_addCell, _addCount * 2);
+				_addHeightAndNSWE = Arrays.copyOf(_addHeightAndNSWE, _addCount * 2);
+			}
+			
+			_addCell[_addCount] = (byte) indexOf(GeoEngine.getCellXY(geoX), GeoEngine.getCellXY(geoY));
+			_addHeightAndNSWE[_addCount++] = heightAndNSWE;
+			return this;
+		}
+		
+		/**
+		 * @param cell A cell of the block
+		 */
+		public final LayerBuilder remove(final GeoCell cell)
+		{
+			if (_removeCount == _remove.length)
+				_remove = Arrays.copyOf(_remove, _removeCount * 2);
+			
+			_remove[_removeCount++] = cell;
+			return this;
+		}
+		
+		/**
+		 * Applies the collected changes to the block and clears the builder.
+		 * 
+		 * @return The views of the added layers, in the order they were added
+		 */
+		public final GeoCell[] apply()
+		{
+			final GeoCell[] added = rebuild(this);
+			Arrays.fill(_remove, 0, _removeCount, null);
+			_removeCount = 0;
+			_addCount = 0;
+			return added;
+		}
+		
+		/**
+		 * @return The number of layers removed by the last {@link #apply()}
+		 */
+		public final int getRemovedCount()
+		{
+			return _removed;
+		}
+	}
+}
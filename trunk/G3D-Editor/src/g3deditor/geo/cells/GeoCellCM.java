@@ -17,7 +17,6 @@ package g3deditor.geo.cells;
 import g3deditor.geo.GeoBlock;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
-import g3deditor.swing.FrameMain;
 
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
@@ -26,23 +25,43 @@ import g3deditor.swing.FrameMain;
  */
 public final class GeoCellCM extends GeoCell
 {
-	private byte _cellX;
-	private byte _cellY;
-	private short _heightAndNSWE;
+	private final byte _cellX;
+	private final byte _cellY;
+	private short _index;
 	
 	/**
+	 * Creates a view on the height at the given index in the data of the given block.
 	 * 
 	 * @param block
+	 * @param index
 	 * @param cellX
 	 * @param cellY
-	 * @param heightAndNSWE
 	 */
-	public GeoCellCM(final GeoBlock block, final short heightAndNSWE, final int cellX, final int cellY)
+	public GeoCellCM(final GeoBlock block, final int index, final int cellX, final int cellY)
 	{
 		super(block);
 		_cellX = (byte) cellX;
 		_cellY = (byte) cellY;
-		_heightAndNSWE = heightAndNSWE;
+		_index = (short) index;
+	}
+	
+	/**
+	 * @see g3deditor.geo.GeoCell#getIndex()
+	 */
+	@Override
+	public final int getIndex()
+	{
+		return _index;
+	}
+	
+	/**
+	 * Has to be called by the block, whenever the height of this cell moved in its data.
+	 * 
+	 * @param index The new index
+	 */
+	public final void setIndex(final int index)
+	{
+		_index = (short) index;
 	}
 	
 	/**
@@ -60,7 +79,7 @@ public final class GeoCellCM extends GeoCell
 	@Override
 	public final short getHeight()
 	{
-		return GeoEngine.getHeight(_heightAndNSWE);
+		return GeoEngine.getHeight(getHeightAndNSWE());
 	}
 	
 	/**
@@ -69,7 +88,7 @@ public final class GeoCellCM extends GeoCell
 	@Override
 	public final short getNSWE()
 	{
-		return GeoEngine.getNSWE(_heightAndNSWE);
+		return GeoEngine.getNSWE(getHeightAndNSWE());
 	}
 	
 	/**
@@ -78,7 +97,7 @@ public final class GeoCellCM extends GeoCell
 	@Override
 	public final short getHeightAndNSWE()
 	{
-		return _heightAndNSWE;
+		return getBlock().getHeightAndNSWE(_index);
 	}
 	
 	/**
@@ -88,12 +107,14 @@ public final class GeoCellCM extends GeoCell
 	public final void addHeight(final short height)
 	{
 		final short oldHeight = getHeight();
-		_heightAndNSWE = GeoEngine.updateHeightOfHeightAndNSWE(_heightAndNSWE, (short) (getHeight() + height));
+		final boolean deferred = getBlock().deferUpdate();
+		getBlock().setHeightAndNSWE(_index, GeoEngine.updateHeightOfHeightAndNSWE(getHeightAndNSWE(), (short) (oldHeight + height)));
+		if (deferred)
+			return;
+		
 		getBlock().updateLayerFor(this);
 		getBlock().updateMinMaxHeight(getHeight(), oldHeight);
-		
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		getBlock().onDataChanged();
 	}
 	
 	/**
@@ -139,12 +160,14 @@ public final class GeoCellCM extends GeoCell
 	public final void setHeightAndNSWE(final short heightAndNSWE)
 	{
 		final short oldHeight = getHeight();
-		_heightAndNSWE = heightAndNSWE;
+		final boolean deferred = getBlock().deferUpdate();
+		getBlock().setHeightAndNSWE(_index, heightAndNSWE);
+		if (deferred)
+			return;
+		
 		getBlock().updateLayerFor(this);
 		getBlock().updateMinMaxHeight(getHeight(), oldHeight);
-		
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		getBlock().onDataChanged();
 	}
 	
 	/**
@@ -153,9 +176,11 @@ public final class GeoCellCM extends GeoCell
 	@Override
 	public final void setNswe(final short nswe)
 	{
-		_heightAndNSWE = GeoEngine.updateNSWEOfHeightAndNSWE(_heightAndNSWE, nswe);
+		final boolean deferred = getBlock().deferUpdate();
+		getBlock().setHeightAndNSWE(_index, GeoEngine.updateNSWEOfHeightAndNSWE(getHeightAndNSWE(), nswe));
+		if (deferred)
+			return;
 		
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		getBlock().onDataChanged();
 	}
 }
\ No newline at end of file
@@ -17,7 +17,6 @@ package g3deditor.geo.cells;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
 import g3deditor.geo.blocks.GeoBlockFlat;
-import g3deditor.swing.FrameMain;
 
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
@@ -26,15 +25,14 @@ import g3deditor.swing.FrameMain;
  */
 public final class GeoCellFlat extends GeoCell
 {
-	private short _height;
-	
 	/**
+	 * Creates a view on the height of the given block.
+	 * 
 	 * @param block
 	 */
-	public GeoCellFlat(final GeoBlockFlat block, final short height)
+	public GeoCellFlat(final GeoBlockFlat block)
 	{
 		super(block);
-		_height = GeoEngine.getGeoHeightOfHeight(height);
 	}
 	
 	/**
@@ -52,7 +50,7 @@ public final class GeoCellFlat extends GeoCell
 	@Override
 	public final short getHeight()
 	{
-		return _height;
+		return getBlock().getMinHeight();
 	}
 	
 	/**
@@ -70,7 +68,7 @@ public final class GeoCellFlat extends GeoCell
 	@Override
 	public final short getHeightAndNSWE()
 	{
-		return GeoEngine.convertHeightToHeightAndNSWEALL(_height);
+		return getBlock().getHeightAndNSWE(0);
 	}
 	
 	/**
@@ -80,11 +78,13 @@ public final class GeoCellFlat extends GeoCell
 	public final void addHeight(final short height)
 	{
 		final short oldHeight = getHeight();
-		_height = GeoEngine.getGeoHeightOfHeight((short) (_height + height));
-		getBlock().updateMinMaxHeight(_height, oldHeight);
+		final boolean deferred = getBlock().deferUpdate();
+		getBlock().setHeightAndNSWE(0, GeoEngine.convertHeightToHeightAndNSWEALL(GeoEngine.getGeoHeightOfHeight((short) (oldHeight + height))));
+		if (deferred)
+			return;
 		
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		getBlock().updateMinMaxHeight(getHeight(), oldHeight);
+		getBlock().onDataChanged();
 	}
 	
 	/**
@@ -123,6 +123,15 @@ public final class GeoCellFlat extends GeoCell
 		return 0;
 	}
 	
+	/**
+	 * @see g3deditor.geo.GeoCell#getIndex()
+	 */
+	@Override
+	public final int getIndex()
+	{
+		return 0;
+	}
+	
 	/**
 	 * @see g3deditor.geo.GeoCell#setHeightAndNSWE(short)
 	 */
@@ -130,11 +139,13 @@ public final class GeoCellFlat extends GeoCell
 	public final void setHeightAndNSWE(final short heightAndNSWE)
 	{
 		final short oldHeight = getHeight();
-		_height = GeoEngine.getHeight(heightAndNSWE);
-		getBlock().updateMinMaxHeight(_height, oldHeight);
+		final boolean deferred = getBlock().deferUpdate();
+		getBlock().setHeightAndNSWE(0, heightAndNSWE);
+		if (deferred)
+			return;
 		
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		getBlock().updateMinMaxHeight(getHeight(), oldHeight);
+		getBlock().onDataChanged();
 	}
 	
 	/**
@@ -143,7 +154,6 @@ public final class GeoCellFlat extends GeoCell
 	@Override
 	public final void setNswe(final short nswe)
 	{
-		if (FrameMain.getInstance().isSelectedGeoCell(this))
-			FrameMain.getInstance().setSelectedGeoCell(this);
+		// flat cells are always NSWE all, nothing changes
 	}
 }
\ No newline at end of file
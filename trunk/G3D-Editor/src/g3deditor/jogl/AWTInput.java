@@ -31,6 +31,7 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.media.opengl.awt.GLCanvas;
 
@@ -43,6 +44,7 @@ public final class AWTInput implements MouseListener, MouseMotionListener, Mouse
 {
 	private final Cursor _cursor;
 	private final FastArrayList<MouseEvent> _mouseEvents;
+	private final ConcurrentLinkedQueue<KeyEvent> _keyEvents;
 	
 	private boolean _mouse1;
 	private boolean _mouse2;
@@ -75,6 +77,7 @@ public final class AWTInput implements MouseListener, MouseMotionListener, Mouse
 	{
 		_cursor = Toolkit.getDefaultToolkit().createCustomCursor(new BufferedImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR), new Point(0, 0), "CCursor");
 		_mouseEvents = new FastArrayList<>();
+		_keyEvents = new ConcurrentLinkedQueue<>();
 		
 		try
 		{
@@ -91,6 +94,16 @@ public final class AWTInput implements MouseListener, MouseMotionListener, Mouse
 		return _mouseEvents;
 	}
 	
+	/**
+	 * Called by the OpenGL thread, the key shortcuts are queued by the AWT event thread.
+	 * 
+	 * @return The next key shortcut, ctrl+Z or ctrl+Y, which was pressed and not polled yet, null if there is none
+	 */
+	public final KeyEvent pollKeyEvent()
+	{
+		return _keyEvents.poll();
+	}
+	
 	public final boolean getMouseButton1()
 	{
 		return _mouse1;
@@ -342,6 +355,9 @@ public final class AWTInput implements MouseListener, MouseMotionListener, Mouse
 	@Override
 	public final void keyPressed(final KeyEvent keyevent)
 	{
+		if (keyevent.isControlDown() && (keyevent.getKeyCode() == KeyEvent.VK_Z || keyevent.getKeyCode() == KeyEvent.VK_Y))
+			_keyEvents.add(keyevent);
+		
 		updateKey(keyevent.getKeyCode(), true);
 	}
 	
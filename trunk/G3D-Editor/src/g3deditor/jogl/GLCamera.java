@@ -16,30 +16,33 @@ package g3deditor.jogl;
 
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
-import g3deditor.geo.GeoRegion;
+import g3deditor.geo.GeoRayPicker;
 
-import java.nio.FloatBuffer;
+import java.util.Arrays;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import javax.media.opengl.glu.GLU;
-
-import com.jogamp.common.nio.Buffers;
 
 /**
+ * The camera owns its viewport, projection and view matrices, they are calculated here and pushed to OpenGL with glLoadMatrixf.<br>
+ * So the frustum and the pick ray need no OpenGL context and no read back of the matrices.
+ * 
  * <a href="http://l2j-server.com/">L2jServer</a>
  * 
  * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
  */
 public final class GLCamera
 {
+	public static final float VIEW_ANGLE = 45f;
+	public static final float VIEW_Z_NEAR = 1f;
+	public static final float VIEW_Z_FAR = 2000f;
+	
 	private final int[] _viewport;
 	private final float[] _projectionMatrix;
-	private final float[] _modelviewMatrix;
+	private final float[] _viewMatrix;
 	private final float[] _combinedMatrix;
 	private final float[][] _frustum;
-	private final float[] _pickResult;
-	private final FloatBuffer _pickZBuffer;
+	private final float[] _pickRay;
+	private final GeoRayPicker _picker;
 	
 	private float _curCamPosX;
 	private float _curCamPosY;
@@ -57,9 +60,7 @@ public final class GLCamera
 	private boolean _positionYChanged;
 	private boolean _rotationChanged;
 	
-	private boolean _needUpdateViewport;
-	private boolean _needUpdateProjectionMatrix;
-	private boolean _needUpdateModelviewMatrix;
+	private boolean _needUpdateViewMatrix;
 	private boolean _needUpdateCombinedMatrix;
 	private boolean _needUpdateFrustum;
 	
@@ -67,17 +68,19 @@ public final class GLCamera
 	{
 		_viewport = new int[4];
 		_projectionMatrix = new float[16];
-		_modelviewMatrix = new float[16];
+		_viewMatrix = new float[16];
 		_combinedMatrix = new float[16];
 		_frustum = new float[6][4];
-		_pickResult = new float[3];
-		_pickZBuffer = Buffers.newDirectFloatBuffer(1);
+		_pickRay = new float[6];
+		_picker = new GeoRayPicker();
 		
 		_prevCamPosX = Float.NEGATIVE_INFINITY;
 		_prevCamPosY = Float.NEGATIVE_INFINITY;
 		_prevCamPosZ = Float.NEGATIVE_INFINITY;
 		_prevCamRotX = Float.NEGATIVE_INFINITY;
 		_prevCamRotY = Float.NEGATIVE_INFINITY;
+		
+		setViewport(0, 0, 1, 1);
 	}
 	
 	public final void setXYZ(final float x, final float y, final float z)
@@ -85,7 +88,6 @@ public final class GLCamera
 		_curCamPosX = x;
 		_curCamPosY = y;
 		_curCamPosZ = z;
-		onProjectionMatrixChanged();
 	}
 	
 	/**
@@ -115,16 +117,6 @@ public final class GLCamera
 		return _rotationChanged;
 	}
 	
-	public final void onProjectionMatrixChanged()
-	{
-		_needUpdateProjectionMatrix = true;
-	}
-	
-	public final void onViewportChanged()
-	{
-		_needUpdateViewport = true;
-	}
-	
 	public final void checkPositionOrRotationChanged()
 	{
 		if (_curCamPosX != _prevCamPosX || _curCamPosZ != _prevCamPosZ)
@@ -160,98 +152,142 @@ public final class GLCamera
 		}
 		
 		if (_positionXZChanged || _positionYChanged || _rotationChanged)
-			_needUpdateModelviewMatrix = true;
+			_needUpdateViewMatrix = true;
 	}
 	
-	public final int[] getViewport(final GL2 gl)
+	/**
+	 * Sets the viewport and calculates the perspective projection for its aspect ratio, like gluPerspective.<br>
+	 * The caller still sets the OpenGL viewport, the projection is passed with {@link #loadProjectionMatrix(GL2)}.
+	 */
+	public final void setViewport(final int x, final int y, final int width, final int height)
 	{
-		extractViewport(gl);
-		return _viewport;
+		_viewport[0] = x;
+		_viewport[1] = y;
+		_viewport[2] = width;
+		_viewport[3] = height;
+		
+		final double radians = Math.toRadians(VIEW_ANGLE / 2f);
+		final float cotangent = (float) (Math.cos(radians) / Math.sin(radians));
+		final float deltaZ = VIEW_Z_FAR - VIEW_Z_NEAR;
+		Arrays.fill(_projectionMatrix, 0f);
+		_projectionMatrix[0] = cotangent / ((float) width / Math.max(height, 1));
+		_projectionMatrix[5] = cotangent;
+		_projectionMatrix[10] = -(VIEW_Z_FAR + VIEW_Z_NEAR) / deltaZ;
+		_projectionMatrix[11] = -1f;
+		_projectionMatrix[14] = -2f * VIEW_Z_NEAR * VIEW_Z_FAR / deltaZ;
+		_needUpdateCombinedMatrix = true;
 	}
 	
-	private final void extractViewport(final GL2 gl)
+	public final int[] getViewport()
 	{
-		if (_needUpdateViewport)
-		{
-			_needUpdateViewport = false;
-			gl.glGetIntegerv(GL.GL_VIEWPORT, _viewport, 0);
-		}
+		return _viewport;
 	}
 	
-	public final float[] getProjectionMatrix(final GL2 gl)
+	public final float[] getProjectionMatrix()
 	{
-		extractProjectionMatrix(gl);
 		return _projectionMatrix;
 	}
 	
-	private final void extractProjectionMatrix(final GL2 gl)
+	/**
+	 * Replaces the OpenGL projection matrix with the projection of this camera, the matrix mode is GL_MODELVIEW afterwards.
+	 */
+	public final void loadProjectionMatrix(final GL2 gl)
 	{
-		if (_needUpdateProjectionMatrix)
-		{
-			_needUpdateProjectionMatrix = false;
-			_needUpdateCombinedMatrix = true;
-			gl.glGetFloatv(GL2.GL_PROJECTION_MATRIX, _projectionMatrix, 0);
-		}
+		gl.glMatrixMode(GL2.GL_PROJECTION);
+		gl.glLoadMatrixf(_projectionMatrix, 0);
+		gl.glMatrixMode(GL2.GL_MODELVIEW);
 	}
 	
-	public final float[] getModelviewMatrix(final GL2 gl)
+	public final float[] getViewMatrix()
 	{
-		extractModelviewMatrix(gl);
-		return _modelviewMatrix;
+		calcViewMatrix();
+		return _viewMatrix;
 	}
 	
-	private final void extractModelviewMatrix(final GL2 gl)
+	/**
+	 * Replaces the current OpenGL matrix, which has to be the modelview matrix, with the view matrix of this camera.
+	 */
+	public final void loadViewMatrix(final GL2 gl)
+	{
+		gl.glLoadMatrixf(getViewMatrix(), 0);
+	}
+	
+	/**
+	 * The view matrix is the same as glRotatef(360 - rotX, 1, 0, 0), glRotatef(360 - rotY, 0, 1, 0), glTranslatef(-x, -y, -z).
+	 */
+	private final void calcViewMatrix()
 	{
-		if (_needUpdateModelviewMatrix)
+		if (_needUpdateViewMatrix)
 		{
-			_needUpdateModelviewMatrix = false;
+			_needUpdateViewMatrix = false;
 			_needUpdateCombinedMatrix = true;
-			gl.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, _modelviewMatrix, 0);
+			final double radiansX = Math.toRadians(360f - _prevCamRotX);
+			final double radiansY = Math.toRadians(360f - _prevCamRotY);
+			final float sinX = (float) Math.sin(radiansX);
+			final float cosX = (float) Math.cos(radiansX);
+			final float sinY = (float) Math.sin(radiansY);
+			final float cosY = (float) Math.cos(radiansY);
+			final float[] m = _viewMatrix;
+			m[0] = cosY;
+			m[1] = sinX * sinY;
+			m[2] = -cosX * sinY;
+			m[3] = 0f;
+			m[4] = 0f;
+			m[5] = cosX;
+			m[6] = sinX;
+			m[7] = 0f;
+			m[8] = sinY;
+			m[9] = -sinX * cosY;
+			m[10] = cosX * cosY;
+			m[11] = 0f;
+			m[12] = -(m[0] * _prevCamPosX + m[4] * _prevCamPosY + m[8] * _prevCamPosZ);
+			m[13] = -(m[1] * _prevCamPosX + m[5] * _prevCamPosY + m[9] * _prevCamPosZ);
+			m[14] = -(m[2] * _prevCamPosX + m[6] * _prevCamPosY + m[10] * _prevCamPosZ);
+			m[15] = 1f;
 		}
 	}
 	
-	public final float[] getCombinedMatrix(final GL2 gl)
+	public final float[] getCombinedMatrix()
 	{
-		calcCombinedMatrix(gl);
+		calcCombinedMatrix();
 		return _combinedMatrix;
 	}
 	
-	private final void calcCombinedMatrix(final GL2 gl)
+	private final void calcCombinedMatrix()
 	{
-		extractProjectionMatrix(gl);
-		extractModelviewMatrix(gl);
+		calcViewMatrix();
 		if (_needUpdateCombinedMatrix)
 		{
 			_needUpdateCombinedMatrix = false;
 			_needUpdateFrustum = true;
-			_combinedMatrix[0] = _modelviewMatrix[0] * _projectionMatrix[0] + _modelviewMatrix[1] * _projectionMatrix[4] + _modelviewMatrix[2] * _projectionMatrix[8] + _modelviewMatrix[3] * _projectionMatrix[12];
-			_combinedMatrix[1] = _modelviewMatrix[0] * _projectionMatrix[1] + _modelviewMatrix[1] * _projectionMatrix[5] + _modelviewMatrix[2] * _projectionMatrix[9] + _modelviewMatrix[3] * _projectionMatrix[13];
-			_combinedMatrix[2] = _modelviewMatrix[0] * _projectionMatrix[2] + _modelviewMatrix[1] * _projectionMatrix[6] + _modelviewMatrix[2] * _projectionMatrix[10] + _modelviewMatrix[3] * _projectionMatrix[14];
-			_combinedMatrix[3] = _modelviewMatrix[0] * _projectionMatrix[3] + _modelviewMatrix[1] * _projectionMatrix[7] + _modelviewMatrix[2] * _projectionMatrix[11] + _modelviewMatrix[3] * _projectionMatrix[15];
-			_combinedMatrix[4] = _modelviewMatrix[4] * _projectionMatrix[0] + _modelviewMatrix[5] * _projectionMatrix[4] + _modelviewMatrix[6] * _projectionMatrix[8] + _modelviewMatrix[7] * _projectionMatrix[12];
-			_combinedMatrix[5] = _modelviewMatrix[4] * _projectionMatrix[1] + _modelviewMatrix[5] * _projectionMatrix[5] + _modelviewMatrix[6] * _projectionMatrix[9] + _modelviewMatrix[7] * _projectionMatrix[13];
-			_combinedMatrix[6] = _modelviewMatrix[4] * _projectionMatrix[2] + _modelviewMatrix[5] * _projectionMatrix[6] + _modelviewMatrix[6] * _projectionMatrix[10] + _modelviewMatrix[7] * _projectionMatrix[14];
-			_combinedMatrix[7] = _modelviewMatrix[4] * _projectionMatrix[3] + _modelviewMatrix[5] * _projectionMatrix[7] + _modelviewMatrix[6] * _projectionMatrix[11] + _modelviewMatrix[7] * _projectionMatrix[15];
-			_combinedMatrix[8] = _modelviewMatrix[8] * _projectionMatrix[0] + _modelviewMatrix[9] * _projectionMatrix[4] + _modelviewMatrix[10] * _projectionMatrix[8] + _modelviewMatrix[11] * _projectionMatrix[12];
-			_combinedMatrix[9] = _modelviewMatrix[8] * _projectionMatrix[1] + _modelviewMatrix[9] * _projectionMatrix[5] + _modelviewMatrix[10] * _projectionMatrix[9] + _modelviewMatrix[11] * _projectionMatrix[13];
-			_combinedMatrix[10] = _modelviewMatrix[8] * _projectionMatrix[2] + _modelviewMatrix[9] * _projectionMatrix[6] + _modelviewMatrix[10] * _projectionMatrix[10] + _modelviewMatrix[11] * _projectionMatrix[14];
-			_combinedMatrix[11] = _modelviewMatrix[8] * _projectionMatrix[3] + _modelviewMatrix[9] * _projectionMatrix[7] + _modelviewMatrix[10] * _projectionMatrix[11] + _modelviewMatrix[11] * _projectionMatrix[15];
-			_combinedMatrix[12] = _modelviewMatrix[12] * _projectionMatrix[0] + _modelviewMatrix[13] * _projectionMatrix[4] + _modelviewMatrix[14] * _projectionMatrix[8] + _modelviewMatrix[15] * _projectionMatrix[12];
-			_combinedMatrix[13] = _modelviewMatrix[12] * _projectionMatrix[1] + _modelviewMatrix[13] * _projectionMatrix[5] + _modelviewMatrix[14] * _projectionMatrix[9] + _modelviewMatrix[15] * _projectionMatrix[13];
-			_combinedMatrix[14] = _modelviewMatrix[12] * _projectionMatrix[2] + _modelviewMatrix[13] * _projectionMatrix[6] + _modelviewMatrix[14] * _projectionMatrix[10] + _modelviewMatrix[15] * _projectionMatrix[14];
-			_combinedMatrix[15] = _modelviewMatrix[12] * _projectionMatrix[3] + _modelviewMatrix[13] * _projectionMatrix[7] + _modelviewMatrix[14] * _projectionMatrix[11] + _modelviewMatrix[15] * _projectionMatrix[15];
+			_combinedMatrix[0] = _viewMatrix[0] * _projectionMatrix[0] + _viewMatrix[1] * _projectionMatrix[4] + _viewMatrix[2] * _projectionMatrix[8] + _viewMatrix[3] * _projectionMatrix[12];
+			_combinedMatrix[1] = _viewMatrix[0] * _projectionMatrix[1] + _viewMatrix[1] * _projectionMatrix[5] + _viewMatrix[2] * _projectionMatrix[9] + _viewMatrix[3] * _projectionMatrix[13];
+			_combinedMatrix[2] = _viewMatrix[0] * _projectionMatrix[2] + _viewMatrix[1] * _projectionMatrix[6] + _viewMatrix[2] * _projectionMatrix[10] + _viewMatrix[3] * _projectionMatrix[14];
+			_combinedMatrix[3] = _viewMatrix[0] * _projectionMatrix[3] + _viewMatrix[1] * _projectionMatrix[7] + _viewMatrix[2] * _projectionMatrix[11] + _viewMatrix[3] * _projectionMatrix[15];
+			_combinedMatrix[4] = _viewMatrix[4] * _projectionMatrix[0] + _viewMatrix[5] * _projectionMatrix[4] + _viewMatrix[6] * _projectionMatrix[8] + _viewMatrix[7] * _projectionMatrix[12];
+			_combinedMatrix[5] = _viewMatrix[4] * _projectionMatrix[1] + _viewMatrix[5] * _projectionMatrix[5] + _viewMatrix[6] * _projectionMatrix[9] + _viewMatrix[7] * _projectionMatrix[13];
+			_combinedMatrix[6] = _viewMatrix[4] * _projectionMatrix[2] + _viewMatrix[5] * _projectionMatrix[6] + _viewMatrix[6] * _projectionMatrix[10] + _viewMatrix[7] * _projectionMatrix[14];
+			_combinedMatrix[7] = _viewMatrix[4] * _projectionMatrix[3] + _viewMatrix[5] * _projectionMatrix[7] + _viewMatrix[6] * _projectionMatrix[11] + _viewMatrix[7] * _projectionMatrix[15];
+			_combinedMatrix[8] = _viewMatrix[8] * _projectionMatrix[0] + _viewMatrix[9] * _projectionMatrix[4] + _viewMatrix[10] * _projectionMatrix[8] + _viewMatrix[11] * _projectionMatrix[12];
+			_combinedMatrix[9] = _viewMatrix[8] * _projectionMatrix[1] + _viewMatrix[9] * _projectionMatrix[5] + _viewMatrix[10] * _projectionMatrix[9] + _viewMatrix[11] * _projectionMatrix[13];
+			_combinedMatrix[10] = _viewMatrix[8] * _projectionMatrix[2] + _viewMatrix[9] * _projectionMatrix[6] + _viewMatrix[10] * _projectionMatrix[10] + _viewMatrix[11] * _projectionMatrix[14];
+			_combinedMatrix[11] = _viewMatrix[8] * _projectionMatrix[3] + _viewMatrix[9] * _projectionMatrix[7] + _viewMatrix[10] * _projectionMatrix[11] + _viewMatrix[11] * _projectionMatrix[15];
+			_combinedMatrix[12] = _viewMatrix[12] * _projectionMatrix[0] + _viewMatrix[13] * _projectionMatrix[4] + _viewMatrix[14] * _projectionMatrix[8] + _viewMatrix[15] * _projectionMatrix[12];
+			_combinedMatrix[13] = _viewMatrix[12] * _projectionMatrix[1] + _viewMatrix[13] * _projectionMatrix[5] + _viewMatrix[14] * _projectionMatrix[9] + _viewMatrix[15] * _projectionMatrix[13];
+			_combinedMatrix[14] = _viewMatrix[12] * _projectionMatrix[2] + _viewMatrix[13] * _projectionMatrix[6] + _viewMatrix[14] * _projectionMatrix[10] + _viewMatrix[15] * _projectionMatrix[14];
+			_combinedMatrix[15] = _viewMatrix[12] * _projectionMatrix[3] + _viewMatrix[13] * _projectionMatrix[7] + _viewMatrix[14] * _projectionMatrix[11] + _viewMatrix[15] * _projectionMatrix[15];
 		}
 	}
 	
-	public final float[][] getFrustum(final GL2 gl)
+	public final float[][] getFrustum()
 	{
-		calcFrustum(gl);
+		calcFrustum();
 		return _frustum;
 	}
 	
-	private final void calcFrustum(final GL2 gl)
+	private final void calcFrustum()
 	{
-		calcCombinedMatrix(gl);
+		calcCombinedMatrix();
 		if (_needUpdateFrustum)
 		{
 			_needUpdateFrustum = false;
@@ -312,30 +348,52 @@ public final class GLCamera
 		}
 	}
 	
-	public final GeoCell pick(final GL2 gl, final GLU glu, final int mouseX, int mouseY)
+	/**
+	 * Picks the first cell under the mouse, in the blocks of the render selector.<br>
+	 * The ray is walked through the geodata on the CPU, so no depth buffer read stalls the GPU. The terrain does not hide cells.
+	 * 
+	 * @param mouseX
+	 * @param mouseY
+	 * @return The cell under the mouse, null if there is none
+	 */
+	public final GeoCell pick(final int mouseX, final int mouseY)
 	{
-		extractViewport(gl);
-		extractModelviewMatrix(gl);
-		extractProjectionMatrix(gl);
-		
-		mouseY = _viewport[3] - mouseY;
-		_pickZBuffer.clear();
-		gl.glReadPixels(mouseX, mouseY, 1, 1, GL2.GL_DEPTH_COMPONENT, GL.GL_FLOAT, _pickZBuffer);
+		final GLCellRenderSelector selector = GLDisplay.getInstance().getRenderSelector();
+		final float[] ray = getPickRay(mouseX, mouseY);
+		return _picker.pick(GeoEngine.getInstance().getActiveRegion(), ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], selector.getMinBlockX(), selector.getMaxBlockX(), selector.getMinBlockY(), selector.getMaxBlockY());
+	}
+	
+	/**
+	 * @param mouseX
+	 * @param mouseY
+	 * @return The points under the mouse on the near and the far plane, x, y, z each
+	 */
+	public final float[] getPickRay(final int mouseX, final int mouseY)
+	{
+		calcViewMatrix();
 		
-		final float mouseZ = _pickZBuffer.get(0);
-		if (mouseZ < 1f && glu.gluUnProject(mouseX, mouseY, mouseZ, _modelviewMatrix, 0, _projectionMatrix, 0, _viewport, 0, _pickResult, 0))
-		{
-			final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
-			if (region != null)
-			{
-				final GeoCell cell = region.nGetCellChecked((int) _pickResult[0], (int) _pickResult[2], (int) (_pickResult[1] * 16f));
-				// check height difference from cell to picked point to eliminate ground/terrain picking
-				if (cell != null && Math.abs(cell.getHeight() - (int) (_pickResult[1] * 16f)) <= 5)
-					return cell;
-			}
-		}
+		final float x = (mouseX - _viewport[0]) * 2f / _viewport[2] - 1f;
+		final float y = (_viewport[3] - mouseY - _viewport[1]) * 2f / _viewport[3] - 1f;
+		unProject(x, y, VIEW_Z_NEAR, _pickRay, 0);
+		unProject(x, y, VIEW_Z_FAR, _pickRay, 3);
+		return _pickRay;
+	}
+	
+	/**
+	 * Transforms the given normalized device coordinates at the given distance back to render coordinates.<br>
+	 * Uses the perspective and the rotation of the view directly, inverting the combined matrix loses too much precision with the large translation.
+	 */
+	private final void unProject(final float x, final float y, final float distance, final float[] result, final int offset)
+	{
+		final float viewX = x * distance / _projectionMatrix[0];
+		final float viewY = y * distance / _projectionMatrix[5];
+		final float viewZ = -distance;
 		
-		return null;
+		// the rotation of the view is orthonormal, so its inverse is its transpose
+		final float[] m = _viewMatrix;
+		result[offset] = m[0] * viewX + m[1] * viewY + m[2] * viewZ + _prevCamPosX;
+		result[offset + 1] = m[4] * viewX + m[5] * viewY + m[6] * viewZ + _prevCamPosY;
+		result[offset + 2] = m[8] * viewX + m[9] * viewY + m[10] * viewZ + _prevCamPosZ;
 	}
 	
 	public final float getX()
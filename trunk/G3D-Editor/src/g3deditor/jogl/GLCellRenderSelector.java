@@ -19,11 +19,11 @@ import g3deditor.geo.GeoBlock;
 import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoHeightTree;
 import g3deditor.geo.GeoRegion;
 import g3deditor.jogl.renderer.VBOGLSLRenderer;
+import g3deditor.util.RadixSorter;
 import g3deditor.util.TaskExecutor;
-import g3deditor.util.Util;
-import g3deditor.util.Util.FastComparator;
 
 import javax.media.opengl.GL2;
 
@@ -34,45 +34,58 @@ import javax.media.opengl.GL2;
  */
 public final class GLCellRenderSelector
 {
-	public static final FastComparator<GLSubRenderSelector> GEO_BLOCK_COMPARATOR = new FastComparator<GLSubRenderSelector>()
+	/**
+	 * The sorters of the threads running the sub selectors.
+	 */
+	private static final ThreadLocal<RadixSorter> CELL_SORTERS = new ThreadLocal<RadixSorter>()
 	{
 		@Override
-		public final boolean compare(final GLSubRenderSelector o1, final GLSubRenderSelector o2)
+		protected final RadixSorter initialValue()
 		{
-			final GLCamera camera = GLDisplay.getInstance().getCamera();
-			final float dx1 = camera.getX() - o1.getGeoBlock().getGeoX();
-			final float dz1 = camera.getZ() - o1.getGeoBlock().getGeoY();
-			final float dx2 = camera.getX() - o2.getGeoBlock().getGeoX();
-			final float dz2 = camera.getZ() - o2.getGeoBlock().getGeoY();
-			return dx1 * dx1 + dz1 * dz1 > dx2 * dx2 + dz2 * dz2;
-		}
-	};
-	
-	public static final FastComparator<GeoCell> GEO_CELL_COMPARATOR = new FastComparator<GeoCell>()
-	{
-		@Override
-		public final boolean compare(final GeoCell o1, final GeoCell o2)
-		{
-			final GLCamera camera = GLDisplay.getInstance().getCamera();
-			final float dx1 = camera.getX() - o1.getRenderX();
-			final float dy1 = camera.getY() - o1.getRenderY();
-			final float dz1 = camera.getZ() - o1.getRenderZ();
-			final float dx2 = camera.getX() - o2.getRenderX();
-			final float dy2 = camera.getY() - o2.getRenderY();
-			final float dz2 = camera.getZ() - o2.getRenderZ();
-			return dx1 * dx1 + dy1 * dy1 + dz1 * dz1 > dx2 * dx2 + dy2 * dy2 + dz2 * dz2;
+			return new RadixSorter();
 		}
 	};
 	
 	public static final int MIN_VIS_GRID_RANGE = 8;
 	public static final int MAX_VIS_GRID_RANGE = 96;
 	
-	private final TaskExecutor _taskExecutor;
+	private static final int OUTSIDE = 0;
+	private static final int INTERSECT = 1;
+	private static final int INSIDE = 2;
+	/**
+	 * The boxes of the height tree are enlarged by this, so they contain the bounding spheres of the cells tested by {@link #isVisible(GeoCell)}.
+	 */
+	private static final float BOX_PADDING_XZ = 1f;
+	private static final float BOX_PADDING_Y = 5.1f;
+	
+	private TaskExecutor _taskExecutor;
 	private float[][] _frustum;
 	
+	/**
+	 * The sub selectors of the blocks in the grid, the block x, y is at index (x % size) * size + y % size.<br>
+	 * When the grid moves only the blocks which entered it are assigned, the other sub selectors keep their block and cells.
+	 */
+	private GLSubRenderSelector[] _window;
+	private int _windowSize;
+	/**
+	 * The rectangles of a grid difference, min x, max x, min y, max y each.
+	 */
+	private final int[] _rects;
+	/**
+	 * Incremented whenever the cells of the blocks may have changed, so the sub selectors drop their cached cells.
+	 */
+	private int _cacheVersion;
+	
 	private GLSubRenderSelector[] _geoBlocks;
 	private GLSubRenderSelector[] _geoBlocks2;
 	private int _geoBlocksSize;
+	private final RadixSorter _blockSorter;
+	/**
+	 * The camera position of the selection, the sort keys are the squared distances to it.
+	 */
+	private float _camX;
+	private float _camY;
+	private float _camZ;
 	
 	private int _camBlockX;
 	private int _camBlockY;
@@ -80,19 +93,65 @@ public final class GLCellRenderSelector
 	private boolean _forceUpdateGeoBlocks;
 	private boolean _freezeGrid;
 	private int _gridRange;
+	private boolean _hierarchical;
+	/**
+	 * The block range of the grid, max exclusive.
+	 */
+	private int _minBlockX;
+	private int _maxBlockX;
+	private int _minBlockY;
+	private int _maxBlockY;
 	
 	private GeoRegion _region;
 	
+	/**
+	 * The summed nanos of the selections since the last {@link #pollSelectTime()}.
+	 */
+	private long _selectTime;
+	private int _selectCount;
+	
 	public GLCellRenderSelector()
 	{
+		_window = new GLSubRenderSelector[0];
+		_rects = new int[16];
 		_geoBlocks = new GLSubRenderSelector[0];
 		_geoBlocks2 = new GLSubRenderSelector[0];
-		_taskExecutor = new TaskExecutor(Runtime.getRuntime().availableProcessors());
+		_blockSorter = new RadixSorter();
+		_taskExecutor = TaskExecutor.getExecutor(Config.TASK_EXECUTOR, Runtime.getRuntime().availableProcessors());
 	}
 	
+	public final TaskExecutor getTaskExecutor()
+	{
+		return _taskExecutor;
+	}
+	
+	/**
+	 * @return The average nanos a frame spent in selecting the visible blocks and cells since the last call, -1 if nothing was selected
+	 */
+	public final long pollSelectTime()
+	{
+		final long time = _selectCount == 0 ? -1 : _selectTime / _selectCount;
+		_selectTime = 0;
+		_selectCount = 0;
+		return time;
+	}
+	
+	/**
+	 * Stops the threads of the executor, a new executor starts its threads on the next selection.
+	 */
+	public final void dispose()
+	{
+		_taskExecutor.shutdown();
+		_taskExecutor = TaskExecutor.getExecutor(Config.TASK_EXECUTOR, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Selects the cells again with the next frame, has to be called when the cells of the blocks changed.
+	 */
 	public final void forceUpdateFrustum()
 	{
 		_forceUpdateFrustum = true;
+		_cacheVersion++;
 	}
 	
 	public final void forceUpdateGeoBlocks()
@@ -115,6 +174,20 @@ public final class GLCellRenderSelector
 			return;
 		}
 		
+		if (!_taskExecutor.getName().equals(Config.TASK_EXECUTOR))
+		{
+			_taskExecutor.shutdown();
+			_taskExecutor = TaskExecutor.getExecutor(Config.TASK_EXECUTOR, Runtime.getRuntime().availableProcessors());
+			Config.TASK_EXECUTOR = _taskExecutor.getName();
+			_forceUpdateFrustum = true;
+		}
+		
+		if (_hierarchical != Config.USE_HIERARCHICAL_CULLING)
+		{
+			_hierarchical = Config.USE_HIERARCHICAL_CULLING;
+			_forceUpdateGeoBlocks = true;
+		}
+		
 		if (camera.positionXZChanged() || _freezeGrid != freezeGrid || _gridRange != Config.VIS_GRID_RANGE || _forceUpdateGeoBlocks)
 		{
 			final int geoX = Math.max(Math.min(camera.getGeoX(), _region.getGeoX(GeoEngine.GEO_REGION_SIZE - 1)), _region.getGeoX(0));
@@ -128,15 +201,17 @@ public final class GLCellRenderSelector
 				_camBlockY = camBlockY;
 				
 				final int range = Config.VIS_GRID_RANGE;
-				final int requiredSize = (range * 2 + 1) * (range * 2 + 1);
-				final boolean needUpdate = _geoBlocks.length != requiredSize || _forceUpdateGeoBlocks;
-				if (_geoBlocks.length != requiredSize)
+				final int windowSize = range * 2;
+				final boolean needUpdate = _windowSize != windowSize || _forceUpdateGeoBlocks;
+				if (_windowSize != windowSize)
 				{
-					_geoBlocks = new GLSubRenderSelector[requiredSize];
-					_geoBlocks2 = new GLSubRenderSelector[requiredSize];
-					for (int i = requiredSize; i-- > 0;)
+					_windowSize = windowSize;
+					_window = new GLSubRenderSelector[windowSize * windowSize];
+					_geoBlocks = new GLSubRenderSelector[_window.length];
+					_geoBlocks2 = new GLSubRenderSelector[_window.length];
+					for (int i = _window.length; i-- > 0;)
 					{
-						_geoBlocks[i] = new GLSubRenderSelector();
+						_window[i] = new GLSubRenderSelector();
 					}
 				}
 				
@@ -152,14 +227,42 @@ public final class GLCellRenderSelector
 					final int minBlockY = Math.max(diffBlockYNeg + (diffBlockYPos > GeoEngine.GEO_REGION_SIZE - 1 ? GeoEngine.GEO_REGION_SIZE - 1 - diffBlockYPos : 0), 0);
 					final int maxBlockY = Math.min(diffBlockYPos + (diffBlockYNeg < 0 ? -diffBlockYNeg : 0), GeoEngine.GEO_REGION_SIZE - 1);
 					
-					GeoBlockSelector.getInstance().checkDeselection(minBlockX, maxBlockX, minBlockY, maxBlockY);
+					if (needUpdate)
+					{
+						GeoBlockSelector.getInstance().checkDeselection(minBlockX, maxBlockX, minBlockY, maxBlockY);
+						_region.unloadBlocksOutside(minBlockX, maxBlockX, minBlockY, maxBlockY);
+						assignBlocks(minBlockX, maxBlockX, minBlockY, maxBlockY);
+						_cacheVersion++;
+					}
+					else
+					{
+						// only the rows and columns which left or entered the grid
+						for (int i = subtract(_minBlockX, _maxBlockX, _minBlockY, _maxBlockY, minBlockX, maxBlockX, minBlockY, maxBlockY) * 4; (i -= 4) >= 0;)
+						{
+							GeoBlockSelector.getInstance().unselectArea(_rects[i], _rects[i + 1], _rects[i + 2], _rects[i + 3]);
+							_region.unloadBlocksInside(_rects[i], _rects[i + 1], _rects[i + 2], _rects[i + 3]);
+						}
+						
+						for (int i = subtract(minBlockX, maxBlockX, minBlockY, maxBlockY, _minBlockX, _maxBlockX, _minBlockY, _maxBlockY) * 4; (i -= 4) >= 0;)
+						{
+							assignBlocks(_rects[i], _rects[i + 1], _rects[i + 2], _rects[i + 3]);
+						}
+					}
 					
+					_minBlockX = minBlockX;
+					_maxBlockX = maxBlockX;
+					_minBlockY = minBlockY;
+					_maxBlockY = maxBlockY;
 					_geoBlocksSize = 0;
-					for (int x = minBlockX, y; x < maxBlockX; x++)
+					// the hierarchical culling picks the blocks with the frustum
+					if (!_hierarchical)
 					{
-						for (y = minBlockY; y < maxBlockY; y++)
+						for (int x = minBlockX, y; x < maxBlockX; x++)
 						{
-							_geoBlocks[_geoBlocksSize++].setGeoBlock(_region.getBlockByBlockXY(x, y));
+							for (y = minBlockY; y < maxBlockY; y++)
+							{
+								_geoBlocks[_geoBlocksSize++] = getSubSelector(x, y);
+							}
 						}
 					}
 					
@@ -174,15 +277,26 @@ public final class GLCellRenderSelector
 		
 		if (camera.positionXZChanged() || camera.positionYChanged() || camera.rotationChanged() || _forceUpdateFrustum)
 		{
+			final long startTime = System.nanoTime();
 			_forceUpdateFrustum = false;
-			_frustum = camera.getFrustum(gl);
-			_taskExecutor.execute(_geoBlocks, _geoBlocksSize);
-			
-			if (Config.USE_TRANSPARENCY)
+			_frustum = camera.getFrustum();
+			_camX = camera.getX();
+			_camY = camera.getY();
+			_camZ = camera.getZ();
+			if (_hierarchical)
 			{
-				System.arraycopy(_geoBlocks, 0, _geoBlocks2, 0, _geoBlocksSize);
-				Util.mergeSort(_geoBlocks2, _geoBlocks, _geoBlocksSize, GEO_BLOCK_COMPARATOR);
+				_geoBlocksSize = 0;
+				cull(_region.getHeightTree(), 0, 0, 0, false);
 			}
+			
+			// a cancelled selection left some blocks with the cells of the last frame, select again next frame
+			if (!_taskExecutor.execute(_geoBlocks, _geoBlocksSize))
+				_forceUpdateFrustum = true;
+			
+			if (Config.USE_TRANSPARENCY)
+				sortGeoBlocks();
+			_selectTime += System.nanoTime() - startTime;
+			_selectCount++;
 		}
 	}
 	
@@ -191,11 +305,212 @@ public final class GLCellRenderSelector
 		return _geoBlocksSize;
 	}
 	
+	/**
+	 * @return The first block x of the grid
+	 */
+	public final int getMinBlockX()
+	{
+		return _minBlockX;
+	}
+	
+	/**
+	 * @return The block x after the grid
+	 */
+	public final int getMaxBlockX()
+	{
+		return _maxBlockX;
+	}
+	
+	public final int getMinBlockY()
+	{
+		return _minBlockY;
+	}
+	
+	public final int getMaxBlockY()
+	{
+		return _maxBlockY;
+	}
+	
 	public final GLSubRenderSelector getElementToRender(final int index)
 	{
 		return _geoBlocks[index];
 	}
 	
+	/**
+	 * Sorts the blocks to render by their distance to the camera, nearest first.
+	 */
+	private final void sortGeoBlocks()
+	{
+		final RadixSorter sorter = _blockSorter;
+		sorter.reset(_geoBlocksSize);
+		GeoBlock block;
+		float dx, dz;
+		for (int i = 0; i < _geoBlocksSize; i++)
+		{
+			block = _geoBlocks[i].getGeoBlock();
+			dx = _camX - block.getGeoX();
+			dz = _camZ - block.getGeoY();
+			sorter.add(dx * dx + dz * dz);
+		}
+		sorter.sort();
+		
+		for (int i = _geoBlocksSize; i-- > 0;)
+		{
+			_geoBlocks2[i] = _geoBlocks[sorter.getIndex(i)];
+		}
+		final GLSubRenderSelector[] temp = _geoBlocks;
+		_geoBlocks = _geoBlocks2;
+		_geoBlocks2 = temp;
+	}
+	
+	private final GLSubRenderSelector getSubSelector(final int blockX, final int blockY)
+	{
+		return _window[blockX % _windowSize * _windowSize + blockY % _windowSize];
+	}
+	
+	private final void assignBlocks(final int minBlockX, final int maxBlockX, final int minBlockY, final int maxBlockY)
+	{
+		for (int x = minBlockX, y; x < maxBlockX; x++)
+		{
+			for (y = minBlockY; y < maxBlockY; y++)
+			{
+				getSubSelector(x, y).setGeoBlock(_region.getBlockByBlockXY(x, y));
+			}
+		}
+	}
+	
+	/**
+	 * Writes the rectangles covering the blocks of the area a which are not in the area b to {@link #_rects}, max exclusive.
+	 * 
+	 * @return The number of rectangles
+	 */
+	private final int subtract(final int aMinX, final int aMaxX, final int aMinY, final int aMaxY, final int bMinX, final int bMaxX, final int bMinY, final int bMaxY)
+	{
+		int count = 0;
+		// the columns left and right of b
+		count = addRect(count, aMinX, Math.min(bMinX, aMaxX), aMinY, aMaxY);
+		count = addRect(count, Math.max(bMaxX, aMinX), aMaxX, aMinY, aMaxY);
+		// the rows above and below b, inside of the columns of b
+		final int minX = Math.max(aMinX, bMinX);
+		final int maxX = Math.min(aMaxX, bMaxX);
+		count = addRect(count, minX, maxX, aMinY, Math.min(bMinY, aMaxY));
+		count = addRect(count, minX, maxX, Math.max(bMaxY, aMinY), aMaxY);
+		return count;
+	}
+	
+	private final int addRect(final int count, final int minX, final int maxX, final int minY, final int maxY)
+	{
+		if (minX >= maxX || minY >= maxY)
+			return count;
+		
+		final int i = count * 4;
+		_rects[i] = minX;
+		_rects[i + 1] = maxX;
+		_rects[i + 2] = minY;
+		_rects[i + 3] = maxY;
+		return count + 1;
+	}
+	
+	/**
+	 * Descends the height tree of the region and adds the blocks of the grid range inside the frustum.<br>
+	 * A node outside the frustum is dropped with all its blocks, the blocks of a node inside are added without further tests.
+	 * 
+	 * @param inside True if a parent node is completely inside the frustum
+	 */
+	private final void cull(final GeoHeightTree tree, final int level, final int x, final int y, final boolean inside)
+	{
+		final int shift = GeoHeightTree.LEAF_LEVEL - level;
+		final int minBlockX = Math.max(x << shift, _minBlockX);
+		final int maxBlockX = Math.min(x + 1 << shift, _maxBlockX);
+		final int minBlockY = Math.max(y << shift, _minBlockY);
+		final int maxBlockY = Math.min(y + 1 << shift, _maxBlockY);
+		if (minBlockX >= maxBlockX || minBlockY >= maxBlockY)
+			return;
+		
+		boolean nodeInside = inside;
+		if (!nodeInside)
+		{
+			final int result = testBox(_region.getGeoX(minBlockX) - BOX_PADDING_XZ, _region.getGeoX(maxBlockX - 1) + GeoEngine.GEO_BLOCK_SHIFT + BOX_PADDING_XZ, tree.getMinHeight(level, x, y) / 16f - BOX_PADDING_Y, tree.getMaxHeight(level, x, y) / 16f + BOX_PADDING_Y, _region.getGeoY(minBlockY) - BOX_PADDING_XZ, _region.getGeoY(maxBlockY - 1) + GeoEngine.GEO_BLOCK_SHIFT + BOX_PADDING_XZ);
+			if (result == OUTSIDE)
+				return;
+			
+			nodeInside = result == INSIDE;
+		}
+		
+		if (shift == 0)
+		{
+			_geoBlocks[_geoBlocksSize++] = getSubSelector(x, y);
+			return;
+		}
+		
+		cull(tree, level + 1, x * 2, y * 2, nodeInside);
+		cull(tree, level + 1, x * 2, y * 2 + 1, nodeInside);
+		cull(tree, level + 1, x * 2 + 1, y * 2, nodeInside);
+		cull(tree, level + 1, x * 2 + 1, y * 2 + 1, nodeInside);
+	}
+	
+	/**
+	 * @return OUTSIDE if the box is outside of one plane of the frustum, INSIDE if it is inside of all planes, INTERSECT otherwise
+	 */
+	private final int testBox(final float x1, final float x2, final float y1, final float y2, final float z1, final float z2)
+	{
+		int result = INSIDE;
+		float[] plane;
+		float near, far;
+		for (int i = 6; i-- > 0;)
+		{
+			plane = _frustum[i];
+			// the corners nearest to and farthest from the plane in its normal direction
+			near = plane[3];
+			far = plane[3];
+			if (plane[0] > 0f)
+			{
+				near += plane[0] * x1;
+				far += plane[0] * x2;
+			}
+			else
+			{
+				near += plane[0] * x2;
+				far += plane[0] * x1;
+			}
+			if (plane[1] > 0f)
+			{
+				near += plane[1] * y1;
+				far += plane[1] * y2;
+			}
+			else
+			{
+				near += plane[1] * y2;
+				far += plane[1] * y1;
+			}
+			if (plane[2] > 0f)
+			{
+				near += plane[2] * z1;
+				far += plane[2] * z2;
+			}
+			else
+			{
+				near += plane[2] * z2;
+				far += plane[2] * z1;
+			}
+			
+			if (far <= 0f)
+				return OUTSIDE;
+			
+			if (near <= 0f)
+				result = INTERSECT;
+		}
+		return result;
+	}
+	
+	/**
+	 * @return OUTSIDE if no cell of the block can be visible, INSIDE if all cells are, INTERSECT otherwise
+	 */
+	private final int testBlock(final GeoBlock block)
+	{
+		return testBox(block.getGeoX() - BOX_PADDING_XZ, block.getGeoX() + GeoEngine.GEO_BLOCK_SHIFT + BOX_PADDING_XZ, block.getMinHeight() / 16f - BOX_PADDING_Y, block.getMaxHeight() / 16f + BOX_PADDING_Y, block.getGeoY() - BOX_PADDING_XZ, block.getGeoY() + GeoEngine.GEO_BLOCK_SHIFT + BOX_PADDING_XZ);
+	}
+	
 	public final boolean isVisible(final GeoBlock block)
 	{
 		final float x1 = block.getGeoX();
@@ -276,6 +591,11 @@ public final class GLCellRenderSelector
 		private GeoCell[] _geoCells;
 		private GeoCell[] _geoCells2;
 		private int _count;
+		/**
+		 * True if the cells are all cells of the block, selected with the cache version.
+		 */
+		private boolean _inside;
+		private int _version;
 		
 		public GLSubRenderSelector()
 		{
@@ -286,6 +606,7 @@ public final class GLCellRenderSelector
 		public final void setGeoBlock(final GeoBlock block)
 		{
 			_block = block;
+			_inside = false;
 		}
 		
 		public final GeoBlock getGeoBlock()
@@ -317,16 +638,61 @@ public final class GLCellRenderSelector
 			_geoCells[_count++] = cell;
 		}
 		
+		/**
+		 * Sorts the cells by their distance to the camera, nearest first.
+		 */
+		private final void sortElementsToRender()
+		{
+			final float camX = _camX;
+			final float camY = _camY;
+			final float camZ = _camZ;
+			final RadixSorter sorter = CELL_SORTERS.get();
+			sorter.reset(_count);
+			GeoCell cell;
+			float dx, dy, dz;
+			for (int i = 0; i < _count; i++)
+			{
+				cell = _geoCells[i];
+				dx = camX - cell.getRenderX();
+				dy = camY - cell.getRenderY();
+				dz = camZ - cell.getRenderZ();
+				sorter.add(dx * dx + dy * dy + dz * dz);
+			}
+			sorter.sort();
+			
+			for (int i = _count; i-- > 0;)
+			{
+				_geoCells2[i] = _geoCells[sorter.getIndex(i)];
+			}
+			final GeoCell[] temp = _geoCells;
+			_geoCells = _geoCells2;
+			_geoCells2 = temp;
+		}
+		
 		@Override
 		public final void run()
 		{
+			final int result = testBlock(_block);
+			if (result == INSIDE && _inside && _version == _cacheVersion)
+			{
+				// still all cells visible, only the order changed
+				if (Config.USE_TRANSPARENCY && _count > 1 && !(_block.getType() == GeoEngine.GEO_BLOCK_TYPE_COMPLEX && GLDisplay.getInstance().getRenderer() instanceof VBOGLSLRenderer))
+					sortElementsToRender();
+				return;
+			}
+			
 			_count = 0;
+			_inside = result == INSIDE;
+			_version = _cacheVersion;
+			if (result == OUTSIDE)
+				return;
+			
 			switch (_block.getType())
 			{
 				case GeoEngine.GEO_BLOCK_TYPE_FLAT:
 				{
 					final GeoCell cell = _block.getCells()[0];
-					if (GLCellRenderSelector.this.isVisible(cell))
+					if (_inside || GLCellRenderSelector.this.isVisible(cell))
 					{
 						ensureCapacity(1);
 						addElementToRender(cell);
@@ -336,7 +702,7 @@ public final class GLCellRenderSelector
 				
 				case GeoEngine.GEO_BLOCK_TYPE_COMPLEX:
 				{
-					if (GLCellRenderSelector.this.isVisible(_block))
+					if (_inside || GLCellRenderSelector.this.isVisible(_block))
 					{
 						if (!(GLDisplay.getInstance().getRenderer() instanceof VBOGLSLRenderer))
 						{
@@ -344,15 +710,12 @@ public final class GLCellRenderSelector
 							ensureCapacity(cells.length);
 							for (final GeoCell cell : cells)
 							{
-								if (GLCellRenderSelector.this.isVisible(cell))
+								if (_inside || GLCellRenderSelector.this.isVisible(cell))
 									addElementToRender(cell);
 							}
 							
 							if (Config.USE_TRANSPARENCY)
-							{
-								System.arraycopy(_geoCells, 0, _geoCells2, 0, _count);
-								Util.mergeSort(_geoCells2, _geoCells, _count, GEO_CELL_COMPARATOR);
-							}
+								sortElementsToRender();
 						}
 						else
 						{
@@ -364,22 +727,19 @@ public final class GLCellRenderSelector
 				
 				case GeoEngine.GEO_BLOCK_TYPE_MULTILAYER:
 				{
-					if (GLCellRenderSelector.this.isVisible(_block))
+					if (_inside || GLCellRenderSelector.this.isVisible(_block))
 					{
 						final GeoCell[] cells = _block.getCells();
 						ensureCapacity(cells.length);
 						
 						for (final GeoCell cell : cells)
 						{
-							if (GLCellRenderSelector.this.isVisible(cell))
+							if (_inside || GLCellRenderSelector.this.isVisible(cell))
 								addElementToRender(cell);
 						}
 						
 						if (Config.USE_TRANSPARENCY)
-						{
-							System.arraycopy(_geoCells, 0, _geoCells2, 0, _count);
-							Util.mergeSort(_geoCells2, _geoCells, _count, GEO_CELL_COMPARATOR);
-						}
+							sortElementsToRender();
 					}
 					break;
 				}
@@ -20,6 +20,8 @@ import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoBlockSelector.GeoBlockEntry;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.GeoRegionLoad;
 import g3deditor.jogl.GLCellRenderSelector.GLSubRenderSelector;
 import g3deditor.jogl.GLGUIRenderer.GLText;
 import g3deditor.jogl.renderer.IRenderer;
@@ -27,6 +29,7 @@ import g3deditor.jogl.renderer.VBOGLSLRenderer;
 import g3deditor.swing.FrameMain;
 import g3deditor.util.FastArrayList;
 
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.util.concurrent.TimeUnit;
@@ -35,7 +38,6 @@ import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLEventListener;
 import javax.media.opengl.awt.GLCanvas;
-import javax.media.opengl.glu.GLU;
 
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
@@ -74,10 +76,6 @@ public final class GLDisplay implements GLEventListener
 		return ((int) (fps * 100f)) / 100d;
 	}
 	
-	private static final float VIEW_ANGLE = 45f;
-	private static final float VIEW_Z_NEAR = 1f;
-	private static final float VIEW_Z_FAR = 2000f;
-	
 	private final GLCanvas _canvas;
 	private final GLGUIRenderer _guiRenderer;
 	private final GLCellRenderSelector _renderSelector;
@@ -92,11 +90,12 @@ public final class GLDisplay implements GLEventListener
 	private final GLText _glInfoText;
 	private final GLText _worldPositionText;
 	private final GLText _geoPositionText;
+	private final GLText _loadText;
+	private final GLText _selectText;
 	
 	private GLCellRenderer _renderer;
 	private GeoCell _prevPick;
 	
-	private GLU _glu;
 	private int _width;
 	private int _height;
 	private long _time;
@@ -121,6 +120,8 @@ public final class GLDisplay implements GLEventListener
 		_glInfoText = _guiRenderer.newText(10, _renderInfoText.getY() + GLGUIRenderer.TEXT_HEIGHT);
 		_geoPositionText = _guiRenderer.newText(10, _glInfoText.getY() + GLGUIRenderer.TEXT_HEIGHT);
 		_worldPositionText = _guiRenderer.newText(10, _geoPositionText.getY() + GLGUIRenderer.TEXT_HEIGHT);
+		_selectText = _guiRenderer.newText(10, _worldPositionText.getY() + GLGUIRenderer.TEXT_HEIGHT);
+		_loadText = _guiRenderer.newText(10, _selectText.getY() + GLGUIRenderer.TEXT_HEIGHT);
 	}
 	
 	public final GLCanvas getCanvas()
@@ -185,14 +186,9 @@ public final class GLDisplay implements GLEventListener
 		Config.CELL_RENDERER = GLCellRenderer.validateRenderer(Config.CELL_RENDERER, gl);
 		FrameMain.getInstance().checkAvailableRenderers();
 		
-		_glu = GLU.createGLU(gl);
-		
 		GLState.init(gl);
 		
-		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glLoadIdentity();
-		_glu.gluPerspective(VIEW_ANGLE, 1.0f, VIEW_Z_NEAR, VIEW_Z_FAR);
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
+		_camera.loadProjectionMatrix(gl);
 		
 		_guiRenderer.init(gl);
 		_terrain.init(gl);
@@ -216,6 +212,7 @@ public final class GLDisplay implements GLEventListener
 			_renderer.dispose(gl);
 		_guiRenderer.dispose(gl);
 		_terrain.dispose(gl);
+		_renderSelector.dispose();
 	}
 	
 	/**
@@ -224,6 +221,23 @@ public final class GLDisplay implements GLEventListener
 	@Override
 	public final void display(final GLAutoDrawable glautodrawable)
 	{
+		// region swaps only here, so nothing of a frame sees two regions
+		GeoEngine.getInstance().swapPendingRegion();
+		final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+		final int changes = region != null ? region.pollChanges() : 0;
+		if (changes != 0)
+		{
+			final boolean terrainChanged = (changes & GeoRegion.CHANGE_TERRAIN) != 0;
+			_terrain.checkNeedUpdateVBO(terrainChanged, terrainChanged);
+			if ((changes & GeoRegion.CHANGE_BLOCKS) != 0)
+				_renderSelector.forceUpdateGeoBlocks();
+			_renderSelector.forceUpdateFrustum();
+			FrameMain.getInstance().onGeoDataChanged();
+		}
+		
+		final GeoRegionLoad load = GeoEngine.getInstance().getPendingLoad();
+		_loadText.setText(load != null ? "Loading region " + load.getName() + ": " + load.getProgress() + "%" : "");
+		
 		final long currentTime = System.nanoTime();
 		final double tpf = nanosToTpf(currentTime - _time);
 		_timeFPS += currentTime - _time;
@@ -239,6 +253,10 @@ public final class GLDisplay implements GLEventListener
 			_elementsPS = 0;
 			_fpsText.setText("Fps:   " + roundFps(fps));
 			_callsText.setText("Calls: " + elements);
+			
+			final long selectTime = _renderSelector.pollSelectTime();
+			if (selectTime != -1)
+				_selectText.setText("Select: " + roundFps(selectTime / 1000000d) + "ms (" + _renderSelector.getTaskExecutor() + ")");
 		}
 		
 		_worldPositionText.setText("World-Pos XYZ: " + _camera.getWorldX() + ", " + _camera.getWorldY() + ", " + _camera.getWorldZ());
@@ -247,7 +265,6 @@ public final class GLDisplay implements GLEventListener
 		
 		final GL2 gl = glautodrawable.getGL().getGL2();
 		gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
-		gl.glLoadIdentity();
 		
 		GLState.setBlendEnabled(gl, Config.USE_TRANSPARENCY);
 		GLState.setBlendFunc(gl, GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
@@ -257,14 +274,15 @@ public final class GLDisplay implements GLEventListener
 		_input.update(tpf);
 		_camera.checkPositionOrRotationChanged();
 		
-		gl.glRotatef(360f - _camera.getRotX(), 1.0f, 0.0f, 0.0f);
-		gl.glRotatef(360f - _camera.getRotY(), 0.0f, 1.0f, 0.0f);
-		gl.glTranslatef(-_camera.getX(), -_camera.getY(), -_camera.getZ());
+		if (_camera.positionXZChanged())
+			GeoEngine.getInstance().checkPrefetchNeighbours(_camera.getGeoX(), _camera.getGeoY());
+		
+		_camera.loadViewMatrix(gl);
 		
 		_terrain.setRegion(GeoEngine.getInstance().getActiveRegion());
 		_terrain.setEnabled(_input.getKeyTToggle());
 		_terrain.setWireframe(_input.getKeyRToggle());
-		_terrain.render(gl);
+		_terrain.render(gl, _camera);
 		
 		if (_renderer == null)
 		{
@@ -288,6 +306,7 @@ public final class GLDisplay implements GLEventListener
 		}
 		
 		_renderSelector.select(gl, _camera, _input.getKeyFToggle());
+		GeoBlockSelector.getInstance().applyPendingAreas();
 		
 		if (_input.getKeyGToggle())
 		{
@@ -299,6 +318,7 @@ public final class GLDisplay implements GLEventListener
 					_renderer = new IRenderer();
 					_renderInfoText.setText("Renderer: " + _renderer);
 					Config.CELL_RENDERER = _renderer.getName();
+					_renderSelector.forceUpdateFrustum();
 				}
 			}
 			_renderer.enableRender(gl);
@@ -349,6 +369,18 @@ public final class GLDisplay implements GLEventListener
 			_renderer.disableRender(gl);
 		}
 		
+		for (KeyEvent event; (event = _input.pollKeyEvent()) != null;)
+		{
+			if (region == null)
+				continue;
+			
+			// ctrl+Z undo, ctrl+Y or ctrl+shift+Z redo
+			if (event.getKeyCode() == KeyEvent.VK_Z && !event.isShiftDown())
+				region.undo();
+			else
+				region.redo();
+		}
+		
 		final FastArrayList<MouseEvent> mouseEvents = _input.getMouseEvents();
 		for (int i = 0, j; i < mouseEvents.size(); i++)
 		{
@@ -360,16 +392,26 @@ public final class GLDisplay implements GLEventListener
 				{
 					final short addHeight = (short) (scrollevent.getWheelRotation() * (_input.getKeySpace() ? -32 : -8));
 					final GeoBlockSelector selector = GeoBlockSelector.getInstance();
-					FastArrayList<GeoCell> cells;
-					for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+					if (region != null)
 					{
-						cells = entry.getValue();
-						for (j = cells.size(); j-- > 0;)
+						region.beginEdit();
+						try
+						{
+							FastArrayList<GeoCell> cells;
+							for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+							{
+								cells = entry.getValue();
+								for (j = cells.size(); j-- > 0;)
+								{
+									cells.getUnsafe(j).addHeight(addHeight);
+								}
+							}
+						}
+						finally
 						{
-							cells.getUnsafe(j).addHeight(addHeight);
+							region.endEdit();
 						}
 					}
-					_renderSelector.forceUpdateFrustum();
 				}
 				else
 				{
@@ -378,7 +420,7 @@ public final class GLDisplay implements GLEventListener
 			}
 			else
 			{
-				final GeoCell cell = _camera.pick(gl, _glu, event.getX(), event.getY());
+				final GeoCell cell = _camera.pick(event.getX(), event.getY());
 				if (cell != null)
 				{
 					if (event.getID() == MouseEvent.MOUSE_DRAGGED)
@@ -399,7 +441,7 @@ public final class GLDisplay implements GLEventListener
 		}
 		mouseEvents.clear();
 		
-		_selectionBox.render(gl, _input.getMouseButton3() ? null : _camera.pick(gl, _glu, _input.getMouseX(), _input.getMouseY()));
+		_selectionBox.render(gl, _input.getMouseButton3() ? null : _camera.pick(_input.getMouseX(), _input.getMouseY()));
 		_guiRenderer.render(gl);
 	}
 	/**
@@ -410,16 +452,12 @@ public final class GLDisplay implements GLEventListener
 	{
 		final GL2 gl = glautodrawable.getGL().getGL2();
 		gl.glViewport (0, 0, width, height);
-		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glLoadIdentity();
-		_glu.gluPerspective(VIEW_ANGLE, (float) width / (float) height, VIEW_Z_NEAR, VIEW_Z_FAR);
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
+		_camera.setViewport(0, 0, width, height);
+		_camera.loadProjectionMatrix(gl);
 		
 		_width = width;
 		_height = height;
 		
-		_camera.onProjectionMatrixChanged();
-		_camera.onViewportChanged();
 		_renderSelector.forceUpdateFrustum();
 	}
 }
\ No newline at end of file
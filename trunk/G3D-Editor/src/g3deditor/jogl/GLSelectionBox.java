@@ -16,7 +16,6 @@ package g3deditor.jogl;
 
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
-import g3deditor.util.FastArrayList;
 
 import javax.media.opengl.GL2;
 
@@ -77,22 +76,18 @@ public final class GLSelectionBox
 		return true;
 	}
 	
-	public final void getAllCellsInside(final GeoCell reference, final GeoCell[] cells, final FastArrayList<GeoCell> store)
+	/**
+	 * Sets the bit of every cell inside the selection box, bit i standing for cells[i].
+	 */
+	public final void getAllCellsInside(final GeoCell reference, final GeoCell[] cells, final long[] store)
 	{
-		if (_infHeight)
-		{
-			store.addAll(cells);
-		}
-		else
+		final int geoZ = reference.getHeight();
+		int height;
+		for (int i = cells.length; i-- > 0;)
 		{
-			final int geoZ = reference.getHeight();
-			int height;
-			for (final GeoCell cell : cells)
-			{
-				height = cell.getHeight();
-				if (height >= geoZ - _height && height <= geoZ + _height)
-					store.add(cell);
-			}
+			height = cells[i].getHeight();
+			if (_infHeight || height >= geoZ - _height && height <= geoZ + _height)
+				store[i >>> 6] |= 1L << i;
 		}
 	}
 	
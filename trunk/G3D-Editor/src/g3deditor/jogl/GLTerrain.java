@@ -14,32 +14,41 @@
  */
 package g3deditor.jogl;
 
-import g3deditor.geo.GeoBlock;
+import g3deditor.Config;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoHeightPyramid;
 import g3deditor.geo.GeoRegion;
-import g3deditor.util.Util;
+import g3deditor.geo.GeoRegionLoad;
+import g3deditor.jogl.GLTerrainTextureLoader.TerrainImage;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import com.jogamp.common.nio.Buffers;
-import com.jogamp.opengl.util.awt.ImageUtil;
-import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 
 /**
+ * The terrain of a region, split into chunks of CHUNK_SIZE x CHUNK_SIZE blocks.<br>
+ * Each chunk has its own vertices, including the first row and column of the next chunks, so all chunks use the same 16 bit indices.<br>
+ * The chunks use a coarser detail level the farther they are from the camera, see {@link GLTerrainLod}.<br>
+ * A min/max height change only rebuilds and uploads the chunks around the changed blocks.<br>
+ * The region textures are decoded by the {@link GLTerrainTextureLoader} and uploaded into a back texture, a few rows each frame, which replaces the displayed texture once complete.
+ * 
  * <a href="http://l2j-server.com/">L2jServer</a>
  * 
  * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
  */
 public final class GLTerrain
 {
+	public static final int CHUNK_SIZE = 16;
+	public static final int CHUNKS = GeoEngine.GEO_REGION_SIZE / CHUNK_SIZE;
+	
 	static final int genTex(final GL2 gl, final int width, final int height, final ShortBuffer buf, int id)
 	{
 		if (id == 0)
@@ -58,17 +67,52 @@ public final class GLTerrain
 		gl.glTexParameterf(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP);
 		return id;
 	}
-
+	
+	/**
+	 * Marks the chunks with vertices depending on the given blocks.<br>
+	 * The vertices of block x, y are built from the blocks x - 1 to x and y - 1 to y and a chunk also holds the first vertex of the next block,<br>
+	 * so a block changes the chunks of the blocks x - 1 to x + 1 and y - 1 to y + 1.
+	 * 
+	 * @param blocks The changed blocks, block x, y at bit x * GEO_REGION_SIZE + y
+	 * @param chunks The dirty chunks, chunk x, y at bit x * CHUNKS + y
+	 */
+	static final void markDirtyChunks(final long[] blocks, final long[] chunks)
+	{
+		long bits;
+		for (int i = 0, index, blockX, blockY, x, y, chunk; i < blocks.length; i++)
+		{
+			bits = blocks[i];
+			while (bits != 0)
+			{
+				index = (i << 6) + Long.numberOfTrailingZeros(bits);
+				blockX = index / GeoEngine.GEO_REGION_SIZE;
+				blockY = index % GeoEngine.GEO_REGION_SIZE;
+				for (x = Math.min(blockX + 2, GeoEngine.GEO_REGION_SIZE); x-- > Math.max(blockX - 1, 0);)
+				{
+					for (y = Math.min(blockY + 2, GeoEngine.GEO_REGION_SIZE); y-- > Math.max(blockY - 1, 0);)
+					{
+						chunk = x / CHUNK_SIZE * CHUNKS + y / CHUNK_SIZE;
+						chunks[chunk >> 6] |= 1L << chunk;
+					}
+				}
+				bits &= bits - 1;
+			}
+		}
+	}
+	
 	private TerrainBuilder _builder;
 	private int _vboIndex;
 	private int _vboVertex;
 	private int _vboTexture;
 	
 	private GeoRegion _region;
-	private Texture _texture;
+	private RegionTexture _frontTexture;
+	private RegionTexture _backTexture;
 	
-	private boolean _needUpdateTexture;
 	private boolean _needUpdateVBO;
+	private boolean _needUpdateChunks;
+	private final long[] _changedBlocks;
+	private final long[] _dirtyChunks;
 	
 	private boolean _wireframe;
 	private boolean _enabled;
@@ -78,6 +122,10 @@ public final class GLTerrain
 		_vboIndex = -1;
 		_vboVertex = -1;
 		_vboTexture = -1;
+		_frontTexture = new RegionTexture();
+		_backTexture = new RegionTexture();
+		_changedBlocks = new long[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / 64];
+		_dirtyChunks = new long[(CHUNKS * CHUNKS + 63) / 64];
 	}
 	
 	public final void setRegion(final GeoRegion region)
@@ -85,7 +133,6 @@ public final class GLTerrain
 		if (_region != region)
 		{
 			_region = region;
-			_needUpdateTexture = true;
 			_needUpdateVBO = true;
 		}
 	}
@@ -113,7 +160,7 @@ public final class GLTerrain
 	public final void checkNeedUpdateVBO(final boolean blockMinHeightChanged, final boolean blockMaxHeightChanged)
 	{
 		if (blockMinHeightChanged || blockMaxHeightChanged)
-			_needUpdateVBO = true;
+			_needUpdateChunks = true;
 	}
 	
 	public final void init(final GL2 gl)
@@ -127,53 +174,43 @@ public final class GLTerrain
 		_vboVertex = temp[1];
 		_vboTexture = temp[2];
 		
-		_builder = TerrainDetailLevel.LOW.newBuilder();
+		_builder = TerrainDetailLevel.valueOf(Config.TERRAIN_DETAIL_LEVEL).newBuilder();
 		_builder.init(gl, _vboIndex, _vboTexture);
 	}
 	
-	public final void render(final GL2 gl)
+	public final void render(final GL2 gl, final GLCamera camera)
 	{
 		if (_vboIndex == -1 || !_enabled || _region == null)
 			return;
 		
-		if (_needUpdateTexture)
-		{
-			_needUpdateTexture = false;
-			
-			if (_texture != null)
-				_texture.destroy(gl);
-			
-			try
-			{
-				File file = new File("./data/textures/region/" + (_region.getRegionX() + 10) + "_" + (_region.getRegionY() + 10) + ".jpg");
-				if (!file.isFile())
-					file = new File("./data/textures/region/water.jpg");
-				
-				if (file.isFile())
-				{
-					final BufferedImage img = Util.loadImage(file);
-					ImageUtil.flipImageVertically(img);
-					_texture = AWTTextureIO.newTexture(gl.getGLProfile(), img, false);
-					_texture.enable();
-					_texture.setTexParameteri(GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR);
-					_texture.setTexParameteri(GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
-				}
-			}
-			catch (final Exception e)
-			{
-				_texture = null;
-				e.printStackTrace();
-			}
-		}
+		updateTexture(gl);
 		
 		if (_needUpdateVBO)
 		{
 			_needUpdateVBO = false;
-			_builder.update(gl, _vboVertex, _region.getGeoBlocks(), false);
+			_needUpdateChunks = false;
+			// the full rebuild covers the blocks changed so far
+			_region.pollTerrainChangedBlocks(_changedBlocks);
+			_builder.update(gl, _vboVertex, _region);
+		}
+		else if (_needUpdateChunks)
+		{
+			_needUpdateChunks = false;
+			_region.pollTerrainChangedBlocks(_changedBlocks);
+			markDirtyChunks(_changedBlocks, _dirtyChunks);
+			_builder.updateChunks(gl, _vboVertex, _region, _dirtyChunks);
 		}
 		
-		if (_texture != null)
-			_texture.bind();
+		final GLTerrainLod lod = _builder.getLod();
+		final int scale = _builder.getDetailLevel().getScaleXZ();
+		final int originX = GeoEngine.getGeoXY(_region.getRegionX(), 0);
+		final int originY = GeoEngine.getGeoXY(_region.getRegionY(), 0);
+		lod.select((camera.getX() - originX) / scale, (camera.getZ() - originY) / scale, (float) Config.TERRAIN_LOD_DISTANCE / scale);
+		
+		if (_frontTexture.isFor(_region.getRegionX(), _region.getRegionY()))
+			_frontTexture.bind(gl);
+		else
+			gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
 		
 		if (_wireframe)
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL2.GL_LINE);
@@ -183,18 +220,31 @@ public final class GLTerrain
 		
 		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _vboTexture);
 		gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, 0);
-
+		
 		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, _vboVertex);
-		gl.glVertexPointer(3, GL2.GL_SHORT, 0, 0);
-
 		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, _vboIndex);
 		
 		gl.glPushMatrix();
 		GLState.glColor4f(gl, GLColor.WHITE);
-		gl.glTranslatef(GeoEngine.getGeoXY(_region.getRegionX(), 0), -0.3f, GeoEngine.getGeoXY(_region.getRegionY(), 0));
-		final int scale = _builder.getDetailLevel().getScaleXZ();
+		gl.glTranslatef(originX, -0.3f, originY);
 		gl.glScalef(scale, 1f, scale);
-		gl.glDrawElements(GL2.GL_TRIANGLES, _builder.getIndexBufferLen(), GL2.GL_UNSIGNED_INT, 0);
+		
+		// the texture coordinates are local to a chunk too
+		gl.glMatrixMode(GL2.GL_TEXTURE);
+		gl.glPushMatrix();
+		final long chunkBytes = (long) lod.getChunkVertices() * 3 * Buffers.SIZEOF_SHORT;
+		for (int chunk = 0, level; chunk < CHUNKS * CHUNKS; chunk++)
+		{
+			level = lod.getLevel(chunk);
+			gl.glLoadIdentity();
+			gl.glTranslatef((float) (chunk / CHUNKS) / CHUNKS, 1f - (float) (chunk % CHUNKS) / CHUNKS, 0f);
+			gl.glScalef(1f / CHUNKS, -1f / CHUNKS, 1f);
+			gl.glVertexPointer(3, GL2.GL_SHORT, 0, chunk * chunkBytes);
+			drawPart(gl, lod, level, GLTerrainLod.PART_INTERIOR);
+			drawPart(gl, lod, level, lod.getStitchMask(chunk));
+		}
+		gl.glPopMatrix();
+		gl.glMatrixMode(GL2.GL_MODELVIEW);
 		gl.glPopMatrix();
 		
 		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
@@ -208,13 +258,72 @@ public final class GLTerrain
 		gl.glUseProgram(0);
 	}
 	
+	/**
+	 * Displays the texture of the active region once it is uploaded.<br>
+	 * The back texture is filled with the texture of the active region, or with the texture of the pending region while the active one is displayed.
+	 */
+	private final void updateTexture(final GL2 gl)
+	{
+		final int regionX = _region.getRegionX();
+		final int regionY = _region.getRegionY();
+		if (swapTextureIfComplete(regionX, regionY))
+			return;
+		
+		final int targetX;
+		final int targetY;
+		if (_frontTexture.isFor(regionX, regionY))
+		{
+			final GeoRegionLoad load = GeoEngine.getInstance().getPendingLoad();
+			if (load == null || load.isCancelled() || _frontTexture.isFor(load.getRegionX(), load.getRegionY()))
+				return;
+			
+			targetX = load.getRegionX();
+			targetY = load.getRegionY();
+		}
+		else
+		{
+			targetX = regionX;
+			targetY = regionY;
+		}
+		
+		if (!_backTexture.isFor(targetX, targetY))
+		{
+			final TerrainImage image = GLTerrainTextureLoader.getInstance().getImage(targetX, targetY);
+			if (image == null)
+				return;
+			
+			_backTexture.setImage(gl, image);
+		}
+		
+		_backTexture.upload(gl, Config.TERRAIN_TEXTURE_UPLOAD_SIZE * 1024);
+		swapTextureIfComplete(regionX, regionY);
+	}
+	
+	private final boolean swapTextureIfComplete(final int regionX, final int regionY)
+	{
+		if (_frontTexture.isFor(regionX, regionY) || !_backTexture.isFor(regionX, regionY) || !_backTexture.isComplete())
+			return false;
+		
+		final RegionTexture texture = _frontTexture;
+		_frontTexture = _backTexture;
+		_backTexture = texture;
+		return true;
+	}
+	
+	private static final void drawPart(final GL2 gl, final GLTerrainLod lod, final int level, final int part)
+	{
+		final int count = lod.getIndexCount(level, part);
+		if (count > 0)
+			gl.glDrawElements(GL2.GL_TRIANGLES, count, GL2.GL_UNSIGNED_SHORT, (long) lod.getIndexOffset(level, part) * Buffers.SIZEOF_SHORT);
+	}
+	
 	public final void dispose(final GL2 gl)
 	{
 		if (_vboIndex == -1)
 			return;
 		
-		if (_texture != null)
-			_texture.destroy(gl);
+		_frontTexture.dispose(gl);
+		_backTexture.dispose(gl);
 		
 		gl.glDeleteBuffers(3, new int[]{_vboIndex, _vboVertex, _vboTexture}, 0);
 		_vboIndex = -1;
@@ -222,20 +331,104 @@ public final class GLTerrain
 		_vboTexture = -1;
 	}
 	
-	public static enum TerrainDetailLevel
+	/**
+	 * A region texture which is uploaded a few rows per frame, see {@link Config#TERRAIN_TEXTURE_UPLOAD_SIZE}.
+	 */
+	private static final class RegionTexture
 	{
-		LOW(TerrainBuilderLowDetail.class),
-		MEDIUM(TerrainBuilderXDetail.class),
-		HIGH(TerrainBuilderXDetail.class),
-		ULTRA(TerrainBuilderXDetail.class);
+		private int _id;
+		private TerrainImage _image;
+		private int _rowsUploaded;
+		
+		public RegionTexture()
+		{
+			_id = -1;
+		}
 		
-		private final Class<?> _builder;
+		public final boolean isFor(final int regionX, final int regionY)
+		{
+			return _image != null && _image.getRegionX() == regionX && _image.getRegionY() == regionY;
+		}
 		
-		private TerrainDetailLevel(final Class<?> builder)
+		public final boolean isComplete()
 		{
-			_builder = builder;
+			return _image != null && _rowsUploaded == _image.getHeight();
 		}
 		
+		/**
+		 * Allocates the texture for the image, the pixels are uploaded by {@link #upload(GL2, int)}.
+		 */
+		public final void setImage(final GL2 gl, final TerrainImage image)
+		{
+			_image = image;
+			_rowsUploaded = 0;
+			if (!image.hasPixels())
+				return;
+			
+			if (_id == -1)
+			{
+				final int[] temp = new int[1];
+				gl.glGenTextures(1, temp, 0);
+				_id = temp[0];
+			}
+			
+			gl.glEnable(GL2.GL_TEXTURE_2D);
+			gl.glBindTexture(GL2.GL_TEXTURE_2D, _id);
+			gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGB, image.getWidth(), image.getHeight(), 0, GL2.GL_RGB, GL2.GL_UNSIGNED_BYTE, null);
+			gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR);
+			gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+			gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+		}
+		
+		/**
+		 * Uploads the next rows of the image, at least one.
+		 * 
+		 * @param maxBytes The maximum bytes to upload, 0 uploads all remaining rows
+		 */
+		public final void upload(final GL2 gl, final int maxBytes)
+		{
+			if (isComplete())
+				return;
+			
+			final int rowBytes = _image.getWidth() * 3;
+			final int rows = maxBytes > 0 ? Math.min(Math.max(maxBytes / rowBytes, 1), _image.getHeight() - _rowsUploaded) : _image.getHeight() - _rowsUploaded;
+			final ByteBuffer pixels = _image.getPixels().duplicate();
+			pixels.position(_rowsUploaded * rowBytes);
+			
+			gl.glBindTexture(GL2.GL_TEXTURE_2D, _id);
+			gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 1);
+			gl.glTexSubImage2D(GL2.GL_TEXTURE_2D, 0, 0, _rowsUploaded, _image.getWidth(), rows, GL2.GL_RGB, GL2.GL_UNSIGNED_BYTE, pixels);
+			gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 4);
+			_rowsUploaded += rows;
+		}
+		
+		/**
+		 * Binds the texture, or no texture if the region has none.
+		 */
+		public final void bind(final GL2 gl)
+		{
+			gl.glBindTexture(GL2.GL_TEXTURE_2D, _image.hasPixels() ? _id : 0);
+		}
+		
+		public final void dispose(final GL2 gl)
+		{
+			if (_id != -1)
+				gl.glDeleteTextures(1, new int[]{_id}, 0);
+			
+			_id = -1;
+			_image = null;
+			_rowsUploaded = 0;
+		}
+	}
+	
+	public static enum TerrainDetailLevel
+	{
+		LOW,
+		MEDIUM,
+		HIGH,
+		ULTRA;
+		
 		public final int getScaleXZ()
 		{
 			return ULTRA.getFactor() / getFactor();
@@ -246,29 +439,48 @@ public final class GLTerrain
 			return 1 << ordinal();
 		}
 		
+		/**
+		 * @return The level of the height pyramid with one group per vertex
+		 */
+		public final int getPyramidLevel()
+		{
+			return GeoHeightPyramid.BLOCK_LEVEL - ordinal();
+		}
+		
 		public final TerrainBuilder newBuilder()
 		{
-			try
-			{
-				return (TerrainBuilder) _builder.getConstructor(TerrainDetailLevel.class).newInstance(this);
-			}
-			catch (final Exception e)
-			{
-				throw new RuntimeException(e);
-			}
+			return new TerrainBuilder(this);
 		}
 	}
 	
-	public static abstract class TerrainBuilder
+	/**
+	 * Builds the vertices of the chunks at a detail level from its level of the height pyramid.<br>
+	 * A vertex is placed at the lowest of the four groups around it, at LOW the groups are blocks, at ULTRA cells.<br>
+	 * Each coarser level of the LOD uses the next coarser level of the pyramid, so its triangles stay below the vertices they skip.<br>
+	 * A stitched side makes the triangles next to it twice as long, so the vertices next to the sides use the lowest of the 4 x 4 groups around them.<br>
+	 * The corners of a chunk are shared by all levels, they use the coarsest level so neighbours at any level meet there.
+	 */
+	public static final class TerrainBuilder
 	{
+		/**
+		 * The vertices below which a chunk range is built without splitting it further.
+		 */
+		private static final int VERTICES_PER_TASK = 16384;
+		
 		private final TerrainDetailLevel _detailLevel;
+		/**
+		 * The quads per side of a chunk.
+		 */
+		private final int _chunkSize;
+		private final GLTerrainLod _lod;
 		private ShortBuffer _vertexBuffer;
 		private boolean _initialized;
-		private int _indexBufferLen;
 		
 		public TerrainBuilder(final TerrainDetailLevel detailLevel)
 		{
 			_detailLevel = detailLevel;
+			_chunkSize = CHUNK_SIZE * detailLevel.getFactor();
+			_lod = new GLTerrainLod(detailLevel, CHUNKS, _chunkSize);
 		}
 		
 		public final TerrainDetailLevel getDetailLevel()
@@ -276,9 +488,17 @@ public final class GLTerrain
 			return _detailLevel;
 		}
 		
-		public final int getIndexBufferLen()
+		public final GLTerrainLod getLod()
+		{
+			return _lod;
+		}
+		
+		/**
+		 * @return The index of the vertex of the LOD level in the vertex buffer, see {@link GLTerrainLod#getVertexIndex(int, int, int)}
+		 */
+		public final int getVertexIndex(final int chunk, final int level, final int x, final int y)
 		{
-			return _indexBufferLen;
+			return chunk * _lod.getChunkVertices() + _lod.getVertexIndex(level, x, y);
 		}
 		
 		public final void init(final GL2 gl, final int vboIndex, final int vboTexture)
@@ -288,56 +508,36 @@ public final class GLTerrain
 			
 			_initialized = true;
 			
-			final int factor = getDetailLevel().getFactor();
-			final int xUp = GeoEngine.GEO_REGION_SIZE * factor;
-			final int zUp = GeoEngine.GEO_REGION_SIZE * factor;
+			final ShortBuffer indexBuffer = Buffers.newDirectShortBuffer(_lod.getIndices());
 			
-			final int xUnit = xUp - 1;
-			final int zUnit = zUp - 1;
-			final IntBuffer indexBuffer = Buffers.newDirectIntBuffer(xUnit * zUnit * 6);
-			for (int i = 0, j; i < zUnit; i++)
+			final FloatBuffer textureBuffer = Buffers.newDirectFloatBuffer(_lod.getChunkVertices() * 2);
+			for (int level = 0, step, x, y, index; level < _lod.getLevels(); level++)
 			{
-				for (j = 0; j < xUnit; j++)
+				step = _lod.getStep(level);
+				for (x = 0; x <= _chunkSize; x += step)
 				{
-					indexBuffer.put(i * xUp + j);
-					indexBuffer.put(i * xUp + xUp + j);
-					indexBuffer.put(i * xUp + xUp + j + 1);
-					indexBuffer.put(i * xUp + j);
-					indexBuffer.put(i * xUp + xUp + j + 1);
-					indexBuffer.put(i * xUp + j + 1);
-				}
-			}
-			
-			indexBuffer.flip();
-			
-			final FloatBuffer textureBuffer = Buffers.newDirectFloatBuffer(xUp * zUp * 2);
-			final float xStep = 1F / (xUp);
-			final float zStep = 1F / (zUp);
-			for (int i = 0, j; i < zUp; i++)
-			{
-				for (j = 0; j < xUp; j++)
-				{
-					textureBuffer.put(j * xStep);
-					textureBuffer.put(1F - i * zStep);
+					for (y = 0; y <= _chunkSize; y += step)
+					{
+						index = getVertexIndex(0, level, x, y) * 2;
+						textureBuffer.put(index, (float) x / _chunkSize);
+						textureBuffer.put(index + 1, (float) y / _chunkSize);
+					}
 				}
 			}
-			textureBuffer.flip();
 			
-			_vertexBuffer = Buffers.newDirectShortBuffer(xUp * zUp * 3);
-			_indexBufferLen = indexBuffer.remaining();
+			_vertexBuffer = Buffers.newDirectShortBuffer(CHUNKS * CHUNKS * _lod.getChunkVertices() * 3);
 			
 			gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, vboIndex);
-			gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.remaining() * Buffers.SIZEOF_INT, indexBuffer, GL2.GL_STATIC_DRAW);
+			gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.remaining() * Buffers.SIZEOF_SHORT, indexBuffer, GL2.GL_STATIC_DRAW);
 			
 			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vboTexture);
 			gl.glBufferData(GL2.GL_ARRAY_BUFFER, textureBuffer.remaining() * Buffers.SIZEOF_FLOAT, textureBuffer, GL2.GL_STATIC_DRAW);
 		}
 		
-		public final void update(final GL2 gl, final int vboVertex, final GeoBlock[][] blocks, final boolean flipped)
+		public final void update(final GL2 gl, final int vboVertex, final GeoRegion region)
 		{
 			_vertexBuffer.clear();
-			updateImpl(_vertexBuffer, blocks, flipped);			
-			_vertexBuffer.flip();
+			updateImpl(_vertexBuffer, region, 0, CHUNKS * CHUNKS);
 			
 			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vboVertex);
 			// call with null buffer first to tell VGA-driver that we give a shit about the old content
@@ -345,170 +545,138 @@ public final class GLTerrain
 			gl.glBufferData(GL2.GL_ARRAY_BUFFER, _vertexBuffer.remaining() * Buffers.SIZEOF_SHORT, _vertexBuffer, GL2.GL_DYNAMIC_DRAW);
 		}
 		
-		public abstract void updateImpl(final ShortBuffer vertexBuffer, final GeoBlock[][] blocks, final boolean flipped);
-	}
-	
-	public static final class TerrainBuilderLowDetail extends TerrainBuilder
-	{
-		public TerrainBuilderLowDetail(final TerrainDetailLevel detailLevel)
-		{
-			super(detailLevel);
-		}
-		
 		/**
-		 * @see g3deditor.jogl.GLTerrain.TerrainBuilder#updateImpl(java.nio.FloatBuffer, g3deditor.geo.GeoBlock[][], boolean)
+		 * Rebuilds the given chunks and uploads only their part of the vertex buffer, {@link #update(GL2, int, GeoRegion)} has to be called once before.
+		 * 
+		 * @param chunks The dirty chunks, chunk x, y at bit x * CHUNKS + y, cleared
 		 */
-		@Override
-		public final void updateImpl(final ShortBuffer vertexBuffer, final GeoBlock[][] blocks, final boolean flipped)
+		public final void updateChunks(final GL2 gl, final int vboVertex, final GeoRegion region, final long[] chunks)
 		{
-			for (int blockY = 0, blockX; blockY < GeoEngine.GEO_REGION_SIZE; blockY++)
+			gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vboVertex);
+			final int chunkLen = _lod.getChunkVertices() * 3;
+			long bits;
+			for (int i = 0, chunk; i < chunks.length; i++)
 			{
-				for (blockX = 0; blockX < GeoEngine.GEO_REGION_SIZE; blockX++)
+				bits = chunks[i];
+				while (bits != 0)
 				{
-					vertexBuffer.put((short) blockX);
-					vertexBuffer.put((short) (getNeighboursHeight(blocks, blockX, blockY, flipped) / 16f -0.5f));
-					vertexBuffer.put((short) blockY);
+					chunk = (i << 6) + Long.numberOfTrailingZeros(bits);
+					updateChunk(region, chunk);
+					_vertexBuffer.limit(chunk * chunkLen + chunkLen);
+					_vertexBuffer.position(chunk * chunkLen);
+					gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, (long) chunk * chunkLen * Buffers.SIZEOF_SHORT, chunkLen * Buffers.SIZEOF_SHORT, _vertexBuffer);
+					_vertexBuffer.clear();
+					bits &= bits - 1;
 				}
 			}
+			Arrays.fill(chunks, 0);
 		}
 		
-		private final int getNeighboursHeight(final GeoBlock[][] blocks, final int blockX, final int blockY, final boolean flipped)
-		{
-			if (flipped)
-			{
-				if (blockX > 0)
-				{
-					if (blockY > 0)
-					{
-						return Math.min(Math.min(Math.min(blocks[blockX][blockY].getMaxHeight(), blocks[blockX - 1][blockY].getMaxHeight()), blocks[blockX][blockY - 1].getMaxHeight()), blocks[blockX - 1][blockY - 1].getMaxHeight());
-					}
-					
-					return Math.min(blocks[blockX][blockY].getMaxHeight(), blocks[blockX - 1][blockY].getMaxHeight());
-				}
-				else
-				{
-					if (blockY > 0)
-					{
-						return Math.min(blocks[blockX][blockY].getMaxHeight(), blocks[blockX][blockY - 1].getMaxHeight());
-					}
-					
-					return blocks[blockX][blockY].getMaxHeight();
-				}
-			}
-			else
-			{
-				if (blockX > 0)
-				{
-					if (blockY > 0)
-					{
-						return Math.min(Math.min(Math.min(blocks[blockX][blockY].getMinHeight(), blocks[blockX - 1][blockY].getMinHeight()), blocks[blockX][blockY - 1].getMinHeight()), blocks[blockX - 1][blockY - 1].getMinHeight());
-					}
-					
-					return Math.min(blocks[blockX][blockY].getMinHeight(), blocks[blockX - 1][blockY].getMinHeight());
-				}
-				else
-				{
-					if (blockY > 0)
-					{
-						return Math.min(blocks[blockX][blockY].getMinHeight(), blocks[blockX][blockY - 1].getMinHeight());
-					}
-					
-					return blocks[blockX][blockY].getMinHeight();
-				}
-			}
-		}
-	}
-	
-	public static final class TerrainBuilderXDetail extends TerrainBuilder
-	{
-		public TerrainBuilderXDetail(final TerrainDetailLevel detailLevel)
+		/**
+		 * Rebuilds the vertices of the chunk in the vertex buffer, without uploading them.
+		 */
+		final void updateChunk(final GeoRegion region, final int chunk)
 		{
-			super(detailLevel);
+			updateImpl(_vertexBuffer, region, chunk, chunk + 1);
 		}
 		
 		/**
-		 * @see g3deditor.jogl.GLTerrain.TerrainBuilder#updateImpl(java.nio.FloatBuffer, g3deditor.geo.GeoBlock[][], boolean)
+		 * Writes the vertices of the chunks from (inclusive) to (exclusive) at their index, see {@link #getVertexIndex(int, int, int, int)}.<br>
+		 * Does not change the position or limit of the buffer, the chunks are built in parallel.
 		 */
-		@Override
-		public final void updateImpl(final ShortBuffer vertexBuffer, final GeoBlock[][] blocks, final boolean flipped)
+		public final void updateImpl(final ShortBuffer vertexBuffer, final GeoRegion region, final int fromChunk, final int toChunk)
+		{
+			final GeoHeightPyramid pyramid = region.getHeightPyramid(getDetailLevel().getPyramidLevel());
+			final int chunksPerTask = Math.max(VERTICES_PER_TASK / _lod.getChunkVertices(), 1);
+			final ChunkBuilder builder = new ChunkBuilder(vertexBuffer, pyramid, fromChunk, toChunk, chunksPerTask);
+			if (Config.USE_MULTITHREADING && toChunk - fromChunk > chunksPerTask)
+				ForkJoinPool.commonPool().invoke(builder);
+			else
+				builder.compute();
+		}
+		
+		private final class ChunkBuilder extends RecursiveAction
 		{
-			final int factor = getDetailLevel().getFactor();
-			final int cells = GeoEngine.GEO_BLOCK_SHIFT / factor;
-			final int xzUp = GeoEngine.GEO_REGION_SIZE * factor;
+			private static final long serialVersionUID = 1L;
+			
+			private final ShortBuffer _vertexBuffer;
+			private final GeoHeightPyramid _pyramid;
+			private final int _from;
+			private final int _to;
+			private final int _chunksPerTask;
+			
+			public ChunkBuilder(final ShortBuffer vertexBuffer, final GeoHeightPyramid pyramid, final int from, final int to, final int chunksPerTask)
+			{
+				_vertexBuffer = vertexBuffer;
+				_pyramid = pyramid;
+				_from = from;
+				_to = to;
+				_chunksPerTask = chunksPerTask;
+			}
 			
-			for (int blockX = GeoEngine.GEO_REGION_SIZE, blockY, vertexX, vertexY, factorX, factorY; blockX-- > 0;)
+			/**
+			 * @see java.util.concurrent.RecursiveAction#compute()
+			 */
+			@Override
+			protected final void compute()
 			{
-				for (blockY = GeoEngine.GEO_REGION_SIZE; blockY-- > 0;)
+				if (_to - _from > _chunksPerTask)
 				{
-					for (factorX = factor; factorX-- > 0;)
+					final int middle = (_from + _to) >>> 1;
+					invokeAll(new ChunkBuilder(_vertexBuffer, _pyramid, _from, middle, _chunksPerTask), new ChunkBuilder(_vertexBuffer, _pyramid, middle, _to, _chunksPerTask));
+					return;
+				}
+				
+				final int pyramidLevel = getDetailLevel().getPyramidLevel();
+				final int coarsest = _lod.getLevels() - 1;
+				for (int chunk = _from, level, step, x, y, vertexX, vertexY, height, index; chunk < _to; chunk++)
+				{
+					for (level = 0; level < _lod.getLevels(); level++)
 					{
-						vertexX = blockX * factor + factorX;
-						for (factorY = factor; factorY-- > 0;)
+						step = _lod.getStep(level);
+						for (x = 0; x <= _chunkSize; x += step)
 						{
-							vertexY = blockY * factor + factorY;
-							vertexBuffer.position((vertexY * xzUp + vertexX) * 3);
-							vertexBuffer.put((short) vertexX);
-							vertexBuffer.put((short) (getHeight(blocks, blockX, blockY, factorX * cells, factorY * cells, cells, flipped) / 16f - 0.5f));
-							vertexBuffer.put((short) vertexY);
+							vertexX = chunk / CHUNKS * _chunkSize + x;
+							for (y = 0; y <= _chunkSize; y += step)
+							{
+								vertexY = chunk % CHUNKS * _chunkSize + y;
+								if ((x == 0 || x == _chunkSize) && (y == 0 || y == _chunkSize))
+									height = getHeight(pyramidLevel + coarsest, vertexX >> coarsest, vertexY >> coarsest, 1);
+								else if (level > 0 && level < coarsest && (x == step || x == _chunkSize - step || y == step || y == _chunkSize - step))
+									height = getHeight(pyramidLevel + level, vertexX >> level, vertexY >> level, 2);
+								else
+									height = getHeight(pyramidLevel + level, vertexX >> level, vertexY >> level, 1);
+								
+								index = getVertexIndex(chunk, level, x, y) * 3;
+								_vertexBuffer.put(index, (short) vertexX);
+								_vertexBuffer.put(index + 1, (short) (height / 16f - 0.5f));
+								_vertexBuffer.put(index + 2, (short) vertexY);
+							}
 						}
 					}
 				}
 			}
 			
-			vertexBuffer.position(vertexBuffer.capacity());
-		}
-		
-		private final int getHeight(final GeoBlock[][] blocks, final int blockX, final int blockY, final int cellX, final int cellY, final int cells, final boolean flipped)
-		{
-			int height = Integer.MAX_VALUE;
-			height = Math.min(height, getBlockHeightOfGroup(blocks, blockX, blockY, cellX - cells, cellY - cells, cells, flipped));
-			height = Math.min(height, getBlockHeightOfGroup(blocks, blockX, blockY, cellX - cells, cellY, cells, flipped));
-			height = Math.min(height, getBlockHeightOfGroup(blocks, blockX, blockY, cellX, cellY - cells, cells, flipped));
-			height = Math.min(height, getBlockHeightOfGroup(blocks, blockX, blockY, cellX, cellY, cells, flipped));
-			return height;
-		}
-		
-		private final int getBlockHeightOfGroup(final GeoBlock[][] blocks, int blockX, int blockY, int cellX, int cellY, final int cells, final boolean flipped)
-		{
-			if (cellX < 0)
-			{
-				blockX -= 1;
-				cellX = GeoEngine.GEO_BLOCK_SHIFT - cells;
-			}
-			else if (cellX >= GeoEngine.GEO_BLOCK_SHIFT)
-			{
-				blockX += 1;
-				cellX = 0;
-			}
-			
-			if (cellY < 0)
-			{
-				blockY -= 1;
-				cellY = GeoEngine.GEO_BLOCK_SHIFT - cells;
-			}
-			else if (cellY >= GeoEngine.GEO_BLOCK_SHIFT)
-			{
-				blockY += 1;
-				cellY = 0;
-			}
-			
-			if (blockX < 0 || blockY < 0 || blockX >= GeoEngine.GEO_REGION_SIZE || blockY >= GeoEngine.GEO_REGION_SIZE)
-				return Short.MAX_VALUE;
-			
-			return getBlockHeightOfGroup(blocks[blockX][blockY], cellX, cellY, cells, flipped);
-		}
-		
-		private final int getBlockHeightOfGroup(final GeoBlock block, final int cellX, final int cellY, final int cells, final boolean flipped)
-		{
-			int height = Integer.MAX_VALUE, x, y;
-			for (x = cells; x-- > 0;)
+			/**
+			 * @param x The x of the vertex in groups of the pyramid level
+			 * @param y The y of the vertex in groups of the pyramid level
+			 * @param radius The groups on each side of the vertex
+			 * @return The lowest of the groups around the vertex
+			 */
+			private final int getHeight(final int pyramidLevel, final int x, final int y, final int radius)
 			{
-				for (y = cells; y-- > 0;)
+				// the vertices at the edges of the region have fewer groups around them
+				final int size = GeoHeightPyramid.getSize(pyramidLevel);
+				int height = Integer.MAX_VALUE;
+				for (int groupX = Math.min(x + radius, size), groupY; groupX-- > Math.max(x - radius, 0);)
 				{
-					height = Math.min(height, (flipped ? block.nGetCellByLayer(cellX + x, cellY + y, block.nGetLayerCount(cellX + x, cellY + y) - 1) : block.nGetCellByLayer(cellX + x, cellY + y, 0)).getHeight());
+					for (groupY = Math.min(y + radius, size); groupY-- > Math.max(y - radius, 0);)
+					{
+						height = Math.min(height, _pyramid.getMinHeight(pyramidLevel, groupX, groupY));
+					}
 				}
+				return height;
 			}
-			return height;
 		}
 	}
-}
\ No newline at end of file
+}
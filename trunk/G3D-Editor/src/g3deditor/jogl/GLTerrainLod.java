@@ -0,0 +1,301 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.jogl.GLTerrain.TerrainDetailLevel;
+
+/**
+ * Selects the detail level of the terrain chunks by their distance to the camera and builds their indices, without needing a GL context.<br>
+ * Level 0 uses every vertex of the chunk, each coarser level every second one of the level before.<br>
+ * A chunk has its own vertices for each level, so a coarser level can lie lower than the vertices it skips, see {@link #getVertexIndex(int, int, int)}.<br>
+ * Neighbour chunks differ by at most one level. The finer chunk snaps its edge vertices to the ones of the coarser chunk and uses the vertices of the coarser level there, so there are no cracks.<br>
+ * The indices of a level are shared by all chunks: one interior part and one edge ring part for each combination of coarser neighbours.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLTerrainLod
+{
+	public static final int MIN_LOD_DISTANCE = 64;
+	public static final int MAX_LOD_DISTANCE = 4096;
+	
+	/**
+	 * The neighbour sides of a chunk, the bits of a stitch mask.
+	 */
+	public static final int SIDE_MIN_X = 1;
+	public static final int SIDE_MAX_X = 2;
+	public static final int SIDE_MIN_Y = 4;
+	public static final int SIDE_MAX_Y = 8;
+	/**
+	 * The index part of the interior, the parts 0 to 15 are the edge rings by stitch mask.
+	 */
+	public static final int PART_INTERIOR = 16;
+	
+	private final TerrainDetailLevel _maxDetailLevel;
+	private final int _levels;
+	private final int _chunks;
+	private final int _size;
+	private final byte[] _chunkLevels;
+	private final int[] _vertexOffsets;
+	
+	private final short[] _indices;
+	private final int[][] _indexOffsets;
+	private final int[][] _indexCounts;
+	
+	/**
+	 * @param maxDetailLevel The detail level of level 0
+	 * @param chunks The chunks per side
+	 * @param size The quads per chunk side at level 0
+	 */
+	public GLTerrainLod(final TerrainDetailLevel maxDetailLevel, final int chunks, final int size)
+	{
+		_maxDetailLevel = maxDetailLevel;
+		_levels = maxDetailLevel.ordinal() + 1;
+		_chunks = chunks;
+		_size = size;
+		_chunkLevels = new byte[chunks * chunks];
+		
+		_vertexOffsets = new int[_levels + 1];
+		for (int level = 0; level < _levels; level++)
+		{
+			_vertexOffsets[level + 1] = _vertexOffsets[level] + (size / getStep(level) + 1) * (size / getStep(level) + 1);
+		}
+		
+		if (getChunkVertices() > 1 << 16)
+			throw new IllegalArgumentException("Chunk too big for 16 bit indices: " + size);
+		
+		final short[][][] parts = new short[_levels][PART_INTERIOR + 1][];
+		int length = 0;
+		for (int level = _levels, part; level-- > 0;)
+		{
+			for (part = PART_INTERIOR + 1; part-- > 0;)
+			{
+				parts[level][part] = createIndices(level, part);
+				length += parts[level][part].length;
+			}
+		}
+		
+		_indices = new short[length];
+		_indexOffsets = new int[_levels][PART_INTERIOR + 1];
+		_indexCounts = new int[_levels][PART_INTERIOR + 1];
+		for (int level = 0, part, offset = 0; level < _levels; level++)
+		{
+			for (part = 0; part <= PART_INTERIOR; part++)
+			{
+				System.arraycopy(parts[level][part], 0, _indices, offset, parts[level][part].length);
+				_indexOffsets[level][part] = offset;
+				_indexCounts[level][part] = parts[level][part].length;
+				offset += parts[level][part].length;
+			}
+		}
+	}
+	
+	public final int getLevels()
+	{
+		return _levels;
+	}
+	
+	/**
+	 * @return The distance between the vertices used by the level, in vertices of level 0
+	 */
+	public final int getStep(final int level)
+	{
+		return 1 << level;
+	}
+	
+	public final TerrainDetailLevel getDetailLevel(final int level)
+	{
+		return TerrainDetailLevel.values()[_maxDetailLevel.ordinal() - level];
+	}
+	
+	/**
+	 * @return The vertices of a chunk, of all levels
+	 */
+	public final int getChunkVertices()
+	{
+		return _vertexOffsets[_levels];
+	}
+	
+	/**
+	 * The vertices of a level follow the ones of the finer level, vertex x, y of a level at x / step * (size / step + 1) + y / step after them.
+	 * 
+	 * @param x The x in vertices of level 0, a multiple of the step of the level
+	 * @param y The y in vertices of level 0, a multiple of the step of the level
+	 * @return The local index of the vertex of the level
+	 */
+	public final int getVertexIndex(final int level, final int x, final int y)
+	{
+		return _vertexOffsets[level] + (x >> level) * ((_size >> level) + 1) + (y >> level);
+	}
+	
+	/**
+	 * @return The indices of all levels and parts, local to the vertices of a chunk
+	 */
+	public final short[] getIndices()
+	{
+		return _indices;
+	}
+	
+	public final int getIndexOffset(final int level, final int part)
+	{
+		return _indexOffsets[level][part];
+	}
+	
+	public final int getIndexCount(final int level, final int part)
+	{
+		return _indexCounts[level][part];
+	}
+	
+	/**
+	 * @param chunk Chunk x, y at x * chunks + y
+	 */
+	public final int getLevel(final int chunk)
+	{
+		return _chunkLevels[chunk];
+	}
+	
+	/**
+	 * @return The sides with a coarser neighbour, the edge ring part to render the chunk with
+	 */
+	public final int getStitchMask(final int chunk)
+	{
+		final int chunkX = chunk / _chunks;
+		final int chunkY = chunk % _chunks;
+		final int level = _chunkLevels[chunk];
+		int mask = 0;
+		if (chunkX > 0 && _chunkLevels[chunk - _chunks] > level)
+			mask |= SIDE_MIN_X;
+		if (chunkX < _chunks - 1 && _chunkLevels[chunk + _chunks] > level)
+			mask |= SIDE_MAX_X;
+		if (chunkY > 0 && _chunkLevels[chunk - 1] > level)
+			mask |= SIDE_MIN_Y;
+		if (chunkY < _chunks - 1 && _chunkLevels[chunk + 1] > level)
+			mask |= SIDE_MAX_Y;
+		return mask;
+	}
+	
+	/**
+	 * Selects the level of each chunk, the chunks closer than the LOD distance use level 0, each doubling of the distance one level coarser.<br>
+	 * Then chunks more than one level coarser than a neighbour are refined until the neighbours differ by at most one level.
+	 * 
+	 * @param x The camera x in vertices of level 0, relative to the terrain
+	 * @param y The camera y (geo y) in vertices of level 0, relative to the terrain
+	 * @param lodDistance The LOD distance in vertices of level 0
+	 */
+	public final void select(final float x, final float y, final float lodDistance)
+	{
+		for (int chunkX = _chunks, chunkY; chunkX-- > 0;)
+		{
+			for (chunkY = _chunks; chunkY-- > 0;)
+			{
+				final float dx = Math.max(Math.max(chunkX * _size - x, x - (chunkX + 1) * _size), 0);
+				final float dy = Math.max(Math.max(chunkY * _size - y, y - (chunkY + 1) * _size), 0);
+				final double distance = Math.sqrt(dx * dx + dy * dy);
+				int level = 0;
+				for (double range = lodDistance; distance >= range && level < _levels - 1; range *= 2)
+				{
+					level++;
+				}
+				_chunkLevels[chunkX * _chunks + chunkY] = (byte) level;
+			}
+		}
+		
+		boolean changed;
+		do
+		{
+			changed = false;
+			for (int chunk = _chunkLevels.length, chunkX, chunkY, level; chunk-- > 0;)
+			{
+				chunkX = chunk / _chunks;
+				chunkY = chunk % _chunks;
+				level = _chunkLevels[chunk];
+				if (chunkX > 0)
+					level = Math.min(level, _chunkLevels[chunk - _chunks] + 1);
+				if (chunkX < _chunks - 1)
+					level = Math.min(level, _chunkLevels[chunk + _chunks] + 1);
+				if (chunkY > 0)
+					level = Math.min(level, _chunkLevels[chunk - 1] + 1);
+				if (chunkY < _chunks - 1)
+					level = Math.min(level, _chunkLevels[chunk + 1] + 1);
+				
+				if (level != _chunkLevels[chunk])
+				{
+					_chunkLevels[chunk] = (byte) level;
+					changed = true;
+				}
+			}
+		}
+		while (changed);
+	}
+	
+	/**
+	 * Builds the triangles of the interior quads or of the quads along the edges of a chunk at the level.<br>
+	 * On a stitched side the edge vertices snap down to the step of the next level and use its vertices, triangles which collapse by it are dropped.
+	 */
+	private final short[] createIndices(final int level, final int part)
+	{
+		// the coarsest level has no coarser neighbours
+		if (level == _levels - 1 && part != 0 && part != PART_INTERIOR)
+			return new short[0];
+		
+		final int step = getStep(level);
+		final int quads = _size / step;
+		final short[] indices = new short[quads * quads * 6];
+		int length = 0;
+		for (int x = 0, y, i; x < _size; x += step)
+		{
+			for (y = 0; y < _size; y += step)
+			{
+				final boolean edge = x == 0 || y == 0 || x == _size - step || y == _size - step;
+				if (edge == (part == PART_INTERIOR))
+					continue;
+				
+				final int a = getSnappedIndex(x, y, step, part);
+				final int b = getSnappedIndex(x, y + step, step, part);
+				final int c = getSnappedIndex(x + step, y + step, step, part);
+				final int d = getSnappedIndex(x + step, y, step, part);
+				final int[] triangles = {a, b, c, a, c, d};
+				for (i = 0; i < triangles.length; i += 3)
+				{
+					if (triangles[i] == triangles[i + 1] || triangles[i + 1] == triangles[i + 2] || triangles[i] == triangles[i + 2])
+						continue;
+					
+					indices[length++] = (short) triangles[i];
+					indices[length++] = (short) triangles[i + 1];
+					indices[length++] = (short) triangles[i + 2];
+				}
+			}
+		}
+		
+		final short[] result = new short[length];
+		System.arraycopy(indices, 0, result, 0, length);
+		return result;
+	}
+	
+	private final int getSnappedIndex(final int x, final int y, final int step, final int part)
+	{
+		final int level = Integer.numberOfTrailingZeros(step);
+		if (part != PART_INTERIOR)
+		{
+			final int coarseStep = step * 2;
+			if ((part & SIDE_MIN_X) != 0 && x == 0 || (part & SIDE_MAX_X) != 0 && x == _size)
+				return getVertexIndex(level + 1, x, y / coarseStep * coarseStep);
+			if ((part & SIDE_MIN_Y) != 0 && y == 0 || (part & SIDE_MAX_Y) != 0 && y == _size)
+				return getVertexIndex(level + 1, x / coarseStep * coarseStep, y);
+		}
+		return getVertexIndex(level, x, y);
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.Config;
+import g3deditor.util.Util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Decodes the terrain textures of the regions in the background, so the OpenGL thread only has to upload them.<br>
+ * The images are scaled down to {@link Config#TERRAIN_TEXTURE_SIZE}, flipped and kept as RGB pixels in a cache of the least recently used regions.<br>
+ * A region is decoded once its load starts, see {@link #prefetch(int, int)}, usually it is ready before the region is.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLTerrainTextureLoader
+{
+	public static final int MIN_TEXTURE_SIZE = 64;
+	public static final int MAX_TEXTURE_SIZE = 4096;
+	
+	private static GLTerrainTextureLoader _instance;
+	
+	public static final void init()
+	{
+		_instance = new GLTerrainTextureLoader();
+	}
+	
+	public static final GLTerrainTextureLoader getInstance()
+	{
+		return _instance;
+	}
+	
+	private static final int getRegionKey(final int regionX, final int regionY)
+	{
+		return (regionX & 0xFFFF) << 16 | regionY & 0xFFFF;
+	}
+	
+	/**
+	 * @return The texture file of the region, the water texture if the region has none, null if neither exists
+	 */
+	private static final File getTextureFile(final int regionX, final int regionY)
+	{
+		final File file = new File("./data/textures/region/" + (regionX + 10) + "_" + (regionY + 10) + ".jpg");
+		if (file.isFile())
+			return file;
+		
+		final File water = new File("./data/textures/region/water.jpg");
+		return water.isFile() ? water : null;
+	}
+	
+	/**
+	 * Scales the image down to the given size and flips it vertically, so the first row is the bottom of the image.
+	 * 
+	 * @return The pixels as tightly packed RGB bytes
+	 */
+	private static final ByteBuffer getPixels(final BufferedImage img, final int width, final int height)
+	{
+		// a gray image stays gray, drawing it into RGB would convert its linear gray and change the colors
+		final boolean gray = img.getType() == BufferedImage.TYPE_BYTE_GRAY;
+		final BufferedImage scaled = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, width < img.getWidth() || height < img.getHeight() ? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.drawImage(img, 0, 0, width, height, 0, img.getHeight(), img.getWidth(), 0, null);
+		g.dispose();
+		
+		final ByteBuffer pixels = Buffers.newDirectByteBuffer(width * height * 3);
+		if (gray)
+		{
+			for (final byte value : ((DataBufferByte) scaled.getRaster().getDataBuffer()).getData())
+			{
+				pixels.put(value);
+				pixels.put(value);
+				pixels.put(value);
+			}
+		}
+		else
+		{
+			for (final int color : ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData())
+			{
+				pixels.put((byte) (color >> 16));
+				pixels.put((byte) (color >> 8));
+				pixels.put((byte) color);
+			}
+		}
+		pixels.flip();
+		return pixels;
+	}
+	
+	/** Decoded images in access order, the eldest first. */
+	private final LinkedHashMap<Integer, TerrainImage> _cache;
+	private final HashSet<Integer> _pending;
+	private final ExecutorService _executor;
+	
+	private GLTerrainTextureLoader()
+	{
+		_cache = new LinkedHashMap<>(16, 0.75f, true);
+		_pending = new HashSet<>();
+		_executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public final Thread newThread(final Runnable r)
+			{
+				final Thread thread = new Thread(r, "TerrainTextureLoader");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Starts to decode the texture of the region in the background, if it is neither cached nor already decoding.
+	 */
+	public final void prefetch(final int regionX, final int regionY)
+	{
+		final int key = getRegionKey(regionX, regionY);
+		synchronized (_cache)
+		{
+			if (_cache.containsKey(key) || !_pending.add(key))
+				return;
+		}
+		
+		_executor.execute(new Runnable()
+		{
+			@Override
+			public final void run()
+			{
+				TerrainImage image = null;
+				try
+				{
+					image = decode(regionX, regionY);
+				}
+				catch (final Exception e)
+				{
+					e.printStackTrace();
+				}
+				finally
+				{
+					synchronized (_cache)
+					{
+						_pending.remove(key);
+						// a failed region is cached empty, it is not read again on every frame
+						_cache.put(key, image != null ? image : new TerrainImage(regionX, regionY, 0, 0, null));
+						trimCache();
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Does not wait for the texture, starts to decode it if it is not cached.
+	 * 
+	 * @return The decoded texture of the region, null if it is not decoded yet
+	 */
+	public final TerrainImage getImage(final int regionX, final int regionY)
+	{
+		final TerrainImage image;
+		synchronized (_cache)
+		{
+			image = _cache.get(getRegionKey(regionX, regionY));
+		}
+		
+		if (image == null)
+			prefetch(regionX, regionY);
+		return image;
+	}
+	
+	private final TerrainImage decode(final int regionX, final int regionY)
+	{
+		final File file = getTextureFile(regionX, regionY);
+		if (file == null)
+			return null;
+		
+		final BufferedImage img = Util.loadImage(file);
+		if (img == null)
+			return null;
+		
+		final int width = Math.min(img.getWidth(), Config.TERRAIN_TEXTURE_SIZE);
+		final int height = Math.min(img.getHeight(), Config.TERRAIN_TEXTURE_SIZE);
+		return new TerrainImage(regionX, regionY, width, height, getPixels(img, width, height));
+	}
+	
+	/**
+	 * Removes the least recently used images until the cache fits in {@link Config#TERRAIN_TEXTURE_CACHE_SIZE}, the most recent one is always kept.
+	 */
+	private final void trimCache()
+	{
+		final long maxSize = Config.TERRAIN_TEXTURE_CACHE_SIZE * 1024L * 1024L;
+		long size = 0;
+		for (final TerrainImage image : _cache.values())
+		{
+			size += image.getMemoryUsage();
+		}
+		
+		for (final Iterator<TerrainImage> it = _cache.values().iterator(); it.hasNext() && size > maxSize && _cache.size() > 1;)
+		{
+			size -= it.next().getMemoryUsage();
+			it.remove();
+		}
+	}
+	
+	/**
+	 * The decoded texture of a region, read only once it is in the cache.
+	 */
+	public static final class TerrainImage
+	{
+		private final int _regionX;
+		private final int _regionY;
+		private final int _width;
+		private final int _height;
+		private final ByteBuffer _pixels;
+		
+		TerrainImage(final int regionX, final int regionY, final int width, final int height, final ByteBuffer pixels)
+		{
+			_regionX = regionX;
+			_regionY = regionY;
+			_width = width;
+			_height = height;
+			_pixels = pixels;
+		}
+		
+		public final int getRegionX()
+		{
+			return _regionX;
+		}
+		
+		public final int getRegionY()
+		{
+			return _regionY;
+		}
+		
+		/**
+		 * @return False if the region has no texture
+		 */
+		public final boolean hasPixels()
+		{
+			return _pixels != null;
+		}
+		
+		public final int getWidth()
+		{
+			return _width;
+		}
+		
+		public final int getHeight()
+		{
+			return _height;
+		}
+		
+		/**
+		 * @return The RGB pixels, the first row is the bottom of the image. Use a duplicate to read them, the buffer is shared.
+		 */
+		public final ByteBuffer getPixels()
+		{
+			return _pixels;
+		}
+		
+		public final int getMemoryUsage()
+		{
+			return _width * _height * 3;
+		}
+	}
+}
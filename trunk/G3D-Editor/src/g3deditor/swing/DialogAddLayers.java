@@ -19,6 +19,8 @@ import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoBlockSelector.GeoBlockEntry;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.blocks.GeoBlockMultiLayer;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.swing.defaults.DefaultButton;
 import g3deditor.swing.defaults.DefaultCheckBox;
@@ -34,6 +36,7 @@ import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Arrays;
 
 import javax.swing.JDialog;
 import javax.swing.JPanel;
@@ -179,70 +182,63 @@ public final class DialogAddLayers extends JDialog implements ActionListener, Do
 			
 			final FastArrayList<GeoCell> added = new FastArrayList<>();
 			
+			final short height = GeoEngine.getHeight(heightAndNSWE);
+			final boolean addIfHeightAlreadyExist = _checkAddIfHeightAlreadyExist.isSelected();
+			final boolean[] cellDone = new boolean[GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT];
 			GeoBlock block;
 			GeoCell temp;
+			GeoBlockMultiLayer.LayerBuilder builder;
 			FastArrayList<GeoCell> selected;
-			for (GeoBlockEntry entry = selector.getHead(); (entry = entry.getNext()) != selector.getTail();)
+			final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+			region.beginEdit();
+			try
 			{
-				block = entry.getKey();
-				if (block.getType() == GeoEngine.GEO_BLOCK_TYPE_MULTILAYER)
+				for (GeoBlockEntry entry = selector.getHead(); (entry = entry.getNext()) != selector.getTail();)
 				{
+					block = entry.getKey();
+					if (block.getType() != GeoEngine.GEO_BLOCK_TYPE_MULTILAYER)
+						continue;
+					
+					builder = ((GeoBlockMultiLayer) block).newLayerBuilder();
 					if (_checkAddToFullBlock.isSelected())
 					{
 						for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY; cellX-- > 0;)
 						{
 							for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
 							{
-								if (!_checkAddIfHeightAlreadyExist.isSelected())
-								{
-									temp = block.nGetCell(cellX, cellY, GeoEngine.getHeight(heightAndNSWE));
-									if (temp.getHeight() == GeoEngine.getHeight(heightAndNSWE))
-										continue;
-								}
-									
-								temp = block.addLayer(cellX, cellY, heightAndNSWE);
-								if (temp != null)
-									added.addLast(temp);
+								if (!addIfHeightAlreadyExist && block.nGetCell(cellX, cellY, height).getHeight() == height)
+									continue;
+								
+								builder.add(cellX, cellY, heightAndNSWE);
 							}
 						}
 					}
 					else
 					{
-						GeoCell temp2;
-						boolean contains;
+						// one layer per cell, even if several layers of the cell are selected
+						Arrays.fill(cellDone, false);
 						selected = entry.getValue();
-						for (int i = selected.size(), j; i-- > 0;)
+						for (int i = selected.size(), cell; i-- > 0;)
 						{
 							temp = selected.getUnsafe(i);
-							contains = false;
-							for (j = added.size(); j-- > 0;)
-							{
-								temp2 = added.getUnsafe(j);
-								if (temp2.getBlock() == temp.getBlock() && temp2.getCellX() == temp.getCellX() && temp2.getCellY() == temp.getCellY())
-								{
-									contains = true;
-									break;
-								}
-							}
-							if (!contains)
-							{
-								if (!_checkAddIfHeightAlreadyExist.isSelected())
-								{
-									temp = block.nGetCell(temp.getCellX(), temp.getCellY(), GeoEngine.getHeight(heightAndNSWE));
-									if (temp.getHeight() == GeoEngine.getHeight(heightAndNSWE))
-										continue;
-								}
-								
-								temp = block.addLayer(temp.getCellX(), temp.getCellY(), heightAndNSWE);
-								if (temp != null)
-								{
-									added.addLast(temp);
-								}
-							}
+							cell = GeoEngine.getCellIndex(temp.getCellX(), temp.getCellY());
+							if (cellDone[cell])
+								continue;
+							
+							cellDone[cell] = true;
+							if (!addIfHeightAlreadyExist && block.nGetCell(temp.getCellX(), temp.getCellY(), height).getHeight() == height)
+								continue;
+							
+							builder.add(temp.getCellX(), temp.getCellY(), heightAndNSWE);
 						}
 					}
+					added.addAll(builder.apply());
 				}
 			}
+			finally
+			{
+				region.endEdit();
+			}
 			
 			if (!added.isEmpty())
 			{
@@ -16,6 +16,8 @@ package g3deditor.swing;
 
 import g3deditor.geo.GeoEngine;
 import g3deditor.geo.GeoRegion;
+import g3deditor.geo.GeoRegionLoad;
+import g3deditor.geo.GeoRegionLoadListener;
 import g3deditor.jogl.GLCamera;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.swing.defaults.DefaultButton;
@@ -36,11 +38,13 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
+import java.io.File;
 
 import javax.swing.ImageIcon;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
@@ -466,7 +470,7 @@ public final class DialogJumpTo extends JDialog implements ActionListener, KeyLi
 				final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
 				if (region == null)
 				{
-					GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j);
+					loadRegionAndJump(regionX, regionY, l2j, null, geoX, geoY, worldZ);
 				}
 				else if (region.getRegionX() != regionX || region.getRegionY() != regionY)
 				{
@@ -481,44 +485,30 @@ public final class DialogJumpTo extends JDialog implements ActionListener, KeyLi
 						
 						if (choice == JOptionPane.YES_OPTION)
 						{
+							final int z = worldZ;
 							new DialogSave(FrameMain.getInstance(), region, new Runnable()
 							{
 								@Override
 								public final void run()
 								{
-									try
-									{
-										GeoEngine.getInstance().unload();
-										GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j);
-										
-										if (GeoEngine.getInstance().getActiveRegion() != null)
-											GLDisplay.getInstance().getCamera().setXYZ(geoX, GeoEngine.getInstance().nGetCell(geoX, geoY, 0).getHeight() / 16f, geoY);
-									}
-									catch (final Exception e1)
-									{
-										e1.printStackTrace();
-									}
+									loadRegionAndJump(regionX, regionY, l2j, null, geoX, geoY, z);
 								}
 							}).setVisible(true);
 							setVisible(false);
 							return;
 						}
+						
+						if (choice != JOptionPane.NO_OPTION)
+							return;
+						
+						// dropped once the new region is swapped in, changes made meanwhile are kept
+						region.discardChanges();
 					}
-					GeoEngine.getInstance().unload();
-					GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j);
+					loadRegionAndJump(regionX, regionY, l2j, null, geoX, geoY, worldZ);
 				}
-				
-				if (GeoEngine.getInstance().getActiveRegion() != null)
+				else
 				{
-					GLDisplay.getInstance().getCamera().setXYZ(
-						geoX,
-						// TODO it seems the variable order is incorrect here (x/z/y, not x/y/z)
-						// can someone confirm this works incorrectly?
-						((worldZ == Integer.MIN_VALUE)
-							? GeoEngine.getInstance().nGetCell(geoX, geoY, 0).getHeight() / 16f
-							: worldZ / 16f),
-						geoY
-					);
+					jumpTo(geoX, geoY, worldZ);
 				}
 			}
 			catch (final Exception e1)
@@ -534,6 +524,60 @@ public final class DialogJumpTo extends JDialog implements ActionListener, KeyLi
 		}
 	}
 	
+	/**
+	 * Loads the region in the background and moves the camera into it once it is displayed.<br>
+	 * The current region stays active until then.
+	 * 
+	 * @param file The geo file, null to search it in the geo directory
+	 * @param worldZ The camera height, Integer.MIN_VALUE to use the height of the geo
+	 */
+	public static final void loadRegionAndJump(final int regionX, final int regionY, final boolean l2j, final File file, final int geoX, final int geoY, final int worldZ)
+	{
+		GeoEngine.getInstance().loadGeoAsync(regionX, regionY, l2j, file, new GeoRegionLoadListener()
+		{
+			@Override
+			public final void onProgress(final GeoRegionLoad load, final int progress)
+			{
+				
+			}
+			
+			@Override
+			public final void onLoaded(final GeoRegion region)
+			{
+				jumpTo(geoX, geoY, worldZ);
+			}
+			
+			@Override
+			public final void onFailed(final Exception e)
+			{
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					@Override
+					public final void run()
+					{
+						JOptionPane.showMessageDialog(FrameMain.getInstance(), e.getMessage(), "Region could not be loaded", JOptionPane.ERROR_MESSAGE);
+					}
+				});
+			}
+		});
+	}
+	
+	static final void jumpTo(final int geoX, final int geoY, final int worldZ)
+	{
+		if (GeoEngine.getInstance().getActiveRegion() == null)
+			return;
+		
+		GLDisplay.getInstance().getCamera().setXYZ(
+			geoX,
+			// TODO it seems the variable order is incorrect here (x/z/y, not x/y/z)
+			// can someone confirm this works incorrectly?
+			((worldZ == Integer.MIN_VALUE)
+				? GeoEngine.getInstance().nGetCell(geoX, geoY, 0).getHeight() / 16f
+				: worldZ / 16f),
+			geoY
+		);
+	}
+	
 	private final void checkInputs(final boolean byRegion)
 	{
 		try
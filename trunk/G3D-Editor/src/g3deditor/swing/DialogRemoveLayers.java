@@ -19,6 +19,8 @@ import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoBlockSelector.GeoBlockEntry;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.blocks.GeoBlockMultiLayer;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.swing.defaults.DefaultButton;
 import g3deditor.swing.defaults.DefaultCheckBox;
@@ -324,109 +326,120 @@ public final class DialogRemoveLayers extends JDialog implements ActionListener,
 		else if (e.getSource() == _buttonOk)
 		{
 			final GeoBlockSelector selector = GeoBlockSelector.getInstance();
-			final FastArrayList<GeoCell> toRemove = new FastArrayList<>();
-			
 			FastArrayList<GeoCell> selected;
 			GeoBlock block;
 			GeoCell cell;
-			for (GeoBlockEntry entry = selector.getHead(); (entry = entry.getNext()) != selector.getTail();)
+			GeoBlockMultiLayer.LayerBuilder builder;
+			final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+			region.beginEdit();
+			try
 			{
-				block = entry.getKey();
-				if (block.getType() == GeoEngine.GEO_BLOCK_TYPE_MULTILAYER)
+				for (GeoBlockEntry entry = selector.getHead(); (entry = entry.getNext()) != selector.getTail();)
 				{
-					selected = entry.getValue();
-					toRemove.clear();
-					if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_SELECTED)
-					{
-						toRemove.addAll(selected);
-					}
-					else
+					block = entry.getKey();
+					if (block.getType() == GeoEngine.GEO_BLOCK_TYPE_MULTILAYER)
 					{
-						if (_checkRemoveRemoveFromFullBlock.isSelected())
+						selected = entry.getValue();
+						builder = ((GeoBlockMultiLayer) block).newLayerBuilder();
+						if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_SELECTED)
 						{
-							if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_LAYER)
+							for (int i = selected.size(); i-- > 0;)
 							{
-								final int minLayer = (Integer) _comboMinHeightLayer.getSelectedItem();
-								final int maxLayer = (Integer) _comboMaxHeightLayer.getSelectedItem();
-								
-								GeoCell[] cells;
-								for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY, layer; cellX-- > 0;)
+								builder.remove(selected.getUnsafe(i));
+							}
+						}
+						else
+						{
+							if (_checkRemoveRemoveFromFullBlock.isSelected())
+							{
+								if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_LAYER)
 								{
-									for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
+									final int minLayer = (Integer) _comboMinHeightLayer.getSelectedItem();
+									final int maxLayer = (Integer) _comboMaxHeightLayer.getSelectedItem();
+									
+									GeoCell[] cells;
+									for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY, layer; cellX-- > 0;)
 									{
-										cells = block.nGetLayers(cellX, cellY);
-										if (cells.length > minLayer)
+										for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
 										{
-											for (layer = Math.min(maxLayer + 1, cells.length); layer-- > minLayer;)
+											cells = block.nGetLayers(cellX, cellY);
+											if (cells.length > minLayer)
 											{
-												toRemove.add(cells[layer]);
+												for (layer = Math.min(maxLayer + 1, cells.length); layer-- > minLayer;)
+												{
+													builder.remove(cells[layer]);
+												}
 											}
 										}
 									}
 								}
-							}
-							else
-							{
-								final int minHeight = (Integer) _comboMinHeightLayer.getSelectedItem();
-								final int maxHeight = (Integer) _comboMaxHeightLayer.getSelectedItem();
-								
-								GeoCell[] cells;
-								for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY, height, layer; cellX-- > 0;)
+								else
 								{
-									for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
+									final int minHeight = (Integer) _comboMinHeightLayer.getSelectedItem();
+									final int maxHeight = (Integer) _comboMaxHeightLayer.getSelectedItem();
+									
+									GeoCell[] cells;
+									for (int cellX = GeoEngine.GEO_BLOCK_SHIFT, cellY, height, layer; cellX-- > 0;)
 									{
-										cells = block.nGetLayers(cellX, cellY);
-										for (layer = cells.length; layer-- > 0;)
+										for (cellY = GeoEngine.GEO_BLOCK_SHIFT; cellY-- > 0;)
 										{
-											cell = cells[layer];
-											height = cell.getHeight();
-											if (height >= minHeight && height <= maxHeight)
-												toRemove.add(cell);
+											cells = block.nGetLayers(cellX, cellY);
+											for (layer = cells.length; layer-- > 0;)
+											{
+												cell = cells[layer];
+												height = cell.getHeight();
+												if (height >= minHeight && height <= maxHeight)
+													builder.remove(cell);
+											}
 										}
 									}
 								}
 							}
-						}
-						else
-						{
-							if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_LAYER)
+							else
 							{
-								final int minLayer = (Integer) _comboMinHeightLayer.getSelectedItem();
-								final int maxLayer = (Integer) _comboMaxHeightLayer.getSelectedItem();
-								
-								GeoCell[] cells;
-								for (int i = selected.size(), layer; i-- > 0;)
+								if (_comboRemoveMode.getSelectedItem() == REMOVE_MODE_LAYER)
 								{
-									cell = selected.get(i);
-									cells = block.nGetLayers(cell.getCellX(), cell.getCellY());
-									if (cells.length > minLayer)
+									final int minLayer = (Integer) _comboMinHeightLayer.getSelectedItem();
+									final int maxLayer = (Integer) _comboMaxHeightLayer.getSelectedItem();
+									
+									GeoCell[] cells;
+									for (int i = selected.size(), layer; i-- > 0;)
 									{
-										for (layer = Math.min(maxLayer + 1, cells.length); layer-- > minLayer;)
+										cell = selected.get(i);
+										cells = block.nGetLayers(cell.getCellX(), cell.getCellY());
+										if (cells.length > minLayer)
 										{
-											toRemove.add(cells[layer]);
+											for (layer = Math.min(maxLayer + 1, cells.length); layer-- > minLayer;)
+											{
+												builder.remove(cells[layer]);
+											}
 										}
 									}
 								}
-							}
-							else
-							{
-								final int minHeight = (Integer) _comboMinHeightLayer.getSelectedItem();
-								final int maxHeight = (Integer) _comboMaxHeightLayer.getSelectedItem();
-								
-								for (int i = selected.size(), height; i-- > 0;)
+								else
 								{
-									cell = selected.get(i);
-									height = cell.getHeight();
-									if (height >= minHeight && height <= maxHeight)
-										toRemove.add(cell);
+									final int minHeight = (Integer) _comboMinHeightLayer.getSelectedItem();
+									final int maxHeight = (Integer) _comboMaxHeightLayer.getSelectedItem();
+									
+									for (int i = selected.size(), height; i-- > 0;)
+									{
+										cell = selected.get(i);
+										height = cell.getHeight();
+										if (height >= minHeight && height <= maxHeight)
+											builder.remove(cell);
+									}
 								}
 							}
 						}
+						
+						builder.apply();
 					}
-					
-					block.removeCells(toRemove.toArray(new GeoCell[toRemove.size()]));
 				}
 			}
+			finally
+			{
+				region.endEdit();
+			}
 			
 			setVisible(false);
 		}
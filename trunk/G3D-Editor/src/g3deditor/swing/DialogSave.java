@@ -29,10 +29,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JCheckBox;
 import javax.swing.JDialog;
@@ -40,6 +39,7 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 /**
@@ -64,6 +64,12 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 		}
 	};
 	
+	private static final long PROGRESS_UPDATE_INTERVAL = 50;
+	/**
+	 * Each block is counted once when it is encoded and once when it is written, see {@link GeoRegion#saveTo(File, boolean, DialogSave)}.
+	 */
+	public static final int PROGRESS_MAXIMUM = GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE * 2;
+	
 	private final GeoRegion _region;
 	private final Runnable _toRunOnClose;
 	private final JFileChooser _fileChooser;
@@ -82,6 +88,8 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 	private final DefaultButton _buttonOk;
 	private final DefaultButton _buttonCancel;
 	
+	private final AtomicLong _lastProgressUpdate = new AtomicLong();
+	
 	public DialogSave(final Frame owner, final GeoRegion region)
 	{
 		this(owner, region, null);
@@ -108,7 +116,7 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 		_fieldFile.addMouseListener(this);
 		
 		_progressRegion = new JProgressBar();
-		_progressRegion.setMaximum(GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE);
+		_progressRegion.setMaximum(PROGRESS_MAXIMUM);
 		_progressRegion.setStringPainted(true);
 		_progressRegion.setString("");
 		_progressRegion.setEnabled(false);
@@ -274,11 +282,9 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 					@Override
 					public final void run()
 					{
-						try (FileOutputStream fos = new FileOutputStream(file);
-								final BufferedOutputStream bos = new BufferedOutputStream(fos))
+						try
 						{
-							_region.saveTo(bos, _checkL2j.isSelected(), DialogSave.this);
-							bos.flush();
+							_region.saveTo(file, _checkL2j.isSelected(), DialogSave.this);
 						}
 						catch (final IOException e1)
 						{
@@ -289,7 +295,14 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 								JOptionPane.INFORMATION_MESSAGE
 							);
 						}
-						onSaveComplete();
+						SwingUtilities.invokeLater(new Runnable()
+						{
+							@Override
+							public final void run()
+							{
+								onSaveComplete();
+							}
+						});
 					}
 				}.start();
 			}
@@ -329,6 +342,7 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 	
 	public final void onSaveComplete()
 	{
+		_lastProgressUpdate.set(0);
 		_progressRegion.setValue(0);
 		_progressRegion.setString("");
 		
@@ -346,18 +360,31 @@ public final class DialogSave extends JDialog implements ActionListener, MouseLi
 		return (int) (bar.getPercentComplete() * 100D);
 	}
 	
-	private boolean checkNeedUpdate(final JProgressBar bar, final int progress)
-	{
-		return precent(bar) != (int) (((double) progress - bar.getMinimum()) / (bar.getMaximum() - bar.getMinimum()) * 100D);
-	}
-	
-	public final void updateProgressRegion(final int progress, final String blockName)
+	/**
+	 * Called by the threads saving the region, updates the progress bar at most every PROGRESS_UPDATE_INTERVAL ms.
+	 * 
+	 * @param progress The number of blocks encoded plus the number of blocks written, up to {@link #PROGRESS_MAXIMUM}
+	 */
+	public final void updateProgressRegion(final int progress)
 	{
-		if (!checkNeedUpdate(_progressRegion, progress))
+		final long now = System.currentTimeMillis();
+		final long lastUpdate = _lastProgressUpdate.get();
+		if (progress < PROGRESS_MAXIMUM && (now - lastUpdate < PROGRESS_UPDATE_INTERVAL || !_lastProgressUpdate.compareAndSet(lastUpdate, now)))
 			return;
 		
-		_progressRegion.setValue(progress);
-		_progressRegion.setString(blockName + "   " + precent(_progressRegion) + "%");
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public final void run()
+			{
+				if (progress <= _progressRegion.getValue())
+					return;
+				
+				_progressRegion.setValue(progress);
+				_progressRegion.setString(precent(_progressRegion) + "%");
+			}
+		});
 	}
 	
 	@Override
@@ -0,0 +1,257 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.swing;
+
+import g3deditor.geo.GeoBlockSelector;
+import g3deditor.geo.GeoCellFilter;
+import g3deditor.geo.GeoEngine;
+import g3deditor.jogl.GLDisplay;
+import g3deditor.swing.defaults.DefaultButton;
+import g3deditor.swing.defaults.DefaultCheckBox;
+import g3deditor.swing.defaults.DefaultComboBox;
+import g3deditor.swing.defaults.DefaultLabel;
+import g3deditor.swing.defaults.DefaultTextField;
+import g3deditor.util.FastArrayList;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.GridLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JDialog;
+import javax.swing.JPanel;
+
+/**
+ * Selects the cells of the visible blocks accepted by a filter, see {@link GeoBlockSelector#selectVisibleArea(GeoCellFilter, boolean)}.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+@SuppressWarnings("serial")
+public final class DialogSelectArea extends JDialog implements ActionListener
+{
+	private static final String TYPE_ANY = "Any";
+	private static final String NSWE_ANY = "Any";
+	private static final String NSWE_OPEN = "Open";
+	private static final String NSWE_BLOCKED = "Blocked";
+	
+	private static final byte[] NSWE_DIRECTIONS = {GeoEngine.NORTH, GeoEngine.SOUTH, GeoEngine.WEST, GeoEngine.EAST};
+	private static final String[] NSWE_NAMES = {"N:", "S:", "W:", "E:"};
+	
+	private final DefaultLabel _labelType;
+	private final DefaultComboBox _comboType;
+	private final DefaultLabel _labelMinHeight;
+	private final DefaultTextField _fieldMinHeight;
+	private final DefaultLabel _labelMaxHeight;
+	private final DefaultTextField _fieldMaxHeight;
+	private final DefaultLabel _labelMinLayer;
+	private final DefaultTextField _fieldMinLayer;
+	private final DefaultLabel _labelMaxLayer;
+	private final DefaultTextField _fieldMaxLayer;
+	
+	private final JPanel _panelNswe;
+	private final DefaultComboBox[] _comboNswe;
+	
+	private final DefaultCheckBox _checkAppend;
+	
+	private final JPanel _panelButtons;
+	private final DefaultButton _buttonOk;
+	private final DefaultButton _buttonCancel;
+	
+	public DialogSelectArea(final Frame owner)
+	{
+		super(owner, "Select Area", true);
+		
+		_labelType = new DefaultLabel("Block type:");
+		_comboType = new DefaultComboBox(new String[]{TYPE_ANY, "Flat", "Complex", "MultiLayer"});
+		_labelMinHeight = new DefaultLabel("Min height:");
+		_fieldMinHeight = new DefaultTextField(String.valueOf(GeoEngine.HEIGHT_MIN_VALUE));
+		_labelMaxHeight = new DefaultLabel("Max height:");
+		_fieldMaxHeight = new DefaultTextField(String.valueOf(GeoEngine.HEIGHT_MAX_VALUE));
+		_labelMinLayer = new DefaultLabel("Min layer:");
+		_fieldMinLayer = new DefaultTextField("0");
+		_labelMaxLayer = new DefaultLabel("Max layer:");
+		_fieldMaxLayer = new DefaultTextField(String.valueOf(Byte.MAX_VALUE - 1));
+		
+		_panelNswe = new JPanel();
+		_panelNswe.setLayout(new GridLayout(1, NSWE_DIRECTIONS.length * 2));
+		_comboNswe = new DefaultComboBox[NSWE_DIRECTIONS.length];
+		for (int i = 0; i < NSWE_DIRECTIONS.length; i++)
+		{
+			_comboNswe[i] = new DefaultComboBox(new String[]{NSWE_ANY, NSWE_OPEN, NSWE_BLOCKED});
+			_panelNswe.add(new DefaultLabel(NSWE_NAMES[i]));
+			_panelNswe.add(_comboNswe[i]);
+		}
+		
+		_checkAppend = new DefaultCheckBox("Append to selection");
+		
+		_panelButtons = new JPanel();
+		_buttonOk = new DefaultButton("Ok");
+		_buttonOk.addActionListener(this);
+		_buttonCancel = new DefaultButton("Cancel");
+		_buttonCancel.addActionListener(this);
+		
+		_panelButtons.setLayout(new GridLayout(1, 2));
+		_panelButtons.add(_buttonOk);
+		_panelButtons.add(_buttonCancel);
+		
+		setLayout(new GridBagLayout());
+		
+		addRow(_labelType, _comboType, 0);
+		addRow(_labelMinHeight, _fieldMinHeight, 1);
+		addRow(_labelMaxHeight, _fieldMaxHeight, 2);
+		addRow(_labelMinLayer, _fieldMinLayer, 3);
+		addRow(_labelMaxLayer, _fieldMaxLayer, 4);
+		addRow(null, _panelNswe, 5);
+		addRow(null, _checkAppend, 6);
+		addRow(null, _panelButtons, 7);
+		
+		setResizable(false);
+		pack();
+	}
+	
+	/**
+	 * @param label null to let the component span both columns
+	 */
+	private final void addRow(final Component label, final Component component, final int row)
+	{
+		final GridBagConstraints gbc = new GridBagConstraints();
+		gbc.insets = new Insets(2, 2, 2, 2);
+		gbc.fill = GridBagConstraints.BOTH;
+		gbc.gridy = row;
+		gbc.gridheight = 1;
+		gbc.weighty = 0;
+		
+		if (label != null)
+		{
+			gbc.gridx = 0;
+			gbc.gridwidth = 1;
+			gbc.weightx = 0;
+			add(label, gbc);
+		}
+		
+		gbc.gridx = label != null ? 1 : 0;
+		gbc.gridwidth = label != null ? 1 : 2;
+		gbc.weightx = 1;
+		add(component, gbc);
+	}
+	
+	@Override
+	public final void setVisible(final boolean visible)
+	{
+		if (!isVisible() && visible)
+			setLocationRelativeTo(getOwner());
+		
+		super.setVisible(visible);
+		if (!visible)
+			GLDisplay.getInstance().requestFocus();
+	}
+	
+	/**
+	 * @return The value of the field or Integer.MIN_VALUE if it is no number between min and max, the field is then marked red
+	 */
+	private static final int parseField(final DefaultTextField field, final int min, final int max)
+	{
+		try
+		{
+			final int value = Integer.parseInt(field.getText().trim());
+			if (value < min || value > max)
+				throw new NumberFormatException();
+			
+			field.setForeground(Color.BLACK);
+			field.setToolTipText(null);
+			return value;
+		}
+		catch (final NumberFormatException e)
+		{
+			field.setForeground(Color.RED);
+			field.setToolTipText("Non numbers or values < " + min + " or > " + max + " are invalid");
+			return Integer.MIN_VALUE;
+		}
+	}
+	
+	/**
+	 * @return The filter of the entered values, null if a value is invalid
+	 */
+	private final GeoCellFilter createFilter()
+	{
+		final int minHeight = parseField(_fieldMinHeight, GeoEngine.HEIGHT_MIN_VALUE, GeoEngine.HEIGHT_MAX_VALUE);
+		final int maxHeight = parseField(_fieldMaxHeight, GeoEngine.HEIGHT_MIN_VALUE, GeoEngine.HEIGHT_MAX_VALUE);
+		final int minLayer = parseField(_fieldMinLayer, 0, Byte.MAX_VALUE - 1);
+		final int maxLayer = parseField(_fieldMaxLayer, 0, Byte.MAX_VALUE - 1);
+		if (minHeight == Integer.MIN_VALUE || maxHeight == Integer.MIN_VALUE || minLayer == Integer.MIN_VALUE || maxLayer == Integer.MIN_VALUE)
+			return null;
+		
+		final FastArrayList<GeoCellFilter> filters = new FastArrayList<>();
+		// the combo items are in the order of the block types
+		if (_comboType.getSelectedIndex() > 0)
+			filters.addLast(GeoCellFilter.type((byte) (_comboType.getSelectedIndex() - 1)));
+		
+		if (minHeight > GeoEngine.HEIGHT_MIN_VALUE || maxHeight < GeoEngine.HEIGHT_MAX_VALUE)
+			filters.addLast(GeoCellFilter.height(minHeight, maxHeight));
+		
+		if (minLayer > 0 || maxLayer < Byte.MAX_VALUE - 1)
+			filters.addLast(GeoCellFilter.layer(minLayer, maxLayer));
+		
+		int mask = 0, nswe = 0;
+		for (int i = 0; i < NSWE_DIRECTIONS.length; i++)
+		{
+			if (_comboNswe[i].getSelectedItem() == NSWE_ANY)
+				continue;
+			
+			mask |= NSWE_DIRECTIONS[i];
+			if (_comboNswe[i].getSelectedItem() == NSWE_OPEN)
+				nswe |= NSWE_DIRECTIONS[i];
+		}
+		if (mask != 0)
+			filters.addLast(GeoCellFilter.nswe(mask, nswe));
+		
+		switch (filters.size())
+		{
+			case 0:
+				return GeoCellFilter.ALL;
+			
+			case 1:
+				return filters.getUnsafe(0);
+			
+			default:
+				return GeoCellFilter.and(filters.toArray(new GeoCellFilter[filters.size()]));
+		}
+	}
+	
+	@Override
+	public final void actionPerformed(final ActionEvent e)
+	{
+		if (e.getSource() == _buttonOk)
+		{
+			final GeoCellFilter filter = createFilter();
+			if (filter == null)
+				return;
+			
+			GeoBlockSelector.getInstance().selectVisibleArea(filter, _checkAppend.isSelected());
+			setVisible(false);
+		}
+		else if (e.getSource() == _buttonCancel)
+		{
+			setVisible(false);
+		}
+	}
+}
@@ -31,6 +31,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
@@ -85,11 +86,13 @@ public final class FrameMain extends JFrame implements ActionListener
 	
 	private final DialogJumpTo _dialogJumpTo;
 	private final DialogConfig _dialogConfig;
+	private final DialogSelectArea _dialogSelectArea;
 	
 	private final JMenuBar _menuBar;
 	private final DefaultButton _buttonConfig;
 	private final DefaultButton _buttonOpen;
 	private final DefaultButton _buttonJumpTo;
+	private final DefaultButton _buttonSelectArea;
 	private final DefaultButton _buttonSave;
 	private final DefaultButton _buttonHelp;
 	private final DefaultLabel _labelLogoL2j;
@@ -109,6 +112,28 @@ public final class FrameMain extends JFrame implements ActionListener
 			@Override
 			public final void windowClosing(final WindowEvent e)
 			{
+				// regions left with changes made after their save prompt, e.g. while the next region loaded
+				final ArrayList<GeoRegion> unsavedRegions = GeoEngine.getInstance().getUnsavedRegions();
+				if (!unsavedRegions.isEmpty())
+				{
+					final StringBuilder names = new StringBuilder();
+					for (final GeoRegion unsavedRegion : unsavedRegions)
+					{
+						names.append(names.length() == 0 ? "" : ", ").append(unsavedRegion.getName());
+					}
+					
+					final int choice = JOptionPane.showConfirmDialog(
+						FrameMain.getInstance(),
+						(unsavedRegions.size() == 1 ? "Region " + names + " has" : "Regions " + names + " have") + " unsaved changes.\nJump to a region to save it.\nWould u like to close without saving them?",
+						"Unsaved regions",
+						JOptionPane.YES_NO_OPTION,
+						JOptionPane.WARNING_MESSAGE
+					);
+					
+					if (choice != JOptionPane.YES_OPTION)
+						return;
+				}
+				
 				final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
 				if (region != null && !region.allDataEqual())
 				{
@@ -146,6 +171,7 @@ public final class FrameMain extends JFrame implements ActionListener
 		_panelDirectNswe = new PanelDirectNswe();
 		_dialogJumpTo = new DialogJumpTo(this);
 		_dialogConfig = new DialogConfig(this);
+		_dialogSelectArea = new DialogSelectArea(this);
 		
 		_menuBar = new JMenuBar();
 		_buttonConfig = new DefaultButton(new ImageIcon(Util.loadImage("./data/icon/config.png")));
@@ -154,6 +180,8 @@ public final class FrameMain extends JFrame implements ActionListener
 		_buttonOpen.addActionListener(this);
 		_buttonJumpTo = new DefaultButton(new ImageIcon(Util.loadImage("./data/icon/search.png")));
 		_buttonJumpTo.addActionListener(this);
+		_buttonSelectArea = new DefaultButton("Select Area");
+		_buttonSelectArea.addActionListener(this);
 		_buttonSave = new DefaultButton(new ImageIcon(Util.loadImage("./data/icon/save.png")));
 		_buttonSave.addActionListener(this);
 		_buttonHelp = new DefaultButton(new ImageIcon(Util.loadImage("./data/icon/help.png")));
@@ -215,10 +243,18 @@ public final class FrameMain extends JFrame implements ActionListener
 		gbc.gridheight = 1;
 		gbc.weightx = 0;
 		gbc.weighty = 0;
+		_menuBar.add(_buttonSelectArea, gbc);
+		
+		gbc.gridx = 4;
+		gbc.gridy = 0;
+		gbc.gridwidth = 1;
+		gbc.gridheight = 1;
+		gbc.weightx = 0;
+		gbc.weighty = 0;
 		gbc.ipadx = 50;
 		_menuBar.add(new DefaultLabel(), gbc);
 		
-		gbc.gridx = 4;
+		gbc.gridx = 5;
 		gbc.gridy = 0;
 		gbc.gridwidth = 1;
 		gbc.gridheight = 1;
@@ -227,7 +263,7 @@ public final class FrameMain extends JFrame implements ActionListener
 		gbc.ipadx = 0;
 		_menuBar.add(_labelLogoL2j, gbc);
 		
-		gbc.gridx = 5;
+		gbc.gridx = 6;
 		gbc.gridy = 0;
 		gbc.gridwidth = 1;
 		gbc.gridheight = 1;
@@ -236,7 +272,7 @@ public final class FrameMain extends JFrame implements ActionListener
 		gbc.ipadx = 50;
 		_menuBar.add(new DefaultLabel(), gbc);
 		
-		gbc.gridx = 6;
+		gbc.gridx = 7;
 		gbc.gridy = 0;
 		gbc.gridwidth = 1;
 		gbc.gridheight = 1;
@@ -245,7 +281,7 @@ public final class FrameMain extends JFrame implements ActionListener
 		gbc.ipadx = 0;
 		_menuBar.add(_buttonSave, gbc);
 		
-		gbc.gridx = 7;
+		gbc.gridx = 8;
 		gbc.gridy = 0;
 		gbc.gridwidth = 1;
 		gbc.gridheight = 1;
@@ -253,7 +289,7 @@ public final class FrameMain extends JFrame implements ActionListener
 		gbc.weighty = 0;
 		_menuBar.add(_buttonHelp, gbc);
 		
-		gbc.gridx = 8;
+		gbc.gridx = 9;
 		gbc.gridy = 0;
 		gbc.gridwidth = 1;
 		gbc.gridheight = 1;
@@ -367,6 +403,15 @@ public final class FrameMain extends JFrame implements ActionListener
 		return _selectedCell;
 	}
 	
+	/**
+	 * Called by the display once per frame if an edit changed the data of the active region, refreshes the panels of the selected cell.
+	 */
+	public final void onGeoDataChanged()
+	{
+		if (_selectedCell != null)
+			setSelectedGeoCell(_selectedCell);
+	}
+	
 	public final boolean isSelectedGeoCell(final GeoCell cell)
 	{
 		return _selectedCell == cell;
@@ -391,6 +436,13 @@ public final class FrameMain extends JFrame implements ActionListener
 				JOptionPane.showMessageDialog(this, "I am sure you want to load a region first ;)", "Save Region UNKOWN?!?", JOptionPane.INFORMATION_MESSAGE);
 			}
 		}
+		else if (e.getSource() == _buttonSelectArea)
+		{
+			if (GeoEngine.getInstance().getActiveRegion() != null)
+				_dialogSelectArea.setVisible(true);
+			else
+				JOptionPane.showMessageDialog(this, "I am sure you want to load a region first ;)", "Select in Region UNKOWN?!?", JOptionPane.INFORMATION_MESSAGE);
+		}
 		else if (e.getSource() == _buttonOpen)
 		{
 			if (_fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
@@ -404,73 +456,46 @@ public final class FrameMain extends JFrame implements ActionListener
 					final int geoX = GeoEngine.getGeoXY(regionX, 128);
 					final int geoY = GeoEngine.getGeoXY(regionY, 128);
 					
-					final boolean l2j = !file.getName().toLowerCase().equals(".dat");
+					final boolean l2j = !file.getName().toLowerCase().endsWith(".dat");
 					final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
-					if (region != null)
+					if (region != null && (region.getRegionX() != regionX || region.getRegionY() != regionY))
 					{
-						if (region.getRegionX() != regionX || region.getRegionY() != regionY)
+						if (!region.allDataEqual())
 						{
-							if (!region.allDataEqual())
+							switch (JOptionPane.showConfirmDialog(FrameMain.getInstance(), "Region " + region.getName() + " was modified.\nWould u like to save it?", "Save...", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE))
 							{
-								switch (JOptionPane.showConfirmDialog(FrameMain.getInstance(), "Region " + region.getName() + " was modified.\nWould u like to save it?", "Save...", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE))
+								case JOptionPane.YES_OPTION:
 								{
-									case JOptionPane.YES_OPTION:
+									new DialogSave(FrameMain.getInstance(), region, new Runnable()
 									{
-										new DialogSave(FrameMain.getInstance(), region, new Runnable()
+										@Override
+										public final void run()
 										{
-											@Override
-											public final void run()
-											{
-												try
-												{
-													GeoEngine.getInstance().unload();
-													GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j, file);
-													
-													if (GeoEngine.getInstance().getActiveRegion() != null)
-														GLDisplay.getInstance().getCamera().setXYZ(geoX, GeoEngine.getInstance().nGetCell(geoX, geoY, 0).getHeight() / 16f, geoY);
-												}
-												catch (final Exception e1)
-												{
-													e1.printStackTrace();
-												}
-											}
-										}).setVisible(true);
-										setVisible(false);
-										return;
-									}
-									
-									case JOptionPane.NO_OPTION:
-										break;
-										
-									default:
-										return;
+											DialogJumpTo.loadRegionAndJump(regionX, regionY, l2j, file, geoX, geoY, Integer.MIN_VALUE);
+										}
+									}).setVisible(true);
+									return;
 								}
-							}
-							GeoEngine.getInstance().unload();
-							try
-							{
-								GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j, file);
-							}
-							catch (final Exception e1)
-							{
-								e1.printStackTrace();
+								
+								case JOptionPane.NO_OPTION:
+									// dropped once the new region is swapped in, changes made meanwhile are kept
+									region.discardChanges();
+									break;
+									
+								default:
+									return;
 							}
 						}
+						DialogJumpTo.loadRegionAndJump(regionX, regionY, l2j, file, geoX, geoY, Integer.MIN_VALUE);
+					}
+					else if (region == null)
+					{
+						DialogJumpTo.loadRegionAndJump(regionX, regionY, l2j, file, geoX, geoY, Integer.MIN_VALUE);
 					}
 					else
 					{
-						try
-						{
-							GeoEngine.getInstance().reloadGeo(regionX, regionY, l2j, file);
-						}
-						catch (final Exception e1)
-						{
-							e1.printStackTrace();
-						}
+						DialogJumpTo.jumpTo(geoX, geoY, Integer.MIN_VALUE);
 					}
-					
-					if (GeoEngine.getInstance().getActiveRegion() != null)
-						GLDisplay.getInstance().getCamera().setXYZ(geoX, GeoEngine.getInstance().nGetCell(geoX, geoY, 0).getHeight() / 16f, geoY);
 				}
 			}
 		}
@@ -19,6 +19,7 @@ import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoBlockSelector.GeoBlockEntry;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.util.FastArrayList;
 import g3deditor.util.Util;
@@ -223,15 +224,27 @@ public final class PanelDirectNswe extends JPanel implements MouseListener
 		
 		updateNswe(nswe, false);
 		
-		final GeoBlockSelector selector = GeoBlockSelector.getInstance();
-		FastArrayList<GeoCell> cells;
-		int i;
-		for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+		final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+		if (region != null)
 		{
-			cells = entry.getValue();
-			for (i = cells.size(); i-- > 0;)
+			final GeoBlockSelector selector = GeoBlockSelector.getInstance();
+			region.beginEdit();
+			try
 			{
-				cells.getUnsafe(i).setNswe(nswe);
+				FastArrayList<GeoCell> cells;
+				int i;
+				for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+				{
+					cells = entry.getValue();
+					for (i = cells.size(); i-- > 0;)
+					{
+						cells.getUnsafe(i).setNswe(nswe);
+					}
+				}
+			}
+			finally
+			{
+				region.endEdit();
 			}
 		}
 		
@@ -18,6 +18,7 @@ import g3deditor.geo.GeoBlockSelector;
 import g3deditor.geo.GeoBlockSelector.GeoBlockEntry;
 import g3deditor.geo.GeoCell;
 import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
 import g3deditor.jogl.GLDisplay;
 import g3deditor.swing.defaults.DefaultToggleButton;
 import g3deditor.util.FastArrayList;
@@ -117,15 +118,27 @@ public final class PanelNswe extends JPanel implements ActionListener
 		final NsweButton nsweButton = (NsweButton) e.getSource();
 		setButtonSelected(nsweButton);
 		
-		final GeoBlockSelector selector = GeoBlockSelector.getInstance();
-		FastArrayList<GeoCell> cells;
-		int i;
-		for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+		final GeoRegion region = GeoEngine.getInstance().getActiveRegion();
+		if (region != null)
 		{
-			cells = entry.getValue();
-			for (i = cells.size(); i-- > 0;)
+			final GeoBlockSelector selector = GeoBlockSelector.getInstance();
+			region.beginEdit();
+			try
 			{
-				cells.getUnsafe(i).setNswe(nsweButton.getNswe());
+				FastArrayList<GeoCell> cells;
+				int i;
+				for (GeoBlockEntry entry = selector.getHead(), tail = selector.getTail(); (entry = entry.getNext()) != tail;)
+				{
+					cells = entry.getValue();
+					for (i = cells.size(); i-- > 0;)
+					{
+						cells.getUnsafe(i).setNswe(nsweButton.getNswe());
+					}
+				}
+			}
+			finally
+			{
+				region.endEdit();
 			}
 		}
 		
@@ -0,0 +1,152 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.util;
+
+import g3deditor.Config;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the tasks on a work stealing pool.<br>
+ * The tasks are split into ranges, a range is halved while it is bigger than the chunk size and the other threads are short of work, so idle threads steal the halves instead of polling a shared queue task by task.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class ForkJoinTaskExecutor extends TaskExecutor
+{
+	public static final String NAME = "ForkJoin";
+	
+	/**
+	 * The number of chunks per thread, more chunks balance uneven tasks better at the cost of more splits.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+	/**
+	 * A range is not split anymore if the pool already has this many queued ranges per worker.
+	 */
+	private static final int MAX_SURPLUS_TASKS = 3;
+	
+	private final int _threads;
+	private ForkJoinPool _pool;
+	private boolean _shutdown;
+	
+	public ForkJoinTaskExecutor(final int threads)
+	{
+		_threads = Math.max(threads, 1);
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#getName()
+	 */
+	@Override
+	public final String getName()
+	{
+		return NAME;
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#shutdown()
+	 */
+	@Override
+	public final void shutdown()
+	{
+		_shutdown = true;
+		cancel();
+		shutdownInternal();
+	}
+	
+	private final void shutdownInternal()
+	{
+		if (_pool != null)
+		{
+			_pool.shutdown();
+			_pool = null;
+		}
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#execute(java.lang.Runnable[], int)
+	 */
+	@Override
+	public final boolean execute(final Runnable[] tasks, final int size)
+	{
+		if (_shutdown)
+			return false;
+		
+		onExecute();
+		if (Config.USE_MULTITHREADING && _threads > 1 && size > 1)
+		{
+			if (_pool == null)
+				_pool = new ForkJoinPool(_threads);
+			
+			_pool.invoke(new RangeTask(this, tasks, 0, size, Math.max(size / (_threads * CHUNKS_PER_THREAD), 1)));
+		}
+		else
+		{
+			if (!Config.USE_MULTITHREADING)
+				shutdownInternal();
+			
+			runRange(tasks, 0, size);
+		}
+		return !isCancelled();
+	}
+	
+	final void runRange(final Runnable[] tasks, final int from, final int to)
+	{
+		for (int i = to; i-- > from && !isCancelled();)
+		{
+			tasks[i].run();
+		}
+	}
+	
+	private static final class RangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 4424452163420787307L;
+		
+		private final ForkJoinTaskExecutor _executor;
+		private final Runnable[] _tasks;
+		private final int _from;
+		private final int _to;
+		private final int _chunkSize;
+		
+		public RangeTask(final ForkJoinTaskExecutor executor, final Runnable[] tasks, final int from, final int to, final int chunkSize)
+		{
+			_executor = executor;
+			_tasks = tasks;
+			_from = from;
+			_to = to;
+			_chunkSize = chunkSize;
+		}
+		
+		/**
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected final void compute()
+		{
+			if (_to - _from > _chunkSize && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS && !_executor.isCancelled())
+			{
+				final int middle = (_from + _to) >>> 1;
+				invokeAll(new RangeTask(_executor, _tasks, _from, middle, _chunkSize), new RangeTask(_executor, _tasks, middle, _to, _chunkSize));
+			}
+			else
+			{
+				_executor.runRange(_tasks, _from, _to);
+			}
+		}
+	}
+}
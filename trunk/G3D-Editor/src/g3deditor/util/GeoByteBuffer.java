@@ -14,6 +14,10 @@
  */
 package g3deditor.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * <a href="http://l2j-server.com/">L2jServer</a>
  * 
@@ -29,11 +33,40 @@ public final class GeoByteBuffer implements GeoReader, GeoWriter
 		return new GeoByteBuffer(capacity);
 	}
 	
+	/**
+	 * @return A buffer reading from and writing to the given array
+	 */
+	public static final GeoByteBuffer wrap(final byte[] data)
+	{
+		return new GeoByteBuffer(data);
+	}
+	
 	private GeoByteBuffer(final int capacity)
 	{
 		_data = new byte[capacity];
 	}
 	
+	private GeoByteBuffer(final byte[] data)
+	{
+		_data = data;
+	}
+	
+	/**
+	 * @return A read-only little-endian view over the whole capacity of this buffer, with its own position
+	 */
+	public final ByteBuffer asByteBuffer()
+	{
+		return ByteBuffer.wrap(_data).order(ByteOrder.LITTLE_ENDIAN).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @return A copy of the bytes up to the position
+	 */
+	public final byte[] toByteArray()
+	{
+		return Arrays.copyOf(_data, _position);
+	}
+	
 	public final int position()
 	{
 		return _position;
@@ -49,6 +82,22 @@ public final class GeoByteBuffer implements GeoReader, GeoWriter
 		_position = 0;
 	}
 	
+	/**
+	 * Absolute read, does not touch the position.
+	 */
+	public final byte get(final int index)
+	{
+		return _data[index];
+	}
+	
+	/**
+	 * Absolute read, does not touch the position.
+	 */
+	public final short getShort(final int index)
+	{
+		return (short) (_data[index] & 0xFF | _data[index + 1] << 8 & 0xFF00);
+	}
+	
 	/**
 	 * @see g3deditor.util.GeoReader#get()
 	 */
@@ -65,6 +114,17 @@ public final class GeoByteBuffer implements GeoReader, GeoWriter
 		return (short) (get() & 0xFF | get() << 8 & 0xFF00); 
 	}
 	
+	/**
+	 * @see g3deditor.util.GeoReader#getShorts(short[], int, int)
+	 */
+	public final void getShorts(final short[] values, final int offset, final int length)
+	{
+		for (int i = offset, j = offset + length; i < j; i++)
+		{
+			values[i] = getShort();
+		}
+	}
+	
 	/**
 	 * @see g3deditor.util.GeoWriter#put(byte)
 	 */
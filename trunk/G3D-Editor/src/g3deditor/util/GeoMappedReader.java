@@ -0,0 +1,166 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads geodata from a memory mapped file.<br>
+ * Shorts are read in bulk through a little-endian view, instead of one stream call per byte like {@link GeoStreamReader}.<br>
+ * The mapping is released on {@link #close()}, so the file can be overwritten while saving.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GeoMappedReader implements GeoReader, Closeable
+{
+	public static final GeoMappedReader map(final File file) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel fc = raf.getChannel())
+		{
+			return new GeoMappedReader(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		}
+	}
+	
+	private ByteBuffer _buffer;
+	private final boolean _owner;
+	
+	private GeoMappedReader(final ByteBuffer buffer, final boolean owner)
+	{
+		_buffer = buffer;
+		_buffer.order(ByteOrder.LITTLE_ENDIAN);
+		_owner = owner;
+	}
+	
+	private GeoMappedReader(final MappedByteBuffer buffer)
+	{
+		this(buffer, true);
+	}
+	
+	/**
+	 * Returns a reader with its own position over the same mapping, so the file can be read by several threads.<br>
+	 * The returned reader must not be used after this reader was closed.
+	 */
+	public final GeoMappedReader duplicate()
+	{
+		return new GeoMappedReader(_buffer.duplicate(), false);
+	}
+	
+	public final int position()
+	{
+		return _buffer.position();
+	}
+	
+	public final void position(final int position)
+	{
+		_buffer.position(position);
+	}
+	
+	public final void skip(final int bytes)
+	{
+		_buffer.position(_buffer.position() + bytes);
+	}
+	
+	public final int remaining()
+	{
+		return _buffer.remaining();
+	}
+	
+	/**
+	 * @see g3deditor.util.GeoReader#get()
+	 */
+	@Override
+	public final byte get()
+	{
+		return _buffer.get();
+	}
+	
+	/**
+	 * @see g3deditor.util.GeoReader#getShort()
+	 */
+	@Override
+	public final short getShort()
+	{
+		return _buffer.getShort();
+	}
+	
+	/**
+	 * @see g3deditor.util.GeoReader#getShorts(short[], int, int)
+	 */
+	@Override
+	public final void getShorts(final short[] values, final int offset, final int length)
+	{
+		_buffer.asShortBuffer().get(values, offset, length);
+		_buffer.position(_buffer.position() + length * 2);
+	}
+	
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public final void close()
+	{
+		final ByteBuffer buffer = _buffer;
+		_buffer = null;
+		if (buffer != null && _owner)
+			unmap((MappedByteBuffer) buffer);
+	}
+	
+	/**
+	 * Releases the mapping without waiting for the garbage collector.<br>
+	 * Windows keeps mapped files locked, which would break saving over the loaded file.
+	 */
+	private static final void unmap(final MappedByteBuffer buffer)
+	{
+		try
+		{
+			// Java 9+
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		}
+		catch (final Exception e)
+		{
+			// fall through to the Java 8 way
+		}
+		
+		try
+		{
+			final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		}
+		catch (final Exception e)
+		{
+			// the mapping will be released by the garbage collector
+		}
+	}
+}
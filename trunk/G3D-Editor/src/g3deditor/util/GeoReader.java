@@ -24,4 +24,13 @@ public interface GeoReader
 	public byte get();
 	
 	public short getShort();
+	
+	/**
+	 * Reads the given number of little-endian shorts into the array.
+	 * 
+	 * @param values The array to fill
+	 * @param offset The first index to fill
+	 * @param length The number of shorts to read
+	 */
+	public void getShorts(final short[] values, final int offset, final int length);
 }
\ No newline at end of file
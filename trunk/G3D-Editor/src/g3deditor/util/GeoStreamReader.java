@@ -66,4 +66,16 @@ public final class GeoStreamReader implements GeoReader
 	{
 		return (short) (get() & 0xFF | get() << 8 & 0xFF00); 
 	}
+	
+	/**
+	 * @see g3deditor.util.GeoReader#getShorts(short[], int, int)
+	 */
+	@Override
+	public final void getShorts(final short[] values, final int offset, final int length)
+	{
+		for (int i = offset, j = offset + length; i < j; i++)
+		{
+			values[i] = getShort();
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.util;
+
+import java.util.Arrays;
+
+/**
+ * Sorts element indices ascending by a non negative float key, stable.<br>
+ * Each key is packed with its index into a long, the float bits order like the floats for non negative values, so the longs are sorted by a radix sort over the upper 32 bits.<br>
+ * The arrays are kept and only grow, so the sorter can be reused every frame without allocation.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class RadixSorter
+{
+	/**
+	 * Less keys are sorted with a quick sort, which is faster than clearing and scanning the histograms and does not allocate below 286 keys.<br>
+	 * The keys are unique, so the order is still stable.
+	 */
+	private static final int MIN_RADIX_SIZE = 256;
+	private static final int DIGITS = 4;
+	private static final int DIGIT_BITS = 8;
+	private static final int BUCKETS = 1 << DIGIT_BITS;
+	
+	private final int[] _counts;
+	private long[] _keys;
+	private long[] _temp;
+	private int _size;
+	
+	public RadixSorter()
+	{
+		_counts = new int[DIGITS * BUCKETS];
+		_keys = new long[0];
+		_temp = new long[0];
+	}
+	
+	/**
+	 * Removes all keys.
+	 * 
+	 * @param capacity The number of keys which will be added
+	 */
+	public final void reset(final int capacity)
+	{
+		if (_keys.length < capacity)
+		{
+			_keys = new long[capacity];
+			_temp = new long[capacity];
+		}
+		_size = 0;
+	}
+	
+	/**
+	 * Adds the key of the element with the next index, starting at 0.
+	 * 
+	 * @param key The key, not negative
+	 */
+	public final void add(final float key)
+	{
+		_keys[_size] = (long) Float.floatToRawIntBits(key) << 32 | _size;
+		_size++;
+	}
+	
+	public final int size()
+	{
+		return _size;
+	}
+	
+	/**
+	 * @param position The position in the sorted order
+	 * @return The index of the element at the given position
+	 */
+	public final int getIndex(final int position)
+	{
+		return (int) _keys[position];
+	}
+	
+	public final void sort()
+	{
+		final int size = _size;
+		long[] keys = _keys;
+		if (size < MIN_RADIX_SIZE)
+		{
+			Arrays.sort(keys, 0, size);
+			return;
+		}
+		
+		final int[] counts = _counts;
+		Arrays.fill(counts, 0);
+		int bits;
+		for (int i = size; i-- > 0;)
+		{
+			bits = (int) (keys[i] >>> 32);
+			counts[bits & 0xFF]++;
+			counts[BUCKETS + (bits >>> 8 & 0xFF)]++;
+			counts[2 * BUCKETS + (bits >>> 16 & 0xFF)]++;
+			counts[3 * BUCKETS + (bits >>> 24)]++;
+		}
+		
+		long[] temp = _temp;
+		long[] swap;
+		for (int digit = 0, offset, shift, sum, count; digit < DIGITS; digit++)
+		{
+			offset = digit * BUCKETS;
+			shift = 32 + digit * DIGIT_BITS;
+			// all keys have the same digit, the pass would not change the order
+			if (counts[offset + (int) (keys[0] >>> shift & 0xFF)] == size)
+				continue;
+			
+			sum = 0;
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				count = counts[offset + i];
+				counts[offset + i] = sum;
+				sum += count;
+			}
+			
+			for (int i = 0; i < size; i++)
+			{
+				temp[counts[offset + (int) (keys[i] >>> shift & 0xFF)]++] = keys[i];
+			}
+			
+			swap = keys;
+			keys = temp;
+			temp = swap;
+		}
+		_keys = keys;
+		_temp = temp;
+	}
+}
@@ -14,212 +14,76 @@
  */
 package g3deditor.util;
 
-import g3deditor.Config;
-
 /**
+ * Runs an array of tasks in parallel and waits till they are done.
+ * 
  * <a href="http://l2j-server.com/">L2jServer</a>
  * 
  * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
  */
-public final class TaskExecutor
+public abstract class TaskExecutor
 {
-	private final TaskExecutionHelper[] _helper;
-	private final TaskQueue _taskQueue;
-	private final TaskCompleteListener _taskCompleteListener;
-	
-	private boolean _shutdown;
-	private boolean _multithreaded;
-	
-	public TaskExecutor(int threads)
+	public static final String[] EXECUTOR_NAMES =
 	{
-		_helper = new TaskExecutionHelper[threads];
-		_taskQueue = new TaskQueue();
-		_taskCompleteListener = new TaskCompleteListener();
-	}
+		ForkJoinTaskExecutor.NAME,
+		ThreadTaskExecutor.NAME,
+	};
 	
-	public final void shutdown()
+	/**
+	 * @param name The name of the executor, the fork join executor if unknown
+	 * @param threads The number of threads to use
+	 * @return A new executor
+	 */
+	public static final TaskExecutor getExecutor(final String name, final int threads)
 	{
-		_shutdown = true;
-		shutdownInternal();
+		if (ThreadTaskExecutor.NAME.equals(name))
+			return new ThreadTaskExecutor(threads);
+		
+		return new ForkJoinTaskExecutor(threads);
 	}
 	
-	private final void shutdownInternal()
-	{
-		if (_multithreaded)
-		{
-			for (int i = _helper.length; i-- > 0;)
-			{
-				if (_helper[i] != null)
-				{
-					_helper[i].interrupt();
-					_helper[i] = null;
-				}
-			}
-			_multithreaded = false;
-		}
-	}
+	private volatile boolean _cancelled;
+	
+	public abstract String getName();
 	
 	/**
-	 * Waits till all tasks are done
+	 * Runs the tasks and waits till all of them are done or skipped by {@link #cancel()}.
 	 * 
-	 * @param task The array of runnable to run
+	 * @param tasks The array of runnable to run
 	 * @param size The number of runnable to run staring from offset 0
+	 * @return False if the execution was cancelled, some tasks may not have run
 	 */
-	public final void execute(final Runnable[] tasks, final int size)
+	public abstract boolean execute(final Runnable[] tasks, final int size);
+	
+	/**
+	 * Skips the tasks of the current execution which did not start yet, the running ones are finished.
+	 */
+	public void cancel()
 	{
-		if (_shutdown)
-			return;
-		
-		if (Config.USE_MULTITHREADING)
-		{
-			if (!_multithreaded)
-			{
-				for (int i = _helper.length; i-- > 0;)
-				{
-					_helper[i] = new TaskExecutionHelper(_taskQueue, _taskCompleteListener);
-					_helper[i].start();
-				}
-				_multithreaded = true;
-			}
-			
-			_taskCompleteListener.setTasksRemaining(size);
-			
-			synchronized (_taskQueue)
-			{
-				_taskQueue.offer(tasks, size);
-				_taskQueue.notifyAll();
-			}
-			
-			_taskCompleteListener.waitForComplete();
-		}
-		else
-		{
-			shutdownInternal();
-			for (int i = size; i-- > 0;)
-			{
-				tasks[i].run();
-			}
-		}
+		_cancelled = true;
 	}
 	
-	private static final class TaskCompleteListener
+	/**
+	 * Cancels the current execution and stops the threads, the executor can not be used anymore.
+	 */
+	public abstract void shutdown();
+	
+	public final boolean isCancelled()
 	{
-		private int _tasksRemaining;
-		
-		public TaskCompleteListener()
-		{
-			
-		}
-		
-		public final void setTasksRemaining(final int tasksRemaining)
-		{
-			_tasksRemaining = tasksRemaining;
-		}
-		
-		public final void onTasksCompleted(final int count)
-		{
-			synchronized (this)
-			{
-				_tasksRemaining -= count;
-				if (_tasksRemaining == 0)
-					notify();
-			}
-		}
-		
-		public final void waitForComplete()
-		{
-			try
-			{
-				synchronized (this)
-				{
-					while (_tasksRemaining > 0)
-					{
-						wait();
-					}
-				}
-			}
-			catch (final InterruptedException e)
-			{
-				
-			}
-		}
+		return _cancelled;
 	}
 	
-	private static final class TaskExecutionHelper extends Thread
+	protected final void onExecute()
 	{
-		private final TaskQueue _taskQueue;
-		private final TaskCompleteListener _taskCompleteListener;
-		
-		public TaskExecutionHelper(final TaskQueue taskQueue, final TaskCompleteListener taskCompleteListener)
-		{
-			_taskQueue = taskQueue;
-			_taskCompleteListener = taskCompleteListener;
-			setDaemon(true);
-		}
-		
-		@Override
-		public final void run()
-		{
-			Runnable task1;
-			Runnable task2;
-			
-			try
-			{
-				while (!Thread.interrupted())
-				{
-					synchronized (_taskQueue)
-					{
-						while (_taskQueue.isEmpty())
-						{
-							_taskQueue.wait();
-						}
-						task1 = _taskQueue.poll();
-						task2 = _taskQueue.isEmpty() ? null : _taskQueue.poll();
-					}
-					
-					try
-					{
-						task1.run();
-						if (task2 != null)
-							task2.run();
-					}
-					finally
-					{
-						_taskCompleteListener.onTasksCompleted(task2 != null ? 2 : 1);
-					}
-				}
-			}
-			catch (final InterruptedException e)
-			{
-				
-			}
-		}
+		_cancelled = false;
 	}
 	
-	private static final class TaskQueue
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public final String toString()
 	{
-		private Runnable[] _tasks;
-		private int _size;
-		
-		public TaskQueue()
-		{
-			
-		}
-		
-		public final void offer(final Runnable[] tasks, final int size)
-		{
-			_tasks = tasks;
-			_size = size;
-		}
-		
-		public final Runnable poll()
-		{
-			return _tasks[--_size];
-		}
-		
-		public final boolean isEmpty()
-		{
-			return _size == 0;
-		}
+		return getName();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,291 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.util;
+
+import g3deditor.Config;
+
+/**
+ * Runs the tasks on own threads, which take them from a shared queue.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class ThreadTaskExecutor extends TaskExecutor
+{
+	public static final String NAME = "Threads";
+	
+	private final TaskExecutionHelper[] _helper;
+	private final TaskQueue _taskQueue;
+	private final TaskCompleteListener _taskCompleteListener;
+	
+	private boolean _shutdown;
+	private boolean _multithreaded;
+	
+	public ThreadTaskExecutor(final int threads)
+	{
+		_helper = new TaskExecutionHelper[threads];
+		_taskQueue = new TaskQueue();
+		_taskCompleteListener = new TaskCompleteListener();
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#getName()
+	 */
+	@Override
+	public final String getName()
+	{
+		return NAME;
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#shutdown()
+	 */
+	@Override
+	public final void shutdown()
+	{
+		_shutdown = true;
+		cancel();
+		shutdownInternal();
+	}
+	
+	private final void shutdownInternal()
+	{
+		if (_multithreaded)
+		{
+			for (int i = _helper.length; i-- > 0;)
+			{
+				if (_helper[i] != null)
+				{
+					_helper[i].interrupt();
+					_helper[i] = null;
+				}
+			}
+			_multithreaded = false;
+		}
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#execute(java.lang.Runnable[], int)
+	 */
+	@Override
+	public final boolean execute(final Runnable[] tasks, final int size)
+	{
+		if (_shutdown)
+			return false;
+		
+		onExecute();
+		if (Config.USE_MULTITHREADING)
+		{
+			if (!_multithreaded)
+			{
+				for (int i = _helper.length; i-- > 0;)
+				{
+					_helper[i] = new TaskExecutionHelper(_taskQueue, _taskCompleteListener);
+					_helper[i].start();
+				}
+				_multithreaded = true;
+			}
+			
+			_taskCompleteListener.setTasksRemaining(size);
+			
+			synchronized (_taskQueue)
+			{
+				_taskQueue.offer(tasks, size);
+				_taskQueue.notifyAll();
+			}
+			
+			if (!_taskCompleteListener.waitForComplete())
+			{
+				// interrupted, skip the tasks not started yet but wait for the running ones, they still use the array
+				cancel();
+				_taskCompleteListener.waitForCompleteUninterruptibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		else
+		{
+			shutdownInternal();
+			for (int i = size; i-- > 0 && !isCancelled();)
+			{
+				tasks[i].run();
+			}
+		}
+		return !isCancelled();
+	}
+	
+	/**
+	 * @see g3deditor.util.TaskExecutor#cancel()
+	 */
+	@Override
+	public final void cancel()
+	{
+		super.cancel();
+		
+		final int skipped;
+		synchronized (_taskQueue)
+		{
+			skipped = _taskQueue.clear();
+		}
+		if (skipped > 0)
+			_taskCompleteListener.onTasksCompleted(skipped);
+	}
+	
+	private static final class TaskCompleteListener
+	{
+		private int _tasksRemaining;
+		
+		public TaskCompleteListener()
+		{
+			
+		}
+		
+		public final synchronized void setTasksRemaining(final int tasksRemaining)
+		{
+			_tasksRemaining = tasksRemaining;
+		}
+		
+		public final void onTasksCompleted(final int count)
+		{
+			synchronized (this)
+			{
+				_tasksRemaining -= count;
+				if (_tasksRemaining == 0)
+					notify();
+			}
+		}
+		
+		/**
+		 * @return False if the thread was interrupted before all tasks completed
+		 */
+		public final boolean waitForComplete()
+		{
+			try
+			{
+				synchronized (this)
+				{
+					while (_tasksRemaining > 0)
+					{
+						wait();
+					}
+				}
+				return true;
+			}
+			catch (final InterruptedException e)
+			{
+				return false;
+			}
+		}
+		
+		public final void waitForCompleteUninterruptibly()
+		{
+			boolean interrupted = false;
+			while (!waitForComplete())
+			{
+				interrupted = true;
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static final class TaskExecutionHelper extends Thread
+	{
+		private final TaskQueue _taskQueue;
+		private final TaskCompleteListener _taskCompleteListener;
+		
+		public TaskExecutionHelper(final TaskQueue taskQueue, final TaskCompleteListener taskCompleteListener)
+		{
+			_taskQueue = taskQueue;
+			_taskCompleteListener = taskCompleteListener;
+			setDaemon(true);
+		}
+		
+		@Override
+		public final void run()
+		{
+			Runnable task1;
+			Runnable task2;
+			
+			try
+			{
+				while (!Thread.interrupted())
+				{
+					synchronized (_taskQueue)
+					{
+						while (_taskQueue.isEmpty())
+						{
+							_taskQueue.wait();
+						}
+						task1 = _taskQueue.poll();
+						task2 = _taskQueue.isEmpty() ? null : _taskQueue.poll();
+					}
+					
+					try
+					{
+						task1.run();
+						if (task2 != null)
+							task2.run();
+					}
+					finally
+					{
+						_taskCompleteListener.onTasksCompleted(task2 != null ? 2 : 1);
+					}
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				
+			}
+		}
+	}
+	
+	private static final class TaskQueue
+	{
+		private Runnable[] _tasks;
+		private int _size;
+		
+		public TaskQueue()
+		{
+			
+		}
+		
+		public final void offer(final Runnable[] tasks, final int size)
+		{
+			_tasks = tasks;
+			_size = size;
+		}
+		
+		public final Runnable poll()
+		{
+			return _tasks[--_size];
+		}
+		
+		public final boolean isEmpty()
+		{
+			return _size == 0;
+		}
+		
+		/**
+		 * @return The number of tasks removed
+		 */
+		public final int clear()
+		{
+			final int size = _size;
+			_size = 0;
+			return size;
+		}
+	}
+}
\ No newline at end of file
@@ -145,6 +145,15 @@ public final class Util
 		}
 	}
 	
+	/**
+	 * Stable sort, cheap for the small and mostly sorted arrays like the layers of a cell.
+	 */
+	public static final <T> void insertionSort(final T[] values, final FastComparator<T> comparator)
+	{
+		if (values.length > 1)
+			insertionSort(values, 0, values.length - 1, comparator);
+	}
+	
 	private static final <T> void insertionSort(final T[] values, final int low, final int high, final FastComparator<T> comparator)
 	{
 		T v;
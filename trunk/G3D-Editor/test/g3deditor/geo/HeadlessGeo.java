@@ -0,0 +1,156 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.geo;
+
+import g3deditor.jogl.GLDisplay;
+import g3deditor.swing.FrameMain;
+import g3deditor.util.GeoByteBuffer;
+import g3deditor.util.GeoMappedReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Random;
+
+import sun.misc.Unsafe;
+
+/**
+ * Sets up the geo engine for the benchmarks in this folder, without a window and without an OpenGL context.<br>
+ * The display and the main frame are allocated without their constructors, the selectors only ask them for the renderer and the selected cell.<br>
+ * Without a geo file the region is generated, with the seed the recorded numbers were measured on.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class HeadlessGeo
+{
+	public static final long SEED = 1L;
+	
+	public static final void init() throws Exception
+	{
+		GeoEngine.init();
+		GeoBlockSelector.init();
+		
+		final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+		field.setAccessible(true);
+		final Unsafe unsafe = (Unsafe) field.get(null);
+		setField(FrameMain.class, null, "_instance", unsafe.allocateInstance(FrameMain.class));
+		setField(GLDisplay.class, null, "_instance", unsafe.allocateInstance(GLDisplay.class));
+	}
+	
+	/**
+	 * @param path The L2J file of the region, named X_Y.l2j, null to generate one
+	 * @return The L2J file, a temporary file deleted on exit if it was generated
+	 * @throws IOException
+	 */
+	public static final File getRegionFile(final String path) throws IOException
+	{
+		if (path != null)
+			return new File(path);
+		
+		final File dir = Files.createTempDirectory("g3deditor").toFile();
+		final File file = new File(dir, "20_20.l2j");
+		dir.deleteOnExit();
+		file.deleteOnExit();
+		Files.write(file.toPath(), generate(new Random(SEED)));
+		return file;
+	}
+	
+	/**
+	 * Reads the region like the editor does with memory mapped geodata and without multithreading.<br>
+	 * The block data is not compressed afterwards, so no prefetch thread runs while measuring.
+	 * 
+	 * @param file The L2J file
+	 * @return The region
+	 * @throws IOException
+	 */
+	public static final GeoRegion readRegion(final File file) throws IOException
+	{
+		final int[] header = GeoEngine.getHeaderOfL2jOrL2Off(file);
+		try (GeoMappedReader reader = GeoMappedReader.map(file))
+		{
+			return new GeoRegion(header[0] - 10, header[1] - 10, reader, true, file);
+		}
+	}
+	
+	/**
+	 * @param region The region the render selectors and the camera should use
+	 * @throws Exception
+	 */
+	public static final void setActiveRegion(final GeoRegion region) throws Exception
+	{
+		setField(GeoEngine.class, GeoEngine.getInstance(), "_activeRegion", region);
+	}
+	
+	/**
+	 * Flat blocks, complex blocks of which a third have equal cells and multilayer blocks with up to 3 layers.<br>
+	 * The heights follow sine waves with random noise.
+	 * 
+	 * @param random
+	 * @return The region in the L2J format
+	 */
+	public static final byte[] generate(final Random random)
+	{
+		final int cells = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT;
+		// the largest block is a multilayer block with 3 layers in each cell
+		final GeoByteBuffer data = GeoByteBuffer.allocate(GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE * (1 + cells * 7));
+		for (int blockX = 0, blockY, height, type, i, layers, layer; blockX < GeoEngine.GEO_REGION_SIZE; blockX++)
+		{
+			for (blockY = 0; blockY < GeoEngine.GEO_REGION_SIZE; blockY++)
+			{
+				height = (int) (Math.sin(blockX / 11d) * 800 + Math.cos(blockY / 7d) * 600);
+				type = random.nextInt(10);
+				if (type < 3)
+				{
+					data.put(GeoEngine.GEO_BLOCK_TYPE_FLAT);
+					data.putShort((short) height);
+				}
+				else if (type < 6)
+				{
+					data.put(GeoEngine.GEO_BLOCK_TYPE_COMPLEX);
+					final short equal = GeoEngine.convertHeightToHeightAndNSWEALL((short) (height + random.nextInt(128)));
+					for (i = cells; i-- > 0;)
+					{
+						data.putShort(type == 5 ? equal : GeoEngine.convertHeightToHeightAndNSWEALL((short) (height + random.nextInt(128))));
+					}
+				}
+				else
+				{
+					data.put(GeoEngine.GEO_BLOCK_TYPE_MULTILAYER);
+					for (i = cells; i-- > 0;)
+					{
+						layers = 1 + random.nextInt(3);
+						data.put((byte) layers);
+						// the highest layer first
+						for (layer = layers; layer-- > 0;)
+						{
+							data.putShort(GeoEngine.convertHeightToHeightAndNSWEALL((short) (height + layer * 256 + random.nextInt(64))));
+						}
+					}
+				}
+			}
+		}
+		return data.toByteArray();
+	}
+	
+	private static final void setField(final Class<?> clazz, final Object object, final String name, final Object value) throws Exception
+	{
+		final Field field = clazz.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.Config;
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.HeadlessGeo;
+
+import java.util.Arrays;
+
+/**
+ * Measures a frustum update of the render selector with the flat grid and with the height tree, see {@link Config#USE_HIERARCHICAL_CULLING}.<br>
+ * The camera stands in the middle of the region at height 960 and turns in 12 steps of 30 degrees, each step is one frustum update.<br>
+ * The median of all steps after 2 warm-up rounds is printed with the blocks the selector kept, for each VIS_GRID_RANGE.<br>
+ * Arguments: rounds (20), opaque or transparent (opaque), pitch in degrees (0), the L2J file of the region (generated).
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLCellRenderSelectorBench
+{
+	private static final int[] RANGES = {8, 16, 32, 64, 96};
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int STEPS = 12;
+	
+	public static final void main(final String[] args) throws Exception
+	{
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final boolean transparent = args.length > 1 && args[1].equals("transparent");
+		final float pitch = args.length > 2 ? Float.parseFloat(args[2]) : 0;
+		
+		HeadlessGeo.init();
+		final GeoRegion region = HeadlessGeo.readRegion(HeadlessGeo.getRegionFile(args.length > 3 ? args[3] : null));
+		HeadlessGeo.setActiveRegion(region);
+		Config.USE_TRANSPARENCY = transparent;
+		
+		System.out.println("mode       range  blocks  candidates  median");
+		for (final boolean hierarchical : new boolean[] {false, true})
+		{
+			Config.USE_HIERARCHICAL_CULLING = hierarchical;
+			for (final int range : RANGES)
+			{
+				Config.VIS_GRID_RANGE = range;
+				final GLCellRenderSelector selector = new GLCellRenderSelector();
+				final GLCamera camera = newCamera(region, pitch);
+				selector.select(null, camera, false);
+				
+				final double[] times = new double[rounds * STEPS];
+				long candidates = 0;
+				for (int round = -WARMUP_ROUNDS, step; round < rounds; round++)
+				{
+					for (step = 0; step < STEPS; step++)
+					{
+						camera.updateCamRotY(360 / STEPS);
+						camera.checkPositionOrRotationChanged();
+						final long start = System.nanoTime();
+						selector.select(null, camera, false);
+						final long time = System.nanoTime() - start;
+						if (round >= 0)
+						{
+							times[round * STEPS + step] = time / 1000d;
+							candidates += selector.getElementsToRender();
+						}
+					}
+				}
+				selector.dispose();
+				
+				Arrays.sort(times);
+				System.out.printf("%-11s %5d  %6d  %10d  %6.0f us%n", hierarchical ? "height tree" : "flat grid", range, range * range * 4, candidates / times.length, times[times.length / 2]);
+			}
+		}
+		System.exit(0);
+	}
+	
+	static final GLCamera newCamera(final GeoRegion region, final float pitch)
+	{
+		final GLCamera camera = new GLCamera();
+		camera.setViewport(0, 0, 1280, 720);
+		camera.setXYZ(region.getGeoX(128) + 4, 60, region.getGeoY(128) + 4);
+		camera.updateCamRotX(pitch);
+		camera.checkPositionOrRotationChanged();
+		return camera;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.Config;
+import g3deditor.geo.GeoBlock;
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.HeadlessGeo;
+
+import java.util.HashSet;
+
+/**
+ * Checks that the height tree keeps every block the flat grid renders cells of, see {@link Config#USE_HIERARCHICAL_CULLING}.<br>
+ * Both selectors see the same views: 3 ranges, 4 pitches and 12 directions, from the middle of the region.<br>
+ * Argument: the L2J file of the region (generated). The exit code is 1 if a check failed.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLCellRenderSelectorCheck
+{
+	private static final int[] RANGES = {8, 32, 96};
+	private static final int[] PITCHES = {0, 30, -30, 60};
+	private static final int STEPS = 12;
+	
+	public static final void main(final String[] args) throws Exception
+	{
+		HeadlessGeo.init();
+		final GeoRegion region = HeadlessGeo.readRegion(HeadlessGeo.getRegionFile(args.length > 0 ? args[0] : null));
+		HeadlessGeo.setActiveRegion(region);
+		
+		final HashSet<GeoBlock> visible = new HashSet<>();
+		final HashSet<GeoBlock> candidates = new HashSet<>();
+		int failures = 0;
+		int views = 0;
+		long visibleSum = 0;
+		long candidateSum = 0;
+		for (final int range : RANGES)
+		{
+			Config.VIS_GRID_RANGE = range;
+			final GLCellRenderSelector flatSelector = new GLCellRenderSelector();
+			final GLCellRenderSelector treeSelector = new GLCellRenderSelector();
+			for (final int pitch : PITCHES)
+			{
+				final GLCamera flatCamera = GLCellRenderSelectorBench.newCamera(region, pitch);
+				final GLCamera treeCamera = GLCellRenderSelectorBench.newCamera(region, pitch);
+				for (int step = 0; step < STEPS; step++)
+				{
+					flatCamera.updateCamRotY(360 / STEPS);
+					flatCamera.checkPositionOrRotationChanged();
+					treeCamera.updateCamRotY(360 / STEPS);
+					treeCamera.checkPositionOrRotationChanged();
+					
+					Config.USE_HIERARCHICAL_CULLING = false;
+					flatSelector.select(null, flatCamera, false);
+					visible.clear();
+					for (int i = flatSelector.getElementsToRender(); i-- > 0;)
+					{
+						if (flatSelector.getElementToRender(i).getElementsToRender() != 0)
+							visible.add(flatSelector.getElementToRender(i).getGeoBlock());
+					}
+					
+					Config.USE_HIERARCHICAL_CULLING = true;
+					treeSelector.select(null, treeCamera, false);
+					candidates.clear();
+					for (int i = treeSelector.getElementsToRender(); i-- > 0;)
+					{
+						candidates.add(treeSelector.getElementToRender(i).getGeoBlock());
+					}
+					
+					views++;
+					visibleSum += visible.size();
+					candidateSum += candidates.size();
+					if (!candidates.containsAll(visible))
+					{
+						System.out.println("range " + range + ", pitch " + pitch + ", step " + step + ": " + visible.size() + " visible blocks, " + candidates.size() + " candidates");
+						failures++;
+					}
+				}
+			}
+			flatSelector.dispose();
+			treeSelector.dispose();
+		}
+		
+		System.out.println(views + " views, " + visibleSum / views + " visible blocks and " + candidateSum / views + " candidates on average, " + failures + " failures");
+		System.out.println("GLCellRenderSelectorCheck: " + (failures == 0 ? "passed" : failures + " failures"));
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
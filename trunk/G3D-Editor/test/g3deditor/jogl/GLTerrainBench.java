@@ -0,0 +1,91 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.geo.GeoRegion;
+import g3deditor.geo.HeadlessGeo;
+import g3deditor.jogl.GLTerrain.TerrainBuilder;
+import g3deditor.jogl.GLTerrain.TerrainDetailLevel;
+
+import java.io.File;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Measures the rebuild of the whole terrain of a region at every detail level, into a direct buffer like {@link TerrainBuilder#update(javax.media.opengl.GL2, int, GeoRegion)} but without the upload.<br>
+ * First is the first build after a fresh load, it includes creating the blocks from their data. Rebuild is a later build of the same region after 3 warm-up builds.<br>
+ * The hash of the vertices is printed too, it has to be equal for trees that build the same terrain.<br>
+ * Arguments: rebuilds (21), loads (5), the L2J file of the region (generated).
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLTerrainBench
+{
+	private static final int WARMUP_BUILDS = 3;
+	
+	public static final void main(final String[] args) throws Exception
+	{
+		final int rebuilds = args.length > 0 ? Integer.parseInt(args[0]) : 21;
+		final int loads = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		
+		HeadlessGeo.init();
+		final File file = HeadlessGeo.getRegionFile(args.length > 2 ? args[2] : null);
+		
+		System.out.println("level   first      rebuild    hash");
+		for (final TerrainDetailLevel detailLevel : TerrainDetailLevel.values())
+		{
+			final TerrainBuilder builder = detailLevel.newBuilder();
+			final ShortBuffer vertexBuffer = Buffers.newDirectShortBuffer(GLTerrain.CHUNKS * GLTerrain.CHUNKS * builder.getLod().getChunkVertices() * 3);
+			
+			final double[] firstTimes = new double[loads];
+			GeoRegion region = null;
+			for (int load = 0; load < loads; load++)
+			{
+				region = HeadlessGeo.readRegion(file);
+				firstTimes[load] = build(builder, vertexBuffer, region);
+			}
+			
+			final double[] rebuildTimes = new double[rebuilds];
+			for (int rebuild = -WARMUP_BUILDS; rebuild < rebuilds; rebuild++)
+			{
+				final double time = build(builder, vertexBuffer, region);
+				if (rebuild >= 0)
+					rebuildTimes[rebuild] = time;
+			}
+			
+			long hash = 0;
+			for (int i = 0; i < vertexBuffer.limit(); i++)
+			{
+				hash = hash * 31 + vertexBuffer.get(i);
+			}
+			
+			Arrays.sort(firstTimes);
+			Arrays.sort(rebuildTimes);
+			System.out.printf("%-7s %7.1f ms %7.1f ms  %016x%n", detailLevel, firstTimes[loads / 2], rebuildTimes[rebuilds / 2], hash);
+		}
+	}
+	
+	private static final double build(final TerrainBuilder builder, final ShortBuffer vertexBuffer, final GeoRegion region)
+	{
+		vertexBuffer.clear();
+		final long start = System.nanoTime();
+		builder.updateImpl(vertexBuffer, region, 0, GLTerrain.CHUNKS * GLTerrain.CHUNKS);
+		return (System.nanoTime() - start) / 1000000d;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.geo.GeoBlockSelector;
+import g3deditor.geo.GeoCell;
+import g3deditor.geo.GeoEngine;
+import g3deditor.geo.GeoRegion;
+import g3deditor.jogl.GLTerrain.TerrainBuilder;
+import g3deditor.jogl.GLTerrain.TerrainDetailLevel;
+import g3deditor.util.GeoByteBuffer;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the terrain rebuilt only in its dirty chunks after an edit equals a full rebuild, at every detail level.<br>
+ * Then checks the heights of the LOD levels: no triangle of a coarser level lies above a vertex of level 0 and neighbour chunks share the heights of their side vertices.<br>
+ * The vertices are built into plain buffers, so no OpenGL context is needed. The region is generated, so no geodata is needed either.<br>
+ * Run it with the class path of the editor, the exit code is 1 if a check failed.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLTerrainCheck
+{
+	private static final long SEED = 7L;
+	private static final int ROUNDS = 20;
+	private static final int MAX_EDITED_BLOCKS = 4;
+	
+	public static final void main(final String[] args)
+	{
+		GeoEngine.init();
+		GeoBlockSelector.init();
+		
+		int failures = 0;
+		for (final TerrainDetailLevel detailLevel : TerrainDetailLevel.values())
+		{
+			failures += check(detailLevel, newRegion(new Random(SEED)), new Random(SEED));
+		}
+		
+		System.out.println("GLTerrainCheck: " + (failures == 0 ? "passed" : failures + " failures"));
+		if (failures != 0)
+			System.exit(1);
+	}
+	
+	/**
+	 * Edits the region in rounds, after each round the dirty chunks are rebuilt like {@link GLTerrain#render(javax.media.opengl.GL2, GLCamera)} does and compared to a full rebuild.
+	 * 
+	 * @return The number of rounds which differed
+	 */
+	private static final int check(final TerrainDetailLevel detailLevel, final GeoRegion region, final Random random)
+	{
+		final TerrainBuilder builder = detailLevel.newBuilder();
+		final int chunks = GLTerrain.CHUNKS * GLTerrain.CHUNKS;
+		final int length = chunks * builder.getLod().getChunkVertices() * 3;
+		final ShortBuffer vertexBuffer = ShortBuffer.allocate(length);
+		final ShortBuffer fullBuffer = ShortBuffer.allocate(length);
+		final long[] changedBlocks = new long[GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE / 64];
+		final long[] dirtyChunks = new long[(chunks + 63) / 64];
+		
+		region.pollTerrainChangedBlocks(changedBlocks);
+		builder.updateImpl(vertexBuffer, region, 0, chunks);
+		
+		int failures = 0;
+		int updatedChunks = 0;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			edit(region, random);
+			
+			region.pollTerrainChangedBlocks(changedBlocks);
+			GLTerrain.markDirtyChunks(changedBlocks, dirtyChunks);
+			for (int chunk = 0; chunk < chunks; chunk++)
+			{
+				if ((dirtyChunks[chunk >> 6] & 1L << chunk) != 0)
+				{
+					builder.updateImpl(vertexBuffer, region, chunk, chunk + 1);
+					updatedChunks++;
+				}
+			}
+			Arrays.fill(dirtyChunks, 0);
+			
+			builder.updateImpl(fullBuffer, region, 0, chunks);
+			if (!vertexBuffer.equals(fullBuffer))
+			{
+				System.out.println(detailLevel + ": round " + round + " differs from the full rebuild");
+				failures++;
+			}
+		}
+		
+		failures += checkLevels(builder, fullBuffer);
+		System.out.println(detailLevel + ": " + updatedChunks + " chunks updated in " + ROUNDS + " rounds, " + failures + " failures");
+		return failures;
+	}
+	
+	/**
+	 * @return The number of chunks with a coarser triangle above level 0 or a side vertex with another height than the one of the neighbour
+	 */
+	private static final int checkLevels(final TerrainBuilder builder, final ShortBuffer vertexBuffer)
+	{
+		final GLTerrainLod lod = builder.getLod();
+		final int size = GLTerrain.CHUNK_SIZE * builder.getDetailLevel().getFactor();
+		final short[] indices = lod.getIndices();
+		int failures = 0;
+		for (int chunk = 0, level, part, i, t; chunk < GLTerrain.CHUNKS * GLTerrain.CHUNKS; chunk++)
+		{
+			boolean failed = false;
+			for (level = 0; level < lod.getLevels(); level++)
+			{
+				// the edge rings of the coarsest level are empty
+				for (part = 0; part <= GLTerrainLod.PART_INTERIOR; part++)
+				{
+					final int offset = lod.getIndexOffset(level, part);
+					for (i = offset; i < offset + lod.getIndexCount(level, part); i += 3)
+					{
+						failed |= !isBelowLevel0(builder, vertexBuffer, chunk, size, chunk * lod.getChunkVertices() + (indices[i] & 0xFFFF), chunk * lod.getChunkVertices() + (indices[i + 1] & 0xFFFF), chunk * lod.getChunkVertices() + (indices[i + 2] & 0xFFFF));
+					}
+				}
+			}
+			
+			for (level = 0; level < lod.getLevels(); level++)
+			{
+				for (t = 0; t <= size; t += lod.getStep(level))
+				{
+					if (chunk / GLTerrain.CHUNKS < GLTerrain.CHUNKS - 1)
+						failed |= getHeight(vertexBuffer, builder.getVertexIndex(chunk, level, size, t)) != getHeight(vertexBuffer, builder.getVertexIndex(chunk + GLTerrain.CHUNKS, level, 0, t));
+					if (chunk % GLTerrain.CHUNKS < GLTerrain.CHUNKS - 1)
+						failed |= getHeight(vertexBuffer, builder.getVertexIndex(chunk, level, t, size)) != getHeight(vertexBuffer, builder.getVertexIndex(chunk + 1, level, t, 0));
+				}
+				
+				// the corners are shared by the levels
+				for (i = 4; i-- > 0;)
+				{
+					failed |= getHeight(vertexBuffer, builder.getVertexIndex(chunk, level, (i & 1) * size, (i >> 1) * size)) != getHeight(vertexBuffer, builder.getVertexIndex(chunk, 0, (i & 1) * size, (i >> 1) * size));
+				}
+			}
+			
+			if (failed)
+			{
+				System.out.println(builder.getDetailLevel() + ": the levels of chunk " + chunk / GLTerrain.CHUNKS + ", " + chunk % GLTerrain.CHUNKS + " do not fit level 0");
+				failures++;
+			}
+		}
+		return failures;
+	}
+	
+	private static final int getHeight(final ShortBuffer vertexBuffer, final int vertex)
+	{
+		return vertexBuffer.get(vertex * 3 + 1);
+	}
+	
+	/**
+	 * @param a The vertex index of the first corner of the triangle, in the vertex buffer
+	 * @return False if the triangle lies above a vertex of level 0 of the chunk
+	 */
+	private static final boolean isBelowLevel0(final TerrainBuilder builder, final ShortBuffer vertexBuffer, final int chunk, final int size, final int a, final int b, final int c)
+	{
+		final int originX = chunk / GLTerrain.CHUNKS * size;
+		final int originY = chunk % GLTerrain.CHUNKS * size;
+		final int ax = vertexBuffer.get(a * 3) - originX;
+		final int ay = vertexBuffer.get(a * 3 + 2) - originY;
+		final int bx = vertexBuffer.get(b * 3) - originX;
+		final int by = vertexBuffer.get(b * 3 + 2) - originY;
+		final int cx = vertexBuffer.get(c * 3) - originX;
+		final int cy = vertexBuffer.get(c * 3 + 2) - originY;
+		final double area = (double) (bx - ax) * (cy - ay) - (double) (cx - ax) * (by - ay);
+		for (int x = Math.min(ax, Math.min(bx, cx)), y; x <= Math.max(ax, Math.max(bx, cx)); x++)
+		{
+			for (y = Math.min(ay, Math.min(by, cy)); y <= Math.max(ay, Math.max(by, cy)); y++)
+			{
+				// the barycentric weights of b and c, the vertex is inside if all weights are positive
+				final double wb = ((x - ax) * (double) (cy - ay) - (cx - ax) * (double) (y - ay)) / area;
+				final double wc = ((bx - ax) * (double) (y - ay) - (x - ax) * (double) (by - ay)) / area;
+				if (wb < 0 || wc < 0 || wb + wc > 1)
+					continue;
+				
+				final double height = getHeight(vertexBuffer, a) + wb * (getHeight(vertexBuffer, b) - getHeight(vertexBuffer, a)) + wc * (getHeight(vertexBuffer, c) - getHeight(vertexBuffer, a));
+				if (height > getHeight(vertexBuffer, builder.getVertexIndex(chunk, 0, x, y)) + 1e-6)
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Changes the height of a random cell in some blocks inside one edit, a third of the blocks at the border of a chunk.
+	 */
+	private static final void edit(final GeoRegion region, final Random random)
+	{
+		region.beginEdit();
+		try
+		{
+			for (int i = 1 + random.nextInt(MAX_EDITED_BLOCKS); i-- > 0;)
+			{
+				final int blockX = random.nextInt(3) == 0 ? random.nextInt(GLTerrain.CHUNKS) * GLTerrain.CHUNK_SIZE + (random.nextBoolean() ? GLTerrain.CHUNK_SIZE - 1 : 0) : random.nextInt(GeoEngine.GEO_REGION_SIZE);
+				final int blockY = random.nextInt(GeoEngine.GEO_REGION_SIZE);
+				final GeoCell[] cells = region.getBlockByBlockXY(blockX, blockY).getCells();
+				cells[random.nextInt(cells.length)].addHeight((short) ((random.nextInt(64) - 32) * 16));
+			}
+		}
+		finally
+		{
+			region.endEdit();
+		}
+	}
+	
+	/**
+	 * @return A region of flat, complex and multilayer blocks over rolling hills, read from its l2j encoding
+	 */
+	private static final GeoRegion newRegion(final Random random)
+	{
+		final int cells = GeoEngine.GEO_BLOCK_SHIFT * GeoEngine.GEO_BLOCK_SHIFT;
+		// the largest block is a multilayer block with 3 layers in each cell
+		final GeoByteBuffer data = GeoByteBuffer.allocate(GeoEngine.GEO_REGION_SIZE * GeoEngine.GEO_REGION_SIZE * (1 + cells * 7));
+		for (int blockX = 0, blockY, height, i, layers, layer; blockX < GeoEngine.GEO_REGION_SIZE; blockX++)
+		{
+			for (blockY = 0; blockY < GeoEngine.GEO_REGION_SIZE; blockY++)
+			{
+				height = (int) (Math.sin(blockX / 11d) * 800 + Math.cos(blockY / 7d) * 600);
+				switch (random.nextInt(10))
+				{
+					case 0:
+					case 1:
+					case 2:
+						data.put(GeoEngine.GEO_BLOCK_TYPE_FLAT);
+						data.putShort((short) height);
+						break;
+					
+					case 3:
+					case 4:
+					case 5:
+					case 6:
+					case 7:
+						data.put(GeoEngine.GEO_BLOCK_TYPE_COMPLEX);
+						for (i = cells; i-- > 0;)
+						{
+							data.putShort(GeoEngine.convertHeightToHeightAndNSWEALL((short) (height + random.nextInt(128))));
+						}
+						break;
+					
+					default:
+						data.put(GeoEngine.GEO_BLOCK_TYPE_MULTILAYER);
+						for (i = cells; i-- > 0;)
+						{
+							layers = 1 + random.nextInt(3);
+							data.put((byte) layers);
+							// the highest layer first
+							for (layer = layers; layer-- > 0;)
+							{
+								data.putShort(GeoEngine.convertHeightToHeightAndNSWEALL((short) (height + layer * 256 + random.nextInt(64))));
+							}
+						}
+						break;
+				}
+			}
+		}
+		return new GeoRegion(0, 0, GeoByteBuffer.wrap(data.toByteArray()), true, null);
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.jogl;
+
+import g3deditor.jogl.GLTerrain.TerrainDetailLevel;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks the indices and the level selection of {@link GLTerrainLod} for every detail level, no OpenGL context is needed.<br>
+ * For every level and stitch mask: the indices are in range and use the vertices of the level, or of the next level on a stitched side,<br>
+ * no triangle is degenerate, the triangles cover the chunk once and each side is split into the segments the neighbour expects.<br>
+ * For random cameras: neighbour chunks differ by at most one level, the chunk of the camera uses level 0 and the shared sides of two neighbours have the same segments.<br>
+ * Run it with the class path of the editor, the exit code is 1 if a check failed.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class GLTerrainLodCheck
+{
+	private static final long SEED = 3L;
+	private static final int CAMERAS = 200;
+	private static final int MAX_REPORTED_FAILURES = 20;
+	
+	private static final int[] SIDES = {GLTerrainLod.SIDE_MIN_X, GLTerrainLod.SIDE_MAX_X, GLTerrainLod.SIDE_MIN_Y, GLTerrainLod.SIDE_MAX_Y};
+	
+	private static int _failures;
+	/**
+	 * The level and the x, y in vertices of level 0 of each local vertex index.
+	 */
+	private static int[] _vertexLevels;
+	private static int[] _vertexX;
+	private static int[] _vertexY;
+	
+	public static final void main(final String[] args)
+	{
+		for (final TerrainDetailLevel detailLevel : TerrainDetailLevel.values())
+		{
+			final int size = GLTerrain.CHUNK_SIZE * detailLevel.getFactor();
+			final GLTerrainLod lod = new GLTerrainLod(detailLevel, GLTerrain.CHUNKS, size);
+			final int failures = _failures;
+			mapVertices(lod, size);
+			checkIndices(lod, size);
+			checkSelection(lod, size, new Random(SEED));
+			System.out.println(detailLevel + ": " + (_failures - failures) + " failures");
+		}
+		
+		System.out.println("GLTerrainLodCheck: " + (_failures == 0 ? "passed" : _failures + " failures"));
+		if (_failures != 0)
+			System.exit(1);
+	}
+	
+	private static final void check(final boolean condition, final String message)
+	{
+		if (condition)
+			return;
+		
+		if (_failures++ < MAX_REPORTED_FAILURES)
+			System.out.println(message);
+	}
+	
+	private static final void mapVertices(final GLTerrainLod lod, final int size)
+	{
+		_vertexLevels = new int[lod.getChunkVertices()];
+		_vertexX = new int[lod.getChunkVertices()];
+		_vertexY = new int[lod.getChunkVertices()];
+		Arrays.fill(_vertexLevels, -1);
+		for (int level = 0, step, x, y, index; level < lod.getLevels(); level++)
+		{
+			step = lod.getStep(level);
+			for (x = 0; x <= size; x += step)
+			{
+				for (y = 0; y <= size; y += step)
+				{
+					index = lod.getVertexIndex(level, x, y);
+					check(_vertexLevels[index] == -1, lod.getDetailLevel(0) + ": vertex " + x + ", " + y + " of level " + level + " overlaps level " + _vertexLevels[index]);
+					_vertexLevels[index] = level;
+					_vertexX[index] = x;
+					_vertexY[index] = y;
+				}
+			}
+		}
+		for (final int level : _vertexLevels)
+		{
+			check(level != -1, lod.getDetailLevel(0) + ": unused vertex");
+		}
+	}
+	
+	/**
+	 * @return The x of the vertex in vertices of level 0
+	 */
+	private static final int getX(final int index)
+	{
+		return _vertexX[index];
+	}
+	
+	/**
+	 * @return The y of the vertex in vertices of level 0
+	 */
+	private static final int getY(final int index)
+	{
+		return _vertexY[index];
+	}
+	
+	/**
+	 * @return True if the vertex is used by a triangle of the level with the stitch mask
+	 */
+	private static final boolean isVertexOf(final int index, final int size, final int level, final int mask)
+	{
+		if (_vertexLevels[index] == level)
+			return true;
+		
+		final int x = _vertexX[index];
+		final int y = _vertexY[index];
+		// the vertices on a stitched side are the ones of the coarser neighbour
+		return _vertexLevels[index] == level + 1 && ((mask & GLTerrainLod.SIDE_MIN_X) != 0 && x == 0 || (mask & GLTerrainLod.SIDE_MAX_X) != 0 && x == size || (mask & GLTerrainLod.SIDE_MIN_Y) != 0 && y == 0 || (mask & GLTerrainLod.SIDE_MAX_Y) != 0 && y == size);
+	}
+	
+	private static final void checkIndices(final GLTerrainLod lod, final int size)
+	{
+		final short[] indices = lod.getIndices();
+		final int[] parts = new int[2];
+		for (int level = 0, step, mask, i, j, offset, count; level < lod.getLevels(); level++)
+		{
+			step = lod.getStep(level);
+			// the coarsest level has no coarser neighbours
+			for (mask = 0; mask <= (level == lod.getLevels() - 1 ? 0 : GLTerrainLod.PART_INTERIOR - 1); mask++)
+			{
+				final String name = lod.getDetailLevel(0) + " level " + level + " mask " + mask;
+				parts[0] = GLTerrainLod.PART_INTERIOR;
+				parts[1] = mask;
+				long area = 0;
+				int positive = 0;
+				int negative = 0;
+				for (final int part : parts)
+				{
+					offset = lod.getIndexOffset(level, part);
+					count = lod.getIndexCount(level, part);
+					check(count % 3 == 0, name + ": part " + part + " has " + count + " indices");
+					for (i = offset; i < offset + count - 2; i += 3)
+					{
+						final int[] x = new int[3];
+						final int[] y = new int[3];
+						for (j = 0; j < 3; j++)
+						{
+							final int index = indices[i + j] & 0xFFFF;
+							check(index < lod.getChunkVertices(), name + ": index " + index + " out of range");
+							if (index >= lod.getChunkVertices())
+								continue;
+							
+							x[j] = getX(index);
+							y[j] = getY(index);
+							check(isVertexOf(index, size, level, mask), name + ": vertex " + x[j] + ", " + y[j] + " of level " + _vertexLevels[index] + " is not used by the level");
+						}
+						
+						// twice the signed area
+						final long cross = (long) (x[1] - x[0]) * (y[2] - y[0]) - (long) (x[2] - x[0]) * (y[1] - y[0]);
+						check(cross != 0, name + ": degenerate triangle at " + x[0] + ", " + y[0]);
+						area += Math.abs(cross);
+						if (cross > 0)
+							positive++;
+						else if (cross < 0)
+							negative++;
+					}
+				}
+				
+				// same winding and the area of the chunk, so no triangle overlaps and nothing is left open
+				check(positive == 0 || negative == 0, name + ": " + positive + " triangles wind the other way than " + negative);
+				check(area == 2L * size * size, name + ": the triangles cover " + area / 2d + " of " + (long) size * size);
+				
+				for (final int side : SIDES)
+				{
+					final int segment = (mask & side) != 0 ? step * 2 : step;
+					final TreeSet<Long> expected = new TreeSet<>();
+					for (i = 0; i < size; i += segment)
+					{
+						expected.add(getSegment(i, i + segment));
+					}
+					check(getSideSegments(lod, size, level, mask, side).equals(expected), name + ": side " + side + " is not split every " + segment + " vertices");
+				}
+			}
+		}
+	}
+	
+	private static final void checkSelection(final GLTerrainLod lod, final int size, final Random random)
+	{
+		final int chunks = GLTerrain.CHUNKS;
+		final float extent = chunks * size;
+		for (int camera = 0, chunkX, chunkY, chunk, level; camera < CAMERAS; camera++)
+		{
+			// some cameras outside of the terrain
+			final float x = (random.nextFloat() * 1.4f - 0.2f) * extent;
+			final float y = (random.nextFloat() * 1.4f - 0.2f) * extent;
+			lod.select(x, y, (float) (GLTerrainLod.MIN_LOD_DISTANCE + random.nextInt(1024)) / lod.getDetailLevel(0).getScaleXZ());
+			for (chunkX = 0; chunkX < chunks; chunkX++)
+			{
+				for (chunkY = 0; chunkY < chunks; chunkY++)
+				{
+					chunk = chunkX * chunks + chunkY;
+					level = lod.getLevel(chunk);
+					final String name = lod.getDetailLevel(0) + " camera " + x + ", " + y + " chunk " + chunkX + ", " + chunkY;
+					if (x >= chunkX * size && x <= (chunkX + 1) * size && y >= chunkY * size && y <= (chunkY + 1) * size)
+						check(level == 0, name + ": the chunk of the camera uses level " + level);
+					
+					if (chunkX < chunks - 1)
+					{
+						final int other = chunk + chunks;
+						check(Math.abs(level - lod.getLevel(other)) <= 1, name + ": level " + level + ", the next chunk in x " + lod.getLevel(other));
+						check(getSideSegments(lod, size, level, lod.getStitchMask(chunk), GLTerrainLod.SIDE_MAX_X).equals(getSideSegments(lod, size, lod.getLevel(other), lod.getStitchMask(other), GLTerrainLod.SIDE_MIN_X)), name + ": crack to the next chunk in x");
+					}
+					
+					if (chunkY < chunks - 1)
+					{
+						final int other = chunk + 1;
+						check(Math.abs(level - lod.getLevel(other)) <= 1, name + ": level " + level + ", the next chunk in y " + lod.getLevel(other));
+						check(getSideSegments(lod, size, level, lod.getStitchMask(chunk), GLTerrainLod.SIDE_MAX_Y).equals(getSideSegments(lod, size, lod.getLevel(other), lod.getStitchMask(other), GLTerrainLod.SIDE_MIN_Y)), name + ": crack to the next chunk in y");
+					}
+				}
+			}
+		}
+	}
+	
+	private static final Long getSegment(final int from, final int to)
+	{
+		return Long.valueOf((long) Math.min(from, to) << 32 | Math.max(from, to));
+	}
+	
+	/**
+	 * @return The triangle edges lying on the side of the chunk, as from/to along the side
+	 */
+	private static final TreeSet<Long> getSideSegments(final GLTerrainLod lod, final int size, final int level, final int mask, final int side)
+	{
+		final short[] indices = lod.getIndices();
+		final TreeSet<Long> segments = new TreeSet<>();
+		for (final int part : new int[] {GLTerrainLod.PART_INTERIOR, mask})
+		{
+			final int offset = lod.getIndexOffset(level, part);
+			for (int i = offset, j; i < offset + lod.getIndexCount(level, part); i += 3)
+			{
+				for (j = 0; j < 3; j++)
+				{
+					final int a = indices[i + j] & 0xFFFF;
+					final int b = indices[i + (j + 1) % 3] & 0xFFFF;
+					switch (side)
+					{
+						case GLTerrainLod.SIDE_MIN_X:
+						case GLTerrainLod.SIDE_MAX_X:
+						{
+							final int x = side == GLTerrainLod.SIDE_MIN_X ? 0 : size;
+							if (getX(a) == x && getX(b) == x)
+								segments.add(getSegment(getY(a), getY(b)));
+							break;
+						}
+						
+						default:
+						{
+							final int y = side == GLTerrainLod.SIDE_MIN_Y ? 0 : size;
+							if (getY(a) == y && getY(b) == y)
+								segments.add(getSegment(getX(a), getX(b)));
+							break;
+						}
+					}
+				}
+			}
+		}
+		return segments;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package g3deditor.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the depth sort by the distance to the camera, {@link RadixSorter} against the {@link Util#mergeSort(Object[], Object[], int, Util.FastComparator)} it replaced.<br>
+ * The merge sort uses the old comparator, it reads the camera and computes both distances on every comparison. The radix sort computes one key for each point.<br>
+ * The points are random in a 2048x200x2048 box around the camera. A round sorts 64k points in batches of the given size and both sorts have to give the same order.<br>
+ * Argument: rounds (200), 20 warm-up rounds run before. The medians are printed in ns for each point.
+ * 
+ * <a href="http://l2j-server.com/">L2jServer</a>
+ * 
+ * @author Forsaiken aka Patrick, e-mail: patrickbiesenbach@yahoo.de
+ */
+public final class RadixSorterBench
+{
+	/**
+	 * The cells of multilayer blocks, the height tree candidates and the full grid at VIS_GRID_RANGE 96.
+	 */
+	private static final int[] SIZES = {64, 192, 512, 3451, 36864};
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int POINTS_PER_ROUND = 65536;
+	
+	private static final class Point
+	{
+		final float _x;
+		final float _y;
+		final float _z;
+		
+		Point(final float x, final float y, final float z)
+		{
+			_x = x;
+			_y = y;
+			_z = z;
+		}
+	}
+	
+	/**
+	 * Volatile like the camera the comparator used to fetch from the display on every comparison.
+	 */
+	private static volatile Point _camera = new Point(1024, 60, 1024);
+	
+	private static final Util.FastComparator<Point> COMPARATOR = new Util.FastComparator<Point>()
+	{
+		@Override
+		public final boolean compare(final Point o1, final Point o2)
+		{
+			final Point camera = _camera;
+			final float dx1 = camera._x - o1._x;
+			final float dy1 = camera._y - o1._y;
+			final float dz1 = camera._z - o1._z;
+			final float dx2 = camera._x - o2._x;
+			final float dy2 = camera._y - o2._y;
+			final float dz2 = camera._z - o2._z;
+			return dx1 * dx1 + dy1 * dy1 + dz1 * dz1 > dx2 * dx2 + dy2 * dy2 + dz2 * dz2;
+		}
+	};
+	
+	public static final void main(final String[] args)
+	{
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final Random random = new Random(1);
+		final RadixSorter sorter = new RadixSorter();
+		
+		System.out.println("points  merge sort  radix sort");
+		for (final int size : SIZES)
+		{
+			final int batches = Math.max(POINTS_PER_ROUND / size, 1);
+			final Point[] points = new Point[size];
+			final Point[] merged = new Point[size];
+			final Point[] sorted = new Point[size];
+			final double[] mergeTimes = new double[rounds];
+			final double[] radixTimes = new double[rounds];
+			for (int round = -WARMUP_ROUNDS, batch, i; round < rounds; round++)
+			{
+				for (i = size; i-- > 0;)
+				{
+					points[i] = new Point(random.nextFloat() * 2048, random.nextFloat() * 200 - 100, random.nextFloat() * 2048);
+				}
+				
+				final long start = System.nanoTime();
+				for (batch = batches; batch-- > 0;)
+				{
+					System.arraycopy(points, 0, merged, 0, size);
+					System.arraycopy(merged, 0, sorted, 0, size);
+					Util.mergeSort(sorted, merged, size, COMPARATOR);
+				}
+				
+				final long middle = System.nanoTime();
+				for (batch = batches; batch-- > 0;)
+				{
+					final Point camera = _camera;
+					sorter.reset(size);
+					for (i = 0; i < size; i++)
+					{
+						final float dx = camera._x - points[i]._x;
+						final float dy = camera._y - points[i]._y;
+						final float dz = camera._z - points[i]._z;
+						sorter.add(dx * dx + dy * dy + dz * dz);
+					}
+					sorter.sort();
+					for (i = size; i-- > 0;)
+					{
+						sorted[i] = points[sorter.getIndex(i)];
+					}
+				}
+				
+				final long end = System.nanoTime();
+				if (!Arrays.equals(merged, sorted))
+					throw new IllegalStateException("The radix sort gave another order than the merge sort for " + size + " points");
+				
+				if (round >= 0)
+				{
+					mergeTimes[round] = (middle - start) / (double) batches / size;
+					radixTimes[round] = (end - middle) / (double) batches / size;
+				}
+			}
+			
+			Arrays.sort(mergeTimes);
+			Arrays.sort(radixTimes);
+			System.out.printf("%6d  %7.1f ns  %7.1f ns%n", size, mergeTimes[rounds / 2], radixTimes[rounds / 2]);
+		}
+	}
+}